@@ -29,6 +29,7 @@ package org.brackit.xquery;
 
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -36,6 +37,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
+import org.brackit.xquery.compiler.CompileChain;
+import org.brackit.xquery.compiler.Plan;
 import org.brackit.xquery.node.parser.DocumentParser;
 import org.brackit.xquery.node.parser.SubtreeParser;
 import org.brackit.xquery.util.io.URIHandler;
@@ -84,6 +87,9 @@ public class Main {
 				"query file [use '-' for stdin (default)]", true));
 		options.add(new Option("-f", "default document", true));
 		options.add(new Option("-p", "pretty print", false));
+		options.add(new Option("-c",
+				"compile query to plan file without executing it", true));
+		options.add(new Option("-l", "load and execute plan file", true));
 	}
 
 	public static void main(String[] args) {
@@ -107,14 +113,37 @@ public class Main {
 				}
 			}
 
-			String query;
-			if (((config.isSet("-q")) && (!"-".equals(config.getValue("-q"))))) {
-				query = readFile(config.getValue("-q"));
+			CompileChain chain = new CompileChain();
+			XQuery xq;
+			if (config.isSet("-l")) {
+				FileInputStream fin = new FileInputStream(config.getValue("-l"));
+				try {
+					xq = new XQuery(chain.compile(chain.read(fin)));
+				} finally {
+					fin.close();
+				}
 			} else {
-				query = readString(System.in);
-			}
+				String query;
+				if (((config.isSet("-q")) && (!"-".equals(config
+						.getValue("-q"))))) {
+					query = readFile(config.getValue("-q"));
+				} else {
+					query = readString(System.in);
+				}
 
-			XQuery xq = new XQuery(query);
+				if (config.isSet("-c")) {
+					Plan plan = chain.plan(query);
+					FileOutputStream fout = new FileOutputStream(config
+							.getValue("-c"));
+					try {
+						plan.write(fout);
+					} finally {
+						fout.close();
+					}
+					return;
+				}
+				xq = new XQuery(chain, query);
+			}
 			xq.setPrettyPrint(config.isSet("-p"));
 
 			xq.serialize(ctx, System.out);
@@ -0,0 +1,114 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery;
+
+import java.util.Map;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.CompileChain;
+import org.brackit.xquery.module.Module;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * A query which is compiled once and executed many times. Each execution
+ * gets its own {@link QueryContext} to which the values of external
+ * variables are bound with {@link QueryContext#bind(QNm, Sequence)}.
+ * <p>
+ * A prepared query does not hold any per-execution state and can be shared,
+ * e.g., through a {@link QueryCache}.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class PreparedQuery {
+	private final String query;
+	private final Module module;
+
+	public PreparedQuery(String query) throws QueryException {
+		this(query, new CompileChain().compile(query));
+	}
+
+	public PreparedQuery(String query, Module module) {
+		this.query = query;
+		this.module = module;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public Module getModule() {
+		return module;
+	}
+
+	/**
+	 * Returns a new {@link XQuery} for the compiled module, e.g., to
+	 * serialize the result of an execution.
+	 */
+	public XQuery newQuery() {
+		return new XQuery(module);
+	}
+
+	public Sequence execute(QueryContext ctx) throws QueryException {
+		return newQuery().execute(ctx);
+	}
+
+	public Sequence evaluate(QueryContext ctx) throws QueryException {
+		return newQuery().evaluate(ctx);
+	}
+
+	/**
+	 * Binds the given external variables in the context and executes the
+	 * query.
+	 */
+	public Sequence execute(QueryContext ctx, Map<QNm, ? extends Sequence> vars)
+			throws QueryException {
+		bind(ctx, vars);
+		return execute(ctx);
+	}
+
+	/**
+	 * Binds the given external variables in the context and evaluates the
+	 * query.
+	 */
+	public Sequence evaluate(QueryContext ctx, Map<QNm, ? extends Sequence> vars)
+			throws QueryException {
+		bind(ctx, vars);
+		return evaluate(ctx);
+	}
+
+	private void bind(QueryContext ctx, Map<QNm, ? extends Sequence> vars) {
+		for (Map.Entry<QNm, ? extends Sequence> var : vars.entrySet()) {
+			ctx.bind(var.getKey(), var.getValue());
+		}
+	}
+
+	public String toString() {
+		return query;
+	}
+}
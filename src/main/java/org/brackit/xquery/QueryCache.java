@@ -0,0 +1,196 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.brackit.xquery.atomic.AnyURI;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.compiler.BaseResolver;
+import org.brackit.xquery.compiler.CompileChain;
+import org.brackit.xquery.module.Module;
+import org.brackit.xquery.util.Cfg;
+
+/**
+ * Thread-safe cache of {@link PreparedQuery prepared queries}, keyed by the
+ * query text, the base URI and the compile options. A query is compiled
+ * only once, even if it is prepared concurrently by several threads. The
+ * least recently used queries are evicted when the cache exceeds its
+ * capacity.
+ * <p>
+ * A query which fails to compile is not cached.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class QueryCache {
+	public static final String CAPACITY_CFG = "org.brackit.xquery.queryCacheCapacity";
+
+	public static int DEFAULT_CAPACITY = Math.max(Cfg.asInt(CAPACITY_CFG, 512),
+			1);
+
+	private static final class Key {
+		final String query;
+		final AnyURI baseURI;
+		final Map<QNm, Str> options;
+
+		Key(String query, AnyURI baseURI, Map<QNm, Str> options) {
+			this.query = query;
+			this.baseURI = baseURI;
+			this.options = options;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = query.hashCode();
+			h = 31 * h + ((baseURI != null) ? baseURI.hashCode() : 0);
+			h = 31 * h + options.hashCode();
+			return h;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) obj;
+			return ((query.equals(k.query))
+					&& ((baseURI == null) ? (k.baseURI == null) : baseURI
+							.equals(k.baseURI)) && (options.equals(k.options)));
+		}
+	}
+
+	private final Map<Key, FutureTask<PreparedQuery>> cache;
+
+	public QueryCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public QueryCache(final int capacity) {
+		cache = new LinkedHashMap<Key, FutureTask<PreparedQuery>>(16, 0.75f,
+				true) {
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Key, FutureTask<PreparedQuery>> eldest) {
+				return (size() > capacity);
+			}
+		};
+	}
+
+	public PreparedQuery prepare(String query) throws QueryException {
+		return prepare(query, null, null);
+	}
+
+	public PreparedQuery prepare(String query, AnyURI baseURI)
+			throws QueryException {
+		return prepare(query, baseURI, null);
+	}
+
+	public PreparedQuery prepare(final String query, final AnyURI baseURI,
+			Map<QNm, Str> options) throws QueryException {
+		final Map<QNm, Str> opts = (options != null) ? Collections
+				.unmodifiableMap(new HashMap<QNm, Str>(options)) : Collections
+				.<QNm, Str> emptyMap();
+		Key key = new Key(query, baseURI, opts);
+		FutureTask<PreparedQuery> task;
+		boolean compile = false;
+		synchronized (cache) {
+			task = cache.get(key);
+			if (task == null) {
+				task = new FutureTask<PreparedQuery>(
+						new Callable<PreparedQuery>() {
+							@Override
+							public PreparedQuery call() throws Exception {
+								Module module = getCompileChain(baseURI, opts)
+										.compile(query);
+								return new PreparedQuery(query, module);
+							}
+						});
+				cache.put(key, task);
+				compile = true;
+			}
+		}
+		if (compile) {
+			task.run();
+		}
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			synchronized (cache) {
+				if (cache.get(key) == task) {
+					cache.remove(key);
+				}
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof QueryException) {
+				throw (QueryException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new QueryException(cause, ErrorCode.BIT_DYN_INT_ERROR);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR,
+					"Interrupted while waiting for query compilation");
+		}
+	}
+
+	/**
+	 * Returns the compile chain for a query with the given base URI and
+	 * options. Each query is compiled with its own chain, i.e., library
+	 * modules are resolved separately for each query.
+	 */
+	protected CompileChain getCompileChain(AnyURI baseURI,
+			Map<QNm, Str> options) {
+		return new CompileChain(new BaseResolver(), baseURI,
+				options.isEmpty() ? null : options);
+	}
+
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+}
@@ -50,6 +50,15 @@ import org.brackit.xquery.xdm.Store;
 import org.brackit.xquery.xdm.type.ItemType;
 
 /**
+ * Dynamic context of a single query execution. All state of an execution,
+ * e.g., the values of external and global variables, the context item and
+ * pending updates, lives here and not in the compiled query. Thus, a
+ * compiled query can be executed concurrently by many threads as long as
+ * each execution uses its own context.
+ * <p>
+ * A context may be accessed by the worker threads of parallel operators
+ * within its execution. Variable bindings and the current date and time
+ * are therefore thread-safe.
  * 
  * @author Sebastian Baechle
  * 
@@ -114,18 +123,18 @@ public class QueryContext {
 		this.updates = updates;
 	}
 
-	public void bind(QNm name, Sequence sequence) {
+	public synchronized void bind(QNm name, Sequence sequence) {
 		if (externalVars == null) {
 			externalVars = new HashMap<QNm, Sequence>(3);
 		}
 		externalVars.put(name, sequence);
 	}
 
-	public Sequence resolve(QNm name) throws QueryException {
+	public synchronized Sequence resolve(QNm name) throws QueryException {
 		return (externalVars != null) ? externalVars.get(name) : null;
 	}
 
-	public boolean isBound(QNm name) {
+	public synchronized boolean isBound(QNm name) {
 		return ((externalVars != null) && (externalVars.containsKey(name)));
 	}
 
@@ -160,16 +169,16 @@ public class QueryContext {
 		this.defaultCollection = defaultCollection;
 	}
 
-	public DateTime getDateTime() {
+	public synchronized DateTime getDateTime() {
 		return (dateTime != null) ? dateTime : (dateTime = new DateTime(
 				implicitTimezone));
 	}
 
-	public Date getDate() {
+	public synchronized Date getDate() {
 		return (date != null) ? date : (date = new Date(getDateTime()));
 	}
 
-	public Time getTime() {
+	public synchronized Time getTime() {
 		return (time != null) ? time : (time = new Time(getDateTime()));
 	}
 
@@ -42,6 +42,15 @@ import org.brackit.xquery.xdm.Iter;
 import org.brackit.xquery.xdm.Sequence;
 
 /**
+ * A compiled query. The compiled plan is immutable after compilation and
+ * holds no state of an execution, i.e., the same query may be executed by
+ * many threads concurrently, each with its own {@link QueryContext}. The
+ * query must be published safely to other threads, e.g., through a
+ * {@link QueryCache} or a concurrent collection. Only the serialization
+ * settings of this object, like {@link #setPrettyPrint(boolean)}, must not
+ * be changed while the query is shared.
+ * <p>
+ * Plans which are instrumented for profiling are not thread-safe.
  * 
  * @author Sebastian Baechle
  * 
@@ -0,0 +1,122 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.atomic;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Node;
+
+/**
+ * Global dictionary of expanded names. Each distinct pair of namespace URI
+ * and local name is assigned a positive integer id, so that name tests can
+ * be evaluated as integer comparisons. Prefixes are not part of the key.
+ * 
+ * <p>
+ * Ids are only valid within the current JVM and must not be persisted.
+ * </p>
+ * <p>
+ * Ids are never released. To bound the memory footprint, the dictionary
+ * accepts at most {@link #SIZE} names. Names added afterwards are not
+ * assigned an id, i.e., they are reported as {@link #NO_NAME} and must be
+ * compared as QNames (see {@link #matches(QNm, Node)}).
+ * </p>
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public final class NameDictionary {
+	/**
+	 * Id of unnamed nodes; never assigned to a name
+	 */
+	public static final int NO_NAME = 0;
+
+	public static final String SIZE_CFG = "org.brackit.xquery.nameDictionarySize";
+
+	/**
+	 * Maximum number of names in the dictionary
+	 */
+	public static int SIZE = Cfg.asInt(SIZE_CFG, 65536);
+
+	private static final ConcurrentMap<QNm, Integer> ids = new ConcurrentHashMap<QNm, Integer>();
+
+	private static final AtomicInteger nextID = new AtomicInteger();
+
+	private NameDictionary() {
+	}
+
+	/**
+	 * Returns the id of the given name and assigns a new one if the name is
+	 * not yet in the dictionary.
+	 * 
+	 * @param name
+	 *            the name to look up
+	 * @return the id of the name or {@link #NO_NAME} if the name is not in the
+	 *         dictionary and the dictionary is full
+	 */
+	public static int id(QNm name) {
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+		int next;
+		do {
+			next = nextID.get();
+			if (next >= SIZE) {
+				return NO_NAME;
+			}
+		} while (!nextID.compareAndSet(next, next + 1));
+		QNm key = (name.prefix == null) ? name : new QNm(name.nsURI, null,
+				name.localName);
+		Integer newID = next + 1;
+		id = ids.putIfAbsent(key, newID);
+		return (id != null) ? id : newID;
+	}
+
+	/**
+	 * Checks if a node has the given name. The names are compared by id and,
+	 * if the name is not in the dictionary, as QNames.
+	 * 
+	 * @param name
+	 *            the name
+	 * @param node
+	 *            a named node
+	 * @return <code>true</code> iff the node has the given name
+	 * @throws DocumentException
+	 *             if the operation failed
+	 */
+	public static boolean matches(QNm name, Node<?> node)
+			throws DocumentException {
+		int id = name.getID();
+		return (id != NO_NAME) ? (id == node.getNameID()) : name.equals(node
+				.getName());
+	}
+}
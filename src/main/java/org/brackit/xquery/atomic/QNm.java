@@ -40,6 +40,7 @@ public class QNm extends AbstractAtomic {
 	public final String nsURI; // must be "" if not set
 	public final String prefix; // must null if not set
 	public final String localName;
+	private transient int id; // lazily assigned dictionary id
 
 	private class DQnm extends QNm {
 		private final Type type;
@@ -121,6 +122,22 @@ public class QNm extends AbstractAtomic {
 		return nsURI;
 	}
 
+	/**
+	 * Returns the id of this QName's expanded name in the
+	 * {@link NameDictionary}. Two QNames have the same id iff they have equal
+	 * namespace URIs and local names.
+	 * 
+	 * @return the dictionary id of this QName or
+	 *         {@link NameDictionary#NO_NAME} if it is not in the dictionary
+	 */
+	public int getID() {
+		int i = id;
+		if (i == NameDictionary.NO_NAME) {
+			id = i = NameDictionary.id(this);
+		}
+		return i;
+	}
+
 	@Override
 	public boolean booleanValue() throws QueryException {
 		return (!localName.isEmpty());
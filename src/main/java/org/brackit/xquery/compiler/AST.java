@@ -28,6 +28,7 @@
 package org.brackit.xquery.compiler;
 
 import java.io.File;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -42,7 +43,10 @@ import org.brackit.xquery.util.dot.DotNode;
  * @author Sebastian Baechle
  * 
  */
-public class AST {
+public class AST implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	protected AST parent;
 	protected int type;
 	protected Object value;
@@ -27,8 +27,10 @@
  */
 package org.brackit.xquery.compiler;
 
+import java.io.InputStream;
 import java.util.Map;
 
+import org.brackit.xquery.ErrorCode;
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.XQuery;
 import org.brackit.xquery.atomic.AnyURI;
@@ -106,6 +108,7 @@ public class CompileChain {
 
 	final AnyURI baseURI;
 	final ModuleResolver resolver;
+	final Map<QNm, Str> options;
 
 	public CompileChain() {
 		this(new BaseResolver(), null);
@@ -120,8 +123,18 @@ public class CompileChain {
 	}
 
 	public CompileChain(ModuleResolver resolver, AnyURI baseURI) {
+		this(resolver, baseURI, null);
+	}
+
+	/**
+	 * Creates a compile chain with default options which apply to all
+	 * compiled queries unless a query declares the option itself.
+	 */
+	public CompileChain(ModuleResolver resolver, AnyURI baseURI,
+			Map<QNm, Str> options) {
 		this.resolver = resolver;
 		this.baseURI = baseURI;
+		this.options = options;
 	}
 
 	protected Optimizer getOptimizer(Map<QNm, Str> options) {
@@ -141,6 +154,14 @@ public class CompileChain {
 	}
 
 	public Module compile(String query) throws QueryException {
+		return compile(plan(query));
+	}
+
+	/**
+	 * Parses, analyzes, and optimizes the given query without translating
+	 * it. The returned plan can be written to a stream and compiled later.
+	 */
+	public Plan plan(String query) throws QueryException {
 		if (XQuery.DEBUG) {
 			System.out.println(String.format("Compiling:\n%s", query));
 		}
@@ -152,6 +173,13 @@ public class CompileChain {
 		Analyzer analyzer = new Analyzer(resolver, baseURI, parsed);
 		AST xquery = analyzer.getAST();
 		Module module = analyzer.getModules().get(0);
+		if (this.options != null) {
+			for (Map.Entry<QNm, Str> option : this.options.entrySet()) {
+				if (!module.getOptions().containsKey(option.getKey())) {
+					module.addOption(option.getKey(), option.getValue());
+				}
+			}
+		}
 		Map<QNm, Str> options = module.getOptions();
 		// optimize all targets of all modules
 		for (Target t : analyzer.getTargets()) {
@@ -160,16 +188,40 @@ public class CompileChain {
 		if (XQuery.DEBUG) {
 			DotUtil.drawDotToFile(xquery.dot(), XQuery.DEBUG_DIR, "xquery");
 		}
+		return new Plan(resolver, analyzer.getModules(), analyzer.getTargets());
+	}
+
+	/**
+	 * Translates a plan, e.g., one read from a stream, into an executable
+	 * module. A plan can be compiled only once.
+	 */
+	public Module compile(Plan plan) throws QueryException {
+		if (plan.isTranslated()) {
+			throw new QueryException(ErrorCode.BIT_DYN_INT_ERROR,
+					"Plan is already translated.");
+		}
+		plan.setTranslated();
+		Map<QNm, Str> options = plan.getModule().getOptions();
 		// translate all targets of all modules
-		for (Target t : analyzer.getTargets()) {
+		for (Target t : plan.getTargets()) {
 			t.translate(getTranslator(options));
 		}
 		// everything went fine - add compiled modules to library
-		for (Module m : analyzer.getModules()) {
+		ModuleResolver resolver = getModuleResolver();
+		for (Module m : plan.getModules()) {
 			if (m.getTargetNS() != null) {
 				resolver.register(m.getTargetNS(), m);
 			}
 		}
-		return module;
+		return plan.getModule();
+	}
+
+	/**
+	 * Reads a plan written with {@link Plan#write(java.io.OutputStream)}.
+	 * Imported library modules which are not part of the plan are resolved
+	 * with the module resolver of this chain.
+	 */
+	public Plan read(InputStream in) throws QueryException {
+		return Plan.read(in, getModuleResolver());
 	}
 }
@@ -0,0 +1,557 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.atomic.Flt;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.expr.Cast;
+import org.brackit.xquery.function.UDF;
+import org.brackit.xquery.module.Module;
+import org.brackit.xquery.xdm.Function;
+import org.brackit.xquery.xdm.Kind;
+import org.brackit.xquery.xdm.Signature;
+import org.brackit.xquery.xdm.Type;
+import org.brackit.xquery.xdm.type.AnyItemType;
+import org.brackit.xquery.xdm.type.AnyNodeType;
+import org.brackit.xquery.xdm.type.ArrayType;
+import org.brackit.xquery.xdm.type.AtomicType;
+import org.brackit.xquery.xdm.type.AttributeType;
+import org.brackit.xquery.xdm.type.CommentType;
+import org.brackit.xquery.xdm.type.DocumentType;
+import org.brackit.xquery.xdm.type.ElementType;
+import org.brackit.xquery.xdm.type.FunctionType;
+import org.brackit.xquery.xdm.type.ItemType;
+import org.brackit.xquery.xdm.type.ListOrUnionType;
+import org.brackit.xquery.xdm.type.NSNameWildcardTest;
+import org.brackit.xquery.xdm.type.NSWildcardNameTest;
+import org.brackit.xquery.xdm.type.NumericType;
+import org.brackit.xquery.xdm.type.PIType;
+import org.brackit.xquery.xdm.type.RecordType;
+import org.brackit.xquery.xdm.type.TextType;
+
+/**
+ * An analyzed and optimized, but not yet translated set of modules. Plans
+ * can be written to a stream and read back to skip parsing, static analysis,
+ * and optimization of a query, e.g., for pre-built queries which are executed
+ * in a fresh JVM.
+ * <p>
+ * Modules which were not compiled together with the plan but imported from a
+ * {@link ModuleResolver} are not written but referenced by their target
+ * namespace. They must be registered at the resolver used for reading the
+ * plan.
+ * <p>
+ * Modules, static contexts, and ASTs are written with Java serialization.
+ * Their payloads of atomic values, item types, built-in types, and declared
+ * functions are not serializable themselves, but are replaced with explicit
+ * encodings in the plan stream.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class Plan implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int MAGIC = 0x42504c4e;
+
+	private static final int VERSION = 1;
+
+	private final List<Module> modules;
+
+	private final List<Target> targets;
+
+	private transient ModuleResolver resolver;
+
+	private transient boolean translated;
+
+	Plan(ModuleResolver resolver, List<Module> modules, List<Target> targets) {
+		this.resolver = resolver;
+		this.modules = modules;
+		this.targets = targets;
+	}
+
+	/**
+	 * Returns the main module of the plan.
+	 */
+	public Module getModule() {
+		return modules.get(0);
+	}
+
+	List<Module> getModules() {
+		return modules;
+	}
+
+	List<Target> getTargets() {
+		return targets;
+	}
+
+	boolean isTranslated() {
+		return translated;
+	}
+
+	void setTranslated() {
+		translated = true;
+	}
+
+	public void write(OutputStream out) throws QueryException {
+		if (translated) {
+			throw new QueryException(ErrorCode.BIT_DYN_INT_ERROR,
+					"Plan is already translated.");
+		}
+		try {
+			PlanOutputStream pout = new PlanOutputStream(out, this);
+			pout.writeInt(MAGIC);
+			pout.writeInt(VERSION);
+			pout.writeObject(this);
+			pout.flush();
+		} catch (ModuleNotFound e) {
+			throw new QueryException(ErrorCode.ERR_SCHEMA_OR_MODULE_NOT_FOUND,
+					"Module '%s' not found", e.getMessage());
+		} catch (IOException e) {
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR,
+					"Error writing plan: %s", e.getMessage());
+		}
+	}
+
+	public static Plan read(InputStream in, ModuleResolver resolver)
+			throws QueryException {
+		try {
+			PlanInputStream pin = new PlanInputStream(in, resolver);
+			if ((pin.readInt() != MAGIC) || (pin.readInt() != VERSION)) {
+				throw new QueryException(ErrorCode.BIT_DYN_INT_ERROR,
+						"Invalid or incompatible plan.");
+			}
+			Plan plan = (Plan) pin.readObject();
+			plan.resolver = resolver;
+			return plan;
+		} catch (ModuleNotFound e) {
+			throw new QueryException(ErrorCode.ERR_SCHEMA_OR_MODULE_NOT_FOUND,
+					"Module '%s' not found", e.getMessage());
+		} catch (ClassNotFoundException e) {
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR,
+					"Invalid or incompatible plan: %s", e.getMessage());
+		} catch (IOException e) {
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR,
+					"Error reading plan: %s", e.getMessage());
+		}
+	}
+
+	/**
+	 * Serialized form of an object in the plan which is resolved again when
+	 * the plan is read.
+	 */
+	private static abstract class Replacement implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		abstract Object resolve(ModuleResolver resolver) throws IOException;
+	}
+
+	/**
+	 * Placeholder for an imported module or its static context, functions,
+	 * or variables.
+	 */
+	private static class Import extends Replacement {
+		private static final long serialVersionUID = 1L;
+
+		static final int MODULE = 0;
+		static final int CONTEXT = 1;
+		static final int FUNCTIONS = 2;
+		static final int VARIABLES = 3;
+
+		final String targetNS;
+		final int index;
+		final int kind;
+
+		Import(String targetNS, int index, int kind) {
+			this.targetNS = targetNS;
+			this.index = index;
+			this.kind = kind;
+		}
+
+		@Override
+		Object resolve(ModuleResolver resolver) throws ModuleNotFound {
+			List<Module> list = resolver.resolve(targetNS);
+			if (index >= list.size()) {
+				throw new ModuleNotFound(targetNS);
+			}
+			Module module = list.get(index);
+			switch (kind) {
+			case CONTEXT:
+				return module.getStaticContext();
+			case FUNCTIONS:
+				return module.getStaticContext().getFunctions();
+			case VARIABLES:
+				return module.getVariables();
+			default:
+				return module;
+			}
+		}
+	}
+
+	/**
+	 * Built-in type, which is referenced by name because built-in types are
+	 * compared by identity.
+	 */
+	private static class BuiltInType extends Replacement {
+		private static final long serialVersionUID = 1L;
+
+		final String nsURI;
+		final String localName;
+
+		BuiltInType(Type type) {
+			this.nsURI = type.getName().getNamespaceURI();
+			this.localName = type.getName().getLocalName();
+		}
+
+		@Override
+		Object resolve(ModuleResolver resolver) throws IOException {
+			for (Type type : Type.builtInTypes) {
+				QNm name = type.getName();
+				if ((name.getLocalName().equals(localName))
+						&& (equal(name.getNamespaceURI(), nsURI))) {
+					return type;
+				}
+			}
+			throw new InvalidObjectException("Unknown built-in type: "
+					+ localName);
+		}
+	}
+
+	private static class QNmValue extends Replacement {
+		private static final long serialVersionUID = 1L;
+
+		final String nsURI;
+		final String prefix;
+		final String localName;
+
+		QNmValue(QNm qnm) {
+			this.nsURI = qnm.getNamespaceURI();
+			this.prefix = qnm.getPrefix();
+			this.localName = qnm.getLocalName();
+		}
+
+		@Override
+		Object resolve(ModuleResolver resolver) {
+			return new QNm(nsURI, prefix, localName);
+		}
+	}
+
+	/**
+	 * Atomic value encoded by its type and its lexical representation
+	 */
+	private static class AtomicValue extends Replacement {
+		private static final long serialVersionUID = 1L;
+
+		final Type type;
+		final String value;
+
+		AtomicValue(Atomic atomic) {
+			this.type = atomic.type();
+			if (atomic instanceof Dbl) {
+				// exact lexical representation
+				this.value = Double.toString(((Dbl) atomic).doubleValue());
+			} else if (atomic instanceof Flt) {
+				this.value = Float.toString(((Flt) atomic).floatValue());
+			} else {
+				this.value = atomic.stringValue();
+			}
+		}
+
+		@Override
+		Object resolve(ModuleResolver resolver) throws IOException {
+			try {
+				if (type == Type.DBL) {
+					return new Dbl(Double.parseDouble(value));
+				}
+				if (type == Type.FLO) {
+					return new Flt(Float.parseFloat(value));
+				}
+				return Cast.cast(null, new Str(value), type);
+			} catch (QueryException e) {
+				throw new InvalidObjectException(String.format(
+						"Invalid value '%s' of type %s", value, type));
+			}
+		}
+	}
+
+	/**
+	 * Item type encoded by its kind and the parameters of its constructor
+	 */
+	private static class ItemTypeValue extends Replacement {
+		private static final long serialVersionUID = 1L;
+
+		static final int ANY_ITEM = 0;
+		static final int ANY_NODE = 1;
+		static final int ARRAY = 2;
+		static final int RECORD = 3;
+		static final int LIST_OR_UNION = 4;
+		static final int NUMERIC = 5;
+		static final int ATOMIC = 6;
+		static final int ELEMENT = 7;
+		static final int ATTRIBUTE = 8;
+		static final int DOCUMENT = 9;
+		static final int PI = 10;
+		static final int COMMENT = 11;
+		static final int TEXT = 12;
+		static final int NS_NAME_WILDCARD = 13;
+		static final int NS_WILDCARD_NAME = 14;
+		static final int FUNCTION = 15;
+
+		final int kind;
+		QNm name;
+		Type type;
+		String string;
+		Kind nodeKind;
+		Signature signature;
+		ElementType elementType;
+
+		ItemTypeValue(ItemType itemType) throws NotSerializableException {
+			if (itemType instanceof AnyItemType) {
+				kind = ANY_ITEM;
+			} else if (itemType instanceof AnyNodeType) {
+				kind = ANY_NODE;
+			} else if (itemType instanceof ArrayType) {
+				kind = ARRAY;
+			} else if (itemType instanceof RecordType) {
+				kind = RECORD;
+			} else if (itemType instanceof ListOrUnionType) {
+				kind = LIST_OR_UNION;
+			} else if (itemType instanceof NumericType) {
+				kind = NUMERIC;
+			} else if (itemType instanceof AtomicType) {
+				kind = ATOMIC;
+				type = ((AtomicType) itemType).getType();
+			} else if (itemType instanceof ElementType) {
+				kind = ELEMENT;
+				name = ((ElementType) itemType).getQName();
+				type = ((ElementType) itemType).getType();
+			} else if (itemType instanceof AttributeType) {
+				kind = ATTRIBUTE;
+				name = ((AttributeType) itemType).getQName();
+				type = ((AttributeType) itemType).getType();
+			} else if (itemType instanceof DocumentType) {
+				kind = DOCUMENT;
+				elementType = ((DocumentType) itemType).getElementType();
+			} else if (itemType instanceof PIType) {
+				kind = PI;
+				string = ((PIType) itemType).getPITarget();
+			} else if (itemType instanceof CommentType) {
+				kind = COMMENT;
+			} else if (itemType instanceof TextType) {
+				kind = TEXT;
+			} else if (itemType instanceof NSNameWildcardTest) {
+				kind = NS_NAME_WILDCARD;
+				nodeKind = ((NSNameWildcardTest) itemType).getNodeKind();
+				string = ((NSNameWildcardTest) itemType).getNamespaceURI();
+			} else if (itemType instanceof NSWildcardNameTest) {
+				kind = NS_WILDCARD_NAME;
+				nodeKind = ((NSWildcardNameTest) itemType).getNodeKind();
+				string = ((NSWildcardNameTest) itemType).getLocalName();
+			} else if (itemType instanceof FunctionType) {
+				kind = FUNCTION;
+				signature = ((FunctionType) itemType).getSignature();
+			} else {
+				throw new NotSerializableException(itemType.getClass()
+						.getName());
+			}
+		}
+
+		@Override
+		Object resolve(ModuleResolver resolver) throws IOException {
+			switch (kind) {
+			case ANY_ITEM:
+				return AnyItemType.ANY;
+			case ANY_NODE:
+				return AnyNodeType.ANY_NODE;
+			case ARRAY:
+				return ArrayType.ARRAY;
+			case RECORD:
+				return RecordType.RECORD;
+			case LIST_OR_UNION:
+				return ListOrUnionType.LIST_OR_UNION;
+			case NUMERIC:
+				return NumericType.INSTANCE;
+			case ATOMIC:
+				return new AtomicType(type);
+			case ELEMENT:
+				return new ElementType(name, type);
+			case ATTRIBUTE:
+				return new AttributeType(name, type);
+			case DOCUMENT:
+				return new DocumentType(elementType);
+			case PI:
+				return new PIType(string);
+			case COMMENT:
+				return new CommentType();
+			case TEXT:
+				return new TextType();
+			case NS_NAME_WILDCARD:
+				return new NSNameWildcardTest(nodeKind, string);
+			case NS_WILDCARD_NAME:
+				return new NSWildcardNameTest(nodeKind, string);
+			case FUNCTION:
+				return new FunctionType(signature);
+			default:
+				throw new InvalidObjectException("Unknown item type: " + kind);
+			}
+		}
+	}
+
+	/**
+	 * Declared function, which is translated again after the plan is read
+	 */
+	private static class FunctionDeclaration extends Replacement {
+		private static final long serialVersionUID = 1L;
+
+		final QNm name;
+		final Signature signature;
+		final boolean updating;
+
+		FunctionDeclaration(UDF udf) {
+			this.name = udf.getName();
+			this.signature = udf.getSignature();
+			this.updating = udf.isUpdating();
+		}
+
+		@Override
+		Object resolve(ModuleResolver resolver) {
+			return new UDF(name, signature, updating);
+		}
+	}
+
+	private static boolean equal(String a, String b) {
+		return (a == null) ? (b == null) : a.equals(b);
+	}
+
+	private static class ModuleNotFound extends ObjectStreamException {
+		private static final long serialVersionUID = 1L;
+
+		ModuleNotFound(String targetNS) {
+			super(targetNS);
+		}
+	}
+
+	private static class PlanOutputStream extends ObjectOutputStream {
+		private final Map<Object, Import> imports = new IdentityHashMap<Object, Import>();
+
+		PlanOutputStream(OutputStream out, Plan plan) throws IOException {
+			super(out);
+			enableReplaceObject(true);
+			for (Module module : plan.modules) {
+				for (Module imported : module.getImportedModules()) {
+					addImport(plan, imported);
+				}
+			}
+		}
+
+		private void addImport(Plan plan, Module module)
+				throws ModuleNotFound {
+			if ((plan.modules.contains(module)) || (imports.containsKey(module))) {
+				return;
+			}
+			String targetNS = module.getTargetNS();
+			int index = (plan.resolver != null) ? plan.resolver.resolve(
+					targetNS).indexOf(module) : -1;
+			if (index < 0) {
+				throw new ModuleNotFound(targetNS);
+			}
+			imports.put(module, new Import(targetNS, index, Import.MODULE));
+			imports.put(module.getStaticContext(), new Import(targetNS, index,
+					Import.CONTEXT));
+			imports.put(module.getStaticContext().getFunctions(), new Import(
+					targetNS, index, Import.FUNCTIONS));
+			imports.put(module.getVariables(), new Import(targetNS, index,
+					Import.VARIABLES));
+			for (Module imported : module.getImportedModules()) {
+				addImport(plan, imported);
+			}
+		}
+
+		@Override
+		protected Object replaceObject(Object obj) throws IOException {
+			Import i = imports.get(obj);
+			if (i != null) {
+				return i;
+			}
+			if (obj instanceof QNm) {
+				return new QNmValue((QNm) obj);
+			}
+			if (obj instanceof Atomic) {
+				return new AtomicValue((Atomic) obj);
+			}
+			if ((obj instanceof Type) && (((Type) obj).isBuiltin())) {
+				return new BuiltInType((Type) obj);
+			}
+			if (obj instanceof ItemType) {
+				return new ItemTypeValue((ItemType) obj);
+			}
+			if (obj instanceof UDF) {
+				return new FunctionDeclaration((UDF) obj);
+			}
+			if (obj instanceof Function) {
+				throw new NotSerializableException(obj.getClass().getName());
+			}
+			return obj;
+		}
+	}
+
+	private static class PlanInputStream extends ObjectInputStream {
+		private final ModuleResolver resolver;
+
+		PlanInputStream(InputStream in, ModuleResolver resolver)
+				throws IOException {
+			super(in);
+			this.resolver = resolver;
+			enableResolveObject(true);
+		}
+
+		@Override
+		protected Object resolveObject(Object obj) throws IOException {
+			return (obj instanceof Replacement) ? ((Replacement) obj)
+					.resolve(resolver) : obj;
+		}
+	}
+}
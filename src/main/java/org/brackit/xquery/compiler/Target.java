@@ -27,6 +27,8 @@
  */
 package org.brackit.xquery.compiler;
 
+import java.io.Serializable;
+
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.compiler.optimizer.Optimizer;
 import org.brackit.xquery.compiler.translator.Translator;
@@ -41,7 +43,9 @@ import org.brackit.xquery.xdm.Expr;
  * @author Sebastian Baechle
  * 
  */
-public class Target {
+public class Target implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	protected final Module module;
 	protected final StaticContext sctx;
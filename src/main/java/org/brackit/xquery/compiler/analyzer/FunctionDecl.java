@@ -34,6 +34,7 @@ import org.brackit.xquery.compiler.Target;
 import org.brackit.xquery.compiler.translator.Translator;
 import org.brackit.xquery.function.UDF;
 import org.brackit.xquery.module.Module;
+import org.brackit.xquery.module.StaticContext;
 import org.brackit.xquery.xdm.Expr;
 
 /**
@@ -58,13 +59,26 @@ public class FunctionDecl extends ForwardDeclaration {
 			params[i] = bind(params[i]);
 		}
 		functionBody(body);
-		return new Target(module, sctx, body, unit, udf.isUpdating()) {
+		return new FunctionTarget(module, sctx, body, udf, params);
+	}
+
+	private static class FunctionTarget extends Target {
+		private static final long serialVersionUID = 1L;
 
-			@Override
-			public void translate(Translator translator) throws QueryException {
-				Expr expr = translator.function(module, sctx, udf, params, ast, allowUpdate);
-				unit.setExpr(expr);
-			}
-		};
-	}	
+		private final UDF udf;
+		private final QNm[] params;
+
+		FunctionTarget(Module module, StaticContext sctx, AST body, UDF udf,
+				QNm[] params) {
+			super(module, sctx, body, udf, udf.isUpdating());
+			this.udf = udf;
+			this.params = params;
+		}
+
+		@Override
+		public void translate(Translator translator) throws QueryException {
+			Expr expr = translator.function(module, sctx, udf, params, ast, allowUpdate);
+			unit.setExpr(expr);
+		}
+	}
 }
\ No newline at end of file
@@ -40,6 +40,9 @@ import org.brackit.xquery.module.Types;
  *
  */
 public class NestedContext implements StaticContext {
+
+	private static final long serialVersionUID = 1L;
+
 	private final StaticContext parent;	
 	private final Namespaces ns;
 	private Boolean orderingMode;
@@ -36,9 +36,11 @@ import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.atomic.Str;
 import org.brackit.xquery.compiler.AST;
 import org.brackit.xquery.compiler.Bits;
+import org.brackit.xquery.compiler.optimizer.walker.ConstantFolding;
 import org.brackit.xquery.compiler.optimizer.walker.DoSNStepMerger;
 import org.brackit.xquery.compiler.optimizer.walker.OrderForGroupBy;
 import org.brackit.xquery.compiler.optimizer.walker.PathDDOElimination;
+import org.brackit.xquery.compiler.optimizer.walker.TypeInference;
 import org.brackit.xquery.module.StaticContext;
 import org.brackit.xquery.util.Cfg;
 
@@ -51,20 +53,54 @@ public class DefaultOptimizer implements Optimizer {
 	public static final QNm SEQUENTIAL_GROUPBY = new QNm(Bits.BIT_NSURI,
 			Bits.BIT_PREFIX, "sequential-groupby");
 
+	public static final QNm PARALLEL_FORBIND = new QNm(Bits.BIT_NSURI,
+			Bits.BIT_PREFIX, "parallel");
+
 	public static final String JOIN_DETECTION_CFG = "org.brackit.xquery.joinDetection";
 
 	public static final String UNNEST_CFG = "org.brackit.xquery.unnest";
 
+	public static final String PARALLEL_CFG = "org.brackit.xquery.parallel";
+
+	public static final String SEMIJOIN_CFG = "org.brackit.xquery.semiJoin";
+
+	public static final String FUSION_CFG = "org.brackit.xquery.fusion";
+
+	public static final String TYPE_INFERENCE_CFG = "org.brackit.xquery.typeInference";
+
+	public static final String FOLDING_CFG = "org.brackit.xquery.constantFolding";
+
+	public static final String HOISTING_CFG = "org.brackit.xquery.hoisting";
+
+	public static final String PROJECTION_CFG = "org.brackit.xquery.projection";
+
 	public static boolean UNNEST = Cfg.asBool(UNNEST_CFG, true);
 
 	public static boolean JOIN_DETECTION = Cfg.asBool(JOIN_DETECTION_CFG, true);
 
+	public static boolean PARALLEL = Cfg.asBool(PARALLEL_CFG, false);
+
+	public static boolean SEMIJOIN = Cfg.asBool(SEMIJOIN_CFG, true);
+
+	public static boolean FUSION = Cfg.asBool(FUSION_CFG, true);
+
+	public static boolean TYPE_INFERENCE = Cfg.asBool(TYPE_INFERENCE_CFG, true);
+
+	public static boolean FOLDING = Cfg.asBool(FOLDING_CFG, true);
+
+	public static boolean HOISTING = Cfg.asBool(HOISTING_CFG, true);
+
+	public static boolean PROJECTION = Cfg.asBool(PROJECTION_CFG, true);
+
 	protected final List<Stage> stages;
 	protected final Map<QNm, Str> options;
 
 	public DefaultOptimizer(Map<QNm, Str> options) {
 		stages = new ArrayList<Stage>();
 		stages.add(new Simplification());
+		if (FOLDING) {
+			stages.add(new Folding());
+		}
 		stages.add(new Finalize());
 		this.options = options;
 	}
@@ -97,9 +133,19 @@ public class DefaultOptimizer implements Optimizer {
 		}
 	}
 
+	protected class Folding implements Stage {
+		public AST rewrite(StaticContext sctx, AST ast) throws QueryException {
+			ast = new ConstantFolding(sctx).walk(ast);
+			return ast;
+		}
+	}
+
 	protected class Finalize implements Stage {
 		public AST rewrite(StaticContext sctx, AST ast) throws QueryException {
 			ast = new PathDDOElimination(sctx).walk(ast);
+			if (TYPE_INFERENCE) {
+				ast = new TypeInference(sctx).walk(ast);
+			}
 			return ast;
 		}
 	}
@@ -34,7 +34,9 @@ import org.brackit.xquery.QueryException;
 import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.atomic.Str;
 import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.optimizer.walker.topdown.ForBindParallelization;
 import org.brackit.xquery.compiler.optimizer.walker.topdown.GroupByAggregates;
+import org.brackit.xquery.compiler.optimizer.walker.topdown.GroupByParallelization;
 import org.brackit.xquery.compiler.optimizer.walker.topdown.JoinGroupDemarcation;
 import org.brackit.xquery.compiler.optimizer.walker.topdown.JoinRewriter;
 import org.brackit.xquery.compiler.optimizer.walker.topdown.JoinToSelectConversion;
@@ -42,13 +44,19 @@ import org.brackit.xquery.compiler.optimizer.walker.topdown.LeftJoinLifting;
 import org.brackit.xquery.compiler.optimizer.walker.topdown.LeftJoinRemoval;
 import org.brackit.xquery.compiler.optimizer.walker.topdown.LeftJoinUnnesting;
 import org.brackit.xquery.compiler.optimizer.walker.topdown.LetBindToLeftJoin;
+import org.brackit.xquery.compiler.optimizer.walker.topdown.OperatorFusion;
 import org.brackit.xquery.compiler.optimizer.walker.topdown.PredicateMerge;
 import org.brackit.xquery.compiler.optimizer.walker.topdown.PredicateSplit;
+import org.brackit.xquery.compiler.optimizer.walker.topdown.ProjectionPushdown;
 import org.brackit.xquery.compiler.optimizer.walker.topdown.PullEvaluation;
 import org.brackit.xquery.compiler.optimizer.walker.topdown.SelectPullup;
+import org.brackit.xquery.compiler.optimizer.walker.topdown.SemiJoinReduction;
+import org.brackit.xquery.compiler.optimizer.walker.topdown.SubexpressionHoisting;
 import org.brackit.xquery.compiler.optimizer.walker.topdown.TopDownPipeline;
+import org.brackit.xquery.compiler.optimizer.walker.topdown.TopKOrderBy;
 import org.brackit.xquery.compiler.optimizer.walker.topdown.TrivialLeftJoinRemoval;
 import org.brackit.xquery.module.StaticContext;
+import org.brackit.xquery.util.WorkerPool;
 
 /**
  * @author Sebastian Baechle
@@ -59,6 +67,9 @@ public class TopDownOptimizer extends DefaultOptimizer {
 	public TopDownOptimizer(Map<QNm, Str> options) {
 		super(options, new ArrayList<Stage>());
 		stages.add(new Simplification());
+		if (FOLDING) {
+			stages.add(new Folding());
+		}
 		stages.add(new Pipelining());
 		stages.add(new Reordering());
 		if (JOIN_DETECTION) {
@@ -68,6 +79,15 @@ public class TopDownOptimizer extends DefaultOptimizer {
 			stages.add(new Unnest());
 		}
 		stages.add(new FinalizePipeline());
+		if (HOISTING) {
+			stages.add(new Hoisting());
+		}
+		if (FUSION) {
+			stages.add(new Fusion());
+		}
+		if (PROJECTION) {
+			stages.add(new Projection());
+		}
 		stages.add(new Finalize());
 	}
 
@@ -111,6 +131,36 @@ public class TopDownOptimizer extends DefaultOptimizer {
 			ast = new GroupByAggregates().walk(ast);
 			ast = new JoinGroupDemarcation().walk(ast);
 			ast = new PullEvaluation().walk(ast);
+			ast = new TopKOrderBy().walk(ast);
+			if (SEMIJOIN) {
+				ast = new SemiJoinReduction().walk(ast);
+			}
+			if ((WorkerPool.PARALLELISM > 1)
+					&& ((PARALLEL) || (enabled(PARALLEL_FORBIND)))) {
+				ast = new ForBindParallelization(sctx).walk(ast);
+				ast = new GroupByParallelization().walk(ast);
+			}
+			return ast;
+		}
+	}
+
+	private class Hoisting implements Stage {
+		public AST rewrite(StaticContext sctx, AST ast) throws QueryException {
+			ast = new SubexpressionHoisting(sctx).walk(ast);
+			return ast;
+		}
+	}
+
+	private class Fusion implements Stage {
+		public AST rewrite(StaticContext sctx, AST ast) throws QueryException {
+			ast = new OperatorFusion().walk(ast);
+			return ast;
+		}
+	}
+
+	private class Projection implements Stage {
+		public AST rewrite(StaticContext sctx, AST ast) throws QueryException {
+			ast = new ProjectionPushdown().walk(ast);
 			return ast;
 		}
 	}
@@ -0,0 +1,183 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer.walker;
+
+import java.util.HashMap;
+
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.compiler.translator.Compiler;
+import org.brackit.xquery.module.Namespaces;
+import org.brackit.xquery.module.StaticContext;
+import org.brackit.xquery.operator.TupleImpl;
+import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Type;
+
+/**
+ * <p>
+ * This walker evaluates constant expressions at compile time and replaces
+ * them with literals.
+ * </p>
+ * <p>
+ * An expression is constant if it is built only from literals, arithmetic,
+ * comparison, logical, conditional, string concatenation, cast and instance
+ * of expressions, and calls of type constructor functions. Expressions
+ * which fail to evaluate are left for the runtime to raise the error.
+ * Results which cannot be expressed as integer, decimal, double, string or
+ * boolean literal, e.g., dates, are left as well.
+ * </p>
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class ConstantFolding extends Walker {
+
+	public ConstantFolding(StaticContext sctx) {
+		super(sctx);
+	}
+
+	@Override
+	protected AST visit(AST node) {
+		if ((isLiteral(node)) || (!isConstant(node))
+				|| (node.getParent() == null)) {
+			return node;
+		}
+		Item result = evaluate(sctx, node);
+		if ((result == null) || (!(result instanceof Atomic))) {
+			return node;
+		}
+		AST literal = literal((Atomic) result);
+		if (literal == null) {
+			return node;
+		}
+		node.getParent().replaceChild(node.getChildIndex(), literal);
+		snapshot();
+		return literal;
+	}
+
+	private static AST literal(Atomic atomic) {
+		Type type = atomic.type();
+		if (type == Type.INR) {
+			return new AST(XQ.Int, atomic);
+		}
+		if (type == Type.DEC) {
+			return new AST(XQ.Dec, atomic);
+		}
+		if (type == Type.DBL) {
+			return new AST(XQ.Dbl, atomic);
+		}
+		if (type == Type.BOOL) {
+			return new AST(XQ.Bool, atomic);
+		}
+		if ((type == Type.STR) && (atomic instanceof Str)) {
+			return new AST(XQ.Str, atomic.stringValue());
+		}
+		return null;
+	}
+
+	private static boolean isLiteral(AST node) {
+		switch (node.getType()) {
+		case XQ.Int:
+		case XQ.Dec:
+		case XQ.Dbl:
+		case XQ.Str:
+		case XQ.Bool:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Checks if the given expression is constant.
+	 */
+	public static boolean isConstant(AST node) {
+		if (isLiteral(node)) {
+			return true;
+		}
+		switch (node.getType()) {
+		case XQ.ArithmeticExpr:
+			return ((isConstant(node.getChild(1))) && (isConstant(node
+					.getChild(2))));
+		case XQ.ComparisonExpr:
+			switch (node.getChild(0).getType()) {
+			case XQ.NodeCompIs:
+			case XQ.NodeCompFollows:
+			case XQ.NodeCompPrecedes:
+				return false;
+			}
+			return ((isConstant(node.getChild(1))) && (isConstant(node
+					.getChild(2))));
+		case XQ.AndExpr:
+		case XQ.OrExpr:
+		case XQ.IfExpr:
+		case XQ.StringConcatExpr:
+			for (int i = 0; i < node.getChildCount(); i++) {
+				if (!isConstant(node.getChild(i))) {
+					return false;
+				}
+			}
+			return true;
+		case XQ.ParenthesizedExpr:
+		case XQ.SequenceExpr:
+			return ((node.getChildCount() == 1) && (isConstant(node
+					.getChild(0))));
+		case XQ.CastExpr:
+		case XQ.CastableExpr:
+		case XQ.InstanceofExpr:
+			return isConstant(node.getChild(0));
+		case XQ.FunctionCall:
+			QNm name = (QNm) node.getValue();
+			return ((Namespaces.XS_NSURI.equals(name.getNamespaceURI()))
+					&& (node.getChildCount() == 1) && (isConstant(node
+					.getChild(0))));
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Evaluates the given constant expression or returns <code>null</code>
+	 * if the evaluation fails.
+	 */
+	public static Item evaluate(StaticContext sctx, AST node) {
+		try {
+			Compiler compiler = new Compiler(new HashMap<QNm, Str>());
+			Expr expr = compiler.expression(null, sctx, node, false);
+			return expr.evaluateToItem(new QueryContext(), new TupleImpl());
+		} catch (QueryException e) {
+			return null;
+		}
+	}
+}
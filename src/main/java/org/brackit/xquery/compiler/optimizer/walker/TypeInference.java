@@ -0,0 +1,339 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer.walker;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.module.Namespaces;
+import org.brackit.xquery.module.StaticContext;
+import org.brackit.xquery.xdm.Function;
+import org.brackit.xquery.xdm.Type;
+import org.brackit.xquery.xdm.type.AtomicType;
+import org.brackit.xquery.xdm.type.Cardinality;
+import org.brackit.xquery.xdm.type.ItemType;
+import org.brackit.xquery.xdm.type.SequenceType;
+
+/**
+ * <p>
+ * This walker infers the static types of literals, variables, and of
+ * arithmetic, comparison, logical, cast, conditional and builtin function
+ * call expressions. The inferred {@link SequenceType} is stored in the
+ * property "type" of an expression and used by the translator to emit
+ * specialized expressions.
+ * </p>
+ * <p>
+ * The inference is conservative. Expressions of unknown type, e.g., path
+ * expressions or user-defined function calls, are left unannotated.
+ * Declared variable types are not checked when variables are bound, so
+ * only the types of the bound expressions are used. Group-by and left
+ * joins may turn single items into sequences or empty sequences. In this
+ * case, only the item types of variables are kept.
+ * </p>
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class TypeInference extends Walker {
+
+	private static final SequenceType BOOLEAN = new SequenceType(
+			AtomicType.BOOL, Cardinality.One);
+
+	private static final SequenceType INTEGERS = new SequenceType(
+			AtomicType.INR, Cardinality.ZeroOrMany);
+
+	private final Map<QNm, SequenceType> variables = new HashMap<QNm, SequenceType>();
+
+	private boolean regrouped;
+
+	public TypeInference(StaticContext sctx) {
+		super(sctx);
+	}
+
+	@Override
+	protected AST prepare(AST root) {
+		variables.clear();
+		regrouped = regroups(root);
+		return root;
+	}
+
+	private boolean regroups(AST node) {
+		if ((node.getType() == XQ.GroupBy)
+				|| (node.getType() == XQ.GroupByClause)
+				|| ((node.getType() == XQ.Join) && (node
+						.checkProperty("leftJoin")))) {
+			return true;
+		}
+		for (int i = 0; i < node.getChildCount(); i++) {
+			if (regroups(node.getChild(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	protected AST visit(AST node) {
+		switch (node.getType()) {
+		case XQ.ForClause:
+		case XQ.ForBind:
+			forBinding(node);
+			break;
+		case XQ.LetClause:
+		case XQ.LetBind:
+			bind(node.getChild(0), type(node.getChild(1)));
+			break;
+		case XQ.CountClause:
+		case XQ.Count:
+			bind(node.getChild(0), SequenceType.INTEGER);
+			break;
+		default:
+			type(node);
+		}
+		return node;
+	}
+
+	private void forBinding(AST node) {
+		int pos = 1;
+		boolean allowingEmpty = false;
+		if (node.getChild(pos).getType() == XQ.AllowingEmpty) {
+			allowingEmpty = true;
+			pos++;
+		}
+		if (node.getChild(pos).getType() == XQ.TypedVariableBinding) {
+			bind(node.getChild(pos++), SequenceType.INTEGER);
+		}
+		SequenceType type = type(node.getChild(pos));
+		if ((type != null) && (!allowingEmpty)
+				&& (type.getCardinality() != Cardinality.Zero)) {
+			bind(node.getChild(0), new SequenceType(type.getItemType(),
+					Cardinality.One));
+		}
+	}
+
+	private void bind(AST binding, SequenceType type) {
+		if (type == null) {
+			return;
+		}
+		if ((regrouped) && (type.getCardinality() != Cardinality.ZeroOrMany)) {
+			type = new SequenceType(type.getItemType(), Cardinality.ZeroOrMany);
+		}
+		variables.put((QNm) binding.getChild(0).getValue(), type);
+	}
+
+	/**
+	 * Returns the static type of the given expression or <code>null</code>
+	 * if it is unknown.
+	 */
+	public SequenceType type(AST node) {
+		SequenceType type = (SequenceType) node.getProperty("type");
+		if (type == null) {
+			type = infer(node);
+			if (type != null) {
+				node.setProperty("type", type);
+			}
+		}
+		return type;
+	}
+
+	private SequenceType infer(AST node) {
+		switch (node.getType()) {
+		case XQ.Str:
+			return new SequenceType(AtomicType.STR, Cardinality.One);
+		case XQ.Int:
+		case XQ.Dbl:
+		case XQ.Dec:
+		case XQ.Bool:
+			return new SequenceType(new AtomicType(((Atomic) node.getValue())
+					.type()), Cardinality.One);
+		case XQ.VariableRef:
+			return variables.get((QNm) node.getValue());
+		case XQ.ParenthesizedExpr:
+		case XQ.SequenceExpr:
+			return (node.getChildCount() == 1) ? type(node.getChild(0))
+					: null;
+		case XQ.RangeExpr:
+			return INTEGERS;
+		case XQ.ArithmeticExpr:
+			return arithmetic(node);
+		case XQ.ComparisonExpr:
+			return comparison(node);
+		case XQ.AndExpr:
+		case XQ.OrExpr:
+		case XQ.QuantifiedExpr:
+		case XQ.InstanceofExpr:
+		case XQ.CastableExpr:
+			return BOOLEAN;
+		case XQ.CastExpr:
+			return cast(node);
+		case XQ.IfExpr:
+			SequenceType thenType = type(node.getChild(1));
+			SequenceType elseType = type(node.getChild(2));
+			return ((thenType != null) && (thenType.equals(elseType))) ? thenType
+					: null;
+		case XQ.FunctionCall:
+			return functionCall(node);
+		default:
+			return null;
+		}
+	}
+
+	private SequenceType arithmetic(AST node) {
+		Type left = numeric(type(node.getChild(1)));
+		Type right = numeric(type(node.getChild(2)));
+		if ((left == null) || (right == null)) {
+			return null;
+		}
+		Cardinality card = cardinality(type(node.getChild(1)), type(node
+				.getChild(2)));
+		if (card == null) {
+			return null;
+		}
+		Type result;
+		switch (node.getChild(0).getType()) {
+		case XQ.IDivideOp:
+			result = Type.INR;
+			break;
+		case XQ.DivideOp:
+			result = promote(promote(left, right), Type.DEC);
+			break;
+		default:
+			result = promote(left, right);
+		}
+		return new SequenceType(new AtomicType(result), card);
+	}
+
+	private SequenceType comparison(AST node) {
+		switch (node.getChild(0).getType()) {
+		case XQ.ValueCompEQ:
+		case XQ.ValueCompGE:
+		case XQ.ValueCompLE:
+		case XQ.ValueCompLT:
+		case XQ.ValueCompGT:
+		case XQ.ValueCompNE:
+			Cardinality card = cardinality(type(node.getChild(1)), type(node
+					.getChild(2)));
+			return new SequenceType(AtomicType.BOOL,
+					(card == Cardinality.One) ? Cardinality.One
+							: Cardinality.ZeroOrOne);
+		case XQ.NodeCompIs:
+		case XQ.NodeCompFollows:
+		case XQ.NodeCompPrecedes:
+			return new SequenceType(AtomicType.BOOL, Cardinality.ZeroOrOne);
+		default:
+			return BOOLEAN;
+		}
+	}
+
+	private SequenceType cast(AST node) {
+		AST type = node.getChild(1);
+		QNm name = (QNm) type.getChild(0).getChild(0).getValue();
+		boolean optional = ((type.getChildCount() == 2) && (type.getChild(1)
+				.getType() == XQ.CardinalityZeroOrOne));
+		try {
+			Type target = sctx.getTypes().resolveAtomicType(name);
+			return new SequenceType(new AtomicType(target),
+					(optional) ? Cardinality.ZeroOrOne : Cardinality.One);
+		} catch (QueryException e) {
+			return null;
+		}
+	}
+
+	private SequenceType functionCall(AST node) {
+		QNm name = (QNm) node.getValue();
+		if (!Namespaces.FN_NSURI.equals(name.getNamespaceURI())) {
+			return null;
+		}
+		Function fun = sctx.getFunctions().resolve(name, node.getChildCount());
+		if ((fun == null) || (!fun.isBuiltIn()) || (fun.isUpdating())) {
+			return null;
+		}
+		SequenceType type = fun.getSignature().getResultType();
+		return (type.getItemType() instanceof AtomicType) ? type : null;
+	}
+
+	private static Cardinality cardinality(SequenceType left,
+			SequenceType right) {
+		if ((left == null) || (right == null)) {
+			return null;
+		}
+		Cardinality l = left.getCardinality();
+		Cardinality r = right.getCardinality();
+		if ((l == Cardinality.One) && (r == Cardinality.One)) {
+			return Cardinality.One;
+		}
+		return ((l.atMostOne()) && (r.atMostOne())) ? Cardinality.ZeroOrOne
+				: null;
+	}
+
+	/**
+	 * Returns the primitive numeric type of the given type or
+	 * <code>null</code> if it is not numeric.
+	 */
+	private static Type numeric(SequenceType type) {
+		if (type == null) {
+			return null;
+		}
+		ItemType itemType = type.getItemType();
+		if (!(itemType instanceof AtomicType)) {
+			return null;
+		}
+		Type t = ((AtomicType) itemType).getType();
+		if (t.instanceOf(Type.INR)) {
+			return Type.INR;
+		}
+		if (t.instanceOf(Type.DEC)) {
+			return Type.DEC;
+		}
+		if (t.instanceOf(Type.FLO)) {
+			return Type.FLO;
+		}
+		if (t.instanceOf(Type.DBL)) {
+			return Type.DBL;
+		}
+		return null;
+	}
+
+	private static Type promote(Type left, Type right) {
+		if ((left == Type.DBL) || (right == Type.DBL)) {
+			return Type.DBL;
+		}
+		if ((left == Type.FLO) || (right == Type.FLO)) {
+			return Type.FLO;
+		}
+		if ((left == Type.DEC) || (right == Type.DEC)) {
+			return Type.DEC;
+		}
+		return Type.INR;
+	}
+}
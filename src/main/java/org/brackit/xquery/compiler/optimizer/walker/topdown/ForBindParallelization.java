@@ -0,0 +1,151 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer.walker.topdown;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.compiler.optimizer.walker.Walker;
+import org.brackit.xquery.module.Namespaces;
+import org.brackit.xquery.module.StaticContext;
+
+/**
+ * Marks for-binds over potentially large binding sequences for morsel-driven
+ * parallel evaluation. The property <code>parallel</code> holds the number
+ * of subsequent pipeline operators, which form the segment that is evaluated
+ * in parallel. The property <code>unordered</code> indicates that the result
+ * order of the segment need not be preserved.
+ * <p>
+ * A segment consists of let-binds, selections, and for-binds only and must
+ * not contain updating expressions or calls of functions other than the
+ * built-in functions of the fn namespace.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class ForBindParallelization extends Walker {
+
+	public ForBindParallelization(StaticContext sctx) {
+		super(sctx);
+	}
+
+	@Override
+	protected AST visit(AST node) {
+		if ((node.getType() != XQ.ForBind)
+				|| (node.getProperty("parallel") != null)
+				|| (node.getProperty("check") != null) || (inParallel(node))) {
+			return node;
+		}
+		AST bind = node.getChild(node.getChildCount() - 2);
+		if (!expensive(bind)) {
+			return node;
+		}
+		int segment = 0;
+		AST op = node.getLastChild();
+		while (((op.getType() == XQ.ForBind)
+				|| (op.getType() == XQ.LetBind) || (op.getType() == XQ.Selection))
+				&& (op.getProperty("check") == null) && (safeOp(op))) {
+			segment++;
+			op = op.getLastChild();
+		}
+		if (segment == 0) {
+			return node;
+		}
+		node.setProperty("parallel", segment);
+		if (unordered(node)) {
+			node.setProperty("unordered", Boolean.TRUE);
+		}
+		snapshot();
+		return node;
+	}
+
+	private boolean inParallel(AST node) {
+		for (AST a = node.getParent(); a != null; a = a.getParent()) {
+			if (a.getProperty("parallel") != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean unordered(AST node) {
+		for (AST a = node.getParent(); a != null; a = a.getParent()) {
+			if (a.getType() == XQ.OrderedExpr) {
+				return false;
+			}
+			if (a.getType() == XQ.UnorderedExpr) {
+				return true;
+			}
+		}
+		return ((sctx != null) && (!sctx.isOrderingModeOrdered()));
+	}
+
+	private boolean expensive(AST expr) {
+		int type = expr.getType();
+		if ((type == XQ.PathExpr) || (type == XQ.RangeExpr)
+				|| (type == XQ.FunctionCall)) {
+			return true;
+		}
+		for (int i = 0; i < expr.getChildCount(); i++) {
+			if (expensive(expr.getChild(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean safeOp(AST op) {
+		// last child is the rest of the pipeline
+		for (int i = 0; i < op.getChildCount() - 1; i++) {
+			if (!safe(op.getChild(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean safe(AST expr) {
+		int type = expr.getType();
+		if (((type >= XQ.InsertExpr) && (type <= XQ.TransformExpr))
+				|| (type == XQ.DynamicFunctionCallExpr)) {
+			return false;
+		}
+		if (type == XQ.FunctionCall) {
+			QNm name = (QNm) expr.getValue();
+			if (!Namespaces.FN_NSURI.equals(name.getNamespaceURI())) {
+				return false;
+			}
+		}
+		for (int i = 0; i < expr.getChildCount(); i++) {
+			if (!safe(expr.getChild(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer.walker.topdown;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.compiler.optimizer.walker.Walker;
+
+/**
+ * Marks chains of at least two adjacent let-binds, selections, counts and
+ * for-binds over singleton sequences with the property <code>fuse</code>.
+ * Each chain is compiled into a single fused operator.
+ * <p>
+ * Operators with iteration group checks and parallel for-binds are not
+ * fused. A for-bind is only fused if its source is a literal, a constructor
+ * or a reference to a for or count variable of the same pipeline.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class OperatorFusion extends Walker {
+
+	@Override
+	protected AST visit(AST node) {
+		if ((!fusable(node)) || (node.checkProperty("fuse"))) {
+			return node;
+		}
+		int len = 0;
+		for (AST op = node; fusable(op); op = op.getLastChild()) {
+			len++;
+		}
+		if (len < 2) {
+			return node;
+		}
+		for (AST op = node; fusable(op); op = op.getLastChild()) {
+			op.setProperty("fuse", Boolean.TRUE);
+		}
+		snapshot();
+		return node;
+	}
+
+	private boolean fusable(AST op) {
+		if (op.getProperty("check") != null) {
+			return false;
+		}
+		switch (op.getType()) {
+		case XQ.LetBind:
+		case XQ.Selection:
+		case XQ.Count:
+			return true;
+		case XQ.ForBind:
+			if (op.getProperty("parallel") != null) {
+				return false;
+			}
+			AST src = op.getChild(1);
+			if (src.getType() == XQ.TypedVariableBinding) {
+				src = op.getChild(2);
+			}
+			return singleton(op, src);
+		default:
+			return false;
+		}
+	}
+
+	private boolean singleton(AST op, AST expr) {
+		switch (expr.getType()) {
+		case XQ.Int:
+		case XQ.Str:
+		case XQ.Dbl:
+		case XQ.Dec:
+		case XQ.Bool:
+		case XQ.StringConcatExpr:
+		case XQ.CompElementConstructor:
+		case XQ.CompAttributeConstructor:
+		case XQ.CompCommentConstructor:
+		case XQ.CompDocumentConstructor:
+		case XQ.CompPIConstructor:
+		case XQ.DirElementConstructor:
+		case XQ.DirAttributeConstructor:
+		case XQ.DirCommentConstructor:
+		case XQ.DirPIConstructor:
+			return true;
+		case XQ.VariableRef:
+			return singletonVars(op).contains(expr.getValue());
+		case XQ.ParenthesizedExpr:
+			return ((expr.getChildCount() == 1) && (singleton(op, expr
+					.getChild(0))));
+		default:
+			return false;
+		}
+	}
+
+	private Set<QNm> singletonVars(AST op) {
+		// collect for and count variables of the upstream operators
+		Set<QNm> vars = new HashSet<QNm>();
+		for (AST in = op.getParent(); in != null; in = in.getParent()) {
+			int type = in.getType();
+			if (in.getProperty("check") != null) {
+				break;
+			} else if ((type == XQ.ForBind) || (type == XQ.Count)) {
+				vars.add((QNm) in.getChild(0).getChild(0).getValue());
+			} else if ((type != XQ.LetBind) && (type != XQ.Selection)
+					&& (type != XQ.OrderBy)) {
+				break;
+			}
+		}
+		return vars;
+	}
+}
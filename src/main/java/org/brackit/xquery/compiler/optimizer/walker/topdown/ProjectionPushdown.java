@@ -0,0 +1,127 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer.walker.topdown;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.compiler.optimizer.walker.Walker;
+
+/**
+ * Liveness analysis for pipelines. Order-bys, group-bys, and the build
+ * (right) side of joins are marked with the set of variables which are still
+ * referenced by them or by any upstream operator and the return expression.
+ * The translator switches-off all other bindings of the pipeline before
+ * these operators materialize their input.
+ * <p>
+ * An operator nested in a join branch must also preserve the variables
+ * referenced by the remaining branches of the join, i.e., the right input,
+ * the post-join operators, and the continuation.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class ProjectionPushdown extends Walker {
+
+	@Override
+	protected AST visit(AST node) {
+		switch (node.getType()) {
+		case XQ.OrderBy:
+		case XQ.GroupBy:
+			if (node.getProperty("live") == null) {
+				node.setProperty("live", live(node));
+				snapshot();
+			}
+			break;
+		case XQ.Join:
+			if (node.getProperty("liveRight") == null) {
+				// the key of the right input is evaluated on the
+				// projected tuples of the build side
+				AST end = node.getChild(1);
+				while (end.getType() != XQ.End) {
+					end = end.getLastChild();
+				}
+				node.setProperty("liveRight", live(end));
+				snapshot();
+			}
+			break;
+		}
+		return node;
+	}
+
+	private Set<QNm> live(AST op) {
+		Set<QNm> live = new HashSet<QNm>();
+		collect(op, live);
+		AST node = op;
+		AST parent = node.getParent();
+		while ((parent != null) && (parent.getType() != XQ.PipeExpr)) {
+			if (parent.getType() == XQ.Join) {
+				for (int i = node.getChildIndex() + 1; i < parent
+						.getChildCount(); i++) {
+					collect(parent.getChild(i), live);
+				}
+				refs(parent, live);
+			}
+			node = parent;
+			parent = node.getParent();
+		}
+		return live;
+	}
+
+	private void collect(AST node, Set<QNm> live) {
+		switch (node.getType()) {
+		case XQ.VariableRef:
+			live.add((QNm) node.getValue());
+			break;
+		case XQ.GroupBySpec:
+		case XQ.AggregateSpec:
+			live.add((QNm) node.getChild(0).getValue());
+			break;
+		}
+		refs(node, live);
+		for (int i = 0; i < node.getChildCount(); i++) {
+			collect(node.getChild(i), live);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void refs(AST node, Set<QNm> live) {
+		List<QNm> check = (List<QNm>) node.getProperty("check");
+		if (check != null) {
+			live.addAll(check);
+		}
+		QNm group = (QNm) node.getProperty("group");
+		if (group != null) {
+			live.add(group);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer.walker.topdown;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.compiler.optimizer.walker.Walker;
+import org.brackit.xquery.util.Cmp;
+
+/**
+ * Marks inner equi-joins whose left key only depends on a prefix of the
+ * left input pipeline with the property <code>semijoin</code>. Its value is
+ * the position of the operator in the left pipeline in front of which the
+ * join keys are checked against a Bloom filter of the build keys, i.e.,
+ * directly behind the last binding of a variable the left key refers to.
+ * <p>
+ * Joins with left-join semantics, iteration group checks or join groups
+ * are not marked. The left pipeline may only consist of for-binds,
+ * let-binds, selections and counts, and at least one for-bind or let-bind
+ * must follow the filter position. Counts must not follow the filter
+ * position because they would only number the tuples passing the filter.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class SemiJoinReduction extends Walker {
+
+	@Override
+	protected AST visit(AST node) {
+		if ((node.getType() != XQ.Join) || (node.checkProperty("leftJoin"))
+				|| (node.getProperty("check") != null)
+				|| (node.getProperty("group") != null)
+				|| (node.getProperty("semijoin") != null)
+				|| (node.getProperty("cmp") != Cmp.eq)) {
+			return node;
+		}
+		AST op = node.getChild(0).getChild(0);
+		AST end = op;
+		while (end.getType() != XQ.End) {
+			end = end.getLastChild();
+		}
+		Set<QNm> refs = new HashSet<QNm>();
+		collectRefs(end.getChild(0), refs);
+		if (refs.isEmpty()) {
+			return node;
+		}
+
+		int pos = 0;
+		int filterPos = -1;
+		boolean binds = false;
+		boolean count = false;
+		for (; op.getType() != XQ.End; op = op.getLastChild(), pos++) {
+			int type = op.getType();
+			if (((type != XQ.ForBind) && (type != XQ.LetBind)
+					&& (type != XQ.Selection) && (type != XQ.Count))
+					|| (op.getProperty("check") != null)) {
+				return node;
+			}
+			if (bindsAny(op, refs)) {
+				filterPos = pos + 1;
+				binds = false;
+				count = false;
+			} else if ((type == XQ.ForBind) || (type == XQ.LetBind)) {
+				binds = true;
+			} else if (type == XQ.Count) {
+				count = true;
+			}
+		}
+		if ((filterPos < 0) || (!binds) || (count)) {
+			return node;
+		}
+		node.setProperty("semijoin", filterPos);
+		snapshot();
+		return node;
+	}
+
+	private void collectRefs(AST node, Set<QNm> refs) {
+		if (node.getType() == XQ.VariableRef) {
+			refs.add((QNm) node.getValue());
+		}
+		for (int i = 0; i < node.getChildCount(); i++) {
+			collectRefs(node.getChild(i), refs);
+		}
+	}
+
+	private boolean bindsAny(AST op, Set<QNm> refs) {
+		for (int i = 0; i < op.getChildCount() - 1; i++) {
+			AST child = op.getChild(i);
+			if ((child.getType() == XQ.TypedVariableBinding)
+					&& (refs.contains((QNm) child.getChild(0).getValue()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer.walker.topdown;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.compiler.optimizer.walker.ConstantFolding;
+import org.brackit.xquery.compiler.optimizer.walker.Walker;
+import org.brackit.xquery.module.Namespaces;
+import org.brackit.xquery.module.StaticContext;
+import org.brackit.xquery.xdm.Function;
+
+/**
+ * Hoists repeated path expressions and function calls of a pipeline into
+ * let-binds, and constant expressions out of the iterations of a pipeline.
+ * <p>
+ * A path expression or function call which occurs more than once in the
+ * operators of a pipeline is bound to a new variable by a let-bind in front
+ * of the operator with the first occurrence. All occurrences are replaced
+ * by references to this variable. The first occurrence must be evaluated
+ * unconditionally, i.e., not in a branch of a conditional or in a nested
+ * FLWOR. A constant expression which could not be folded into a literal,
+ * e.g., a date constructor, is bound in front of the first for-bind.
+ * <p>
+ * Only expressions which do not depend on the focus, do not construct
+ * nodes, and call only builtin functions are hoisted. Group-bys, joins and
+ * operators with iteration group checks end the analyzed part of a
+ * pipeline.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class SubexpressionHoisting extends Walker {
+
+	private int hoistVar;
+
+	public SubexpressionHoisting(StaticContext sctx) {
+		super(sctx);
+	}
+
+	private QNm createHoistVarName() {
+		return new QNm("_hoist;" + (hoistVar++));
+	}
+
+	@Override
+	protected AST visit(AST node) {
+		if (node.getType() != XQ.PipeExpr) {
+			return node;
+		}
+		AST start = node.getChild(0);
+		while (hoist(start)) {
+			snapshot();
+		}
+		return node;
+	}
+
+	private boolean hoist(AST start) {
+		List<AST> ops = new ArrayList<AST>();
+		for (AST op = start.getChild(0); op.getType() != XQ.End; op = op
+				.getLastChild()) {
+			if ((op.getType() == XQ.GroupBy) || (op.getType() == XQ.Join)
+					|| (op.getProperty("check") != null)) {
+				break;
+			}
+			ops.add(op);
+		}
+		AST end = (ops.isEmpty()) ? start.getChild(0) : ops
+				.get(ops.size() - 1).getLastChild();
+		if (end.getType() == XQ.End) {
+			ops.add(end);
+		}
+
+		int firstLoop = -1;
+		for (int i = 0; i < ops.size(); i++) {
+			if (ops.get(i).getType() == XQ.ForBind) {
+				firstLoop = i;
+				break;
+			}
+		}
+
+		for (int i = 0; i < ops.size(); i++) {
+			AST op = ops.get(i);
+			for (AST expr : expressions(op)) {
+				List<AST> candidates = new ArrayList<AST>();
+				unconditional(expr, candidates);
+				for (AST candidate : candidates) {
+					List<AST> occurrences = new ArrayList<AST>();
+					for (int j = i; j < ops.size(); j++) {
+						for (AST e : expressions(ops.get(j))) {
+							find(e, candidate, occurrences);
+						}
+					}
+					if ((occurrences.size() > 1) && (references(candidate))) {
+						bind(op, candidate, occurrences);
+						return true;
+					}
+					if ((firstLoop >= 0) && (firstLoop < i)
+							&& (ConstantFolding.isConstant(candidate))
+							&& (ConstantFolding.evaluate(sctx, candidate) != null)) {
+						bind(ops.get(firstLoop), candidate, occurrences);
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private void bind(AST op, AST expr, List<AST> occurrences) {
+		QNm var = createHoistVarName();
+		AST letBind = new AST(XQ.LetBind);
+		AST binding = new AST(XQ.TypedVariableBinding);
+		binding.addChild(new AST(XQ.Variable, var));
+		letBind.addChild(binding);
+		letBind.addChild(expr.copyTree());
+		AST parent = op.getParent();
+		int pos = op.getChildIndex();
+		letBind.addChild(op);
+		parent.replaceChild(pos, letBind);
+		for (AST occurrence : occurrences) {
+			occurrence.getParent().replaceChild(occurrence.getChildIndex(),
+					new AST(XQ.VariableRef, var));
+		}
+	}
+
+	/**
+	 * Returns the expressions of an operator.
+	 */
+	private List<AST> expressions(AST op) {
+		List<AST> exprs = new ArrayList<AST>();
+		int last = (op.getType() == XQ.End) ? op.getChildCount() : op
+				.getChildCount() - 1;
+		for (int i = 0; i < last; i++) {
+			AST child = op.getChild(i);
+			if (child.getType() != XQ.TypedVariableBinding) {
+				exprs.add(child);
+			}
+		}
+		return exprs;
+	}
+
+	/**
+	 * Collects all hoistable expressions which are evaluated whenever the
+	 * given expression is evaluated.
+	 */
+	private void unconditional(AST expr, List<AST> candidates) {
+		if (hoistable(expr)) {
+			candidates.add(expr);
+		}
+		switch (expr.getType()) {
+		case XQ.ArithmeticExpr:
+		case XQ.ComparisonExpr:
+		case XQ.StringConcatExpr:
+		case XQ.SequenceExpr:
+		case XQ.ParenthesizedExpr:
+		case XQ.FunctionCall:
+		case XQ.OrderBySpec:
+			for (int i = 0; i < expr.getChildCount(); i++) {
+				unconditional(expr.getChild(i), candidates);
+			}
+			break;
+		case XQ.AndExpr:
+		case XQ.OrExpr:
+		case XQ.IfExpr:
+			unconditional(expr.getChild(0), candidates);
+			break;
+		}
+	}
+
+	private void find(AST expr, AST candidate, List<AST> occurrences) {
+		if (equal(expr, candidate)) {
+			occurrences.add(expr);
+			return;
+		}
+		for (int i = 0; i < expr.getChildCount(); i++) {
+			find(expr.getChild(i), candidate, occurrences);
+		}
+	}
+
+	private boolean equal(AST a, AST b) {
+		if ((a.getType() != b.getType())
+				|| (a.getChildCount() != b.getChildCount())) {
+			return false;
+		}
+		Object va = a.getValue();
+		Object vb = b.getValue();
+		if ((va == null) ? (vb != null) : (!va.equals(vb))) {
+			return false;
+		}
+		for (int i = 0; i < a.getChildCount(); i++) {
+			if (!equal(a.getChild(i), b.getChild(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean references(AST expr) {
+		if (expr.getType() == XQ.VariableRef) {
+			return true;
+		}
+		for (int i = 0; i < expr.getChildCount(); i++) {
+			if (references(expr.getChild(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean hoistable(AST expr) {
+		switch (expr.getType()) {
+		case XQ.PathExpr:
+			AST first = expr.getChild(0);
+			return ((first.getType() != XQ.StepExpr)
+					&& (first.getType() != XQ.ContextItemExpr) && (pure(expr,
+					false)));
+		case XQ.FunctionCall:
+			return ((expr.getChildCount() > 0) && (pure(expr, false)));
+		case XQ.CastExpr:
+			return ((!references(expr)) && (ConstantFolding.isConstant(expr)));
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Checks that an expression neither constructs nodes, nor calls
+	 * user-defined functions, nor depends on the focus outside of path
+	 * steps.
+	 */
+	private boolean pure(AST expr, boolean focus) {
+		switch (expr.getType()) {
+		case XQ.CompElementConstructor:
+		case XQ.CompAttributeConstructor:
+		case XQ.CompCommentConstructor:
+		case XQ.CompDocumentConstructor:
+		case XQ.CompPIConstructor:
+		case XQ.CompTextConstructor:
+		case XQ.CompNamespaceConstructor:
+		case XQ.DirElementConstructor:
+		case XQ.DirAttributeConstructor:
+		case XQ.DirCommentConstructor:
+		case XQ.DirPIConstructor:
+		case XQ.PipeExpr:
+		case XQ.FlowrExpr:
+		case XQ.QuantifiedExpr:
+		case XQ.TransformExpr:
+		case XQ.InlineFuncItem:
+		case XQ.DynamicFunctionCallExpr:
+			return false;
+		case XQ.ContextItemExpr:
+			return focus;
+		case XQ.FunctionCall:
+			if ((!focus) && (expr.getChildCount() == 0)) {
+				return false;
+			}
+			QNm name = (QNm) expr.getValue();
+			if ((!Namespaces.FN_NSURI.equals(name.getNamespaceURI()))
+					&& (!Namespaces.XS_NSURI.equals(name.getNamespaceURI()))) {
+				return false;
+			}
+			if ((name.getLocalName().equals("error"))
+					|| (name.getLocalName().equals("trace"))) {
+				// observable side effects
+				return false;
+			}
+			Function fun = sctx.getFunctions().resolve(name,
+					expr.getChildCount());
+			if ((fun == null) || (!fun.isBuiltIn()) || (fun.isUpdating())) {
+				return false;
+			}
+			break;
+		case XQ.StepExpr:
+		case XQ.Predicate:
+			focus = true;
+			break;
+		}
+		for (int i = 0; i < expr.getChildCount(); i++) {
+			if (!pure(expr.getChild(i), focus)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer.walker.topdown;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.brackit.xquery.atomic.IntNumeric;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.Bits;
+import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.compiler.optimizer.walker.Walker;
+import org.brackit.xquery.module.Namespaces;
+
+/**
+ * Detects ordered pipelines of which only a bounded prefix is consumed, e.g.,
+ * <code>(for ... order by ... return ...)[position() &lt;= k]</code> or
+ * <code>subsequence(for ... order by ... return ..., 1, k)</code>, and marks
+ * the final order-by with the property <code>limit</code>. The order-by then
+ * only needs to deliver the first <code>k</code> tuples.
+ * <p>
+ * The rewrite is only valid if each tuple behind the order-by produces at
+ * least one item in the return expression. Thus, only let-binds and counts
+ * may follow the order-by and the return expression must be provably
+ * non-empty.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class TopKOrderBy extends Walker {
+
+	private static final QNm SUBSEQUENCE = new QNm(Namespaces.FN_NSURI,
+			Namespaces.FN_PREFIX, "subsequence");
+
+	@Override
+	protected AST visit(AST node) {
+		long limit;
+		if ((node.getType() == XQ.FilterExpr)
+				&& (node.getChildCount() > 1)) {
+			limit = positionLimit(node.getChild(1).getChild(0));
+		} else if ((node.getType() == XQ.FunctionCall)
+				&& (node.getChildCount() == 3)
+				&& (SUBSEQUENCE.atomicCmp((QNm) node.getValue()) == 0)) {
+			long start = intValue(node.getChild(1));
+			long length = intValue(node.getChild(2));
+			limit = ((start == -1) || (length == -1)) ? -1 : Math.max(start
+					+ length - 1, 0);
+		} else {
+			return node;
+		}
+		if ((limit < 0) || (limit > Integer.MAX_VALUE)) {
+			return node;
+		}
+		AST input = node.getChild(0);
+		while ((input.getType() == XQ.ParenthesizedExpr)
+				&& (input.getChildCount() == 1)) {
+			input = input.getChild(0);
+		}
+		if (input.getType() != XQ.PipeExpr) {
+			return node;
+		}
+		AST orderBy = null;
+		Set<QNm> nonEmptyVars = new HashSet<QNm>();
+		if (input.getChild(0).getChildCount() == 0) {
+			return node;
+		}
+		AST op = input.getChild(0).getLastChild();
+		while (op.getType() != XQ.End) {
+			int type = op.getType();
+			if (type == XQ.OrderBy) {
+				orderBy = (op.getProperty("check") == null) ? op : null;
+			} else if (type == XQ.GroupBy) {
+				orderBy = null;
+				nonEmptyVars.clear();
+			} else if ((type == XQ.ForBind) || (type == XQ.Count)) {
+				orderBy = (type == XQ.Count) ? orderBy : null;
+				nonEmptyVars.add((QNm) op.getChild(0).getChild(0).getValue());
+			} else if (type != XQ.LetBind) {
+				orderBy = null;
+			}
+			op = op.getLastChild();
+		}
+		if ((orderBy == null) || (!nonEmpty(op.getChild(0), nonEmptyVars))) {
+			return node;
+		}
+		Integer prev = (Integer) orderBy.getProperty("limit");
+		if ((prev == null) || (prev > limit)) {
+			orderBy.setProperty("limit", (int) limit);
+			snapshot();
+		}
+		return node;
+	}
+
+	private long positionLimit(AST pred) {
+		if (pred.getType() == XQ.Int) {
+			return intValue(pred);
+		}
+		if ((pred.getType() != XQ.ComparisonExpr)
+				|| (pred.getChildCount() != 3)) {
+			return -1;
+		}
+		int cmp = pred.getChild(0).getType();
+		AST left = pred.getChild(1);
+		AST right = pred.getChild(2);
+		long k;
+		if ((isPosition(left)) && ((k = intValue(right)) != -1)) {
+			switch (cmp) {
+			case XQ.GeneralCompEQ:
+			case XQ.ValueCompEQ:
+			case XQ.GeneralCompLE:
+			case XQ.ValueCompLE:
+				return k;
+			case XQ.GeneralCompLT:
+			case XQ.ValueCompLT:
+				return Math.max(k - 1, 0);
+			}
+		} else if ((isPosition(right)) && ((k = intValue(left)) != -1)) {
+			switch (cmp) {
+			case XQ.GeneralCompEQ:
+			case XQ.ValueCompEQ:
+			case XQ.GeneralCompGE:
+			case XQ.ValueCompGE:
+				return k;
+			case XQ.GeneralCompGT:
+			case XQ.ValueCompGT:
+				return Math.max(k - 1, 0);
+			}
+		}
+		return -1;
+	}
+
+	private boolean isPosition(AST expr) {
+		return ((expr.getType() == XQ.VariableRef) && (Bits.FS_POSITION
+				.atomicCmp((QNm) expr.getValue()) == 0));
+	}
+
+	private long intValue(AST expr) {
+		if (expr.getType() != XQ.Int) {
+			return -1;
+		}
+		long v = ((IntNumeric) expr.getValue()).longValue();
+		return (v < 0) ? -1 : v;
+	}
+
+	private boolean nonEmpty(AST expr, Set<QNm> nonEmptyVars) {
+		switch (expr.getType()) {
+		case XQ.Int:
+		case XQ.Str:
+		case XQ.Dbl:
+		case XQ.Dec:
+		case XQ.StringConcatExpr:
+		case XQ.CompElementConstructor:
+		case XQ.CompAttributeConstructor:
+		case XQ.CompCommentConstructor:
+		case XQ.CompDocumentConstructor:
+		case XQ.CompPIConstructor:
+		case XQ.DirElementConstructor:
+		case XQ.DirAttributeConstructor:
+		case XQ.DirCommentConstructor:
+		case XQ.DirPIConstructor:
+			return true;
+		case XQ.VariableRef:
+			return nonEmptyVars.contains(expr.getValue());
+		case XQ.ParenthesizedExpr:
+		case XQ.SequenceExpr:
+			for (int i = 0; i < expr.getChildCount(); i++) {
+				if (nonEmpty(expr.getChild(i), nonEmptyVars)) {
+					return true;
+				}
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+}
@@ -73,12 +73,14 @@ import org.brackit.xquery.expr.RecordExpr;
 import org.brackit.xquery.expr.RecordExpr.Field;
 import org.brackit.xquery.expr.RecordExpr.KeyValueField;
 import org.brackit.xquery.expr.RecordExpr.RecordField;
+import org.brackit.xquery.expr.ScalarExpr;
 import org.brackit.xquery.expr.SequenceExpr;
 import org.brackit.xquery.expr.StepExpr;
 import org.brackit.xquery.expr.SwitchExpr;
 import org.brackit.xquery.expr.TextExpr;
 import org.brackit.xquery.expr.Treat;
 import org.brackit.xquery.expr.TryCatchExpr;
+import org.brackit.xquery.expr.TwigJoinExpr;
 import org.brackit.xquery.expr.TypeswitchExpr;
 import org.brackit.xquery.expr.UnionExpr;
 import org.brackit.xquery.expr.VCmpExpr;
@@ -104,6 +106,7 @@ import org.brackit.xquery.update.Rename;
 import org.brackit.xquery.update.ReplaceNode;
 import org.brackit.xquery.update.ReplaceValue;
 import org.brackit.xquery.update.Transform;
+import org.brackit.xquery.util.Cfg;
 import org.brackit.xquery.util.Cmp;
 import org.brackit.xquery.util.Whitespace;
 import org.brackit.xquery.util.aggregator.Aggregate;
@@ -136,6 +139,10 @@ import org.brackit.xquery.xdm.type.TextType;
  */
 public class Compiler implements Translator {
 
+	public static final String SCALAR_CFG = "org.brackit.xquery.scalarCompilation";
+
+	public static boolean SCALAR = Cfg.asBool(SCALAR_CFG, true);
+
 	protected static class ClauseBinding {
 		final ClauseBinding in;
 		final Operator operator;
@@ -867,13 +874,17 @@ public class Compiler implements Translator {
 	protected Expr andExpr(AST node) throws QueryException {
 		Expr firstExpr = expr(node.getChild(0), true);
 		Expr secondExpr = expr(node.getChild(1), true);
-		return new AndExpr(firstExpr, secondExpr);
+		Expr expr = new AndExpr(firstExpr, secondExpr);
+		return (SCALAR) ? ScalarExpr.logic(true, firstExpr, secondExpr, expr)
+				: expr;
 	}
 
 	protected Expr orExpr(AST node) throws QueryException {
 		Expr firstExpr = expr(node.getChild(0), true);
 		Expr secondExpr = expr(node.getChild(1), true);
-		return new OrExpr(firstExpr, secondExpr);
+		Expr expr = new OrExpr(firstExpr, secondExpr);
+		return (SCALAR) ? ScalarExpr.logic(false, firstExpr, secondExpr, expr)
+				: expr;
 	}
 
 	protected Expr ifExpr(AST node) throws QueryException {
@@ -927,31 +938,57 @@ public class Compiler implements Translator {
 		Expr firstArg = expr(node.getChild(1), true);
 		Expr secondArg = expr(node.getChild(2), true);
 		AST cmpNode = node.getChild(0);
+		Cmp cmp;
+		boolean general;
 		switch (cmpNode.getType()) {
 		case XQ.ValueCompEQ:
-			return new VCmpExpr(Cmp.eq, firstArg, secondArg);
+			cmp = Cmp.eq;
+			general = false;
+			break;
 		case XQ.ValueCompGE:
-			return new VCmpExpr(Cmp.ge, firstArg, secondArg);
+			cmp = Cmp.ge;
+			general = false;
+			break;
 		case XQ.ValueCompLE:
-			return new VCmpExpr(Cmp.le, firstArg, secondArg);
+			cmp = Cmp.le;
+			general = false;
+			break;
 		case XQ.ValueCompLT:
-			return new VCmpExpr(Cmp.lt, firstArg, secondArg);
+			cmp = Cmp.lt;
+			general = false;
+			break;
 		case XQ.ValueCompGT:
-			return new VCmpExpr(Cmp.gt, firstArg, secondArg);
+			cmp = Cmp.gt;
+			general = false;
+			break;
 		case XQ.ValueCompNE:
-			return new VCmpExpr(Cmp.ne, firstArg, secondArg);
+			cmp = Cmp.ne;
+			general = false;
+			break;
 		case XQ.GeneralCompEQ:
-			return new GCmpExpr(Cmp.eq, firstArg, secondArg);
+			cmp = Cmp.eq;
+			general = true;
+			break;
 		case XQ.GeneralCompGE:
-			return new GCmpExpr(Cmp.ge, firstArg, secondArg);
+			cmp = Cmp.ge;
+			general = true;
+			break;
 		case XQ.GeneralCompLE:
-			return new GCmpExpr(Cmp.le, firstArg, secondArg);
+			cmp = Cmp.le;
+			general = true;
+			break;
 		case XQ.GeneralCompLT:
-			return new GCmpExpr(Cmp.lt, firstArg, secondArg);
+			cmp = Cmp.lt;
+			general = true;
+			break;
 		case XQ.GeneralCompGT:
-			return new GCmpExpr(Cmp.gt, firstArg, secondArg);
+			cmp = Cmp.gt;
+			general = true;
+			break;
 		case XQ.GeneralCompNE:
-			return new GCmpExpr(Cmp.ne, firstArg, secondArg);
+			cmp = Cmp.ne;
+			general = true;
+			break;
 		case XQ.NodeCompIs:
 			return new NodeCmpExpr(NodeCmp.is, firstArg, secondArg);
 		case XQ.NodeCompFollows:
@@ -962,6 +999,44 @@ public class Compiler implements Translator {
 			throw new QueryException(ErrorCode.BIT_DYN_RT_ILLEGAL_STATE_ERROR,
 					"Unexpected comparison: '%s'", cmpNode);
 		}
+		SequenceType firstType = staticType(node.getChild(1));
+		SequenceType secondType = staticType(node.getChild(2));
+		Expr expr;
+		if ((general) && (!comparableSingletons(firstType, secondType))) {
+			expr = new GCmpExpr(cmp, firstArg, secondArg);
+		} else {
+			// a general comparison of two single typed atomics
+			// is equivalent to a value comparison
+			expr = new VCmpExpr(cmp, firstArg, secondArg);
+		}
+		return (SCALAR) ? ScalarExpr.comparison(cmp, firstArg, firstType,
+				secondArg, secondType, expr) : expr;
+	}
+
+	private boolean comparableSingletons(SequenceType first,
+			SequenceType second) {
+		if ((first == null) || (second == null)
+				|| (first.getCardinality() != Cardinality.One)
+				|| (second.getCardinality() != Cardinality.One)
+				|| (!(first.getItemType() instanceof AtomicType))
+				|| (!(second.getItemType() instanceof AtomicType))) {
+			return false;
+		}
+		Type firstAtomic = ((AtomicType) first.getItemType()).getType();
+		Type secondAtomic = ((AtomicType) second.getItemType()).getType();
+		if ((firstAtomic.isNumeric()) && (secondAtomic.isNumeric())) {
+			return true;
+		}
+		return ((firstAtomic == secondAtomic) && (firstAtomic != Type.UNA)
+				&& (firstAtomic != Type.ANA));
+	}
+
+	/**
+	 * Returns the static type inferred for the given expression or
+	 * <code>null</code> if it is unknown.
+	 */
+	protected SequenceType staticType(AST node) {
+		return (SequenceType) node.getProperty("type");
 	}
 
 	protected Expr arithmeticExpr(AST node) throws QueryException {
@@ -988,7 +1063,10 @@ public class Compiler implements Translator {
 
 		Expr firstArg = expr(node.getChild(1), true);
 		Expr secondArg = expr(node.getChild(2), true);
-		return new ArithmeticExpr(op, firstArg, secondArg);
+		ArithmeticExpr expr = new ArithmeticExpr(op, firstArg, secondArg);
+		return (SCALAR) ? ScalarExpr.arithmetic(op, firstArg,
+				staticType(node.getChild(1)), secondArg, staticType(node
+						.getChild(2)), expr) : expr;
 	}
 
 	/*
@@ -1021,7 +1099,7 @@ public class Compiler implements Translator {
 			e1 = new PathStepExpr(e1, e2, bindItem, bindPos, bindSize,
 					lastStep, skipDDO, checkInput);
 		}
-		return e1;
+		return (TwigJoinExpr.TWIG) ? TwigJoinExpr.rewrite(e1) : e1;
 	}
 
 	protected Expr stepExpr(AST node) throws QueryException {
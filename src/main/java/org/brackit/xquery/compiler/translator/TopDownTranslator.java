@@ -30,6 +30,7 @@ package org.brackit.xquery.compiler.translator;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.brackit.xquery.ErrorCode;
 import org.brackit.xquery.QueryContext;
@@ -37,6 +38,7 @@ import org.brackit.xquery.QueryException;
 import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.atomic.Str;
 import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.Bits;
 import org.brackit.xquery.compiler.XQ;
 import org.brackit.xquery.expr.PipeExpr;
 import org.brackit.xquery.operator.Check;
@@ -47,11 +49,18 @@ import org.brackit.xquery.operator.LetBind;
 import org.brackit.xquery.operator.NLJoin;
 import org.brackit.xquery.operator.Operator;
 import org.brackit.xquery.operator.OrderBy;
+import org.brackit.xquery.operator.ParallelForBind;
+import org.brackit.xquery.operator.Pipeline;
+import org.brackit.xquery.operator.Preallocate;
 import org.brackit.xquery.operator.Print;
+import org.brackit.xquery.operator.Project;
 import org.brackit.xquery.operator.Select;
+import org.brackit.xquery.operator.SemiJoinFilter;
 import org.brackit.xquery.operator.Start;
 import org.brackit.xquery.operator.TableJoin;
+import org.brackit.xquery.util.Cfg;
 import org.brackit.xquery.util.Cmp;
+import org.brackit.xquery.util.WorkerPool;
 import org.brackit.xquery.util.aggregator.Aggregate;
 import org.brackit.xquery.util.sort.Ordering.OrderModifier;
 import org.brackit.xquery.xdm.DocumentException;
@@ -70,6 +79,19 @@ import org.brackit.xquery.xdm.type.SequenceType;
  */
 public class TopDownTranslator extends Compiler {
 
+	public static final String SLOT_TUPLES_CFG = "org.brackit.xquery.slotTuples";
+
+	public static boolean SLOT_TUPLES = Cfg.asBool(SLOT_TUPLES_CFG, true);
+
+	// pending semi-join filter of the join whose left input is compiled
+	private AST semiJoinPoint;
+	private AST semiJoinKey;
+	private boolean semiJoinGCmp;
+	private SemiJoinFilter semiJoinFilter;
+
+	// first binding of the current pipeline (or join branch)
+	private int projectFrom;
+
 	public TopDownTranslator(Map<QNm, Str> options) {
 		super(options);
 	}
@@ -85,7 +107,14 @@ public class TopDownTranslator extends Compiler {
 
 	protected Expr pipeExpr(AST node) throws QueryException {
 		int initialBindSize = table.bound().length;
-		Operator root = anyOp(null, node.getChild(0));
+		int outerProjectFrom = projectFrom;
+		projectFrom = initialBindSize;
+		Operator root;
+		try {
+			root = anyOp(null, node.getChild(0));
+		} finally {
+			projectFrom = outerProjectFrom;
+		}
 
 		// for simpler scoping, the return expression is
 		// at the right-most leaf
@@ -101,10 +130,22 @@ public class TopDownTranslator extends Compiler {
 			table.unbind();
 		}
 
+		if (SLOT_TUPLES) {
+			root = new Preallocate(root);
+		}
 		return new PipeExpr(root, expr);
 	}
 
 	protected Operator anyOp(Operator in, AST node) throws QueryException {
+		if (node == semiJoinPoint) {
+			semiJoinPoint = null;
+			semiJoinFilter = new SemiJoinFilter(in, anyExpr(semiJoinKey),
+					semiJoinGCmp);
+			in = semiJoinFilter;
+		}
+		if (node.checkProperty("fuse")) {
+			return fuse(in, node);
+		}
 		return _anyOp(in, node);
 		// return new Print(_anyOp(in, node));
 	}
@@ -140,6 +181,61 @@ public class TopDownTranslator extends Compiler {
 		}
 	}
 
+	protected Operator fuse(Operator in, AST node) throws QueryException {
+		Pipeline pipeline = new Pipeline(in);
+		do {
+			switch (node.getType()) {
+			case XQ.ForBind:
+				fusedForBind(pipeline, node);
+				break;
+			case XQ.LetBind:
+				pipeline.let(bindLetVar(node));
+				break;
+			case XQ.Selection:
+				pipeline.select(anyExpr(node.getChild(0)));
+				break;
+			case XQ.Count:
+				bindCountVar(node);
+				pipeline.count();
+				break;
+			default:
+				throw new QueryException(
+						ErrorCode.BIT_DYN_RT_ILLEGAL_STATE_ERROR,
+						"Unexpected fused AST operator node '%s' of type: %s",
+						node, node.getType());
+			}
+			node = node.getLastChild();
+		} while ((node.checkProperty("fuse")) && (node != semiJoinPoint));
+		return anyOp(pipeline, node);
+	}
+
+	protected void fusedForBind(Pipeline pipeline, AST node)
+			throws QueryException {
+		int pos = 0;
+		AST runVarDecl = node.getChild(pos++);
+		QNm runVarName = (QNm) runVarDecl.getChild(0).getValue();
+		SequenceType runVarType = SequenceType.ITEM_SEQUENCE;
+		if (runVarDecl.getChildCount() == 2) {
+			runVarType = sequenceType(runVarDecl.getChild(1));
+		}
+		AST posBindingOrSourceExpr = node.getChild(pos++);
+		QNm posVarName = null;
+		if (posBindingOrSourceExpr.getType() == XQ.TypedVariableBinding) {
+			posVarName = (QNm) posBindingOrSourceExpr.getChild(0).getValue();
+			posBindingOrSourceExpr = node.getChild(pos++);
+		}
+		Expr sourceExpr = expr(posBindingOrSourceExpr, true);
+		table.bind(runVarName, runVarType);
+		table.resolve(runVarName);
+		Binding posBinding = null;
+		if (posVarName != null) {
+			posBinding = table.bind(posVarName, SequenceType.INTEGER);
+			table.resolve(posVarName);
+		}
+		pipeline.forBind(sourceExpr, (posBinding != null)
+				&& (posBinding.isReferenced()));
+	}
+
 	@SuppressWarnings("unchecked")
 	protected Operator groupBy(Operator in, AST node) throws QueryException {
 		int pos = 0;
@@ -165,6 +261,7 @@ public class TopDownTranslator extends Compiler {
 			}
 			pos++;
 		}
+		in = project(in, node);
 		Aggregate dftAgg = aggregate(node.getChild(pos).getChild(0));
 		Aggregate[] addAggs = new Aggregate[bnds.size()];
 		for (int i = 0; i < bnds.size(); i++) {
@@ -173,6 +270,9 @@ public class TopDownTranslator extends Compiler {
 		}
 		boolean sequential = node.checkProperty("sequential");
 		GroupBy groupBy = new GroupBy(in, dftAgg, addAggs, grpSpecCnt, sequential);
+		if (node.checkProperty("parallel")) {
+			groupBy.parallelize(WorkerPool.PARALLELISM);
+		}
 		// resolve positions grouping variables
 		for (int i = 0; i < grpSpecCnt; i++) {
 			QNm grpVarName = (QNm) node.getChild(i).getChild(0).getValue();
@@ -201,19 +301,57 @@ public class TopDownTranslator extends Compiler {
 		boolean isGcmp = node.checkProperty("GCmp");
 
 		// compile left (outer) join branch (skip initial start)
-		Operator leftIn = anyOp(in, node.getChild(0).getChild(0));
 		AST tmp = node.getChild(0);
 		while (tmp.getType() != XQ.End) {
 			tmp = tmp.getLastChild();
 		}
+		SemiJoinFilter filter = null;
+		Operator leftIn;
+		Integer semiJoin = (Integer) node.getProperty("semijoin");
+		if (semiJoin != null) {
+			// joins nested in the left input have their own filters
+			AST outerPoint = semiJoinPoint;
+			AST outerKey = semiJoinKey;
+			boolean outerGCmp = semiJoinGCmp;
+			SemiJoinFilter outerFilter = semiJoinFilter;
+			AST point = node.getChild(0).getChild(0);
+			for (int i = 0; i < semiJoin; i++) {
+				point = point.getLastChild();
+			}
+			semiJoinPoint = point;
+			semiJoinKey = tmp.getChild(0);
+			semiJoinGCmp = isGcmp;
+			semiJoinFilter = null;
+			try {
+				leftIn = anyOp(in, node.getChild(0).getChild(0));
+				filter = semiJoinFilter;
+			} finally {
+				semiJoinPoint = outerPoint;
+				semiJoinKey = outerKey;
+				semiJoinGCmp = outerGCmp;
+				semiJoinFilter = outerFilter;
+			}
+		} else {
+			leftIn = anyOp(in, node.getChild(0).getChild(0));
+		}
 		Expr leftExpr = anyExpr(tmp.getChild(0));
 
 		// compile right (inner) join branch
-		Operator rightIn = anyOp(new Start(), node.getChild(1));
+		int outerProjectFrom = projectFrom;
+		int rightBindSize = table.bound().length;
+		projectFrom = rightBindSize;
+		Operator rightIn;
+		try {
+			rightIn = anyOp(new Start(), node.getChild(1));
+		} finally {
+			projectFrom = outerProjectFrom;
+		}
 		tmp = node.getChild(1);
 		while (tmp.getType() != XQ.End) {
 			tmp = tmp.getLastChild();
 		}
+		rightIn = project(rightIn, (Set<QNm>) node.getProperty("liveRight"),
+				rightBindSize);
 		Expr rightExpr = anyExpr(tmp.getChild(0));
 
 		boolean leftJoin = node.checkProperty("leftJoin");
@@ -226,6 +364,9 @@ public class TopDownTranslator extends Compiler {
 			table.resolve(prop, join.group());
 		}
 		addChecks(join, (List<QNm>) node.getProperty("check"));
+		if (filter != null) {
+			join.semiJoin(filter);
+		}
 
 		Operator op = join;
 		AST post = node.getChild(2).getChild(0);
@@ -300,6 +441,10 @@ public class TopDownTranslator extends Compiler {
 			table.resolve(posVarName);
 			// TODO Optimize and do not bind variable if not necessary
 		}
+		Integer parallel = (Integer) node.getProperty("parallel");
+		if (parallel != null) {
+			return parallelForBind(in, node, sourceExpr, posBinding, parallel);
+		}
 		ForBind forBind = new ForBind(in, sourceExpr, false);
 		if (posBinding != null) {
 			forBind.bindPosition(posBinding.isReferenced());
@@ -308,8 +453,39 @@ public class TopDownTranslator extends Compiler {
 		return anyOp(forBind, node.getLastChild());
 	}
 
+	protected Operator parallelForBind(Operator in, AST node, Expr sourceExpr,
+			Binding posBinding, int segmentLength) throws QueryException {
+		// cut off the pipeline segment behind the for-bind
+		// and compile it separately on top of its own start
+		AST last = node;
+		for (int i = 0; i < segmentLength; i++) {
+			last = last.getLastChild();
+		}
+		AST rest = last.getLastChild();
+		last.replaceChild(last.getChildCount() - 1, new AST(XQ.End));
+		Operator segment;
+		try {
+			segment = anyOp(new Start(), node.getLastChild());
+		} finally {
+			last.replaceChild(last.getChildCount() - 1, rest);
+		}
+		boolean ordered = !node.checkProperty("unordered");
+		ParallelForBind forBind = new ParallelForBind(in, sourceExpr, segment,
+				ordered);
+		if (posBinding != null) {
+			forBind.bindPosition(posBinding.isReferenced());
+		}
+		return anyOp(forBind, rest);
+	}
+
 	@SuppressWarnings("unchecked")
 	protected Operator letBind(Operator in, AST node) throws QueryException {
+		LetBind letBind = new LetBind(in, bindLetVar(node));
+		addChecks(letBind, (List<QNm>) node.getProperty("check"));
+		return anyOp(letBind, node.getLastChild());
+	}
+
+	protected Expr bindLetVar(AST node) throws QueryException {
 		int pos = 0;
 		AST letVarDecl = node.getChild(pos++);
 		QNm letVarName = (QNm) letVarDecl.getChild(0).getValue();
@@ -318,33 +494,34 @@ public class TopDownTranslator extends Compiler {
 			letVarType = sequenceType(letVarDecl.getChild(1));
 		}
 		Expr sourceExpr = expr(node.getChild(pos++), true);
-		Binding binding = table.bind(letVarName, letVarType);
+		table.bind(letVarName, letVarType);
 
 		// Fake binding of let variable because set-oriented processing requires
 		// the variable anyway
 		table.resolve(letVarName);
-		LetBind letBind = new LetBind(in, sourceExpr);
-		addChecks(letBind, (List<QNm>) node.getProperty("check"));
-		return anyOp(letBind, node.getLastChild());
+		return sourceExpr;
 	}
 
 	@SuppressWarnings("unchecked")
 	protected Operator count(Operator in, AST node) throws QueryException {
-		int pos = 0;
-		AST posVarDecl = node.getChild(pos++);
+		bindCountVar(node);
+		Count count = new Count(in);
+		addChecks(count, (List<QNm>) node.getProperty("check"));
+		return anyOp(count, node.getLastChild());
+	}
+
+	protected void bindCountVar(AST node) throws QueryException {
+		AST posVarDecl = node.getChild(0);
 		QNm posVarName = (QNm) posVarDecl.getChild(0).getValue();
 		SequenceType posVarType = SequenceType.ITEM_SEQUENCE;
 		if (posVarDecl.getChildCount() == 2) {
 			posVarType = sequenceType(posVarDecl.getChild(1));
 		}
-		Binding binding = table.bind(posVarName, posVarType);
+		table.bind(posVarName, posVarType);
 
-		// Fake binding of let variable because set-oriented processing requires
-		// the variable anyway
+		// Fake binding of count variable because set-oriented processing
+		// requires the variable anyway
 		table.resolve(posVarName);
-		Count count = new Count(in);
-		addChecks(count, (List<QNm>) node.getProperty("check"));
-		return anyOp(count, node.getLastChild());
 	}
 
 	@SuppressWarnings("unchecked")
@@ -358,6 +535,7 @@ public class TopDownTranslator extends Compiler {
 
 	@SuppressWarnings("unchecked")
 	protected Operator orderBy(Operator in, AST node) throws QueryException {
+		in = project(in, node);
 		int orderBySpecCount = node.getChildCount() - 1;
 		Expr[] orderByExprs = new Expr[orderBySpecCount];
 		OrderModifier[] orderBySpec = new OrderModifier[orderBySpecCount];
@@ -367,10 +545,45 @@ public class TopDownTranslator extends Compiler {
 			orderBySpec[i] = orderModifier(orderBy);
 		}
 		OrderBy orderBy = new OrderBy(in, orderByExprs, orderBySpec);
+		Integer limit = (Integer) node.getProperty("limit");
+		if (limit != null) {
+			orderBy.limit(limit);
+		}
 		addChecks(orderBy, (List<QNm>) node.getProperty("check"));
 		return anyOp(orderBy, node.getLastChild());
 	}
 
+	@SuppressWarnings("unchecked")
+	protected Operator project(Operator in, AST node) throws QueryException {
+		return project(in, (Set<QNm>) node.getProperty("live"), projectFrom);
+	}
+
+	/**
+	 * Switches-off all bindings of the current pipeline which are bound at
+	 * the given position or later and which are not live anymore.
+	 */
+	protected Operator project(Operator in, Set<QNm> live, int from)
+			throws QueryException {
+		if (live == null) {
+			return in;
+		}
+		Binding[] bound = table.bound();
+		Project project = null;
+		for (int i = from; i < bound.length; i++) {
+			QNm name = bound[i].getName();
+			if ((!bound[i].isReferenced()) || (live.contains(name))
+					|| (name.equals(Bits.FS_DOT))
+					|| (name.equals(Bits.FS_PARENT))) {
+				continue;
+			}
+			if (project == null) {
+				project = new Project(in);
+			}
+			table.resolve(name, project.clear());
+		}
+		return (project != null) ? project : in;
+	}
+
 	protected void addChecks(Check op, List<QNm> check) throws QueryException {
 		if (check != null) {
 			for (QNm checkVar : check) {
@@ -46,6 +46,9 @@ import org.brackit.xquery.xdm.type.SequenceType;
  * 
  */
 public class BoundVariable extends Variable implements Reference {
+
+	private static final long serialVersionUID = 1L;
+
 	private int pos = -1;
 
 	public BoundVariable(QNm name, SequenceType type) {
@@ -48,6 +48,9 @@ import org.brackit.xquery.xdm.type.SequenceType;
  * 
  */
 public class DeclVariable extends Variable implements Unit {
+
+	private static final long serialVersionUID = 1L;
+
 	private Expr expr;
 
 	public DeclVariable(QNm name, SequenceType type) {
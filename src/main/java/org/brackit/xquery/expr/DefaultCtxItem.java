@@ -50,10 +50,11 @@ import org.brackit.xquery.xdm.type.SequenceType;
  */
 public class DefaultCtxItem extends Variable implements Unit {
 
+	private static final long serialVersionUID = 1L;
+
 	private Expr expr;
 	private ItemType type = AnyItemType.ANY;
 	private boolean external = true;
-	private Item item;
 
 	public DefaultCtxItem() {
 		super(Bits.FS_DOT);
@@ -81,8 +82,10 @@ public class DefaultCtxItem extends Variable implements Unit {
 	@Override
 	public Item evaluateToItem(QueryContext ctx, Tuple tuple)
 			throws QueryException {
-		if (item != null) {
-			return item;
+		// the context item is bound in the query context because
+		// a compiled query may be evaluated for many contexts
+		if (ctx.isBound(name)) {
+			return (Item) ctx.resolve(name);
 		}
 		Item i = null;
 		if (external) {
@@ -96,8 +99,9 @@ public class DefaultCtxItem extends Variable implements Unit {
 					ErrorCode.ERR_DYNAMIC_CONTEXT_VARIABLE_NOT_DEFINED,
 					"Dynamic context variable %s is not assigned a value", name);
 		}
-		item = TypedSequence.toTypedItem(ctx, new SequenceType(type,
+		Item item = TypedSequence.toTypedItem(ctx, new SequenceType(type,
 				Cardinality.One), i);
-		return i;
+		ctx.bind(name, item);
+		return item;
 	}
-}
\ No newline at end of file
+}
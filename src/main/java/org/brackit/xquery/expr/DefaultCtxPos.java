@@ -44,6 +44,8 @@ import org.brackit.xquery.xdm.Sequence;
  */
 public class DefaultCtxPos extends Variable {
 
+	private static final long serialVersionUID = 1L;
+
 	private final DefaultCtxItem expr;
 
 	public DefaultCtxPos(DefaultCtxItem expr) {
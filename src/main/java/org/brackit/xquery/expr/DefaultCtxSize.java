@@ -43,7 +43,9 @@ import org.brackit.xquery.xdm.Sequence;
  * 
  */
 public class DefaultCtxSize extends Variable {
-	
+
+	private static final long serialVersionUID = 1L;
+
 	private final DefaultCtxItem expr;
 	
 	public DefaultCtxSize(DefaultCtxItem expr) {
@@ -27,6 +27,8 @@
  */
 package org.brackit.xquery.expr;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 
 import org.brackit.xquery.ErrorCode;
@@ -37,15 +39,20 @@ import org.brackit.xquery.atomic.Atomic;
 import org.brackit.xquery.atomic.Int32;
 import org.brackit.xquery.atomic.IntNumeric;
 import org.brackit.xquery.sequence.BaseIter;
+import org.brackit.xquery.sequence.ItemSequence;
 import org.brackit.xquery.sequence.LazySequence;
+import org.brackit.xquery.util.Cfg;
 import org.brackit.xquery.util.ExprUtil;
 import org.brackit.xquery.util.sort.TupleSort;
+import org.brackit.xquery.xdm.Axis;
 import org.brackit.xquery.xdm.Expr;
 import org.brackit.xquery.xdm.Item;
 import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Kind;
 import org.brackit.xquery.xdm.Node;
 import org.brackit.xquery.xdm.Sequence;
 import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.type.NodeType;
 
 /**
  * <p>
@@ -84,6 +91,21 @@ import org.brackit.xquery.xdm.Stream;
  * 
  */
 public class PathStepExpr implements Expr {
+	public static final String STAIRCASE_CFG = "org.brackit.xquery.staircaseJoin";
+
+	/**
+	 * Evaluate unfiltered descendant and ancestor steps over context
+	 * sequences set-at-a-time with a staircase join
+	 */
+	public static boolean STAIRCASE = Cfg.asBool(STAIRCASE_CFG, true);
+
+	private static final Comparator<Node<?>> DOCUMENT_ORDER = new Comparator<Node<?>>() {
+		@Override
+		public int compare(Node<?> o1, Node<?> o2) {
+			return o1.cmp(o2);
+		}
+	};
+
 	final Expr e2;
 	final Expr e1;
 	final boolean bindItem;
@@ -93,6 +115,7 @@ public class PathStepExpr implements Expr {
 	final boolean lastStep;
 	final boolean skipDDO;
 	final boolean checkInput;
+	final boolean staircase;
 
 	public PathStepExpr(Expr e1, Expr e2, boolean bindItem, boolean bindPos,
 			boolean bindSize, boolean lastStep, boolean skipDDO, boolean checkInput) {
@@ -105,6 +128,15 @@ public class PathStepExpr implements Expr {
 		this.skipDDO = skipDDO;
 		this.checkInput = checkInput;
 		bindCount = (bindItem ? 1 : 0) + (bindPos ? 1 : 0) + (bindSize ? 1 : 0);
+		this.staircase = (STAIRCASE) && (!skipDDO) && (!bindPos)
+				&& (!bindSize) && (e2 instanceof StepExpr)
+				&& (((StepExpr) e2).filter.length == 0)
+				&& (staircaseAxis(((StepExpr) e2).accessor.getAxis()));
+	}
+
+	private static boolean staircaseAxis(Axis axis) {
+		return ((axis == Axis.DESCENDANT) || (axis == Axis.DESCENDANT_OR_SELF)
+				|| (axis == Axis.ANCESTOR) || (axis == Axis.ANCESTOR_OR_SELF));
 	}
 
 	@Override
@@ -116,6 +148,9 @@ public class PathStepExpr implements Expr {
 		if (in == null) {
 			return null;
 		}
+		if ((staircase) && (!(in instanceof Item))) {
+			return new StaircaseJoinSequence(ctx, t, in);
+		}
 		IntNumeric size = (bindSize) ? in.size() : null;
 		Sequence out = new PathStepSequence(ctx, t, in, size);
 		if ((!skipDDO) && ((!checkInput) || (!(in instanceof Node<?>)))) {
@@ -311,6 +346,163 @@ public class PathStepExpr implements Expr {
 		}
 	}
 
+	private class StaircaseJoinSequence extends LazySequence {
+		final QueryContext ctx;
+		final Sequence in;
+		final Tuple t;
+
+		StaircaseJoinSequence(QueryContext ctx, Tuple t, Sequence in) {
+			this.ctx = ctx;
+			this.t = t;
+			this.in = in;
+		}
+
+		@Override
+		public Iter iterate() {
+			return new StaircaseJoinIter(ctx, t, in);
+		}
+
+		public String toString() {
+			return e1 + "/" + e2;
+		}
+	}
+
+	/**
+	 * Set-at-a-time evaluation of an unfiltered descendant or ancestor step
+	 * for a sequence of context nodes. The context nodes are brought into
+	 * document order first. For the descendant axes, context nodes within the
+	 * subtree of a preceding context node are pruned, so that the remaining
+	 * subtrees are disjoint and each is scanned once. For the ancestor axes,
+	 * ancestors already delivered for the preceding context node are skipped.
+	 * In both cases, the output is in document order and free of duplicates.
+	 */
+	private class StaircaseJoinIter extends BaseIter {
+		final QueryContext ctx;
+		final Tuple t;
+		final Sequence in;
+		final Accessor accessor;
+		final NodeType test;
+		final Axis axis;
+		Node<?>[] context;
+		int pos;
+		Node<?> prev;
+		Node<?> skip;
+		Stream<? extends Node<?>> out;
+		Iter fallback;
+
+		StaircaseJoinIter(QueryContext ctx, Tuple t, Sequence in) {
+			this.ctx = ctx;
+			this.t = t;
+			this.in = in;
+			this.accessor = ((StepExpr) e2).accessor;
+			this.test = ((StepExpr) e2).test;
+			this.axis = accessor.getAxis();
+		}
+
+		@Override
+		public Item next() throws QueryException {
+			if (context == null) {
+				init();
+			}
+			if (fallback != null) {
+				return fallback.next();
+			}
+			while (true) {
+				if (out != null) {
+					Node<?> next;
+					while ((next = out.next()) != null) {
+						if (skip != null) {
+							if ((next.isAncestorOf(skip))
+									|| ((axis == Axis.ANCESTOR_OR_SELF) && (next
+											.isSelfOf(skip)))) {
+								// already delivered for preceding context
+								continue;
+							}
+							skip = null;
+						}
+						return next;
+					}
+					out.close();
+					out = null;
+				}
+				if (pos == context.length) {
+					return null;
+				}
+				Node<?> c = context[pos++];
+				if ((axis == Axis.DESCENDANT)
+						|| (axis == Axis.DESCENDANT_OR_SELF)) {
+					if ((c.getKind() == Kind.ATTRIBUTE)
+							|| ((prev != null) && (c.isDescendantOf(prev)))) {
+						// no descendants or subtree is already covered
+						continue;
+					}
+				} else {
+					skip = prev;
+				}
+				prev = c;
+				out = accessor.performStep(c, test);
+			}
+		}
+
+		private void init() throws QueryException {
+			ArrayList<Node<?>> nodes = new ArrayList<Node<?>>();
+			boolean sorted = true;
+			boolean attribute = false;
+			Node<?> last = null;
+			Iter it = in.iterate();
+			try {
+				Item item;
+				while ((item = it.next()) != null) {
+					if (!(item instanceof Node<?>)) {
+						throw new QueryException(
+								ErrorCode.ERR_PATH_STEP_RETURNED_NON_NODE_VALUE,
+								"Intermediate step in path expression returned a non-node: %s",
+								item.itemType());
+					}
+					Node<?> node = (Node<?>) item;
+					sorted = (sorted)
+							&& ((last == null) || (last.cmp(node) < 0));
+					attribute = (attribute)
+							|| (node.getKind() == Kind.ATTRIBUTE);
+					nodes.add(node);
+					last = node;
+				}
+			} finally {
+				it.close();
+			}
+			context = nodes.toArray(new Node<?>[nodes.size()]);
+			if ((attribute) && (axis == Axis.DESCENDANT_OR_SELF)) {
+				// attributes precede the descendants of their element
+				// but are not covered by the descendant scan
+				Sequence s = new PathStepSequence(ctx, t, new ItemSequence(
+						context), null);
+				fallback = new DdoOrAtomicSequence(s).iterate();
+				return;
+			}
+			if (!sorted) {
+				Arrays.sort(context, DOCUMENT_ORDER);
+				int size = 0;
+				for (int i = 0; i < context.length; i++) {
+					if ((size == 0)
+							|| (context[size - 1].cmp(context[i]) != 0)) {
+						context[size++] = context[i];
+					}
+				}
+				context = Arrays.copyOf(context, size);
+			}
+		}
+
+		@Override
+		public void close() {
+			if (out != null) {
+				out.close();
+			}
+			if (fallback != null) {
+				fallback.close();
+			}
+		}
+	}
+
 	@Override
 	public Item evaluateToItem(QueryContext ctx, Tuple tuple)
 			throws QueryException {
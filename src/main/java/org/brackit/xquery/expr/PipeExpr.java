@@ -31,6 +31,7 @@ import org.brackit.xquery.QueryContext;
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.Tuple;
 import org.brackit.xquery.operator.Cursor;
+import org.brackit.xquery.operator.Cursors;
 import org.brackit.xquery.operator.Operator;
 import org.brackit.xquery.sequence.BaseIter;
 import org.brackit.xquery.sequence.LazySequence;
@@ -73,6 +74,11 @@ public class PipeExpr implements Expr {
 			return new BaseIter() {
 				Cursor cursor;
 				Iter it;
+				// tuples are pulled in batches of growing size
+				// to keep early termination cheap
+				Tuple[] buf;
+				int pos;
+				int len;
 
 				@Override
 				public Item next() throws QueryException {
@@ -89,7 +95,7 @@ public class PipeExpr implements Expr {
 							cursor.open(ctx);
 						}
 
-						Tuple t = cursor.next(ctx);
+						Tuple t = nextTuple();
 
 						if (t == null) {
 							return null;
@@ -107,11 +113,31 @@ public class PipeExpr implements Expr {
 					}
 				}
 
+				private Tuple nextTuple() throws QueryException {
+					if (pos == len) {
+						if (buf == null) {
+							buf = new Tuple[1];
+						} else if (buf.length < Cursors.BATCH_SIZE) {
+							buf = new Tuple[Math.min(2 * buf.length,
+									Cursors.BATCH_SIZE)];
+						}
+						pos = 0;
+						len = Cursors.next(ctx, cursor, buf, buf.length);
+						if (len == 0) {
+							return null;
+						}
+					}
+					Tuple t = buf[pos];
+					buf[pos++] = null;
+					return t;
+				}
+
 				@Override
 				public void close() {
 					if (it != null) {
 						it.close();
 					}
+					buf = null;
 					if (cursor != null) {
 						cursor.close(ctx);
 					}
@@ -0,0 +1,133 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.expr;
+
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.expr.ArithmeticExpr.ArithmeticOp;
+import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Item;
+
+/**
+ * Compiled arithmetic expression on <code>long</code> or
+ * <code>double</code> values.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+final class ScalarArithExpr extends ScalarExpr {
+	private final ArithmeticOp op;
+	private final ScalarExpr left;
+	private final ScalarExpr right;
+
+	ScalarArithExpr(Expr expr, boolean dbl, ArithmeticOp op, ScalarExpr left,
+			ScalarExpr right) {
+		super(expr, dbl);
+		this.op = op;
+		this.left = left;
+		this.right = right;
+	}
+
+	@Override
+	long longValue(QueryContext ctx, Tuple tuple) throws QueryException {
+		long a = left.longValue(ctx, tuple);
+		if (a == NO_LONG) {
+			return NO_LONG;
+		}
+		long b = right.longValue(ctx, tuple);
+		if (b == NO_LONG) {
+			return NO_LONG;
+		}
+		long r;
+		switch (op) {
+		case PLUS:
+			r = a + b;
+			return ((b >= 0) ? (r < a) : (r > a)) ? NO_LONG : r;
+		case MINUS:
+			r = a - b;
+			return ((b >= 0) ? (r > a) : (r < a)) ? NO_LONG : r;
+		case MULT:
+			r = a * b;
+			return ((b != 0) && ((r / b != a) || (a == NO_LONG))) ? NO_LONG
+					: r;
+		case IDIV:
+			return (b == 0) ? NO_LONG : a / b;
+		case MOD:
+			return (b == 0) ? NO_LONG : a % b;
+		default:
+			return NO_LONG;
+		}
+	}
+
+	@Override
+	double doubleValue(QueryContext ctx, Tuple tuple) throws QueryException {
+		double a = left.toDouble(ctx, tuple);
+		if (a != a) {
+			return Double.NaN;
+		}
+		double b = right.toDouble(ctx, tuple);
+		if (b != b) {
+			return Double.NaN;
+		}
+		switch (op) {
+		case PLUS:
+			return a + b;
+		case MINUS:
+			return a - b;
+		case MULT:
+			return a * b;
+		case DIV:
+			// leave division by zero and infinity to the generic path
+			return ((b == 0) || (Double.isInfinite(a)) || (Double
+					.isInfinite(b))) ? Double.NaN : a / b;
+		case MOD:
+			return a % b;
+		default:
+			return Double.NaN;
+		}
+	}
+
+	@Override
+	public Item evaluateToItem(QueryContext ctx, Tuple tuple)
+			throws QueryException {
+		if (dbl) {
+			double v = doubleValue(ctx, tuple);
+			if (v == v) {
+				return new Dbl(v);
+			}
+		} else {
+			long v = longValue(ctx, tuple);
+			if (v != NO_LONG) {
+				return integer(v);
+			}
+		}
+		return expr.evaluateToItem(ctx, tuple);
+	}
+}
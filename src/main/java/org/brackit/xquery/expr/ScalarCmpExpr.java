@@ -0,0 +1,136 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.expr;
+
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Bool;
+import org.brackit.xquery.util.Cmp;
+import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Compiled comparison of <code>long</code> or <code>double</code> values.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+final class ScalarCmpExpr extends ScalarExpr {
+	private final Cmp cmp;
+	private final ScalarExpr left;
+	private final ScalarExpr right;
+
+	ScalarCmpExpr(Expr expr, Cmp cmp, ScalarExpr left, ScalarExpr right) {
+		super(expr, false);
+		this.cmp = cmp;
+		this.left = left;
+		this.right = right;
+	}
+
+	/**
+	 * Returns the sign of the comparison or <code>2</code> if the operands
+	 * are not available as primitive values.
+	 */
+	private int compare(QueryContext ctx, Tuple tuple) throws QueryException {
+		if ((left.dbl) || (right.dbl)) {
+			double a = left.toDouble(ctx, tuple);
+			if (a != a) {
+				return 2;
+			}
+			double b = right.toDouble(ctx, tuple);
+			if (b != b) {
+				return 2;
+			}
+			return (a < b) ? -1 : (a == b) ? 0 : 1;
+		}
+		long a = left.longValue(ctx, tuple);
+		if (a == NO_LONG) {
+			return 2;
+		}
+		long b = right.longValue(ctx, tuple);
+		if (b == NO_LONG) {
+			return 2;
+		}
+		return (a < b) ? -1 : (a == b) ? 0 : 1;
+	}
+
+	@Override
+	public boolean booleanValue(QueryContext ctx, Tuple tuple)
+			throws QueryException {
+		int c = compare(ctx, tuple);
+		if (c == 2) {
+			Sequence s = expr.evaluate(ctx, tuple);
+			return ((s != null) && (s.booleanValue()));
+		}
+		switch (cmp) {
+		case eq:
+			return (c == 0);
+		case ne:
+			return (c != 0);
+		case lt:
+			return (c < 0);
+		case le:
+			return (c <= 0);
+		case gt:
+			return (c > 0);
+		default:
+			return (c >= 0);
+		}
+	}
+
+	@Override
+	public Sequence evaluate(QueryContext ctx, Tuple tuple)
+			throws QueryException {
+		return evaluateToItem(ctx, tuple);
+	}
+
+	@Override
+	public Item evaluateToItem(QueryContext ctx, Tuple tuple)
+			throws QueryException {
+		int c = compare(ctx, tuple);
+		if (c == 2) {
+			return expr.evaluateToItem(ctx, tuple);
+		}
+		switch (cmp) {
+		case eq:
+			return (c == 0) ? Bool.TRUE : Bool.FALSE;
+		case ne:
+			return (c != 0) ? Bool.TRUE : Bool.FALSE;
+		case lt:
+			return (c < 0) ? Bool.TRUE : Bool.FALSE;
+		case le:
+			return (c <= 0) ? Bool.TRUE : Bool.FALSE;
+		case gt:
+			return (c > 0) ? Bool.TRUE : Bool.FALSE;
+		default:
+			return (c >= 0) ? Bool.TRUE : Bool.FALSE;
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.expr;
+
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Int64;
+import org.brackit.xquery.atomic.IntNumeric;
+import org.brackit.xquery.expr.ArithmeticExpr.ArithmeticOp;
+import org.brackit.xquery.util.Cmp;
+import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Type;
+import org.brackit.xquery.xdm.type.AtomicType;
+import org.brackit.xquery.xdm.type.Cardinality;
+import org.brackit.xquery.xdm.type.SequenceType;
+
+/**
+ * Compiled scalar expression. Arithmetic and comparisons over literals and
+ * variables are evaluated on primitive <code>long</code> and
+ * <code>double</code> values instead of a tree of boxed intermediate
+ * results. Whether a subtree computes integers or doubles is derived from
+ * the types of literals, declared variable types, and the static types
+ * inferred by the optimizer.
+ * <p>
+ * The primitive paths are guarded: if an operand has an unexpected type,
+ * is empty, or a result would overflow or needs special treatment, e.g.,
+ * <code>NaN</code>, the generic expression of the subtree is evaluated
+ * instead. Thus, the result is always the one of the generic expression.
+ * Compiled subtrees contain no updating expressions, so operands may safely
+ * be evaluated twice.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public abstract class ScalarExpr implements Expr {
+	/**
+	 * Signals that a value is not available on the <code>long</code> path.
+	 * Values which are <code>NaN</code> signal the same on the
+	 * <code>double</code> path.
+	 */
+	static final long NO_LONG = Long.MIN_VALUE;
+
+	protected final Expr expr;
+
+	protected final boolean dbl;
+
+	ScalarExpr(Expr expr, boolean dbl) {
+		this.expr = expr;
+		this.dbl = dbl;
+	}
+
+	long longValue(QueryContext ctx, Tuple tuple) throws QueryException {
+		return NO_LONG;
+	}
+
+	double doubleValue(QueryContext ctx, Tuple tuple) throws QueryException {
+		return Double.NaN;
+	}
+
+	final double toDouble(QueryContext ctx, Tuple tuple)
+			throws QueryException {
+		if (dbl) {
+			return doubleValue(ctx, tuple);
+		}
+		long v = longValue(ctx, tuple);
+		return (v == NO_LONG) ? Double.NaN : v;
+	}
+
+	/**
+	 * Returns the effective boolean value of this expression.
+	 */
+	public boolean booleanValue(QueryContext ctx, Tuple tuple)
+			throws QueryException {
+		Sequence s = evaluate(ctx, tuple);
+		return ((s != null) && (s.booleanValue()));
+	}
+
+	@Override
+	public Sequence evaluate(QueryContext ctx, Tuple tuple)
+			throws QueryException {
+		return evaluateToItem(ctx, tuple);
+	}
+
+	@Override
+	public boolean isUpdating() {
+		return false;
+	}
+
+	@Override
+	public boolean isVacuous() {
+		return false;
+	}
+
+	public String toString() {
+		return expr.toString();
+	}
+
+	static Int32 int32(int v) {
+		return ((0 <= v) && (v <= 20)) ? Int32.ZERO_TWO_TWENTY[v]
+				: new Int32(v);
+	}
+
+	static IntNumeric integer(long v) {
+		return ((int) v == v) ? int32((int) v) : new Int64(v);
+	}
+
+	/**
+	 * Literal or variable reference.
+	 */
+	private static final class Leaf extends ScalarExpr {
+		Leaf(Expr expr, boolean dbl) {
+			super(expr, dbl);
+		}
+
+		@Override
+		long longValue(QueryContext ctx, Tuple tuple) throws QueryException {
+			Sequence s = expr.evaluate(ctx, tuple);
+			if (s instanceof Int32) {
+				return ((Int32) s).intValue();
+			}
+			if (s instanceof Int64) {
+				return ((Int64) s).longValue();
+			}
+			return NO_LONG;
+		}
+
+		@Override
+		double doubleValue(QueryContext ctx, Tuple tuple)
+				throws QueryException {
+			Sequence s = expr.evaluate(ctx, tuple);
+			return (s instanceof Dbl) ? ((Dbl) s).doubleValue() : Double.NaN;
+		}
+
+		@Override
+		public Sequence evaluate(QueryContext ctx, Tuple tuple)
+				throws QueryException {
+			return expr.evaluate(ctx, tuple);
+		}
+
+		@Override
+		public Item evaluateToItem(QueryContext ctx,
+				Tuple tuple) throws QueryException {
+			return expr.evaluateToItem(ctx, tuple);
+		}
+	}
+
+	private static final SequenceType DOUBLE = new SequenceType(
+			AtomicType.DBL, Cardinality.One);
+
+	private static boolean isType(SequenceType type, Type t) {
+		return ((type != null)
+				&& (type.getItemType() instanceof AtomicType) && (((AtomicType) type
+				.getItemType()).getType().instanceOf(t)));
+	}
+
+	/**
+	 * Returns the operand as compiled scalar expression or <code>null</code>
+	 * if it cannot be compiled. The static type of the operand is optional.
+	 */
+	private static ScalarExpr operand(Expr e, SequenceType type) {
+		if (e instanceof ScalarExpr) {
+			return (ScalarExpr) e;
+		}
+		if ((e instanceof Int32) || (e instanceof Int64)) {
+			return new Leaf(e, false);
+		}
+		if (e instanceof Dbl) {
+			return new Leaf(e, true);
+		}
+		if (e instanceof DefaultCtxItem) {
+			return null;
+		}
+		if (e instanceof Variable) {
+			return new Leaf(e, (isType(type, Type.DBL))
+					|| (DOUBLE.equals(((Variable) e).getType())));
+		}
+		if ((!e.isUpdating())
+				&& ((isType(type, Type.INR)) || (isType(type, Type.DBL)))) {
+			return new Leaf(e, isType(type, Type.DBL));
+		}
+		return null;
+	}
+
+	private static boolean numeric(ScalarExpr e) {
+		return ((e instanceof Leaf) || (e instanceof ScalarArithExpr));
+	}
+
+	/**
+	 * Compiles an arithmetic expression or returns the generic expression if
+	 * it cannot be compiled. The static operand types may be
+	 * <code>null</code>.
+	 */
+	public static Expr arithmetic(ArithmeticOp op, Expr left,
+			SequenceType leftType, Expr right, SequenceType rightType,
+			ArithmeticExpr generic) {
+		ScalarExpr l = operand(left, leftType);
+		ScalarExpr r = operand(right, rightType);
+		if ((l == null) || (r == null) || (!numeric(l)) || (!numeric(r))) {
+			return generic;
+		}
+		boolean dbl = ((l.dbl) || (r.dbl));
+		if (((dbl) && (op == ArithmeticOp.IDIV))
+				|| ((!dbl) && (op == ArithmeticOp.DIV))) {
+			// integer division results in xs:decimal
+			return generic;
+		}
+		return new ScalarArithExpr(generic, dbl, op, l, r);
+	}
+
+	/**
+	 * Compiles a value or general comparison or returns the generic
+	 * expression if it cannot be compiled. The static operand types may be
+	 * <code>null</code>.
+	 */
+	public static Expr comparison(Cmp cmp, Expr left, SequenceType leftType,
+			Expr right, SequenceType rightType, Expr generic) {
+		ScalarExpr l = operand(left, leftType);
+		ScalarExpr r = operand(right, rightType);
+		if ((l == null) || (r == null) || (!numeric(l)) || (!numeric(r))) {
+			return generic;
+		}
+		return new ScalarCmpExpr(generic, cmp, l, r);
+	}
+
+	/**
+	 * Compiles a logical conjunction or disjunction or returns the generic
+	 * expression if neither operand is compiled.
+	 */
+	public static Expr logic(boolean and, Expr left, Expr right, Expr generic) {
+		if ((!(left instanceof ScalarExpr)) && (!(right instanceof ScalarExpr))) {
+			return generic;
+		}
+		return new ScalarLogicExpr(generic, and, left, right);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.expr;
+
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Bool;
+import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Compiled logical conjunction or disjunction which evaluates compiled
+ * operands without boxing their results.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+final class ScalarLogicExpr extends ScalarExpr {
+	private final boolean and;
+	private final Expr left;
+	private final Expr right;
+
+	ScalarLogicExpr(Expr expr, boolean and, Expr left, Expr right) {
+		super(expr, false);
+		this.and = and;
+		this.left = left;
+		this.right = right;
+	}
+
+	private static boolean ebv(QueryContext ctx, Tuple tuple, Expr e)
+			throws QueryException {
+		if (e instanceof ScalarExpr) {
+			return ((ScalarExpr) e).booleanValue(ctx, tuple);
+		}
+		Sequence s = e.evaluate(ctx, tuple);
+		return ((s != null) && (s.booleanValue()));
+	}
+
+	@Override
+	public boolean booleanValue(QueryContext ctx, Tuple tuple)
+			throws QueryException {
+		if (and) {
+			return ((ebv(ctx, tuple, left)) && (ebv(ctx, tuple, right)));
+		}
+		return ((ebv(ctx, tuple, left)) || (ebv(ctx, tuple, right)));
+	}
+
+	@Override
+	public Item evaluateToItem(QueryContext ctx, Tuple tuple)
+			throws QueryException {
+		return (booleanValue(ctx, tuple)) ? Bool.TRUE : Bool.FALSE;
+	}
+
+	@Override
+	public boolean isUpdating() {
+		return ((left.isUpdating()) || (right.isUpdating()));
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.expr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.node.PathStackStream;
+import org.brackit.xquery.sequence.BaseIter;
+import org.brackit.xquery.sequence.LazySequence;
+import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.ExprUtil;
+import org.brackit.xquery.util.path.Path;
+import org.brackit.xquery.xdm.Axis;
+import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Kind;
+import org.brackit.xquery.xdm.Node;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.type.AnyNodeType;
+import org.brackit.xquery.xdm.type.AttributeType;
+import org.brackit.xquery.xdm.type.ElementType;
+
+/**
+ * <p>
+ * Evaluates a path E/P, where P is a sequence of unfiltered child and
+ * descendant element steps starting with a descendant step and optionally
+ * ending with an attribute step, e.g., <code>E//a//b/c</code> or
+ * <code>E//a//@b</code>, as a holistic path join. Instead of evaluating P
+ * step by step with intermediate results, the subtree of each context node
+ * is scanned only once and matched against the whole pattern with a
+ * {@link PathStackStream}.
+ * </p>
+ * <p>
+ * Because P starts with a descendant step, all matches for a context node
+ * nested in another context node are also matches for the outer one. Hence,
+ * only the outermost context nodes in document order need to be scanned and
+ * the result is duplicate-free and in document order.
+ * </p>
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class TwigJoinExpr implements Expr {
+	public static final String TWIG_CFG = "org.brackit.xquery.twigJoin";
+
+	/**
+	 * Evaluate multi-step descendant paths with a holistic path join
+	 */
+	public static boolean TWIG = Cfg.asBool(TWIG_CFG, true);
+
+	private static final Comparator<Node<?>> DOCUMENT_ORDER = new Comparator<Node<?>>() {
+		@Override
+		public int compare(Node<?> o1, Node<?> o2) {
+			return o1.cmp(o2);
+		}
+	};
+
+	final Expr in;
+	final Path<QNm> path;
+
+	public TwigJoinExpr(Expr in, Path<QNm> path) {
+		this.in = in;
+		this.path = path;
+	}
+
+	/**
+	 * Replace the trailing child and descendant element steps of a path
+	 * compiled into {@link PathStepExpr}s with a holistic path join, if they
+	 * form a pattern of at least two steps starting with a descendant step.
+	 * 
+	 * @param expr
+	 *            the compiled path
+	 * @return the rewritten path or <code>expr</code> if the path does not
+	 *         qualify
+	 */
+	public static Expr rewrite(Expr expr) {
+		List<PathStepExpr> steps = new ArrayList<PathStepExpr>();
+		List<Path.Axis> axes = new ArrayList<Path.Axis>();
+		List<QNm> names = new ArrayList<QNm>();
+		Expr e = expr;
+		while (e instanceof PathStepExpr) {
+			PathStepExpr p = (PathStepExpr) e;
+			if ((p.bindPos) || (p.bindSize) || (!(p.e2 instanceof StepExpr))) {
+				break;
+			}
+			StepExpr s = (StepExpr) p.e2;
+			if (s.filter.length > 0) {
+				break;
+			}
+			Axis axis = s.accessor.getAxis();
+			if ((axis == Axis.DESCENDANT_OR_SELF)
+					&& (s.test instanceof AnyNodeType)) {
+				// abbreviated '//' followed by a child step
+				int last = axes.size() - 1;
+				if ((last < 0) || (axes.get(last) == Path.Axis.DESC)) {
+					break;
+				}
+				axes.set(last,
+						(axes.get(last) == Path.Axis.CHILD) ? Path.Axis.DESC
+								: Path.Axis.DESC_ATTRIBUTE);
+				steps.set(last, p);
+			} else if (((axis == Axis.CHILD) || (axis == Axis.DESCENDANT))
+					&& (s.test instanceof ElementType)
+					&& (((ElementType) s.test).getType() == null)) {
+				steps.add(p);
+				axes.add((axis == Axis.CHILD) ? Path.Axis.CHILD
+						: Path.Axis.DESC);
+				names.add(((ElementType) s.test).getQName());
+			} else if ((axis == Axis.ATTRIBUTE) && (axes.isEmpty())
+					&& (s.test instanceof AttributeType)
+					&& (((AttributeType) s.test).getType() == null)) {
+				steps.add(p);
+				axes.add(Path.Axis.CHILD_ATTRIBUTE);
+				names.add(((AttributeType) s.test).getQName());
+			} else {
+				break;
+			}
+			e = p.e1;
+		}
+		// pattern must start with a descendant step
+		int first = axes.lastIndexOf(Path.Axis.DESC);
+		if (first < 1) {
+			return expr;
+		}
+		Path<QNm> path = new Path<QNm>();
+		for (int i = first; i >= 0; i--) {
+			Path.Axis a = axes.get(i);
+			if (a == Path.Axis.CHILD) {
+				path.child(names.get(i));
+			} else if (a == Path.Axis.DESC) {
+				path.descendant(names.get(i));
+			} else if (a == Path.Axis.CHILD_ATTRIBUTE) {
+				path.attribute(names.get(i));
+			} else {
+				path.descendantAttribute(names.get(i));
+			}
+		}
+		return new TwigJoinExpr(steps.get(first).e1, path);
+	}
+
+	@Override
+	public Sequence evaluate(QueryContext ctx, Tuple t) throws QueryException {
+		final Sequence s = in.evaluate(ctx, t);
+		if (s == null) {
+			return null;
+		}
+		return new LazySequence() {
+			@Override
+			public Iter iterate() {
+				return new TwigJoinIter(s);
+			}
+		};
+	}
+
+	@Override
+	public Item evaluateToItem(QueryContext ctx, Tuple tuple)
+			throws QueryException {
+		return ExprUtil.asItem(evaluate(ctx, tuple));
+	}
+
+	private class TwigJoinIter extends BaseIter {
+		final Sequence s;
+		Node<?>[] context;
+		int pos;
+		Stream<? extends Node<?>> out;
+
+		TwigJoinIter(Sequence s) {
+			this.s = s;
+		}
+
+		@Override
+		public Item next() throws QueryException {
+			if (context == null) {
+				init();
+			}
+			while (true) {
+				if (out != null) {
+					Node<?> next = out.next();
+					if (next != null) {
+						return next;
+					}
+					out.close();
+					out = null;
+				}
+				if (pos == context.length) {
+					return null;
+				}
+				Node<?> c = context[pos++];
+				out = new PathStackStream.Default(c, c.getSubtree(), path);
+			}
+		}
+
+		private void init() throws QueryException {
+			ArrayList<Node<?>> nodes = new ArrayList<Node<?>>();
+			boolean sorted = true;
+			Node<?> last = null;
+			Iter it = s.iterate();
+			try {
+				Item item;
+				while ((item = it.next()) != null) {
+					if (!(item instanceof Node<?>)) {
+						throw new QueryException(
+								ErrorCode.ERR_PATH_STEP_RETURNED_NON_NODE_VALUE,
+								"Intermediate step in path expression returned a non-node: %s",
+								item.itemType());
+					}
+					Node<?> node = (Node<?>) item;
+					sorted = (sorted)
+							&& ((last == null) || (last.cmp(node) < 0));
+					nodes.add(node);
+					last = node;
+				}
+			} finally {
+				it.close();
+			}
+			Node<?>[] tmp = nodes.toArray(new Node<?>[nodes.size()]);
+			if (!sorted) {
+				Arrays.sort(tmp, DOCUMENT_ORDER);
+			}
+			// keep only the outermost context nodes
+			int size = 0;
+			for (int i = 0; i < tmp.length; i++) {
+				if ((tmp[i].getKind() == Kind.ATTRIBUTE)
+						|| ((size > 0) && ((tmp[size - 1].isSelfOf(tmp[i])) || (tmp[size - 1]
+								.isAncestorOf(tmp[i]))))) {
+					continue;
+				}
+				tmp[size++] = tmp[i];
+			}
+			context = Arrays.copyOf(tmp, size);
+		}
+
+		@Override
+		public void close() {
+			if (out != null) {
+				out.close();
+			}
+		}
+	}
+
+	@Override
+	public boolean isUpdating() {
+		return in.isUpdating();
+	}
+
+	@Override
+	public boolean isVacuous() {
+		return false;
+	}
+
+	public String toString() {
+		return in + path.toString();
+	}
+}
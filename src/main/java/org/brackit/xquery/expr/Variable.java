@@ -27,6 +27,8 @@
  */
 package org.brackit.xquery.expr;
 
+import java.io.Serializable;
+
 import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.xdm.Expr;
 import org.brackit.xquery.xdm.type.SequenceType;
@@ -37,7 +39,10 @@ import org.brackit.xquery.xdm.type.SequenceType;
  * @author Sebastian Baechle
  * 
  */
-public abstract class Variable implements Expr {
+public abstract class Variable implements Expr, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	protected final QNm name;
 
 	protected final SequenceType type;
@@ -43,6 +43,8 @@ import org.brackit.xquery.atomic.Str;
  */
 public abstract class AbstractModule implements Module {
 
+	private static final long serialVersionUID = 1L;
+
 	// use small lists instead of maps because we assume
 	// relatively few module imports, external variables and options
 	// per module and also relatively few lookups
@@ -27,6 +27,7 @@
  */
 package org.brackit.xquery.module;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -109,7 +110,9 @@ import org.brackit.xquery.xdm.type.SequenceType;
  * @author Sebastian Baechle
  * 
  */
-public class Functions {
+public class Functions implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	private static final Map<QNm, Function[]> predefined = new HashMap<QNm, Function[]>();
 
@@ -36,6 +36,8 @@ import org.brackit.xquery.xdm.Expr;
  */
 public class LibraryModule extends AbstractModule {
 
+	private static final long serialVersionUID = 1L;
+
 	private String nsURI;
 
 	public String getTargetNS() {
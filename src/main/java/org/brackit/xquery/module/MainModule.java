@@ -36,6 +36,9 @@ import org.brackit.xquery.xdm.Expr;
  * 
  */
 public class MainModule extends AbstractModule implements Unit {
+
+	private static final long serialVersionUID = 1L;
+
 	private Expr body;
 
 	@Override
@@ -27,6 +27,7 @@
  */
 package org.brackit.xquery.module;
 
+import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
 
@@ -40,7 +41,7 @@ import org.brackit.xquery.xdm.Expr;
  * @author Sebastian Baechle
  * 
  */
-public interface Module {
+public interface Module extends Serializable {
 
 	public String getTargetNS();
 
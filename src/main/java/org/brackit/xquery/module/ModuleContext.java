@@ -36,6 +36,8 @@ import org.brackit.xquery.atomic.QNm;
  */
 public class ModuleContext implements StaticContext {
 
+	private static final long serialVersionUID = 1L;
+
 	protected final Namespaces namespaces = new Namespaces();
 	protected final Functions functions = new Functions();
 	protected final Types types = new Types();
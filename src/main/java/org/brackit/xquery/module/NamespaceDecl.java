@@ -27,11 +27,16 @@
  */
 package org.brackit.xquery.module;
 
+import java.io.Serializable;
+
 /**
  * @author Sebastian Baechle
  *
  */
-public class NamespaceDecl {
+public class NamespaceDecl implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	
 	private final String prefix;
 	private final String nsUri;
@@ -27,6 +27,7 @@
  */
 package org.brackit.xquery.module;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
@@ -41,7 +42,10 @@ import org.brackit.xquery.function.json.JSONFun;
  * @author Sebastian Baechle
  * 
  */
-public class Namespaces {
+public class Namespaces implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	public static final String LOCAL_NSURI = "http://www.w3.org/2005/xquery-local-functions";
 
 	public static final String FN_NSURI = "http://www.w3.org/2005/xpath-functions";
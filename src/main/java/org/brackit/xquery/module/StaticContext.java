@@ -27,6 +27,8 @@
  */
 package org.brackit.xquery.module;
 
+import java.io.Serializable;
+
 import org.brackit.xquery.atomic.AnyURI;
 import org.brackit.xquery.atomic.QNm;
 
@@ -47,7 +49,7 @@ import org.brackit.xquery.atomic.QNm;
  * @author Sebastian Baechle
  * 
  */
-public interface StaticContext {
+public interface StaticContext extends Serializable {
 
 	public static final String UNICODE_COLLATION = "http://www.w3.org/2005/xpath-functions/collation/codepoint";
 
@@ -27,6 +27,7 @@
  */
 package org.brackit.xquery.module;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -40,7 +41,10 @@ import org.brackit.xquery.xdm.Type;
  * @author Sebastian Baechle
  * 
  */
-public class Types {
+public class Types implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	protected final Map<QNm, Type> atomicTypes = new HashMap<QNm, Type>();
 
 	public Type resolveSchemaType(QNm name) throws QueryException {
@@ -27,6 +27,7 @@
  */
 package org.brackit.xquery.module;
 
+import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -46,7 +47,9 @@ import org.brackit.xquery.xdm.type.SequenceType;
  * @author Sebastian Baechle
  * 
  */
-public class Variables {
+public class Variables implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	protected final Map<QNm, Variable> vars = new TreeMap<QNm, Variable>();
 	protected final DefaultCtxItem dftItem = new DefaultCtxItem();
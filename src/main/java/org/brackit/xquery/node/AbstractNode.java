@@ -30,6 +30,8 @@ package org.brackit.xquery.node;
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.atomic.AnyURI;
 import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.NameDictionary;
+import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.atomic.Str;
 import org.brackit.xquery.node.stream.AtomStream;
 import org.brackit.xquery.node.stream.filter.Filter;
@@ -120,6 +122,12 @@ public abstract class AbstractNode<E extends Node<E>> extends AbstractItem
 		return null;
 	}
 
+	@Override
+	public int getNameID() throws DocumentException {
+		QNm name = getName();
+		return (name != null) ? name.getID() : NameDictionary.NO_NAME;
+	}
+
 	@Override
 	public Stream<Atomic> getValues() throws DocumentException {
 		return new AtomStream<Atomic>(getValue());
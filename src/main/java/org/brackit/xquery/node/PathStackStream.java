@@ -27,12 +27,37 @@
  */
 package org.brackit.xquery.node;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+import org.brackit.xquery.atomic.NameDictionary;
+import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.util.path.Path;
+import org.brackit.xquery.util.path.Path.Axis;
 import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Kind;
 import org.brackit.xquery.xdm.Node;
 import org.brackit.xquery.xdm.Stream;
 
 /**
+ * <p>
+ * Holistic path join (PathStack) matching a linear path pattern of child and
+ * descendant steps in a single pass over a stream of nodes in document order.
+ * </p>
+ * <p>
+ * For each step of the pattern, a stack holds the chain of nested input
+ * nodes which match the step and have a matching ancestor for all preceding
+ * steps. Each stack entry points to the top of the stack of the preceding
+ * step at the time it was pushed. When a node matches the last step, the
+ * pointers are followed to enumerate all matches of the pattern that end in
+ * this node. Matches are thus produced in document order of their last node.
+ * </p>
+ * <p>
+ * The first step of the pattern is evaluated relative to a context node or,
+ * if no context node is given, relative to the root of the respective
+ * document. A name of <code>null</code> matches any name.
+ * </p>
  * 
  * @author Sebastian Baechle
  * 
@@ -49,24 +74,92 @@ public abstract class PathStackStream<E> implements Stream<E> {
 	/**
 	 * Path pattern
 	 */
-	protected final Path<String> path;
+	protected final Path<QNm> path;
+
+	/**
+	 * Context node of the path pattern; <code>null</code> for the document
+	 * root
+	 */
+	protected final Node<?> context;
+
+	private final Axis[] axis;
+
+	private final QNm[] names;
 
-	private E next;
+	private final int[] nameIDs;
 
+	private final Node<?>[][] stack;
+
+	private final int[][] pointer;
+
+	private final int[] size;
+
+	private final Node<?>[] matching;
+
+	private final ArrayDeque<E> next = new ArrayDeque<E>();
+
+	/**
+	 * Delivers the last node of each match. Nodes are delivered once in
+	 * document order, even if they are the last node of several matches.
+	 */
 	public static class Default extends PathStackStream<Node<?>> {
-		public Default(Stream<? extends Node<?>> in, Path<String> path) {
+		public Default(Stream<? extends Node<?>> in, Path<QNm> path) {
 			super(in, path);
 		}
 
+		public Default(Node<?> context, Stream<? extends Node<?>> in,
+				Path<QNm> path) {
+			super(context, in, path);
+		}
+
 		@Override
 		protected Node<?> match(Node<?>[] matchingNodes) {
-			return matchingNodes[matchingNodes.length];
+			return matchingNodes[matchingNodes.length - 1];
+		}
+
+		@Override
+		protected boolean firstMatchOnly() {
+			return true;
 		}
 	}
 
-	public PathStackStream(Stream<? extends Node<?>> in, Path<String> path) {
+	public PathStackStream(Stream<? extends Node<?>> in, Path<QNm> path) {
+		this(null, in, path);
+	}
+
+	public PathStackStream(Node<?> context, Stream<? extends Node<?>> in,
+			Path<QNm> path) {
 		this.in = in;
 		this.path = path;
+		this.context = context;
+		List<Path.Step<QNm>> steps = path.steps();
+		int length = steps.size();
+		if (length == 0) {
+			throw new IllegalArgumentException("Empty path pattern");
+		}
+		axis = new Axis[length];
+		names = new QNm[length];
+		nameIDs = new int[length];
+		for (int i = 0; i < length; i++) {
+			Path.Step<QNm> step = steps.get(i);
+			axis[i] = step.getAxis();
+			if ((axis[i] == Axis.PARENT) || (axis[i] == Axis.SELF)) {
+				throw new IllegalArgumentException(String.format(
+						"Unsupported axis in path pattern: %s", path));
+			}
+			if (((axis[i] == Axis.CHILD_ATTRIBUTE) || (axis[i] == Axis.DESC_ATTRIBUTE))
+					&& (i < length - 1)) {
+				throw new IllegalArgumentException(String.format(
+						"Attribute step must be the last step: %s", path));
+			}
+			names[i] = step.getValue();
+			nameIDs[i] = (names[i] != null) ? names[i].getID()
+					: NameDictionary.NO_NAME;
+		}
+		stack = new Node<?>[length - 1][8];
+		pointer = new int[length - 1][8];
+		size = new int[length - 1];
+		matching = new Node<?>[length];
 	}
 
 	/**
@@ -74,17 +167,129 @@ public abstract class PathStackStream<E> implements Stream<E> {
 	 * 
 	 * @param matchingNodes
 	 *            the matching nodes on a path
-	 * @return
+	 * @return the match result or <code>null</code> to drop the match
 	 */
 	protected abstract E match(Node<?>[] matchingNodes);
 
+	/**
+	 * Indicates whether only a single match is reported for each node matching
+	 * the last step of the path.
+	 */
+	protected boolean firstMatchOnly() {
+		return false;
+	}
+
 	@Override
 	public E next() throws DocumentException {
-		// TODO consume input and look for next match(es)
-		// for each match, the result output (stored in 'next')
-		// is generated by a call of 'match'
+		int last = axis.length - 1;
+		Node<?> node;
+		while (next.isEmpty()) {
+			if ((node = in.next()) == null) {
+				return null;
+			}
+			Kind kind = node.getKind();
+			if ((kind != Kind.ELEMENT) && (kind != Kind.ATTRIBUTE)) {
+				continue;
+			}
+			clean(node);
+			for (int i = last; i >= 0; i--) {
+				if (!matches(i, node, kind)) {
+					continue;
+				}
+				int top = -1;
+				if (i == 0) {
+					if (!matchesFirst(node)) {
+						continue;
+					}
+				} else if ((top = size[i - 1] - 1) < 0) {
+					continue;
+				}
+				if (i == last) {
+					matching[last] = node;
+					solutions(last, top);
+				} else {
+					push(i, node, top);
+				}
+			}
+		}
+		return next.poll();
+	}
+
+	private boolean matches(int i, Node<?> node, Kind kind)
+			throws DocumentException {
+		boolean attribute = ((axis[i] == Axis.CHILD_ATTRIBUTE) || (axis[i] == Axis.DESC_ATTRIBUTE));
+		if (kind != ((attribute) ? Kind.ATTRIBUTE : Kind.ELEMENT)) {
+			return false;
+		}
+		if (names[i] == null) {
+			return true;
+		}
+		// names missing in the dictionary must be compared as QNames
+		return (nameIDs[i] != NameDictionary.NO_NAME) ? (nameIDs[i] == node
+				.getNameID()) : names[i].equals(node.getName());
+	}
+
+	private boolean matchesFirst(Node<?> node) throws DocumentException {
+		boolean child = ((axis[0] == Axis.CHILD) || (axis[0] == Axis.CHILD_ATTRIBUTE));
+		if (context != null) {
+			return (child) ? context.isParentOf(node) : context
+					.isAncestorOf(node);
+		}
+		Node<?> parent = node.getParent();
+		return (parent != null) && ((!child) || (parent.getParent() == null));
+	}
+
+	private void clean(Node<?> node) throws DocumentException {
+		for (int i = 0; i < size.length; i++) {
+			while ((size[i] > 0)
+					&& (!stack[i][size[i] - 1].isAncestorOf(node))) {
+				stack[i][--size[i]] = null;
+			}
+		}
+	}
 
-		return null;
+	private void push(int i, Node<?> node, int top) {
+		int s = size[i];
+		if (s == stack[i].length) {
+			stack[i] = Arrays.copyOf(stack[i], (s * 3) / 2 + 1);
+			pointer[i] = Arrays.copyOf(pointer[i], stack[i].length);
+		}
+		stack[i][s] = node;
+		pointer[i][s] = top;
+		size[i]++;
+	}
+
+	/**
+	 * Enumerate all matches for the nodes already fixed in
+	 * <code>matching[i..n]</code>. The candidates for step <code>i-1</code>
+	 * are the entries <code>0..top</code> of its stack, which are all
+	 * ancestors of <code>matching[i]</code>.
+	 */
+	private boolean solutions(int i, int top) throws DocumentException {
+		if (i == 0) {
+			E result = match(matching.clone());
+			if (result == null) {
+				return false;
+			}
+			next.add(result);
+			return firstMatchOnly();
+		}
+		boolean child = ((axis[i] == Axis.CHILD) || (axis[i] == Axis.CHILD_ATTRIBUTE));
+		for (int j = top; j >= 0; j--) {
+			Node<?> candidate = stack[i - 1][j];
+			if ((child) && (!candidate.isParentOf(matching[i]))) {
+				continue;
+			}
+			matching[i - 1] = candidate;
+			if (solutions(i - 1, pointer[i - 1][j])) {
+				return true;
+			}
+			if (child) {
+				// there is only one parent
+				break;
+			}
+		}
+		return false;
 	}
 
 	@Override
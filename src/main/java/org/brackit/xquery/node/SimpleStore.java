@@ -32,9 +32,11 @@ import java.io.InputStream;
 import java.net.URI;
 import java.util.HashMap;
 
+import org.brackit.xquery.node.compact.CompactNodeFactory;
 import org.brackit.xquery.node.d2linked.D2NodeFactory;
 import org.brackit.xquery.node.parser.DocumentParser;
 import org.brackit.xquery.node.parser.SubtreeParser;
+import org.brackit.xquery.util.Cfg;
 import org.brackit.xquery.util.io.URIHandler;
 import org.brackit.xquery.xdm.Collection;
 import org.brackit.xquery.xdm.DocumentException;
@@ -50,17 +52,24 @@ import org.brackit.xquery.xdm.Stream;
  * 
  */
 public class SimpleStore implements Store {
+	public static final String COMPACT_CFG = "org.brackit.xquery.compactDocuments";
+
+	/**
+	 * Store documents read-only in compact array storage
+	 */
+	public static boolean COMPACT = Cfg.asBool(COMPACT_CFG, false);
+
 	private HashMap<String, Collection<?>> docs = new HashMap<String, Collection<?>>();
 
 	@Override
-	public Collection<?> create(String name) throws DocumentException {
+	public synchronized Collection<?> create(String name) throws DocumentException {
 		Collection<?> coll = getNodeFactory().collection(name);
 		docs.put(name, coll);
 		return coll;
 	}
 
 	@Override
-	public Collection<?> create(String name, SubtreeParser parser)
+	public synchronized Collection<?> create(String name, SubtreeParser parser)
 			throws DocumentException {
 		Collection<?> coll = getNodeFactory().collection(name, parser);
 		docs.put(name, coll);
@@ -68,7 +77,7 @@ public class SimpleStore implements Store {
 	}
 
 	@Override
-	public Collection<?> create(String name, Stream<SubtreeParser> parsers)
+	public synchronized Collection<?> create(String name, Stream<SubtreeParser> parsers)
 			throws DocumentException {
 		Collection<?> coll = getNodeFactory().collection(name, parsers);
 		docs.put(name, coll);
@@ -76,14 +85,14 @@ public class SimpleStore implements Store {
 	}
 
 	@Override
-	public void drop(String name) throws DocumentException {
+	public synchronized void drop(String name) throws DocumentException {
 		if (docs.remove(name) == null) {
 			throw new DocumentException("Collection %s not found", name);
 		}
 	}
 
 	@Override
-	public Collection<?> lookup(String name) throws DocumentException {
+	public synchronized Collection<?> lookup(String name) throws DocumentException {
 		Collection<?> coll = docs.get(name);
 		if (coll != null) {
 			return coll;
@@ -101,7 +110,7 @@ public class SimpleStore implements Store {
 	}
 
 	protected NodeFactory<?> getNodeFactory() {
-		return new D2NodeFactory();
+		return (COMPACT) ? new CompactNodeFactory() : new D2NodeFactory();
 	}
 
 	@Override
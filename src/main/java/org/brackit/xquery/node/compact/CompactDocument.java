@@ -0,0 +1,249 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.compact;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.brackit.xquery.atomic.NameDictionary;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.xdm.Kind;
+
+/**
+ * Storage of a single read-only tree in pre-order. Each node is identified
+ * by its pre-order rank and described by a slot in a few parallel primitive
+ * arrays. Attributes are stored directly after their owner element and
+ * before its children, so that a node's subtree <code>[pre, pre +
+ * size[pre]]</code> is contiguous and document order is pre-order.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+final class CompactDocument {
+	private static final AtomicInteger ID_SEQUENCE = new AtomicInteger();
+
+	private static final int NO_NAME = -1;
+
+	final int id;
+
+	final CompactNodeCollection collection;
+
+	/**
+	 * kind of each node
+	 */
+	byte[] kind;
+
+	/**
+	 * index of each node's name in {@link #names} or {@link #NO_NAME}
+	 */
+	int[] name;
+
+	/**
+	 * pre-order rank of each node's parent or <code>-1</code> for the root
+	 */
+	int[] parent;
+
+	/**
+	 * number of nodes (including attributes) in each node's subtree without
+	 * the node itself
+	 */
+	int[] size;
+
+	/**
+	 * offset of each node's value in {@link #chars}; the value of node
+	 * <code>pre</code> ends at <code>text[pre + 1]</code>
+	 */
+	int[] text;
+
+	char[] chars;
+
+	QNm[] names;
+
+	/**
+	 * {@link NameDictionary} id of each name in {@link #names} or
+	 * {@link NameDictionary#NO_NAME} if the name is not in the dictionary
+	 */
+	int[] nameIDs;
+
+	/**
+	 * sparse namespace declarations of elements
+	 */
+	Map<Integer, Map<String, String>> nsMappings;
+
+	int count;
+
+	int charCount;
+
+	int nameCount;
+
+	private Map<QNm, Integer> nameIndex;
+
+	CompactDocument(CompactNodeCollection collection) {
+		this.id = nextID();
+		this.collection = collection;
+		this.kind = new byte[16];
+		this.name = new int[16];
+		this.parent = new int[16];
+		this.size = new int[16];
+		this.text = new int[17];
+		this.chars = new char[64];
+		this.names = new QNm[8];
+		this.nameIDs = new int[8];
+		this.nameIndex = new HashMap<QNm, Integer>();
+	}
+
+	private static int nextID() {
+		int id = ID_SEQUENCE.incrementAndGet();
+		while (id < 0) {
+			if (ID_SEQUENCE.compareAndSet(id, 1)) {
+				return 1;
+			}
+			id = ID_SEQUENCE.incrementAndGet();
+		}
+		return id;
+	}
+
+	int append(Kind k, int p, QNm n, String value) {
+		if (count == kind.length) {
+			int capacity = (count * 3) / 2 + 1;
+			kind = Arrays.copyOf(kind, capacity);
+			name = Arrays.copyOf(name, capacity);
+			parent = Arrays.copyOf(parent, capacity);
+			size = Arrays.copyOf(size, capacity);
+			text = Arrays.copyOf(text, capacity + 1);
+		}
+		int pre = count++;
+		kind[pre] = k.ID;
+		name[pre] = (n != null) ? index(n) : NO_NAME;
+		parent[pre] = p;
+		size[pre] = 0;
+		text[pre] = charCount;
+		if (value != null) {
+			appendChars(value);
+		}
+		text[count] = charCount;
+		return pre;
+	}
+
+	void appendText(String value) {
+		appendChars(value);
+		text[count] = charCount;
+	}
+
+	private void appendChars(String value) {
+		int length = value.length();
+		if (charCount + length > chars.length) {
+			chars = Arrays.copyOf(chars, Math.max(charCount + length,
+					(chars.length * 3) / 2 + 1));
+		}
+		value.getChars(0, length, chars, charCount);
+		charCount += length;
+	}
+
+	private int index(QNm n) {
+		Integer id = nameIndex.get(n);
+		if (id != null) {
+			// QNm equality ignores prefixes
+			String prefix = n.getPrefix();
+			for (int i = id; i < nameCount; i++) {
+				if ((names[i].equals(n))
+						&& ((prefix == null) ? (names[i].getPrefix() == null)
+								: prefix.equals(names[i].getPrefix()))) {
+					return i;
+				}
+			}
+		}
+		if (nameCount == names.length) {
+			names = Arrays.copyOf(names, (nameCount * 3) / 2 + 1);
+			nameIDs = Arrays.copyOf(nameIDs, names.length);
+		}
+		names[nameCount] = n;
+		nameIDs[nameCount] = n.getID();
+		if (id == null) {
+			nameIndex.put(n, nameCount);
+		}
+		return nameCount++;
+	}
+
+	void addMappings(int pre, Map<String, String> mappings) {
+		if (nsMappings == null) {
+			nsMappings = new HashMap<Integer, Map<String, String>>();
+		}
+		nsMappings.put(pre, mappings);
+	}
+
+	/**
+	 * Trims all arrays to their final size once the tree is complete.
+	 */
+	void seal() {
+		kind = Arrays.copyOf(kind, count);
+		name = Arrays.copyOf(name, count);
+		parent = Arrays.copyOf(parent, count);
+		size = Arrays.copyOf(size, count);
+		text = Arrays.copyOf(text, count + 1);
+		chars = Arrays.copyOf(chars, charCount);
+		names = Arrays.copyOf(names, nameCount);
+		nameIDs = Arrays.copyOf(nameIDs, nameCount);
+		nameIndex = null;
+	}
+
+	Kind kind(int pre) {
+		return Kind.map[kind[pre]];
+	}
+
+	QNm name(int pre) {
+		int n = name[pre];
+		return (n != NO_NAME) ? names[n] : null;
+	}
+
+	int nameID(int pre) {
+		int n = name[pre];
+		return (n != NO_NAME) ? nameIDs[n] : NameDictionary.NO_NAME;
+	}
+
+	String value(int pre) {
+		return new String(chars, text[pre], text[pre + 1] - text[pre]);
+	}
+
+	String stringValue(int pre) {
+		int end = pre + size[pre];
+		if (pre == end) {
+			return value(pre);
+		}
+		StringBuilder buf = new StringBuilder();
+		byte t = Kind.TEXT.ID;
+		for (int i = pre + 1; i <= end; i++) {
+			if (kind[i] == t) {
+				buf.append(chars, text[i], text[i + 1] - text[i]);
+			}
+		}
+		return buf.toString();
+	}
+}
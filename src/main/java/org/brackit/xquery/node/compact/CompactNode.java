@@ -0,0 +1,651 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.compact;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.NameDictionary;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.atomic.Una;
+import org.brackit.xquery.node.AbstractNode;
+import org.brackit.xquery.node.parser.SubtreeHandler;
+import org.brackit.xquery.node.parser.SubtreeParser;
+import org.brackit.xquery.node.stream.EmptyStream;
+import org.brackit.xquery.node.stream.IteratorStream;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Kind;
+import org.brackit.xquery.xdm.Node;
+import org.brackit.xquery.xdm.OperationNotSupportedException;
+import org.brackit.xquery.xdm.Scope;
+import org.brackit.xquery.xdm.Stream;
+
+/**
+ * Lightweight handle of a node in a {@link CompactDocument}. A handle only
+ * consists of the document and the node's pre-order rank. Handles are
+ * created on demand during navigation, so identity must always be checked
+ * with {@link #isSelfOf(Node)} or {@link #equals(Object)}.
+ * 
+ * <p>
+ * Compact nodes are read-only; all update operations throw an
+ * {@link OperationNotSupportedException}.
+ * </p>
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public final class CompactNode extends AbstractNode<CompactNode> implements
+		Scope {
+
+	public static final int NODE_CLASS_ID = 2;
+
+	private static final byte ATTRIBUTE = Kind.ATTRIBUTE.ID;
+
+	final CompactDocument doc;
+
+	final int pre;
+
+	CompactNode(CompactDocument doc, int pre) {
+		this.doc = doc;
+		this.pre = pre;
+	}
+
+	private CompactNode node(int pre) {
+		return (pre >= 0) ? new CompactNode(doc, pre) : null;
+	}
+
+	private boolean isAttribute() {
+		return (doc.kind[pre] == ATTRIBUTE);
+	}
+
+	private int end() {
+		return pre + doc.size[pre];
+	}
+
+	private CompactNode local(Node<?> node) {
+		if ((node instanceof CompactNode) && (((CompactNode) node).doc == doc)) {
+			return (CompactNode) node;
+		}
+		return null;
+	}
+
+	@Override
+	public CompactNodeCollection getCollection() {
+		return doc.collection;
+	}
+
+	@Override
+	public int getNodeClassID() {
+		return NODE_CLASS_ID;
+	}
+
+	@Override
+	protected int cmpInternal(CompactNode other) {
+		if (doc != other.doc) {
+			return (doc.id < other.doc.id) ? -1 : 1;
+		}
+		return (pre < other.pre) ? -1 : ((pre == other.pre) ? 0 : 1);
+	}
+
+	@Override
+	public int hashCode() {
+		return doc.id * 31 + pre;
+	}
+
+	@Override
+	public Kind getKind() {
+		return doc.kind(pre);
+	}
+
+	@Override
+	public QNm getName() throws DocumentException {
+		return doc.name(pre);
+	}
+
+	@Override
+	public int getNameID() throws DocumentException {
+		return doc.nameID(pre);
+	}
+
+	@Override
+	public Atomic getValue() throws DocumentException {
+		Kind kind = doc.kind(pre);
+		if ((kind == Kind.COMMENT) || (kind == Kind.PROCESSING_INSTRUCTION)) {
+			return new Str(doc.value(pre));
+		}
+		return new Una(doc.stringValue(pre));
+	}
+
+	@Override
+	public Str getStrValue() throws DocumentException {
+		return new Str(doc.stringValue(pre));
+	}
+
+	@Override
+	public boolean isSelfOf(Node<?> node) {
+		CompactNode n = local(node);
+		return (n != null) && (n.pre == pre);
+	}
+
+	@Override
+	public boolean isParentOf(Node<?> node) {
+		CompactNode n = local(node);
+		return (n != null) && (doc.parent[n.pre] == pre);
+	}
+
+	@Override
+	public boolean isChildOf(Node<?> node) {
+		CompactNode n = local(node);
+		return (n != null) && (!isAttribute()) && (doc.parent[pre] == n.pre);
+	}
+
+	@Override
+	public boolean isAttributeOf(Node<?> node) {
+		CompactNode n = local(node);
+		return (n != null) && (isAttribute()) && (doc.parent[pre] == n.pre);
+	}
+
+	@Override
+	public boolean isAncestorOf(Node<?> node) {
+		CompactNode n = local(node);
+		return (n != null) && (pre < n.pre) && (n.pre <= end());
+	}
+
+	@Override
+	public boolean isAncestorOrSelfOf(Node<?> node) {
+		CompactNode n = local(node);
+		return (n != null) && (pre <= n.pre) && (n.pre <= end());
+	}
+
+	@Override
+	public boolean isDescendantOf(Node<?> node) {
+		CompactNode n = local(node);
+		return (n != null) && (!isAttribute()) && (n.pre < pre)
+				&& (pre <= n.end());
+	}
+
+	@Override
+	public boolean isDescendantOrSelfOf(Node<?> node) {
+		CompactNode n = local(node);
+		return (n != null)
+				&& ((n.pre == pre) || ((!isAttribute()) && (n.pre < pre) && (pre <= n
+						.end())));
+	}
+
+	@Override
+	public boolean isFollowingOf(Node<?> node) {
+		CompactNode n = local(node);
+		return (n != null) && (!isAttribute()) && (n.end() < pre);
+	}
+
+	@Override
+	public boolean isPrecedingOf(Node<?> node) {
+		CompactNode n = local(node);
+		return (n != null) && (!isAttribute()) && (end() < n.pre);
+	}
+
+	@Override
+	public boolean isSiblingOf(Node<?> node) {
+		CompactNode n = local(node);
+		return (n != null) && (n.pre != pre) && (doc.parent[pre] >= 0)
+				&& (doc.parent[pre] == doc.parent[n.pre]) && (!isAttribute())
+				&& (!n.isAttribute());
+	}
+
+	@Override
+	public boolean isFollowingSiblingOf(Node<?> node) {
+		return (isSiblingOf(node)) && (((CompactNode) node).pre < pre);
+	}
+
+	@Override
+	public boolean isPrecedingSiblingOf(Node<?> node) {
+		return (isSiblingOf(node)) && (pre < ((CompactNode) node).pre);
+	}
+
+	@Override
+	public boolean isDocumentOf(Node<?> node) {
+		return (doc.kind[pre] == Kind.DOCUMENT.ID) && (local(node) != null);
+	}
+
+	@Override
+	public boolean isRoot() {
+		return (pre == 0);
+	}
+
+	@Override
+	public Scope getScope() {
+		return (doc.kind[pre] == Kind.ELEMENT.ID) ? this : null;
+	}
+
+	@Override
+	public CompactNode getParent() throws DocumentException {
+		return node(doc.parent[pre]);
+	}
+
+	private int firstChild() {
+		int end = end();
+		int c = pre + 1;
+		while ((c <= end) && (doc.kind[c] == ATTRIBUTE)) {
+			c++;
+		}
+		return (c <= end) ? c : -1;
+	}
+
+	@Override
+	public boolean hasChildren() throws DocumentException {
+		return (firstChild() >= 0);
+	}
+
+	@Override
+	public boolean hasAttributes() throws DocumentException {
+		return (pre < end()) && (doc.kind[pre + 1] == ATTRIBUTE);
+	}
+
+	@Override
+	public CompactNode getFirstChild() throws DocumentException {
+		return node(firstChild());
+	}
+
+	@Override
+	public CompactNode getLastChild() throws DocumentException {
+		int c = firstChild();
+		if (c < 0) {
+			return null;
+		}
+		int end = end();
+		for (int n = c + doc.size[c] + 1; n <= end; n += doc.size[n] + 1) {
+			c = n;
+		}
+		return node(c);
+	}
+
+	@Override
+	public CompactNode getNextSibling() throws DocumentException {
+		int p = doc.parent[pre];
+		if ((p < 0) || (isAttribute())) {
+			return null;
+		}
+		int n = end() + 1;
+		return (n <= p + doc.size[p]) ? node(n) : null;
+	}
+
+	@Override
+	public CompactNode getPreviousSibling() throws DocumentException {
+		int p = doc.parent[pre];
+		if ((p < 0) || (isAttribute())) {
+			return null;
+		}
+		// climb up from the preceding node to the level of this node
+		int s = pre - 1;
+		while ((s != p) && (doc.parent[s] != p)) {
+			s = doc.parent[s];
+		}
+		return ((s != p) && (doc.kind[s] != ATTRIBUTE)) ? node(s) : null;
+	}
+
+	@Override
+	public CompactNode getAttribute(QNm name) throws DocumentException {
+		int id = name.getID();
+		int end = end();
+		for (int a = pre + 1; (a <= end) && (doc.kind[a] == ATTRIBUTE); a++) {
+			if ((id != NameDictionary.NO_NAME) ? (doc.nameID(a) == id) : name
+					.equals(doc.name(a))) {
+				return node(a);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Stream<CompactNode> getAttributes() throws DocumentException {
+		return new AttributeStream();
+	}
+
+	@Override
+	public Stream<CompactNode> getChildren() throws DocumentException {
+		return new ChildStream();
+	}
+
+	@Override
+	public Stream<CompactNode> getSubtree() throws DocumentException {
+		return new SubtreeStream(false);
+	}
+
+	@Override
+	public Stream<CompactNode> getDescendantOrSelf() throws DocumentException {
+		return new SubtreeStream(true);
+	}
+
+	@Override
+	public void parse(SubtreeHandler handler) throws DocumentException {
+		try {
+			handler.begin();
+			handler.beginFragment();
+			traverse(handler, pre);
+			handler.endFragment();
+			handler.end();
+		} catch (DocumentException e) {
+			handler.fail();
+			throw e;
+		}
+	}
+
+	private void traverse(SubtreeHandler handler, int n)
+			throws DocumentException {
+		Kind kind = doc.kind(n);
+		int end = n + doc.size[n];
+		if (kind == Kind.ELEMENT) {
+			QNm name = doc.name(n);
+			Map<String, String> mappings = (doc.nsMappings != null) ? doc.nsMappings
+					.get(n)
+					: null;
+			if (mappings != null) {
+				for (Entry<String, String> ns : mappings.entrySet()) {
+					handler.startMapping(ns.getKey(), ns.getValue());
+				}
+			}
+			handler.startElement(name);
+			int c = n + 1;
+			for (; (c <= end) && (doc.kind[c] == ATTRIBUTE); c++) {
+				handler.attribute(doc.name(c), new Una(doc.value(c)));
+			}
+			for (; c <= end; c += doc.size[c] + 1) {
+				traverse(handler, c);
+			}
+			handler.endElement(name);
+			if (mappings != null) {
+				for (Entry<String, String> ns : mappings.entrySet()) {
+					handler.endMapping(ns.getKey());
+				}
+			}
+		} else if (kind == Kind.TEXT) {
+			handler.text(new Una(doc.value(n)));
+		} else if (kind == Kind.COMMENT) {
+			handler.comment(new Str(doc.value(n)));
+		} else if (kind == Kind.PROCESSING_INSTRUCTION) {
+			handler.processingInstruction(doc.name(n), new Str(doc.value(n)));
+		} else if (kind == Kind.ATTRIBUTE) {
+			handler.attribute(doc.name(n), new Una(doc.value(n)));
+		} else if (kind == Kind.DOCUMENT) {
+			handler.startDocument();
+			for (int c = n + 1; c <= end; c += doc.size[c] + 1) {
+				traverse(handler, c);
+			}
+			handler.endDocument();
+		} else {
+			throw new DocumentException("Illegal node type: %s", kind);
+		}
+	}
+
+	@Override
+	public Stream<String> localPrefixes() throws DocumentException {
+		Map<String, String> mappings = (doc.nsMappings != null) ? doc.nsMappings
+				.get(pre)
+				: null;
+		if (mappings == null) {
+			return new EmptyStream<String>();
+		}
+		return new IteratorStream<String>(mappings.keySet());
+	}
+
+	@Override
+	public String defaultNS() throws DocumentException {
+		return resolvePrefix("");
+	}
+
+	@Override
+	public String resolvePrefix(String prefix) throws DocumentException {
+		if (prefix == null) {
+			// search for the default namespace
+			prefix = "";
+		}
+		if (doc.nsMappings != null) {
+			for (int n = pre; (n >= 0) && (doc.kind[n] == Kind.ELEMENT.ID); n = doc.parent[n]) {
+				Map<String, String> mappings = doc.nsMappings.get(n);
+				if (mappings != null) {
+					String uri = mappings.get(prefix);
+					if (uri != null) {
+						return uri;
+					}
+				}
+			}
+		}
+		if (prefix.equals("xml")) {
+			return "http://www.w3.org/XML/1998/namespace";
+		}
+		return (prefix.isEmpty()) ? "" : null;
+	}
+
+	@Override
+	public void addPrefix(String prefix, String uri) throws DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public void setDefaultNS(String uri) throws DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public void setName(QNm name) throws OperationNotSupportedException,
+			DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public void setValue(Atomic value) throws OperationNotSupportedException,
+			DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode append(Kind kind, QNm name, Atomic value)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode append(Node<?> child)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode append(SubtreeParser parser)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode prepend(Kind kind, QNm name, Atomic value)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode prepend(Node<?> child)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode prepend(SubtreeParser parser)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode insertBefore(Kind kind, QNm name, Atomic value)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode insertBefore(Node<?> node)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode insertBefore(SubtreeParser parser)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode insertAfter(Kind kind, QNm name, Atomic value)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode insertAfter(Node<?> node)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode insertAfter(SubtreeParser parser)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode setAttribute(Node<?> attribute)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode setAttribute(QNm name, Atomic value)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public boolean deleteAttribute(QNm name)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode replaceWith(Node<?> node)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode replaceWith(SubtreeParser parser)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public CompactNode replaceWith(Kind kind, QNm name, Atomic value)
+			throws OperationNotSupportedException, DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public void delete() throws DocumentException {
+		throw new OperationNotSupportedException();
+	}
+
+	@Override
+	public String toString() {
+		Kind kind = doc.kind(pre);
+		boolean hasValue = (kind != Kind.ELEMENT) && (kind != Kind.DOCUMENT);
+		return String.format("(type='%s', name='%s', value='%s')", kind, doc
+				.name(pre), (hasValue) ? doc.value(pre) : null);
+	}
+
+	private final class AttributeStream implements Stream<CompactNode> {
+		private final int end = end();
+		private int next = pre + 1;
+
+		@Override
+		public CompactNode next() throws DocumentException {
+			if ((next > end) || (doc.kind[next] != ATTRIBUTE)) {
+				return null;
+			}
+			return node(next++);
+		}
+
+		@Override
+		public void close() {
+			next = end + 1;
+		}
+	}
+
+	private final class ChildStream implements Stream<CompactNode> {
+		private final int end = end();
+		private int next = firstChild();
+
+		@Override
+		public CompactNode next() throws DocumentException {
+			if ((next < 0) || (next > end)) {
+				return null;
+			}
+			int deliver = next;
+			next += doc.size[next] + 1;
+			return node(deliver);
+		}
+
+		@Override
+		public void close() {
+			next = -1;
+		}
+	}
+
+	private final class SubtreeStream implements Stream<CompactNode> {
+		private final int end = end();
+		private final boolean skipAttributes;
+		private int next = pre;
+
+		SubtreeStream(boolean skipAttributes) {
+			this.skipAttributes = skipAttributes;
+		}
+
+		@Override
+		public CompactNode next() throws DocumentException {
+			if ((skipAttributes) && (next > pre)) {
+				while ((next <= end) && (doc.kind[next] == ATTRIBUTE)) {
+					next++;
+				}
+			}
+			return (next <= end) ? node(next++) : null;
+		}
+
+		@Override
+		public void close() {
+			next = end + 1;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.compact;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.node.parser.SubtreeHandler;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Kind;
+
+/**
+ * Appends parsed trees to {@link CompactDocument}s. Each tree delivered to
+ * the handler becomes a document of its own, which is sealed as soon as the
+ * tree is complete.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class CompactNodeBuilder implements SubtreeHandler {
+
+	private final CompactNodeCollection coll;
+
+	private final String name;
+
+	private CompactDocument doc;
+
+	private int[] stack = new int[16];
+
+	private int stackSize;
+
+	private Map<String, String> nsMappings;
+
+	private CompactNode root;
+
+	public CompactNodeBuilder(CompactNodeCollection coll) {
+		this.coll = coll;
+		this.name = null;
+	}
+
+	public CompactNodeBuilder(String name) {
+		this.coll = null;
+		this.name = name;
+	}
+
+	public CompactNodeBuilder() {
+		this.coll = null;
+		this.name = null;
+	}
+
+	public CompactNode root() throws DocumentException {
+		if (root == null) {
+			throw new DocumentException("No root node has been build");
+		}
+		return root;
+	}
+
+	private int append(Kind kind, QNm name, String value) {
+		if (doc == null) {
+			CompactNodeCollection c = coll;
+			if ((c == null) && (kind == Kind.DOCUMENT)) {
+				c = new CompactNodeCollection((this.name != null) ? this.name
+						: String.format("%s_%s_%s.xml", Thread.currentThread()
+								.getName(), "noname", Long.toString(System
+								.currentTimeMillis())));
+			}
+			doc = new CompactDocument(c);
+		}
+		int p = (stackSize > 0) ? stack[stackSize - 1] : -1;
+		return doc.append(kind, p, name, value);
+	}
+
+	private void push(int pre) {
+		if (stackSize == stack.length) {
+			stack = Arrays.copyOf(stack, (stackSize * 3) / 2 + 1);
+		}
+		stack[stackSize++] = pre;
+	}
+
+	private void pop() throws DocumentException {
+		if (stackSize == 0) {
+			throw new DocumentException("No open node");
+		}
+		int pre = stack[--stackSize];
+		doc.size[pre] = doc.count - pre - 1;
+		if (stackSize == 0) {
+			complete();
+		}
+	}
+
+	private void leaf(Kind kind, QNm name, String value)
+			throws DocumentException {
+		append(kind, name, value);
+		if (stackSize == 0) {
+			complete();
+		}
+	}
+
+	private void complete() {
+		doc.seal();
+		CompactNode node = new CompactNode(doc, 0);
+		if (doc.collection != null) {
+			doc.collection.add(node);
+		}
+		if (root == null) {
+			root = node;
+		}
+		doc = null;
+	}
+
+	@Override
+	public void startDocument() throws DocumentException {
+		push(append(Kind.DOCUMENT, null, null));
+	}
+
+	@Override
+	public void endDocument() throws DocumentException {
+		pop();
+	}
+
+	@Override
+	public void startMapping(String prefix, String uri)
+			throws DocumentException {
+		if (nsMappings == null) {
+			// use tree map for space-efficiency
+			nsMappings = new TreeMap<String, String>();
+		}
+		nsMappings.put(prefix, uri);
+	}
+
+	@Override
+	public void endMapping(String prefix) throws DocumentException {
+	}
+
+	@Override
+	public void startElement(QNm name) throws DocumentException {
+		int pre = append(Kind.ELEMENT, name, null);
+		if (nsMappings != null) {
+			doc.addMappings(pre, nsMappings);
+			nsMappings = null;
+		}
+		push(pre);
+	}
+
+	@Override
+	public void endElement(QNm name) throws DocumentException {
+		pop();
+	}
+
+	@Override
+	public void attribute(QNm name, Atomic value) throws DocumentException {
+		if ((stackSize > 0)
+				&& (doc.kind[stack[stackSize - 1]] != Kind.ELEMENT.ID)) {
+			throw new DocumentException(
+					"Attributes must belong to an element");
+		}
+		leaf(Kind.ATTRIBUTE, name, value.stringValue());
+	}
+
+	@Override
+	public void text(Atomic content) throws DocumentException {
+		String value = content.stringValue();
+		if (stackSize > 0) {
+			// merge adjacent text nodes
+			int last = doc.count - 1;
+			if ((doc.kind[last] == Kind.TEXT.ID)
+					&& (doc.parent[last] == stack[stackSize - 1])) {
+				doc.appendText(value);
+				return;
+			}
+		}
+		leaf(Kind.TEXT, null, value);
+	}
+
+	@Override
+	public void comment(Atomic content) throws DocumentException {
+		leaf(Kind.COMMENT, null, content.stringValue());
+	}
+
+	@Override
+	public void processingInstruction(QNm target, Atomic content)
+			throws DocumentException {
+		leaf(Kind.PROCESSING_INSTRUCTION, target, content.stringValue());
+	}
+
+	@Override
+	public void begin() throws DocumentException {
+	}
+
+	@Override
+	public void end() throws DocumentException {
+		if (stackSize > 0) {
+			throw new DocumentException("Incomplete tree");
+		}
+	}
+
+	@Override
+	public void fail() throws DocumentException {
+		doc = null;
+		stackSize = 0;
+		nsMappings = null;
+	}
+
+	@Override
+	public void beginFragment() throws DocumentException {
+	}
+
+	@Override
+	public void endFragment() throws DocumentException {
+	}
+}
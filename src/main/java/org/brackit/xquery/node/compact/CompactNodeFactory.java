@@ -0,0 +1,139 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.compact;
+
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.node.parser.NavigationalSubtreeParser;
+import org.brackit.xquery.node.parser.SubtreeParser;
+import org.brackit.xquery.xdm.Collection;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Node;
+import org.brackit.xquery.xdm.NodeFactory;
+import org.brackit.xquery.xdm.Stream;
+
+/**
+ * Factory for read-only documents in compact array storage. Because compact
+ * nodes cannot be modified after construction, this factory is intended for
+ * loading documents and collections, e.g., in a
+ * {@link org.brackit.xquery.node.SimpleStore}, and not for node construction
+ * in queries.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class CompactNodeFactory implements NodeFactory<CompactNode> {
+	@Override
+	public CompactNode attribute(QNm name, Atomic value)
+			throws DocumentException {
+		CompactNodeBuilder builder = new CompactNodeBuilder();
+		builder.attribute(name, value);
+		return builder.root();
+	}
+
+	@Override
+	public CompactNode comment(Str value) throws DocumentException {
+		CompactNodeBuilder builder = new CompactNodeBuilder();
+		builder.comment(value);
+		return builder.root();
+	}
+
+	@Override
+	public CompactNode document(Str name) throws DocumentException {
+		String s = (name != null) ? name.stringValue() : null;
+		CompactNodeBuilder builder = new CompactNodeBuilder(s);
+		builder.startDocument();
+		builder.endDocument();
+		return builder.root();
+	}
+
+	@Override
+	public CompactNode element(QNm name) throws DocumentException {
+		CompactNodeBuilder builder = new CompactNodeBuilder();
+		builder.startElement(name);
+		builder.endElement(name);
+		return builder.root();
+	}
+
+	@Override
+	public CompactNode pi(QNm target, Str value) throws DocumentException {
+		CompactNodeBuilder builder = new CompactNodeBuilder();
+		builder.processingInstruction(target, value);
+		return builder.root();
+	}
+
+	@Override
+	public CompactNode text(Atomic value) throws DocumentException {
+		CompactNodeBuilder builder = new CompactNodeBuilder();
+		builder.text(value);
+		return builder.root();
+	}
+
+	@Override
+	public CompactNode copy(Node<?> source) throws DocumentException {
+		return build(new NavigationalSubtreeParser(source));
+	}
+
+	@Override
+	public CompactNode build(SubtreeParser parser) throws DocumentException {
+		CompactNodeBuilder builder = new CompactNodeBuilder();
+		parser.parse(builder);
+		return builder.root();
+	}
+
+	@Override
+	public Collection<CompactNode> collection(String name, SubtreeParser parser)
+			throws DocumentException {
+		CompactNodeCollection coll = new CompactNodeCollection(name);
+		parser.parse(new CompactNodeBuilder(coll));
+		return coll;
+	}
+
+	@Override
+	public Collection<CompactNode> collection(String name,
+			Stream<SubtreeParser> parsers) throws DocumentException {
+		CompactNodeCollection coll = new CompactNodeCollection(name);
+		CompactNodeBuilder builder = new CompactNodeBuilder(coll);
+		try {
+			SubtreeParser parser;
+			while ((parser = parsers.next()) != null) {
+				parser.parse(builder);
+			}
+		} finally {
+			parsers.close();
+		}
+		return coll;
+	}
+
+	@Override
+	public Collection<CompactNode> collection(String name)
+			throws DocumentException {
+		return new CompactNodeCollection(name);
+	}
+}
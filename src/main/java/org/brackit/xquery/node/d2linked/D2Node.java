@@ -59,6 +59,15 @@ public abstract class D2Node extends AbstractNode<D2Node> {
 
 	public static final int[] FIRST = new int[] { 3 };
 
+	/*
+	 * Division values are encoded with 1, 2 or 5 bytes, all starting with a
+	 * byte >= 0x40. The smaller marks below thus terminate divisions and
+	 * separate attributes from children.
+	 */
+	private static final byte DIVISION_END = 0x01;
+
+	private static final byte ATTRIBUTE_MARK = 0x02;
+
 	private static final int[][] STATIC_DIVISIONS = new int[1 + NO_ADDITIONAL_STATIC_DIVISIONS][];
 
 	static {
@@ -81,6 +90,11 @@ public abstract class D2Node extends AbstractNode<D2Node> {
 
 	protected int localFragmentID = -1;
 
+	/**
+	 * Lazily computed label; see {@link #label()}
+	 */
+	private volatile byte[] label;
+
 	protected D2Node(ParentD2Node parent, int[] division) {
 		if ((this.parent != null) && (this.parent != parent)) {
 			throw new RuntimeException(String.format(
@@ -130,49 +144,102 @@ public abstract class D2Node extends AbstractNode<D2Node> {
 		if (localFragmentID != node.localFragmentID) {
 			return localFragmentID < node.localFragmentID ? -1 : 1;
 		}
-		D2Node c = null;
-		D2Node cp = this;
-		while (cp != null) {
-			D2Node lcap = null;
-			D2Node lca = node;
-			while (lca != null) {
-				if (lca == cp) {
-					// found least common ancestor
-					// case 0: node == this is not allowed
-					// case 1: lca is this
-					if (lca == this)
-						return -1;
-					// case 2: lca is node
-					if (lca == node)
-						return 1;
-					// case 3: c and lcap have the same parent
-					Kind kind = c.getKind();
-					Kind nkind = lcap.getKind();
-					if ((kind == Kind.ATTRIBUTE) ^ (nkind == Kind.ATTRIBUTE)) {
-						return (kind == Kind.ATTRIBUTE) ? -1 : 1;
-					}
-					// nodes must be in the same chain -> search
-					// scan from context node to n
-					return compare(c.division, lcap.division);
-				}
-				lcap = lca;
-				lca = lca.parent;
+		return compare(label(), node.label());
+	}
+
+	protected final boolean isInSubtreeOf(D2Node n) {
+		if ((n == this) || (localFragmentID != n.localFragmentID)) {
+			return false;
+		}
+		byte[] p = n.label();
+		byte[] l = label();
+		if (l.length <= p.length) {
+			return false;
+		}
+		for (int i = 0; i < p.length; i++) {
+			if (l[i] != p[i]) {
+				return false;
 			}
-			c = cp;
-			cp = cp.parent;
 		}
-		return -1;
+		return true;
 	}
 
-	protected final boolean isInSubtreeOf(D2Node n) {
-		D2Node a = parent;
-		while (a != null) {
-			if (a == n) {
-				return true;
+	/**
+	 * Returns the label of this node within its fragment. The label
+	 * concatenates the order-preserving encodings of the divisions on the path
+	 * from the fragment root to this node. The label of an ancestor is a prefix
+	 * of the label of its descendants, and unsigned lexicographic comparison of
+	 * labels yields document order. Labels are immutable because the parent and
+	 * division of a node never change.
+	 */
+	final byte[] label() {
+		byte[] l = label;
+		if (l != null) {
+			return l;
+		}
+		// compute labels top-down from the deepest labeled ancestor
+		D2Node[] path = new D2Node[8];
+		int size = 0;
+		D2Node n = this;
+		while ((n.label == null) && (n.parent != null)) {
+			if (size == path.length) {
+				path = Arrays.copyOf(path, size * 2);
 			}
-			a = a.parent;
+			path[size++] = n;
+			n = n.parent;
 		}
-		return false;
+		if (n.label == null) {
+			n.label = l = new byte[0];
+		}
+		l = n.label;
+		while (size > 0) {
+			n = path[--size];
+			n.label = l = encode(l, n.division, n.getKind() == Kind.ATTRIBUTE);
+		}
+		return l;
+	}
+
+	private static byte[] encode(byte[] prefix, int[] division,
+			boolean attribute) {
+		int length = prefix.length + ((attribute) ? 2 : 1);
+		for (int v : division) {
+			length += (v < 0x40) ? 1 : (v < 0x4040) ? 2 : 5;
+		}
+		byte[] l = Arrays.copyOf(prefix, length);
+		int pos = prefix.length;
+		if (attribute) {
+			// attributes precede all children of their element
+			l[pos++] = ATTRIBUTE_MARK;
+		}
+		for (int v : division) {
+			if (v < 0x40) {
+				l[pos++] = (byte) (0x40 | v);
+			} else if (v < 0x4040) {
+				int w = v - 0x40;
+				l[pos++] = (byte) (0x80 | (w >>> 8));
+				l[pos++] = (byte) w;
+			} else {
+				l[pos++] = (byte) 0xC0;
+				l[pos++] = (byte) (v >>> 24);
+				l[pos++] = (byte) (v >>> 16);
+				l[pos++] = (byte) (v >>> 8);
+				l[pos++] = (byte) v;
+			}
+		}
+		l[pos] = DIVISION_END;
+		return l;
+	}
+
+	private static int compare(byte[] l1, byte[] l2) {
+		int length = Math.min(l1.length, l2.length);
+		for (int i = 0; i < length; i++) {
+			int b1 = l1[i] & 0xFF;
+			int b2 = l2[i] & 0xFF;
+			if (b1 != b2) {
+				return (b1 < b2) ? -1 : 1;
+			}
+		}
+		return l1.length - l2.length;
 	}
 
 	protected final int[] siblingAfter(int[] p) {
@@ -338,17 +405,14 @@ public abstract class D2Node extends AbstractNode<D2Node> {
 
 	@Override
 	public boolean isDescendantOf(Node<?> node) {
-		// TODO: fix for sun's compiler bug using generics parent == node
-		return ((node != null) && ((parent == (Object) node) || ((parent != null) && (parent
-				.isDescendantOf(node)))));
+		return ((node instanceof D2Node) && (isInSubtreeOf((D2Node) node)));
 	}
 
 	@Override
 	public boolean isDescendantOrSelfOf(Node<?> node) {
-		// TODO: fix for sun's compiler bug using generics parent == node
+		// TODO: fix for sun's compiler bug using generics this == node
 		return ((node != null) && ((this == (Object) node)
-				|| (parent == (Object) node) || ((parent != null) && (parent
-				.isDescendantOrSelfOf(node)))));
+				|| ((node instanceof D2Node) && (isInSubtreeOf((D2Node) node)))));
 	}
 
 	@Override
@@ -364,18 +428,7 @@ public abstract class D2Node extends AbstractNode<D2Node> {
 			return false;
 		}
 		D2Node n = (D2Node) node;
-		if (cmpInternal(n) <= 0) {
-			return false;
-		}
-		D2Node c = this.parent;
-		while (c != null) {
-			if (c == n) {
-				// n is ancestor
-				return false;
-			}
-			c = c.parent;
-		}
-		return true;
+		return ((cmpInternal(n) > 0) && (!isInSubtreeOf(n)));
 	}
 
 	@Override
@@ -400,18 +453,7 @@ public abstract class D2Node extends AbstractNode<D2Node> {
 			return false;
 		}
 		D2Node n = (D2Node) node;
-		if (cmpInternal(n) >= 0) {
-			return false;
-		}
-		n = n.parent;
-		while (n != null) {
-			if (n == this) {
-				// n is ancestor
-				return false;
-			}
-			n = n.parent;
-		}
-		return true;
+		return ((cmpInternal(n) < 0) && (!n.isInSubtreeOf(this)));
 	}
 
 	@Override
@@ -27,141 +27,111 @@
  */
 package org.brackit.xquery.node.stream;
 
+import java.util.concurrent.Future;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.operator.Exchange;
+import org.brackit.xquery.util.ExchangeQueue;
+import org.brackit.xquery.util.ExchangeQueue.Batch;
+import org.brackit.xquery.util.WorkerPool;
+import org.brackit.xquery.util.log.Logger;
 import org.brackit.xquery.xdm.DocumentException;
 import org.brackit.xquery.xdm.Stream;
 
 /**
+ * Consumes the wrapped stream in a task of the shared {@link WorkerPool} and
+ * delivers its elements in batches through an {@link ExchangeQueue}.
+ * Closing this stream stops the producer.
  * 
  * @author Sebastian Baechle
  * 
  * @param <E>
  */
 public class ParallelArrayBlockStream<E> implements Stream<E> {
-	private final Stream<? extends E> stream;
+	private static final Logger log = Logger
+			.getLogger(ParallelArrayBlockStream.class);
 
-	private volatile boolean finished;
+	private final ExchangeQueue queue;
 
-	private volatile DocumentException error;
+	private final Future<?> producer;
 
-	// private int takes;
-	//	
-	// private int enqueueRetries;
-	//	
-	// private int dequeueRetries;
+	private Batch batch;
 
-	private Object[] currentBuffer;
+	private int pos;
 
-	private Object[][] freeQueue;
-
-	private volatile int freeQueueStart;
-
-	private volatile int freeQueueEnd;
-
-	private int pos = 0;
+	private boolean closed;
 
 	public ParallelArrayBlockStream(Stream<? extends E> stream) {
-		super();
-		this.stream = stream;
-		int noOfBuffers = 3;
-		this.freeQueue = new Object[noOfBuffers][2000];
-		this.finished = false;
-		freeQueueStart = noOfBuffers - 1;
-		freeQueueEnd = 0;
+		this(stream, Exchange.BUFFERS, Exchange.BATCH_SIZE);
+	}
 
-		new Thread() {
+	public ParallelArrayBlockStream(final Stream<? extends E> stream,
+			int buffers, int batchSize) {
+		final ExchangeQueue q = new ExchangeQueue(buffers, batchSize);
+		this.queue = q;
+		this.producer = WorkerPool.executor().submit(new Runnable() {
+			@Override
 			public void run() {
-				// System.out.println("internal starting");
-				fill();
-				// System.out.println("internal stopping");
+				fill(stream, q);
 			}
-		}.start();
+		});
 	}
 
-	private void fill() {
+	private static <E> void fill(final Stream<? extends E> stream,
+			ExchangeQueue queue) {
 		try {
-			int pos = 0;
-			Object[] buffer = freeQueue[0];
-			int length = buffer.length;
-
-			E e;
-			while ((e = stream.next()) != null) {
-				buffer[pos++] = e;
-
-				if (pos == length) {
-					// offer filled and take next
-					buffer = enqueue();
-					length = buffer.length;
-					pos = 0;
+			queue.fill(new ExchangeQueue.Producer() {
+				@Override
+				public Object next() throws QueryException {
+					return stream.next();
 				}
-			}
-			enqueue();
-			finished = true;
+			});
+		} catch (QueryException e) {
+			queue.fail(e);
+		} catch (RuntimeException e) {
+			queue.fail(new DocumentException(e));
+		} finally {
 			stream.close();
-		} catch (DocumentException e) {
-			error = e;
-			finished = true;
-		}
-	}
-
-	private Object[] enqueue() {
-		int queueStart = freeQueueStart; // volatile read
-		int queueEnd = freeQueueEnd; // volatile read
-
-		int newQueueEnd = (queueEnd + 1) % freeQueue.length;
-
-		while (newQueueEnd == queueStart) {
-			// spin until one more free
-			queueStart = freeQueueStart; // volatile read
-			// enqueueRetries++;
-		}
-
-		// take one from queue
-		freeQueueEnd = newQueueEnd;
-		return freeQueue[newQueueEnd];
-	}
-
-	private Object[] dequeue() {
-		int queueStart = freeQueueStart; // volatile read
-		int queueEnd = freeQueueEnd; // volatile read
-
-		int newQueueStart = (queueStart + 1) % freeQueue.length;
-
-		while (newQueueStart == queueEnd) {
-			// spin until one more free
-			queueEnd = freeQueueEnd; // volatile read
-			// dequeueRetries++;
 		}
-
-		// take one from queue
-		freeQueueStart = newQueueStart;
-		return freeQueue[newQueueStart];
 	}
 
 	@Override
 	public void close() {
-		finished = true;
-		// System.out.println("Takes: " + takes);
-		// System.out.println("EnqueueRetries: " + enqueueRetries);
-		// System.out.println("DequeueRetries: " + dequeueRetries);
+		if (closed) {
+			return;
+		}
+		closed = true;
+		queue.cancel();
+		try {
+			producer.get();
+		} catch (Exception e) {
+			log.error(e);
+		}
+		batch = null;
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public E next() throws DocumentException {
-		DocumentException deliverError = error; // volatile read
-
-		if (deliverError != null) {
-			error = null;
-			throw deliverError;
+		if (closed) {
+			return null;
 		}
-
-		if ((currentBuffer == null) || (pos == currentBuffer.length)) {
-			currentBuffer = dequeue();
+		if ((batch == null) || (pos == batch.items.length)
+				|| (batch.items[pos] == null)) {
+			try {
+				batch = queue.take(batch);
+			} catch (DocumentException e) {
+				throw e;
+			} catch (QueryException e) {
+				throw new DocumentException(e);
+			}
 			pos = 0;
+			if (batch == null) {
+				return null;
+			}
 		}
-
-		E current = (E) currentBuffer[pos];
-		currentBuffer[pos++] = null;
-
+		E current = (E) batch.items[pos];
+		batch.items[pos++] = null;
 		return current;
 	}
 }
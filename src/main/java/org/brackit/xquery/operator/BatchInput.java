@@ -0,0 +1,120 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import java.util.Arrays;
+
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+
+/**
+ * Demand-driven batch input of an operator cursor. The input is pulled in
+ * batches which are never larger than the current demand of the consumer,
+ * i.e., a consumer which asks for a single tuple pulls exactly one tuple
+ * from its input.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+final class BatchInput {
+	private final Cursor c;
+	private Tuple[] buf;
+	private int pos;
+	private int len;
+	private boolean done;
+
+	BatchInput(Cursor c) {
+		this.c = c;
+	}
+
+	void open(QueryContext ctx) throws QueryException {
+		clear();
+		done = false;
+		c.open(ctx);
+	}
+
+	void close(QueryContext ctx) {
+		clear();
+		c.close(ctx);
+	}
+
+	Tuple next(QueryContext ctx, int demand) throws QueryException {
+		if (pos < len) {
+			Tuple t = buf[pos];
+			buf[pos++] = null;
+			return t;
+		}
+		if (done) {
+			return null;
+		}
+		if (demand <= 1) {
+			Tuple t = c.next(ctx);
+			done = (t == null);
+			return t;
+		}
+		if (buf == null) {
+			buf = new Tuple[Cursors.BATCH_SIZE];
+		}
+		pos = 0;
+		len = Cursors.next(ctx, c, buf, Math.min(demand, buf.length));
+		if (len == 0) {
+			done = true;
+			return null;
+		}
+		Tuple t = buf[0];
+		buf[pos++] = null;
+		return t;
+	}
+
+	/**
+	 * Pulls a batch of at most <code>len</code> tuples directly into
+	 * <code>out</code>.
+	 */
+	int next(QueryContext ctx, Tuple[] out, int len) throws QueryException {
+		int n = 0;
+		while ((n < len) && (pos < this.len)) {
+			out[n++] = buf[pos];
+			buf[pos++] = null;
+		}
+		if ((n > 0) || (done)) {
+			return n;
+		}
+		n = Cursors.next(ctx, c, out, len);
+		done = (n == 0);
+		return n;
+	}
+
+	private void clear() {
+		if (buf != null) {
+			Arrays.fill(buf, pos, len, null);
+		}
+		pos = 0;
+		len = 0;
+	}
+}
@@ -35,7 +35,8 @@ import org.brackit.xquery.atomic.Atomic;
 import org.brackit.xquery.compiler.translator.Reference;
 
 /**
- * Encapsulation of iteration nesting checks.
+ * Encapsulation of iteration nesting checks. The positions of the check
+ * variables are resolved during translation and only read afterwards.
  * 
  * @author Sebastian Baechle
  * 
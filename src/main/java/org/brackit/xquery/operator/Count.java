@@ -43,7 +43,7 @@ public class Count extends Check implements Operator {
 	private final Operator in;
 	private boolean bind = true;
 
-	private class CountCursor implements Cursor {
+	private class CountCursor implements BatchCursor {
 		private final Cursor c;
 		private IntNumeric pos;
 		private Tuple t;
@@ -59,12 +59,27 @@ public class Count extends Check implements Operator {
 
 		@Override
 		public Tuple next(QueryContext ctx) throws QueryException {
-			Tuple prev = t;
-			t = c.next(ctx);
+			Tuple next = c.next(ctx);
 
-			if (t == null) {
+			if (next == null) {
 				return null;
 			}
+			return count(next);
+		}
+
+		@Override
+		public int next(QueryContext ctx, Tuple[] out, int len)
+				throws QueryException {
+			int n = Cursors.next(ctx, c, out, len);
+			for (int i = 0; i < n; i++) {
+				out[i] = count(out[i]);
+			}
+			return n;
+		}
+
+		private Tuple count(Tuple next) throws QueryException {
+			Tuple prev = t;
+			t = next;
 
 			if (check) {
 				if (dead(t)) {
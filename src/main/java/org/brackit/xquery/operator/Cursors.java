@@ -0,0 +1,66 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.util.Cfg;
+
+/**
+ * Helpers for batch-wise pulling from cursors.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public final class Cursors {
+	public static final String BATCH_SIZE_CFG = "org.brackit.xquery.batchSize";
+
+	public static int BATCH_SIZE = Math.max(Cfg.asInt(BATCH_SIZE_CFG, 64), 1);
+
+	private Cursors() {
+	}
+
+	/**
+	 * Pulls the next batch of at most <code>len</code> tuples from the given
+	 * cursor. Cursors which do not implement {@link BatchCursor} are adapted
+	 * by pulling tuple by tuple.
+	 */
+	public static int next(QueryContext ctx, Cursor c, Tuple[] out, int len)
+			throws QueryException {
+		if (c instanceof BatchCursor) {
+			return ((BatchCursor) c).next(ctx, out, len);
+		}
+		int n = 0;
+		Tuple t;
+		while ((n < len) && ((t = c.next(ctx)) != null)) {
+			out[n++] = t;
+		}
+		return n;
+	}
+}
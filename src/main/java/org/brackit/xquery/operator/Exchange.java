@@ -0,0 +1,205 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import java.util.concurrent.Future;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.ExchangeQueue;
+import org.brackit.xquery.util.ExchangeQueue.Batch;
+import org.brackit.xquery.util.WorkerPool;
+import org.brackit.xquery.util.log.Logger;
+
+/**
+ * Pipeline parallelism: the input is evaluated by a task of the shared
+ * {@link WorkerPool} and passed in batches of tuples through a bounded
+ * {@link ExchangeQueue}. Producer and consumer park instead of spinning when
+ * the queue is full or empty, resp. Closing the cursor stops the producer
+ * before it pulls the next tuple and waits until it has closed its input.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class Exchange implements Operator {
+	private static final Logger log = Logger.getLogger(Exchange.class);
+
+	public static final String BUFFERS_CFG = "org.brackit.xquery.exchangeBuffers";
+
+	public static final String BATCH_SIZE_CFG = "org.brackit.xquery.exchangeBatchSize";
+
+	public static int BUFFERS = Cfg.asInt(BUFFERS_CFG, 3);
+
+	public static int BATCH_SIZE = Cfg.asInt(BATCH_SIZE_CFG, 1000);
+
+	private static class ExchangeCursor implements BatchCursor {
+		private final Cursor c;
+
+		private final int buffers;
+
+		private final int batchSize;
+
+		private ExchangeQueue queue;
+
+		private Future<?> producer;
+
+		private Batch batch;
+
+		private int pos;
+
+		ExchangeCursor(Cursor c, int buffers, int batchSize) {
+			this.c = c;
+			this.buffers = buffers;
+			this.batchSize = batchSize;
+		}
+
+		@Override
+		public void open(QueryContext ctx) throws QueryException {
+			final QueryContext pctx = ctx;
+			final ExchangeQueue q = new ExchangeQueue(buffers, batchSize);
+			queue = q;
+			batch = null;
+			pos = 0;
+			producer = WorkerPool.executor().submit(new Runnable() {
+				@Override
+				public void run() {
+					fill(pctx, q);
+				}
+			});
+		}
+
+		private void fill(final QueryContext ctx, ExchangeQueue queue) {
+			try {
+				c.open(ctx);
+				try {
+					queue.fill(new ExchangeQueue.Producer() {
+						@Override
+						public Object next() throws QueryException {
+							return c.next(ctx);
+						}
+					});
+				} finally {
+					c.close(ctx);
+				}
+			} catch (QueryException e) {
+				queue.fail(e);
+			} catch (RuntimeException e) {
+				queue.fail(new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR));
+			}
+		}
+
+		@Override
+		public Tuple next(QueryContext ctx) throws QueryException {
+			if (queue == null) {
+				return null;
+			}
+			if ((batch == null) || (pos == batch.items.length)
+					|| (batch.items[pos] == null)) {
+				batch = queue.take(batch);
+				pos = 0;
+				if (batch == null) {
+					return null;
+				}
+			}
+			Tuple t = (Tuple) batch.items[pos];
+			batch.items[pos++] = null;
+			return t;
+		}
+
+		@Override
+		public int next(QueryContext ctx, Tuple[] out, int len)
+				throws QueryException {
+			Tuple t = (len > 0) ? next(ctx) : null;
+			if (t == null) {
+				return 0;
+			}
+			// hand out the rest of the current batch
+			Object[] items = batch.items;
+			out[0] = t;
+			int n = 1;
+			while ((n < len) && (pos < items.length) && (items[pos] != null)) {
+				out[n++] = (Tuple) items[pos];
+				items[pos++] = null;
+			}
+			return n;
+		}
+
+		@Override
+		public void close(QueryContext ctx) {
+			if (queue == null) {
+				return;
+			}
+			queue.cancel();
+			try {
+				// wait until the producer released its input
+				producer.get();
+			} catch (Exception e) {
+				log.error(e);
+			}
+			queue = null;
+			producer = null;
+			batch = null;
+		}
+	}
+
+	private final Operator in;
+
+	private final int buffers;
+
+	private final int batchSize;
+
+	public Exchange(Operator in) {
+		this(in, BUFFERS, BATCH_SIZE);
+	}
+
+	public Exchange(Operator in, int buffers, int batchSize) {
+		this.in = in;
+		this.buffers = buffers;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public Cursor create(QueryContext ctx, Tuple tuple) throws QueryException {
+		return new ExchangeCursor(in.create(ctx, tuple), buffers, batchSize);
+	}
+
+	@Override
+	public Cursor create(QueryContext ctx, Tuple[] buf, int len)
+			throws QueryException {
+		return new ExchangeCursor(in.create(ctx, buf, len), buffers,
+				batchSize);
+	}
+
+	@Override
+	public int tupleWidth(int initSize) {
+		return in.tupleWidth(initSize);
+	}
+}
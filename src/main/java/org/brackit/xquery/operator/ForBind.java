@@ -50,14 +50,14 @@ public class ForBind extends Check implements Operator {
 	boolean bindVar = true;
 	boolean bindPos = false;
 
-	private class ForBindCursor implements Cursor {
-		private final Cursor c;
+	private class ForBindCursor implements BatchCursor {
+		private final BatchInput c;
 		private IntNumeric pos;
 		private Tuple t;
 		private Iter it;
 
 		public ForBindCursor(Cursor c) {
-			this.c = c;
+			this.c = new BatchInput(c);
 		}
 
 		@Override
@@ -71,6 +71,21 @@ public class ForBind extends Check implements Operator {
 
 		@Override
 		public Tuple next(QueryContext ctx) throws QueryException {
+			return next(ctx, 1);
+		}
+
+		@Override
+		public int next(QueryContext ctx, Tuple[] out, int len)
+				throws QueryException {
+			int n = 0;
+			Tuple t;
+			while ((n < len) && ((t = next(ctx, len - n)) != null)) {
+				out[n++] = t;
+			}
+			return n;
+		}
+
+		private Tuple next(QueryContext ctx, int demand) throws QueryException {
 			while (true) {
 				if (it != null) {
 					Item i = it.next();
@@ -80,7 +95,7 @@ public class ForBind extends Check implements Operator {
 					it.close();
 					it = null;
 				}
-				if ((t = c.next(ctx)) == null) {
+				if ((t = c.next(ctx, demand)) == null) {
 					return null;
 				}
 				if ((check) && (dead(t))) {
@@ -106,7 +121,7 @@ public class ForBind extends Check implements Operator {
 					it.close();
 					it = null;
 					if (allowingEmpty) {
-						Tuple tmp = emit(i, null);
+						Tuple tmp = emit(t, null);
 						t = null;
 						return tmp;
 					} else if (check) {
@@ -27,10 +27,12 @@
  */
 package org.brackit.xquery.operator;
 
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.brackit.xquery.QueryContext;
 import org.brackit.xquery.QueryException;
@@ -41,7 +43,10 @@ import org.brackit.xquery.atomic.Str;
 import org.brackit.xquery.compiler.translator.Reference;
 import org.brackit.xquery.expr.RangeExpr;
 import org.brackit.xquery.expr.SequenceExpr;
+import org.brackit.xquery.util.WorkerPool;
 import org.brackit.xquery.util.aggregator.Aggregate;
+import org.brackit.xquery.util.aggregator.GroupTable;
+import org.brackit.xquery.util.aggregator.GroupTable.Key;
 import org.brackit.xquery.util.aggregator.Grouping;
 
 /**
@@ -55,6 +60,7 @@ public class GroupBy extends Check implements Operator {
 	final Aggregate defaultAgg;
 	final Aggregate[] addAggs;
 	final boolean sequential;
+	int parallelism = 1;
 
 	public GroupBy(Operator in, Aggregate dftAgg, Aggregate[] addAggs,
 			int grpSpecCnt, boolean sequential) {
@@ -67,12 +73,12 @@ public class GroupBy extends Check implements Operator {
 	}
 
 	private class SequentialGroupBy implements Cursor {
-		final Cursor c;
+		final BatchInput c;
 		final Grouping grp;
 		Tuple next;
 
 		public SequentialGroupBy(Cursor c, int tupleSize) {
-			this.c = c;
+			this.c = new BatchInput(c);
 			this.grp = new Grouping(groupSpecs, addAggSpecs, defaultAgg,
 					addAggs, tupleSize);
 		}
@@ -91,7 +97,7 @@ public class GroupBy extends Check implements Operator {
 		@Override
 		public Tuple next(QueryContext ctx) throws QueryException {
 			Tuple t;
-			if (((t = next) == null) && ((t = c.next(ctx)) == null)) {
+			if (((t = next) == null) && ((t = c.next(ctx, 1)) == null)) {
 				return null;
 			}
 			next = null;
@@ -103,7 +109,7 @@ public class GroupBy extends Check implements Operator {
 			}
 
 			grp.add(t);
-			while ((next = c.next(ctx)) != null) {
+			while ((next = c.next(ctx, 1)) != null) {
 				if ((check) && (separate(t, next))) {
 					break;
 				}
@@ -118,57 +124,18 @@ public class GroupBy extends Check implements Operator {
 		}
 	}
 
-	private static class Key {
-		final int hash;
-		final Atomic[] val;
-
-		Key(Atomic[] val) {
-			this.val = val;
-			this.hash = Arrays.hashCode(val);
-		}
-
-		@Override
-		public int hashCode() {
-			return hash;
-		}
-
-		@Override
-		public String toString() {
-			return Arrays.toString(val);
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (obj == this) {
-				return true;
-			}
-			if (obj instanceof Key) {
-				Key k = (Key) obj;
-				for (int i = 0; i < val.length; i++) {
-					Atomic a1 = val[i];
-					Atomic a2 = k.val[i];
-					if (((a1 == null) && (a2 != null)) || (a2 == null)
-							|| (a1.atomicCmp(a2) != 0)) {
-						return false;
-					}
-				}
-				return true;
-			}
-			return false;
-		}
-	}
-
 	private class HashGroupBy implements Cursor {
-		final Cursor c;
+		final BatchInput c;
 		final int tupleSize;
-		final Map<Key, Grouping> map;
+		final GroupTable table;
 		Tuple next;
-		Iterator<Key> it;
+		boolean output;
 
 		public HashGroupBy(Cursor c, int tupleSize) {
-			this.c = c;
+			this.c = new BatchInput(c);
 			this.tupleSize = tupleSize;
-			this.map = new LinkedHashMap<Key, Grouping>();
+			this.table = new GroupTable(groupSpecs, addAggSpecs, defaultAgg,
+					addAggs, tupleSize, GroupTable.DEFAULT_MAX_SIZE);
 		}
 
 		@Override
@@ -178,7 +145,7 @@ public class GroupBy extends Check implements Operator {
 
 		@Override
 		public void close(QueryContext ctx) {
-			map.clear();
+			table.clear();
 			c.close(ctx);
 		}
 
@@ -186,23 +153,22 @@ public class GroupBy extends Check implements Operator {
 		public Tuple next(QueryContext ctx) throws QueryException {
 			while (true) {
 				// output groups
-				if (it != null) {
-					if (it.hasNext()) {
-						Key key = it.next();
-						Grouping grp = map.get(key);
-						it.remove();
-						return emit(grp);
-					} else {
-						it = null;
-						map.clear();
+				if (output) {
+					Tuple t = table.next();
+					if (t != null) {
+						return t;
 					}
+					output = false;
+					table.clear();
 				}
 
 				// load groups
 				Tuple t;
-				if (((t = next) != null) || ((t = c.next(ctx)) != null)) {
+				int demand = (check) ? 1 : Cursors.BATCH_SIZE;
+				if (((t = next) != null)
+						|| ((t = c.next(ctx, demand)) != null)) {
 					if ((check) && (dead(t))) {
-						if (map.isEmpty()) {
+						if (table.isEmpty()) {
 							next = null;
 							Grouping grp = new Grouping(groupSpecs, addAggSpecs, defaultAgg,
 									addAggs, tupleSize);
@@ -210,52 +176,148 @@ public class GroupBy extends Check implements Operator {
 							Tuple emit = grp.emit();
 							return emit;
 						} else {
-							// keep next and output grouping map first
-							it = map.keySet().iterator();
+							// keep next and output grouping table first
+							output = true;
 							continue;
 						}
 					}
 
-					add(t);
-					while ((next = c.next(ctx)) != null) {
+					table.add(t);
+					while ((next = c.next(ctx, demand)) != null) {
 						if ((check) && (separate(t, next))) {
 							break;
 						}
-						add(next);
+						table.add(next);
 					}
-					it = map.keySet().iterator();
+					output = true;
 				} else {
 					return null;
 				}
 			}
 		}
+	}
 
-		private void add(Tuple t) throws QueryException {
-			Atomic[] gks = Grouping.groupingKeys(groupSpecs, t);
-			Key key = new Key(gks);
-			Grouping grp = map.get(key);
-			if (grp == null) {
-				grp = new Grouping(groupSpecs, addAggSpecs, defaultAgg,
-						addAggs, tupleSize);
-				map.put(key, grp);
-			}
-			grp.add(gks, t);
+	/**
+	 * Parallel variant of {@link HashGroupBy}: Partitions of consecutive
+	 * input tuples are pre-aggregated by worker tasks into partial grouping
+	 * tables. The partial tables are merged in input order to preserve the
+	 * order of groups and of aggregated sequences.
+	 */
+	private class ParallelHashGroupBy implements Cursor {
+		final BatchInput c;
+		final int tupleSize;
+		final LinkedList<Future<Map<Key, Grouping>>> pending = new LinkedList<Future<Map<Key, Grouping>>>();
+		Map<Key, Grouping> map;
+		Iterator<Grouping> it;
+
+		public ParallelHashGroupBy(Cursor c, int tupleSize) {
+			this.c = new BatchInput(c);
+			this.tupleSize = tupleSize;
 		}
 
-		private Tuple emit(Grouping grp) throws QueryException {
+		@Override
+		public void open(QueryContext ctx) throws QueryException {
+			c.open(ctx);
+		}
+
+		@Override
+		public void close(QueryContext ctx) {
+			WorkerPool.cancel(pending);
+			map = null;
+			it = null;
+			c.close(ctx);
+		}
+
+		@Override
+		public Tuple next(QueryContext ctx) throws QueryException {
+			if (it == null) {
+				load(ctx);
+				it = map.values().iterator();
+			}
+			if (!it.hasNext()) {
+				map.clear();
+				return null;
+			}
+			Grouping grp = it.next();
+			it.remove();
 			Tuple t = grp.emit();
 			grp.clear();
 			return t;
 		}
+
+		private void load(QueryContext ctx) throws QueryException {
+			map = new LinkedHashMap<Key, Grouping>();
+			int morselSize = ParallelForBind.MORSEL_SIZE;
+			while (true) {
+				Tuple[] morsel = new Tuple[morselSize];
+				int len = 0;
+				while ((len < morselSize)
+						&& ((morsel[len] = c.next(ctx, morselSize - len)) != null)) {
+					len++;
+				}
+				if (len > 0) {
+					submit(morsel, len);
+				}
+				if (len < morselSize) {
+					break;
+				}
+				if (pending.size() >= 2 * parallelism) {
+					merge(WorkerPool.await(pending.removeFirst()));
+				}
+			}
+			while (!pending.isEmpty()) {
+				merge(WorkerPool.await(pending.removeFirst()));
+			}
+		}
+
+		private void submit(final Tuple[] morsel, final int len) {
+			pending.add(WorkerPool.executor().submit(
+					new Callable<Map<Key, Grouping>>() {
+						@Override
+						public Map<Key, Grouping> call() throws Exception {
+							Map<Key, Grouping> part = new LinkedHashMap<Key, Grouping>();
+							for (int i = 0; i < len; i++) {
+								Tuple t = morsel[i];
+								morsel[i] = null;
+								Atomic[] gks = Grouping.groupingKeys(
+										groupSpecs, t);
+								Key key = new Key(gks);
+								Grouping grp = part.get(key);
+								if (grp == null) {
+									grp = new Grouping(groupSpecs, addAggSpecs,
+											defaultAgg, addAggs, tupleSize);
+									part.put(key, grp);
+								}
+								grp.add(gks, t);
+							}
+							return part;
+						}
+					}));
+		}
+
+		private void merge(Map<Key, Grouping> part) throws QueryException {
+			if (map.isEmpty()) {
+				map = part;
+				return;
+			}
+			for (Map.Entry<Key, Grouping> e : part.entrySet()) {
+				Grouping grp = map.get(e.getKey());
+				if (grp == null) {
+					map.put(e.getKey(), e.getValue());
+				} else {
+					grp.merge(e.getValue());
+				}
+			}
+		}
 	}
 
 	private class AllGroupBy implements Cursor {
-		final Cursor c;
+		final BatchInput c;
 		final Grouping grp;
 		Tuple next;
 
 		public AllGroupBy(Cursor c, int tupleSize) {
-			this.c = c;
+			this.c = new BatchInput(c);
 			this.grp = new Grouping(groupSpecs, addAggSpecs, defaultAgg,
 					addAggs, tupleSize);
 		}
@@ -283,7 +345,9 @@ public class GroupBy extends Check implements Operator {
 
 				// load groups
 				Tuple t;
-				if (((t = next) != null) || ((t = c.next(ctx)) != null)) {
+				int demand = (check) ? 1 : Cursors.BATCH_SIZE;
+				if (((t = next) != null)
+						|| ((t = c.next(ctx, demand)) != null)) {
 					if ((check) && (dead(t))) {
 						if (grp.getSize() == 0) {
 							next = null;
@@ -296,7 +360,7 @@ public class GroupBy extends Check implements Operator {
 					}
 
 					grp.add(null, t);
-					while ((next = c.next(ctx)) != null) {
+					while ((next = c.next(ctx, demand)) != null) {
 						if ((check) && (separate(t, next))) {
 							break;
 						}
@@ -313,7 +377,9 @@ public class GroupBy extends Check implements Operator {
 	public Cursor create(QueryContext ctx, Tuple tuple) throws QueryException {
 		Cursor c = in.create(ctx, tuple);
 		int tupleSize = in.tupleWidth(tuple.getSize());
-		if (groupSpecs.length == 0) {
+		if ((parallelism > 1) && (!check) && (!sequential)) {
+			return new ParallelHashGroupBy(c, tupleSize);
+		} else if (groupSpecs.length == 0) {
 			return new AllGroupBy(c, tupleSize);
 		} else if (sequential) {
 			return new SequentialGroupBy(c, tupleSize);
@@ -327,7 +393,9 @@ public class GroupBy extends Check implements Operator {
 			throws QueryException {
 		Cursor c = in.create(ctx, buf, len);
 		int tupleSize = in.tupleWidth(buf[0].getSize());
-		if (groupSpecs.length == 0) {
+		if ((parallelism > 1) && (!check) && (!sequential)) {
+			return new ParallelHashGroupBy(c, tupleSize);
+		} else if (groupSpecs.length == 0) {
 			return new AllGroupBy(c, tupleSize);
 		} else if (sequential) {
 			return new SequentialGroupBy(c, tupleSize);
@@ -341,6 +409,10 @@ public class GroupBy extends Check implements Operator {
 		return in.tupleWidth(initSize) + addAggs.length;
 	}
 
+	public void parallelize(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
 	public Reference group(final int groupSpecNo) {
 		return new Reference() {
 			public void setPos(int pos) {
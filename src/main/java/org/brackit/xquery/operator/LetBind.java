@@ -43,7 +43,7 @@ public class LetBind extends Check implements Operator {
 	final Expr source;
 	private boolean bind = true;
 
-	private class LetBindCursor implements Cursor {
+	private class LetBindCursor implements BatchCursor {
 		private final Cursor c;
 
 		public LetBindCursor(Cursor c) {
@@ -62,6 +62,20 @@ public class LetBind extends Check implements Operator {
 			if (t == null) {
 				return null;
 			}
+			return bind(ctx, t);
+		}
+
+		@Override
+		public int next(QueryContext ctx, Tuple[] out, int len)
+				throws QueryException {
+			int n = Cursors.next(ctx, c, out, len);
+			for (int i = 0; i < n; i++) {
+				out[i] = bind(ctx, out[i]);
+			}
+			return n;
+		}
+
+		private Tuple bind(QueryContext ctx, Tuple t) throws QueryException {
 			if ((check) && (dead(t))) {
 				return t.concat((Sequence) null);
 			}
@@ -32,6 +32,11 @@ import org.brackit.xquery.QueryException;
 import org.brackit.xquery.Tuple;
 
 /**
+ * Operator of a compiled pipeline. The configuration of an operator, e.g.,
+ * which variables it binds or the positions of its iteration group checks,
+ * is set during translation only. All state of an evaluation is kept in the
+ * {@link Cursor cursors} it creates. Thus, an operator may create and run
+ * cursors for many executions concurrently.
  * 
  * @author Sebastian Baechle
  * 
@@ -43,12 +43,12 @@ import org.brackit.xquery.xdm.Stream;
 public class OrderBy extends Check implements Operator {
 
 	private class OrderByCursor implements Cursor {
-		private final Cursor c;
+		private final BatchInput c;
 		private Stream<? extends Tuple> sorted;
 		private Tuple next;
 
 		public OrderByCursor(Cursor c) {
-			this.c = c;
+			this.c = new BatchInput(c);
 		}
 
 		@Override
@@ -68,7 +68,8 @@ public class OrderBy extends Check implements Operator {
 				}
 				sorted.close();
 			}
-			if (((t = next) == null) && ((t = c.next(ctx)) == null)) {
+			int demand = (check) ? 1 : Cursors.BATCH_SIZE;
+			if (((t = next) == null) && ((t = c.next(ctx, demand)) == null)) {
 				return null;
 			}
 			next = null;
@@ -79,9 +80,9 @@ public class OrderBy extends Check implements Operator {
 			}
 
 			// sort current tuple and all following in same group
-			Ordering sort = new Ordering(orderByExprs, modifier);
+			Ordering sort = new Ordering(orderByExprs, modifier, limit);
 			sort.add(ctx, t);
-			while ((next = c.next(ctx)) != null) {
+			while ((next = c.next(ctx, demand)) != null) {
 				if ((check) && (separate(t, next))) {
 					break;
 				}
@@ -101,6 +102,7 @@ public class OrderBy extends Check implements Operator {
 	final Operator in;
 	final Expr[] orderByExprs;
 	final OrderModifier[] modifier;
+	int limit = -1;
 
 	public OrderBy(Operator in, Expr[] orderByExprs, OrderModifier[] orderBySpec) {
 		this.in = in;
@@ -123,4 +125,12 @@ public class OrderBy extends Check implements Operator {
 	public int tupleWidth(int initSize) {
 		return in.tupleWidth(initSize);
 	}
+
+	/**
+	 * Restricts the output to the first <code>limit</code> tuples of each
+	 * ordered group.
+	 */
+	public void limit(int limit) {
+		this.limit = limit;
+	}
 }
@@ -0,0 +1,259 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.IntNumeric;
+import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.WorkerPool;
+import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Morsel-driven parallel for-bind. The binding sequence is split into
+ * morsels of bound tuples and the downstream pipeline segment is evaluated
+ * for each morsel by a task of the shared {@link WorkerPool}. The segment
+ * must be compiled on top of a {@link Start} operator, which feeds the
+ * morsel into the segment.
+ * <p>
+ * In ordered mode, the results of the morsels are delivered in the order of
+ * the binding sequence. Otherwise, they are delivered as soon as a morsel is
+ * finished.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class ParallelForBind implements Operator {
+
+	public static final String MORSEL_SIZE_CFG = "org.brackit.xquery.morselSize";
+
+	public static int MORSEL_SIZE = Cfg.asInt(MORSEL_SIZE_CFG, 1000);
+
+	final Operator in;
+	final Expr bind;
+	final Operator segment;
+	final boolean ordered;
+	final int parallelism;
+	final int morselSize;
+	boolean bindPos = false;
+
+	private class ParallelForBindCursor implements Cursor {
+		private final Cursor c;
+		private final LinkedList<Future<Tuple[]>> pending = new LinkedList<Future<Tuple[]>>();
+		private CompletionService<Tuple[]> completion;
+		private IntNumeric pos;
+		private Tuple t;
+		private Iter it;
+		private boolean exhausted;
+		private Tuple[] out;
+		private int outPos;
+
+		public ParallelForBindCursor(Cursor c) {
+			this.c = c;
+		}
+
+		@Override
+		public void open(QueryContext ctx) throws QueryException {
+			c.open(ctx);
+			if (!ordered) {
+				completion = new ExecutorCompletionService<Tuple[]>(WorkerPool
+						.executor());
+			}
+			exhausted = false;
+			out = null;
+			outPos = 0;
+		}
+
+		@Override
+		public Tuple next(QueryContext ctx) throws QueryException {
+			while (true) {
+				if ((out != null) && (outPos < out.length)) {
+					Tuple next = out[outPos];
+					out[outPos++] = null;
+					return next;
+				}
+				out = null;
+				while ((!exhausted) && (pending.size() < 2 * parallelism)) {
+					Tuple[] morsel = morsel(ctx);
+					if (morsel == null) {
+						exhausted = true;
+					} else {
+						submit(ctx, morsel);
+					}
+				}
+				if (pending.isEmpty()) {
+					return null;
+				}
+				out = take();
+				outPos = 0;
+			}
+		}
+
+		private Tuple[] morsel(QueryContext ctx) throws QueryException {
+			Tuple[] morsel = new Tuple[morselSize];
+			int len = 0;
+			while (len < morselSize) {
+				if (it != null) {
+					Item i = it.next();
+					if (i != null) {
+						morsel[len++] = emit(t, i);
+						continue;
+					}
+					it.close();
+					it = null;
+				}
+				if ((t = c.next(ctx)) == null) {
+					break;
+				}
+				Sequence s = bind.evaluate(ctx, t);
+				pos = Int32.ZERO;
+				if (s == null) {
+					continue;
+				} else if (s instanceof Item) {
+					morsel[len++] = emit(t, s);
+				} else {
+					it = s.iterate();
+				}
+			}
+			if (len == 0) {
+				return null;
+			}
+			if (len < morselSize) {
+				Tuple[] tmp = new Tuple[len];
+				System.arraycopy(morsel, 0, tmp, 0, len);
+				morsel = tmp;
+			}
+			return morsel;
+		}
+
+		private Tuple emit(Tuple t, Sequence item) throws QueryException {
+			if (bindPos) {
+				return t.concat(new Sequence[] { item, (pos = pos.inc()) });
+			}
+			return t.concat(item);
+		}
+
+		private void submit(final QueryContext ctx, final Tuple[] morsel) {
+			Callable<Tuple[]> task = new Callable<Tuple[]>() {
+				@Override
+				public Tuple[] call() throws Exception {
+					ArrayList<Tuple> result = new ArrayList<Tuple>(
+							morsel.length);
+					Cursor sc = segment.create(ctx, morsel, morsel.length);
+					sc.open(ctx);
+					try {
+						Tuple next;
+						while ((next = sc.next(ctx)) != null) {
+							result.add(next);
+						}
+					} finally {
+						sc.close(ctx);
+					}
+					return result.toArray(new Tuple[result.size()]);
+				}
+			};
+			pending.add((ordered) ? WorkerPool.executor().submit(task)
+					: completion.submit(task));
+		}
+
+		private Tuple[] take() throws QueryException {
+			if (ordered) {
+				return WorkerPool.await(pending.removeFirst());
+			}
+			Future<Tuple[]> done;
+			try {
+				done = completion.take();
+			} catch (InterruptedException e) {
+				throw new QueryException(e, ErrorCode.BIT_DYN_ABORTED_ERROR);
+			}
+			pending.remove(done);
+			return WorkerPool.await(done);
+		}
+
+		@Override
+		public void close(QueryContext ctx) {
+			WorkerPool.cancel(pending);
+			if (it != null) {
+				it.close();
+				it = null;
+			}
+			t = null;
+			out = null;
+			c.close(ctx);
+		}
+	}
+
+	public ParallelForBind(Operator in, Expr bind, Operator segment,
+			boolean ordered) {
+		this(in, bind, segment, ordered, WorkerPool.PARALLELISM, MORSEL_SIZE);
+	}
+
+	public ParallelForBind(Operator in, Expr bind, Operator segment,
+			boolean ordered, int parallelism, int morselSize) {
+		this.in = in;
+		this.bind = bind;
+		this.segment = segment;
+		this.ordered = ordered;
+		this.parallelism = Math.max(parallelism, 1);
+		this.morselSize = Math.max(morselSize, 1);
+	}
+
+	@Override
+	public Cursor create(QueryContext ctx, Tuple tuple) throws QueryException {
+		return new ParallelForBindCursor(in.create(ctx, tuple));
+	}
+
+	@Override
+	public Cursor create(QueryContext ctx, Tuple[] buf, int len)
+			throws QueryException {
+		return new ParallelForBindCursor(in.create(ctx, buf, len));
+	}
+
+	@Override
+	public int tupleWidth(int initSize) {
+		return segment.tupleWidth(in.tupleWidth(initSize) + 1
+				+ (bindPos ? 1 : 0));
+	}
+
+	public void bindPosition(boolean bindPos) {
+		this.bindPos = bindPos;
+	}
+}
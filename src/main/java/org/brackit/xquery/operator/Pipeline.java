@@ -0,0 +1,216 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import java.util.Arrays;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.IntNumeric;
+import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Fused chain of let-binds, selections, counts and for-binds over singleton
+ * sequences. All clauses are evaluated for a tuple in a single cursor, i.e.,
+ * there is no cursor call between the clauses of the chain.
+ * <p>
+ * The chain must not contain operators with iteration group checks and
+ * every for-bind must bind exactly one item per tuple.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class Pipeline implements Operator {
+	private static final byte LET = 0;
+	private static final byte SELECT = 1;
+	private static final byte COUNT = 2;
+	private static final byte FOR = 3;
+	private static final byte FOR_POS = 4;
+
+	private final Operator in;
+	private byte[] kinds;
+	private Expr[] exprs;
+	private int len;
+	private int counts;
+	private int width;
+
+	private class PipelineCursor implements BatchCursor {
+		private final BatchInput c;
+		private final IntNumeric[] pos;
+
+		public PipelineCursor(Cursor c) {
+			this.c = new BatchInput(c);
+			this.pos = new IntNumeric[counts];
+		}
+
+		@Override
+		public void open(QueryContext ctx) throws QueryException {
+			c.open(ctx);
+			Arrays.fill(pos, Int32.ZERO);
+		}
+
+		@Override
+		public void close(QueryContext ctx) {
+			c.close(ctx);
+		}
+
+		@Override
+		public Tuple next(QueryContext ctx) throws QueryException {
+			return next(ctx, 1);
+		}
+
+		@Override
+		public int next(QueryContext ctx, Tuple[] out, int len)
+				throws QueryException {
+			int n = 0;
+			Tuple t;
+			while ((n < len) && ((t = next(ctx, len - n)) != null)) {
+				out[n++] = t;
+			}
+			return n;
+		}
+
+		private Tuple next(QueryContext ctx, int demand) throws QueryException {
+			Tuple t;
+			while ((t = c.next(ctx, demand)) != null) {
+				if ((t = eval(ctx, t)) != null) {
+					return t;
+				}
+			}
+			return null;
+		}
+
+		private Tuple eval(QueryContext ctx, Tuple t) throws QueryException {
+			final byte[] kinds = Pipeline.this.kinds;
+			final Expr[] exprs = Pipeline.this.exprs;
+			int count = 0;
+			for (int i = 0; i < len; i++) {
+				switch (kinds[i]) {
+				case LET:
+					t = t.concat(exprs[i].evaluate(ctx, t));
+					break;
+				case SELECT:
+					Sequence p = exprs[i].evaluate(ctx, t);
+					if ((p == null) || (!p.booleanValue())) {
+						return null;
+					}
+					break;
+				case COUNT:
+					t = t.concat(pos[count] = pos[count].inc());
+					count++;
+					break;
+				case FOR:
+					t = t.concat(single(exprs[i].evaluate(ctx, t)));
+					break;
+				case FOR_POS:
+					t = t.concat(new Sequence[] {
+							single(exprs[i].evaluate(ctx, t)), Int32.ONE });
+					break;
+				}
+			}
+			return t;
+		}
+
+		private Item single(Sequence s) throws QueryException {
+			if (s instanceof Item) {
+				return (Item) s;
+			}
+			Iter it = (s != null) ? s.iterate() : null;
+			try {
+				Item i = (it != null) ? it.next() : null;
+				if ((i == null) || (it.next() != null)) {
+					throw new QueryException(
+							ErrorCode.BIT_DYN_RT_ILLEGAL_STATE_ERROR,
+							"Fused for-bind requires a singleton sequence");
+				}
+				return i;
+			} finally {
+				if (it != null) {
+					it.close();
+				}
+			}
+		}
+	}
+
+	public Pipeline(Operator in) {
+		this.in = in;
+		this.kinds = new byte[4];
+		this.exprs = new Expr[4];
+	}
+
+	public void let(Expr source) {
+		add(LET, source);
+		width++;
+	}
+
+	public void select(Expr predicate) {
+		add(SELECT, predicate);
+	}
+
+	public void count() {
+		add(COUNT, null);
+		counts++;
+		width++;
+	}
+
+	public void forBind(Expr source, boolean bindPos) {
+		add((bindPos) ? FOR_POS : FOR, source);
+		width += (bindPos) ? 2 : 1;
+	}
+
+	private void add(byte kind, Expr expr) {
+		if (len == kinds.length) {
+			kinds = Arrays.copyOf(kinds, len * 2);
+			exprs = Arrays.copyOf(exprs, len * 2);
+		}
+		kinds[len] = kind;
+		exprs[len++] = expr;
+	}
+
+	@Override
+	public Cursor create(QueryContext ctx, Tuple tuple) throws QueryException {
+		return new PipelineCursor(in.create(ctx, tuple));
+	}
+
+	@Override
+	public Cursor create(QueryContext ctx, Tuple[] buf, int len)
+			throws QueryException {
+		return new PipelineCursor(in.create(ctx, buf, len));
+	}
+
+	@Override
+	public int tupleWidth(int initSize) {
+		return in.tupleWidth(initSize) + width;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import java.util.Arrays;
+
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.compiler.translator.Reference;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Clears the bindings of variables which are not referenced anymore by
+ * upstream operators. Tuple positions are resolved statically, so the
+ * bindings are not removed but switched-off to <code>null</code>. This keeps
+ * blocking operators like order-by, group-by, and the build side of joins
+ * from retaining (and aggregating) sequences that are not needed anymore.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class Project implements Operator {
+	private final Operator in;
+	private int[] positions;
+	private int len;
+
+	private class ProjectCursor implements BatchCursor {
+		private final Cursor c;
+
+		public ProjectCursor(Cursor c) {
+			this.c = c;
+		}
+
+		@Override
+		public void close(QueryContext ctx) {
+			c.close(ctx);
+		}
+
+		@Override
+		public Tuple next(QueryContext ctx) throws QueryException {
+			Tuple next = c.next(ctx);
+
+			if (next == null) {
+				return null;
+			}
+			return project(next);
+		}
+
+		@Override
+		public int next(QueryContext ctx, Tuple[] out, int len)
+				throws QueryException {
+			int n = Cursors.next(ctx, c, out, len);
+			for (int i = 0; i < n; i++) {
+				out[i] = project(out[i]);
+			}
+			return n;
+		}
+
+		@Override
+		public void open(QueryContext ctx) throws QueryException {
+			c.open(ctx);
+		}
+	}
+
+	public Project(Operator in) {
+		this.in = in;
+		this.positions = new int[2];
+	}
+
+	private Tuple project(Tuple t) throws QueryException {
+		Sequence[] s = t.array();
+		s = Arrays.copyOf(s, s.length);
+		for (int i = 0; i < len; i++) {
+			s[positions[i]] = null;
+		}
+		return new TupleImpl(s, false);
+	}
+
+	@Override
+	public Cursor create(QueryContext ctx, Tuple tuple) throws QueryException {
+		return (len > 0) ? new ProjectCursor(in.create(ctx, tuple)) : in
+				.create(ctx, tuple);
+	}
+
+	@Override
+	public Cursor create(QueryContext ctx, Tuple[] buf, int len)
+			throws QueryException {
+		return (this.len > 0) ? new ProjectCursor(in.create(ctx, buf, len))
+				: in.create(ctx, buf, len);
+	}
+
+	@Override
+	public int tupleWidth(int initSize) {
+		return in.tupleWidth(initSize);
+	}
+
+	/**
+	 * Returns a reference to a binding which is cleared in all tuples.
+	 */
+	public Reference clear() {
+		final int i = len++;
+		if (len == positions.length) {
+			positions = Arrays.copyOf(positions, len + 2);
+		}
+		return new Reference() {
+			@Override
+			public void setPos(int pos) {
+				positions[i] = pos;
+			}
+		};
+	}
+}
@@ -42,13 +42,13 @@ public class Select extends Check implements Operator {
 	private final Operator in;
 	final Expr predicate;
 
-	public class SelectCursor implements Cursor {
-		private final Cursor c;
+	public class SelectCursor implements BatchCursor {
+		private final BatchInput c;
 		private Tuple prev;
 		private Tuple next;
 
 		public SelectCursor(Cursor c) {
-			this.c = c;
+			this.c = new BatchInput(c);
 		}
 
 		@Override
@@ -57,8 +57,24 @@ public class Select extends Check implements Operator {
 		}
 
 		public Tuple next(QueryContext ctx) throws QueryException {
+			return next(ctx, 1);
+		}
+
+		@Override
+		public int next(QueryContext ctx, Tuple[] out, int len)
+				throws QueryException {
+			int n = 0;
+			Tuple t;
+			while ((n < len) && ((t = next(ctx, len - n)) != null)) {
+				out[n++] = t;
+			}
+			return n;
+		}
+
+		private Tuple next(QueryContext ctx, int demand) throws QueryException {
 			Tuple t;
-			while (((t = next) != null) || (t = c.next(ctx)) != null) {
+			while (((t = next) != null)
+					|| (t = c.next(ctx, demand)) != null) {
 				next = null;
 				if ((check) && (dead(t))) {
 					break;
@@ -76,7 +92,7 @@ public class Select extends Check implements Operator {
 				if ((prev != null) && (!separate(prev, t))) {
 					continue;
 				}
-				next = c.next(ctx);
+				next = c.next(ctx, demand);
 				// skip if next tuple is in same iteration group
 				if ((next != null) && (!separate(t, next))) {
 					continue;
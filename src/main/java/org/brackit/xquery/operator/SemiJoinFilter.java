@@ -0,0 +1,153 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.util.join.KeyFilter;
+import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Semi-join reduction in the left input of a {@link TableJoin}. Discards
+ * tuples whose join keys cannot match any key of the build side as soon as
+ * the join has published the {@link KeyFilter} of its build keys. Until
+ * then, all tuples pass.
+ * <p>
+ * The filter of a join cursor is handed to the filter cursor while the
+ * join creates its left input, i.e., the filter must be part of the
+ * pipeline which is created together with the join cursor. Otherwise, it
+ * lets all tuples pass.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class SemiJoinFilter implements Operator {
+	private final Operator in;
+	final Expr keyExpr;
+	final boolean isGCmp;
+	private final ThreadLocal<KeyFilter> binding = new ThreadLocal<KeyFilter>();
+
+	private class SemiJoinFilterCursor implements BatchCursor {
+		private final Cursor c;
+		private final KeyFilter filter;
+
+		public SemiJoinFilterCursor(Cursor c, KeyFilter filter) {
+			this.c = c;
+			this.filter = filter;
+		}
+
+		@Override
+		public void open(QueryContext ctx) throws QueryException {
+			c.open(ctx);
+		}
+
+		@Override
+		public void close(QueryContext ctx) {
+			c.close(ctx);
+		}
+
+		@Override
+		public Tuple next(QueryContext ctx) throws QueryException {
+			Tuple t;
+			while ((t = c.next(ctx)) != null) {
+				if (pass(ctx, t)) {
+					return t;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public int next(QueryContext ctx, Tuple[] out, int len)
+				throws QueryException {
+			int n;
+			while ((n = Cursors.next(ctx, c, out, len)) > 0) {
+				int m = 0;
+				for (int i = 0; i < n; i++) {
+					Tuple t = out[i];
+					out[i] = null;
+					if (pass(ctx, t)) {
+						out[m++] = t;
+					}
+				}
+				if (m > 0) {
+					return m;
+				}
+			}
+			return 0;
+		}
+
+		private boolean pass(QueryContext ctx, Tuple t) throws QueryException {
+			Sequence keys;
+			try {
+				keys = (isGCmp) ? keyExpr.evaluate(ctx, t) : keyExpr
+						.evaluateToItem(ctx, t);
+			} catch (QueryException e) {
+				// leave errors to the join
+				return true;
+			}
+			return filter.probe(keys);
+		}
+	}
+
+	public SemiJoinFilter(Operator in, Expr keyExpr, boolean isGCmp) {
+		this.in = in;
+		this.keyExpr = keyExpr;
+		this.isGCmp = isGCmp;
+	}
+
+	void bind(KeyFilter filter) {
+		binding.set(filter);
+	}
+
+	void unbind() {
+		binding.remove();
+	}
+
+	@Override
+	public Cursor create(QueryContext ctx, Tuple tuple) throws QueryException {
+		KeyFilter filter = binding.get();
+		Cursor c = in.create(ctx, tuple);
+		return (filter != null) ? new SemiJoinFilterCursor(c, filter) : c;
+	}
+
+	@Override
+	public Cursor create(QueryContext ctx, Tuple[] buf, int len)
+			throws QueryException {
+		KeyFilter filter = binding.get();
+		Cursor c = in.create(ctx, buf, len);
+		return (filter != null) ? new SemiJoinFilterCursor(c, filter) : c;
+	}
+
+	@Override
+	public int tupleWidth(int initSize) {
+		return in.tupleWidth(initSize);
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Tuple which lives in a preallocated array of slots. Tuples which are
+ * derived by appending sequences share the slots of their parent as long as
+ * the parent was not extended before, i.e., a pipeline of let, count, or
+ * where clauses extends the same array in place instead of copying it for
+ * each clause. Only if the slots of a parent are already claimed by another
+ * tuple, e.g., for the second item of a for clause, or if a bound position
+ * is replaced, the tuple is copied to new slots of the same width.
+ * <p>
+ * Slots are claimed atomically, i.e., tuples may be extended concurrently
+ * by parallel operators.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class SlotTuple implements Tuple {
+	private static final class Slots extends AtomicInteger {
+		private static final long serialVersionUID = 1L;
+
+		final Sequence[] s;
+
+		Slots(int width, int used) {
+			super(used);
+			this.s = new Sequence[width];
+		}
+	}
+
+	private final Slots slots;
+
+	private final int size;
+
+	private SlotTuple(Slots slots, int size) {
+		this.slots = slots;
+		this.size = size;
+	}
+
+	/**
+	 * Creates a copy of the given tuple in new slots which can be extended
+	 * in place up to the given width.
+	 */
+	public SlotTuple(Tuple t, int width) throws QueryException {
+		Sequence[] tmp = t.array();
+		this.size = tmp.length;
+		this.slots = new Slots(Math.max(width, size), size);
+		System.arraycopy(tmp, 0, slots.s, 0, size);
+	}
+
+	/**
+	 * Returns a tuple for the given tuple which can be extended in place up
+	 * to the given width.
+	 */
+	public static Tuple wrap(Tuple t, int width) throws QueryException {
+		if ((t instanceof SlotTuple)
+				&& (((SlotTuple) t).slots.s.length >= width)) {
+			return t;
+		}
+		return new SlotTuple(t, width);
+	}
+
+	/**
+	 * Returns the slots for a tuple which appends <code>n</code> sequences.
+	 */
+	private Slots append(int n) {
+		Slots slots = this.slots;
+		int nLen = size + n;
+		if ((nLen <= slots.s.length) && (slots.get() == size)
+				&& (slots.compareAndSet(size, nLen))) {
+			return slots;
+		}
+		return copy(nLen);
+	}
+
+	private Slots copy(int nLen) {
+		Slots copy = new Slots(Math.max(slots.s.length, nLen), nLen);
+		System.arraycopy(slots.s, 0, copy.s, 0, size);
+		return copy;
+	}
+
+	private void checkPosition(int position, int len) throws QueryException {
+		if ((position < 0) || (position >= len)) {
+			throw new QueryException(ErrorCode.BIT_DYN_RT_OUT_OF_BOUNDS_ERROR,
+					position);
+		}
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public Sequence get(int position) throws QueryException {
+		checkPosition(position, size);
+		return slots.s[position];
+	}
+
+	@Override
+	public Sequence[] array() {
+		Sequence[] s = slots.s;
+		// a tuple which fills all slots cannot be extended anymore
+		return (size == s.length) ? s : Arrays.copyOf(s, size);
+	}
+
+	@Override
+	public Tuple project(int... positions) throws QueryException {
+		Slots projected = new Slots(positions.length, positions.length);
+		int targetPos = 0;
+		for (int pos : positions) {
+			projected.s[targetPos++] = get(pos);
+		}
+		return new SlotTuple(projected, positions.length);
+	}
+
+	@Override
+	public Tuple project(int start, int end) throws QueryException {
+		checkPosition(start, size);
+		if ((end < start) || (end >= size)) {
+			throw new QueryException(ErrorCode.BIT_DYN_RT_OUT_OF_BOUNDS_ERROR,
+					end);
+		}
+		Slots projected = new Slots(end - start, end - start);
+		System.arraycopy(slots.s, start, projected.s, 0, end - start);
+		return new SlotTuple(projected, end - start);
+	}
+
+	@Override
+	public Tuple replace(int position, Sequence s) throws QueryException {
+		checkPosition(position, size);
+		Slots copy = copy(size);
+		copy.s[position] = s;
+		return new SlotTuple(copy, size);
+	}
+
+	@Override
+	public Tuple concat(Sequence s) throws QueryException {
+		Slots slots = append(1);
+		slots.s[size] = s;
+		return new SlotTuple(slots, size + 1);
+	}
+
+	@Override
+	public Tuple concat(Sequence[] s) throws QueryException {
+		Slots slots = append(s.length);
+		System.arraycopy(s, 0, slots.s, size, s.length);
+		return new SlotTuple(slots, size + s.length);
+	}
+
+	@Override
+	public Tuple conreplace(Sequence con, int position, Sequence s)
+			throws QueryException {
+		int nLen = size + 1;
+		checkPosition(position, nLen);
+		Slots slots = (position < size) ? copy(nLen) : append(1);
+		slots.s[size] = con;
+		slots.s[position] = s;
+		return new SlotTuple(slots, nLen);
+	}
+
+	@Override
+	public Tuple conreplace(Sequence[] con, int position, Sequence s)
+			throws QueryException {
+		int nLen = size + con.length;
+		checkPosition(position, nLen);
+		Slots slots = (position < size) ? copy(nLen) : append(con.length);
+		System.arraycopy(con, 0, slots.s, size, con.length);
+		slots.s[position] = s;
+		return new SlotTuple(slots, nLen);
+	}
+
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		out.append("[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0)
+				out.append(", ");
+
+			out.append(slots.s[i]);
+		}
+		out.append("]");
+		return out.toString();
+	}
+}
@@ -27,6 +27,8 @@
  */
 package org.brackit.xquery.operator;
 
+import java.util.Arrays;
+
 import org.brackit.xquery.ErrorCode;
 import org.brackit.xquery.QueryContext;
 import org.brackit.xquery.QueryException;
@@ -38,7 +40,7 @@ import org.brackit.xquery.Tuple;
  * 
  */
 public class Start implements Operator {
-	public static class StartCursor implements Cursor {
+	public static class StartCursor implements BatchCursor {
 		final Tuple start;
 		boolean open = false;
 		boolean deliver = false;
@@ -67,6 +69,17 @@ public class Start implements Operator {
 			return start;
 		}
 
+		@Override
+		public int next(QueryContext ctx, Tuple[] out, int len)
+				throws QueryException {
+			Tuple t = (len > 0) ? next(ctx) : null;
+			if (t == null) {
+				return 0;
+			}
+			out[0] = t;
+			return 1;
+		}
+
 		@Override
 		public void open(QueryContext ctx) throws QueryException {
 			open = true;
@@ -74,7 +87,7 @@ public class Start implements Operator {
 		}
 	}
 
-	public static class BufferStartCursor implements Cursor {
+	public static class BufferStartCursor implements BatchCursor {
 		Tuple[] buf;
 		final int len;
 		int pos = -1;
@@ -105,6 +118,23 @@ public class Start implements Operator {
 			}
 		}
 
+		@Override
+		public int next(QueryContext ctx, Tuple[] out, int len)
+				throws QueryException {
+			if (pos < 0) {
+				throw new QueryException(
+						ErrorCode.BIT_DYN_RT_ILLEGAL_STATE_ERROR);
+			}
+			int n = Math.min(len, this.len - pos);
+			if (n <= 0) {
+				return 0;
+			}
+			System.arraycopy(buf, pos, out, 0, n);
+			Arrays.fill(buf, pos, pos + n, null); // allow gc
+			pos += n;
+			return n;
+		}
+
 		@Override
 		public void open(QueryContext ctx) throws QueryException {
 			pos = 0;
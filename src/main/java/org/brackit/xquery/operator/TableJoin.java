@@ -36,7 +36,8 @@ import org.brackit.xquery.atomic.Atomic;
 import org.brackit.xquery.compiler.translator.Reference;
 import org.brackit.xquery.util.Cmp;
 import org.brackit.xquery.util.join.FastList;
-import org.brackit.xquery.util.join.MultiTypeJoinTable;
+import org.brackit.xquery.util.join.HybridJoinTable;
+import org.brackit.xquery.util.join.KeyFilter;
 import org.brackit.xquery.xdm.Expr;
 import org.brackit.xquery.xdm.Sequence;
 
@@ -46,23 +47,28 @@ import org.brackit.xquery.xdm.Sequence;
  * 
  */
 public class TableJoin extends Check implements Operator {
-	private class TableJoinCursor implements Cursor {
-		final Cursor lc;
+	private class TableJoinCursor implements BatchCursor {
+		final BatchInput lc;
 		final Sequence[] padding;
 		final int lSize;
+		final KeyFilter keyFilter;
 		private Tuple prev;
 		private Tuple next;
-		MultiTypeJoinTable table;
+		private Tuple pending; // first probe tuple after a spooled group
+		private boolean replay;
+		HybridJoinTable table;
 		Atomic tgk; // grouping key of current table
 		Tuple tuple;
 		FastList<Sequence[]> it;
 		int itPos = 0;
 		int itSize = 0;
 
-		public TableJoinCursor(Cursor lc, int lSize, int pad) {
-			this.lc = lc;
+		public TableJoinCursor(Cursor lc, int lSize, int pad,
+				KeyFilter keyFilter) {
+			this.lc = new BatchInput(lc);
 			this.lSize = lSize;
 			this.padding = new Sequence[pad];
+			this.keyFilter = keyFilter;
 		}
 
 		@Override
@@ -75,15 +81,33 @@ public class TableJoin extends Check implements Operator {
 		public void close(QueryContext ctx) {
 			lc.close(ctx);
 			it = null;
+			pending = null;
+			dropTable();
 		}
 
 		@Override
 		public Tuple next(QueryContext ctx) throws QueryException {
+			return next(ctx, 1);
+		}
+
+		@Override
+		public int next(QueryContext ctx, Tuple[] out, int len)
+				throws QueryException {
+			int n = 0;
+			Tuple t;
+			while ((n < len) && ((t = next(ctx, len - n)) != null)) {
+				out[n++] = t;
+			}
+			return n;
+		}
+
+		private Tuple next(QueryContext ctx, int demand) throws QueryException {
 			if ((it != null) && (itPos < itSize)) {
 				return tuple.concat(it.get(itPos++));
 			}
 
-			while (((tuple = next) != null) || ((tuple = lc.next(ctx)) != null)) {
+			while (((tuple = next) != null)
+					|| ((tuple = nextLeft(ctx, demand)) != null)) {
 				next = null;
 				if ((check) && (dead(tuple))) {
 					prev = tuple.concat(padding);
@@ -92,15 +116,23 @@ public class TableJoin extends Check implements Operator {
 				if (groupVar >= 0) {
 					Atomic gk = (Atomic) tuple.get(groupVar);
 					if ((tgk != null) && (tgk.atomicCmp(gk) != 0)) {
-						table = null;
+						dropTable();
 					}
 				}
 				if (table == null) {
 					buildTable(ctx, tuple);
+					if (table.isPartitioned()) {
+						// replay the spooled tuples of the current table
+						spool(ctx, tuple);
+						tuple = table.next();
+					}
+				}
+				final FastList<Sequence[]> matches;
+				if (replay) {
+					matches = table.matches();
+				} else {
+					matches = table.probe(keys(ctx, tuple));
 				}
-				final Sequence keys = (isGCmp) ? lExpr.evaluate(ctx, tuple)
-						: lExpr.evaluateToItem(ctx, tuple);
-				final FastList<Sequence[]> matches = table.probe(keys);
 
 				it = matches;
 				itPos = 0;
@@ -119,7 +151,7 @@ public class TableJoin extends Check implements Operator {
 						if ((prev != null) && (!separate(prev, tuple))) {
 							continue;
 						}
-						next = lc.next(ctx);
+						next = nextLeft(ctx, demand);
 						// skip if next tuple is in same iteration group
 						if ((next != null) && (!separate(tuple, next))) {
 							continue;
@@ -133,34 +165,99 @@ public class TableJoin extends Check implements Operator {
 					return prev;
 				}
 			}
-			table = null;
+			dropTable();
 			return null;
 		}
 
+		private Tuple nextLeft(QueryContext ctx, int demand)
+				throws QueryException {
+			if (replay) {
+				Tuple t = table.next();
+				if (t != null) {
+					return t;
+				}
+				replay = false;
+			}
+			if (pending != null) {
+				Tuple t = pending;
+				pending = null;
+				return t;
+			}
+			return lc.next(ctx, demand);
+		}
+
+		private Sequence keys(QueryContext ctx, Tuple t) throws QueryException {
+			return (isGCmp) ? lExpr.evaluate(ctx, t) : lExpr.evaluateToItem(
+					ctx, t);
+		}
+
+		/**
+		 * Spools all probe tuples which belong to the current table, i.e.,
+		 * up to the next change of the grouping key, and joins them with the
+		 * partitioned table.
+		 */
+		private void spool(QueryContext ctx, Tuple t) throws QueryException {
+			do {
+				if ((check) && (dead(t))) {
+					table.spool(t, null);
+				} else if ((groupVar >= 0)
+						&& (tgk.atomicCmp((Atomic) t.get(groupVar)) != 0)) {
+					pending = t;
+					break;
+				} else {
+					table.spool(t, keys(ctx, t));
+				}
+			} while ((t = lc.next(ctx, Cursors.BATCH_SIZE)) != null);
+			table.join();
+			replay = true;
+		}
+
+		private void dropTable() {
+			if (table != null) {
+				table.clear();
+				table = null;
+			}
+			replay = false;
+		}
+
 		protected void buildTable(QueryContext ctx, Tuple tuple)
 				throws QueryException {
-			table = new MultiTypeJoinTable(cmp, isGCmp, skipSort);
+			table = new HybridJoinTable(cmp, isGCmp, skipSort,
+					HybridJoinTable.DEFAULT_MAX_SIZE);
 			if (groupVar >= 0) {
 				tgk = (Atomic) tuple.get(groupVar);
 			}
 			int pos = 1;
-			Tuple t;
+			Tuple[] batch = new Tuple[Cursors.BATCH_SIZE];
+			int n;
 			Cursor rc = r.create(ctx, tuple);
 			try {
 				rc.open(ctx);
-				while ((t = rc.next(ctx)) != null) {
-					Sequence keys = (isGCmp) ? rExpr.evaluate(ctx, t) : rExpr
-							.evaluateToItem(ctx, t);
-					if (keys != null) {
-						Sequence[] tmp = t.array();
-						Sequence[] bindings = Arrays.copyOfRange(tmp, lSize,
-								tmp.length);
-						table.add(keys, bindings, pos++);
+				while ((n = Cursors.next(ctx, rc, batch, batch.length)) > 0) {
+					for (int i = 0; i < n; i++) {
+						Tuple t = batch[i];
+						batch[i] = null;
+						Sequence keys = (isGCmp) ? rExpr.evaluate(ctx, t)
+								: rExpr.evaluateToItem(ctx, t);
+						if (keys != null) {
+							Sequence[] tmp = t.array();
+							Sequence[] bindings = Arrays.copyOfRange(tmp,
+									lSize, tmp.length);
+							table.add(keys, bindings, pos++);
+							if (keyFilter != null) {
+								keyFilter.add(keys);
+							}
+						}
 					}
 				}
 			} finally {
 				rc.close(ctx);
 			}
+			table.build();
+			// the filter is only valid for the first table
+			if ((keyFilter != null) && (groupVar < 0)) {
+				keyFilter.publish();
+			}
 		}
 	}
 
@@ -173,6 +270,7 @@ public class TableJoin extends Check implements Operator {
 	final boolean isGCmp;
 	final boolean skipSort;
 	int groupVar = -1;
+	SemiJoinFilter filter;
 
 	public TableJoin(Cmp cmp, boolean isGCmsp, boolean leftJoin,
 			boolean skipSort, Operator l, Expr lExpr, Operator r, Expr rExpr) {
@@ -190,7 +288,17 @@ public class TableJoin extends Check implements Operator {
 	public Cursor create(QueryContext ctx, Tuple tuple) throws QueryException {
 		int lSize = l.tupleWidth(tuple.getSize());
 		int pad = r.tupleWidth(tuple.getSize()) - tuple.getSize();
-		return new TableJoinCursor(l.create(ctx, tuple), lSize, pad);
+		if (filter == null) {
+			return new TableJoinCursor(l.create(ctx, tuple), lSize, pad, null);
+		}
+		KeyFilter keyFilter = new KeyFilter(isGCmp);
+		filter.bind(keyFilter);
+		try {
+			return new TableJoinCursor(l.create(ctx, tuple), lSize, pad,
+					keyFilter);
+		} finally {
+			filter.unbind();
+		}
 	}
 
 	@Override
@@ -198,7 +306,18 @@ public class TableJoin extends Check implements Operator {
 			throws QueryException {
 		int lSize = l.tupleWidth(buf[0].getSize());
 		int pad = r.tupleWidth(buf[0].getSize()) - buf[0].getSize();
-		return new TableJoinCursor(l.create(ctx, buf, len), lSize, pad);
+		if (filter == null) {
+			return new TableJoinCursor(l.create(ctx, buf, len), lSize, pad,
+					null);
+		}
+		KeyFilter keyFilter = new KeyFilter(isGCmp);
+		filter.bind(keyFilter);
+		try {
+			return new TableJoinCursor(l.create(ctx, buf, len), lSize, pad,
+					keyFilter);
+		} finally {
+			filter.unbind();
+		}
 	}
 
 	@Override
@@ -206,6 +325,15 @@ public class TableJoin extends Check implements Operator {
 		return l.tupleWidth(initSize) + r.tupleWidth(initSize) - initSize;
 	}
 
+	/**
+	 * Lets the join publish a Bloom filter of its build keys to the given
+	 * semi-join filter in its left input. Only valid for inner equi-joins
+	 * without iteration group checks.
+	 */
+	public void semiJoin(SemiJoinFilter filter) {
+		this.filter = filter;
+	}
+
 	public Reference group() {
 		return new Reference() {
 			public void setPos(int pos) {
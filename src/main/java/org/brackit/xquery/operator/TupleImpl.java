@@ -56,6 +56,10 @@ public class TupleImpl implements Tuple {
 		sequences = Arrays.copyOf(t, t.length);
 	}
 
+	TupleImpl(Sequence[] t, boolean copy) {
+		sequences = (copy) ? Arrays.copyOf(t, t.length) : t;
+	}
+
 	@Override
 	public Tuple project(int... positions) throws QueryException {
 		Sequence[] projected = new Sequence[positions.length];
@@ -63,7 +67,7 @@ public class TupleImpl implements Tuple {
 		for (int pos : positions) {
 			projected[targetPos++] = get(pos);
 		}
-		return new TupleImpl(projected);
+		return new TupleImpl(projected, false);
 	}
 
 	@Override
@@ -76,7 +80,8 @@ public class TupleImpl implements Tuple {
 			throw new QueryException(ErrorCode.BIT_DYN_RT_OUT_OF_BOUNDS_ERROR,
 					end);
 		}
-		return new TupleImpl(Arrays.copyOfRange(sequences, start, end));
+		return new TupleImpl(Arrays.copyOfRange(sequences, start, end),
+				false);
 	}
 
 	@Override
@@ -87,21 +92,21 @@ public class TupleImpl implements Tuple {
 		}
 		Sequence[] tmp = Arrays.copyOf(sequences, sequences.length);
 		tmp[position] = s;
-		return new TupleImpl(tmp);
+		return new TupleImpl(tmp, false);
 	}
 
 	@Override
 	public Tuple concat(Sequence s) throws QueryException {
 		Sequence[] tmp = Arrays.copyOf(sequences, sequences.length + 1);
 		tmp[sequences.length] = s;
-		return new TupleImpl(tmp);
+		return new TupleImpl(tmp, false);
 	}
 
 	@Override
 	public Tuple concat(Sequence[] s) throws QueryException {
 		Sequence[] tmp = Arrays.copyOf(sequences, sequences.length + s.length);
 		System.arraycopy(s, 0, tmp, sequences.length, s.length);
-		return new TupleImpl(tmp);
+		return new TupleImpl(tmp, false);
 	}
 	
 	@Override
@@ -113,9 +118,9 @@ public class TupleImpl implements Tuple {
 					position);
 		}
 		Sequence[] tmp = Arrays.copyOf(sequences, nLen);
-		tmp[sequences.length] = s;
+		tmp[sequences.length] = con;
 		tmp[position] = s;
-		return new TupleImpl(tmp);
+		return new TupleImpl(tmp, false);
 	}
 
 	@Override
@@ -129,7 +134,7 @@ public class TupleImpl implements Tuple {
 		Sequence[] tmp = Arrays.copyOf(sequences, nLen);
 		System.arraycopy(con, 0, tmp, sequences.length, con.length);
 		tmp[position] = s;
-		return new TupleImpl(tmp);
+		return new TupleImpl(tmp, false);
 	}
 
 	@Override
@@ -0,0 +1,259 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+
+/**
+ * Bounded hand-off of batches between a single producer and a single
+ * consumer thread. Both sides park when the queue is full or empty, resp.,
+ * instead of spinning. Batches are recycled, so that at most
+ * <code>buffers + 2</code> batches are allocated.
+ * <p>
+ * The consumer may {@link #cancel() cancel} the exchange at any time, which
+ * wakes up a blocked producer and makes all further calls to
+ * {@link #put(Batch)} fail. The producer signals the end of input with
+ * {@link #finish()} or passes an error to the consumer with
+ * {@link #fail(QueryException)}. Producers usually pass their input with
+ * {@link #fill(Producer)}.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class ExchangeQueue {
+
+	/**
+	 * A batch of items; a batch with less than <code>items.length</code>
+	 * items is terminated by <code>null</code>
+	 */
+	public static final class Batch {
+		public final Object[] items;
+
+		Batch(int size) {
+			items = new Object[size];
+		}
+	}
+
+	/**
+	 * Input of a producer
+	 */
+	public interface Producer {
+		/**
+		 * @return the next item or <code>null</code> at the end of input
+		 */
+		Object next() throws QueryException;
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notFull = lock.newCondition();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	private final ArrayDeque<Batch> queue;
+
+	private final ArrayDeque<Batch> free;
+
+	private final int buffers;
+
+	private final int batchSize;
+
+	private boolean finished;
+
+	private volatile boolean cancelled;
+
+	private QueryException error;
+
+	public ExchangeQueue(int buffers, int batchSize) {
+		this.buffers = Math.max(buffers, 1);
+		this.batchSize = Math.max(batchSize, 1);
+		this.queue = new ArrayDeque<Batch>(this.buffers);
+		this.free = new ArrayDeque<Batch>(this.buffers);
+	}
+
+	public int batchSize() {
+		return batchSize;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns an empty batch for the producer.
+	 */
+	public Batch emptyBatch() {
+		lock.lock();
+		try {
+			Batch batch = free.poll();
+			return (batch != null) ? batch : new Batch(batchSize);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Passes a batch to the consumer and waits if all buffers are in use.
+	 * 
+	 * @return <code>false</code> if the consumer cancelled the exchange
+	 */
+	public boolean put(Batch batch) throws QueryException {
+		lock.lock();
+		try {
+			while ((!cancelled) && (queue.size() == buffers)) {
+				notFull.await();
+			}
+			if (cancelled) {
+				return false;
+			}
+			queue.add(batch);
+			notEmpty.signal();
+			return true;
+		} catch (InterruptedException e) {
+			throw new QueryException(e, ErrorCode.BIT_DYN_ABORTED_ERROR);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Passes all items of the given input in batches to the consumer and
+	 * signals the end of input. Stops without pulling further items as soon
+	 * as the consumer cancelled the exchange. Errors of the input are thrown
+	 * to the caller.
+	 */
+	public void fill(Producer in) throws QueryException {
+		Batch batch = emptyBatch();
+		Object[] items = batch.items;
+		int pos = 0;
+		Object item;
+
+		while ((!cancelled) && ((item = in.next()) != null)) {
+			items[pos++] = item;
+
+			if (pos == items.length) {
+				if (!put(batch)) {
+					return;
+				}
+				batch = emptyBatch();
+				items = batch.items;
+				pos = 0;
+			}
+		}
+		if (cancelled) {
+			return;
+		}
+		if (pos > 0) {
+			items[pos] = null;
+			if (!put(batch)) {
+				return;
+			}
+		}
+		finish();
+	}
+
+	/**
+	 * Signals the end of input.
+	 */
+	public void finish() {
+		lock.lock();
+		try {
+			finished = true;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Passes an error to the consumer.
+	 */
+	public void fail(QueryException e) {
+		lock.lock();
+		try {
+			error = e;
+			finished = true;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the next batch and returns the previously taken batch for reuse.
+	 * Waits if no batch is available.
+	 * 
+	 * @return the next batch or <code>null</code> at the end of input
+	 */
+	public Batch take(Batch consumed) throws QueryException {
+		lock.lock();
+		try {
+			if (consumed != null) {
+				free.add(consumed);
+			}
+			while ((queue.isEmpty()) && (!finished)) {
+				notEmpty.await();
+			}
+			Batch batch = queue.poll();
+			if (batch != null) {
+				notFull.signal();
+				return batch;
+			}
+			if (error != null) {
+				QueryException e = error;
+				error = null;
+				throw e;
+			}
+			return null;
+		} catch (InterruptedException e) {
+			throw new QueryException(e, ErrorCode.BIT_DYN_ABORTED_ERROR);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Cancels the exchange and releases all buffered batches.
+	 */
+	public void cancel() {
+		lock.lock();
+		try {
+			cancelled = true;
+			queue.clear();
+			free.clear();
+			notFull.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+
+/**
+ * Shared pool of daemon worker threads for intra-query parallelism.
+ * <p>
+ * The pool itself is unbounded to avoid deadlocks when parallel operators
+ * are nested and tasks wait for other tasks. Clients are responsible for
+ * bounding their degree of parallelism, usually to {@link #PARALLELISM}.
+ * Idle threads are reused and discarded after a timeout.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class WorkerPool {
+
+	public static final String PARALLELISM_CFG = "org.brackit.xquery.parallelism";
+
+	/**
+	 * Default degree of parallelism for parallel operators
+	 */
+	public static int PARALLELISM = Cfg.asInt(PARALLELISM_CFG, Runtime
+			.getRuntime().availableProcessors());
+
+	private static ExecutorService executor;
+
+	private WorkerPool() {
+	}
+
+	public static synchronized ExecutorService executor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L,
+					TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+					new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "brackit-worker-"
+									+ count.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		}
+		return executor;
+	}
+
+	/**
+	 * Waits for the result of a task and rethrows the exception of a failed
+	 * task as {@link QueryException}.
+	 */
+	public static <T> T await(Future<T> future) throws QueryException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new QueryException(e, ErrorCode.BIT_DYN_ABORTED_ERROR);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof QueryException) {
+				throw (QueryException) cause;
+			}
+			throw new QueryException(cause, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+	}
+
+	/**
+	 * Cancels the given tasks and waits until running tasks are finished.
+	 */
+	public static void cancel(Collection<? extends Future<?>> futures) {
+		for (Future<?> future : futures) {
+			future.cancel(false);
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (Exception e) {
+				// ignore
+			}
+		}
+		futures.clear();
+	}
+}
@@ -39,5 +39,12 @@ public interface Aggregator {
 
 	public void add(Sequence seq) throws QueryException;
 
+	/**
+	 * Merges the partial aggregate of the given aggregator, which must be of
+	 * the same kind and must have aggregated the sequences following the ones
+	 * aggregated by this aggregator.
+	 */
+	public void merge(Aggregator agg) throws QueryException;
+
 	public void clear();
 }
\ No newline at end of file
@@ -60,6 +60,11 @@ public class CountAggregator implements Aggregator {
 		}
 	}
 
+	@Override
+	public void merge(Aggregator agg) throws QueryException {
+		count = (IntNumeric) count.add(((CountAggregator) agg).count);
+	}
+
 	@Override
 	public void clear() {
 		count = Int32.ZERO;
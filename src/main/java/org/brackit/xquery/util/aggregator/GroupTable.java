@@ -0,0 +1,395 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.aggregator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.io.TupleCodec;
+import org.brackit.xquery.util.log.Logger;
+
+/**
+ * Hash table of {@link Grouping groupings} for hash-based grouping.
+ * <p>
+ * If a positive memory budget is given and the estimated size of the table
+ * exceeds the budget, the table stops admitting new groups (grace hash
+ * grouping). Tuples of new groups and, if groups aggregate sequences, all
+ * further tuples are then hash-partitioned to temporary files in the binary
+ * format of {@link TupleCodec}. When the groups are read, each partition is
+ * aggregated in turn, seeded with the resident groups of the partition.
+ * Partitions which exceed the budget again are partitioned recursively.
+ * <p>
+ * The items of aggregated sequences are always kept in input order. Groups
+ * are returned in order of their first occurrence unless the table spilled.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class GroupTable {
+	private static final Logger log = Logger.getLogger(GroupTable.class);
+
+	public static final String MAX_SIZE_CFG = "org.brackit.xquery.groupMemory";
+
+	public static final String FAN_OUT_CFG = "org.brackit.xquery.groupFanOut";
+
+	/**
+	 * Default memory budget in bytes for hash-based grouping
+	 */
+	public static long DEFAULT_MAX_SIZE = Cfg.asLong(MAX_SIZE_CFG,
+			32 * 1024 * 1024);
+
+	/**
+	 * Number of partitions a table is split into when it spills
+	 */
+	public static int FAN_OUT = Math.max(Cfg.asInt(FAN_OUT_CFG, 16), 2);
+
+	/**
+	 * Maximum depth of recursive partitioning
+	 */
+	private static final int MAX_LEVEL = 4;
+
+	/**
+	 * Estimated heap size of a group without aggregated sequences
+	 */
+	private static final int GROUP_SIZE = 128;
+
+	public static final class Key {
+		final int hash;
+		final Atomic[] val;
+
+		public Key(Atomic[] val) {
+			this.val = val;
+			this.hash = Arrays.hashCode(val);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(val);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (obj instanceof Key) {
+				Key k = (Key) obj;
+				for (int i = 0; i < val.length; i++) {
+					Atomic a1 = val[i];
+					Atomic a2 = k.val[i];
+					if (((a1 == null) && (a2 != null)) || (a2 == null)
+							|| (a1.atomicCmp(a2) != 0)) {
+						return false;
+					}
+				}
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private final int[] groupSpecs;
+	private final int[] addAggSpecs;
+	private final Aggregate defaultAgg;
+	private final Aggregate[] addAggs;
+	private final int tupleSize;
+	private final long maxSize;
+	private final int level;
+	private final boolean growing;
+	private final TupleCodec codec;
+	private final File spillDir;
+	private final Map<Key, Grouping> map = new LinkedHashMap<Key, Grouping>();
+	private long size;
+	private File[] partitions;
+	private DataOutputStream[] outs;
+	private Iterator<Grouping> it;
+	private List<List<Key>> residents;
+	private GroupTable sub;
+	private int nextPartition;
+
+	public GroupTable(int[] groupSpecs, int[] addAggSpecs,
+			Aggregate defaultAgg, Aggregate[] addAggs, int tupleSize,
+			long maxSize) {
+		this.groupSpecs = groupSpecs;
+		this.addAggSpecs = addAggSpecs;
+		this.defaultAgg = defaultAgg;
+		this.addAggs = addAggs;
+		this.tupleSize = tupleSize;
+		this.maxSize = maxSize;
+		this.level = 0;
+		this.growing = aggregatesSequences(defaultAgg, addAggs);
+		this.codec = (maxSize > 0) ? new TupleCodec() : null;
+		this.spillDir = new File(Cfg.asString("java.io.tmpdir"));
+	}
+
+	private GroupTable(GroupTable parent) {
+		this.groupSpecs = parent.groupSpecs;
+		this.addAggSpecs = parent.addAggSpecs;
+		this.defaultAgg = parent.defaultAgg;
+		this.addAggs = parent.addAggs;
+		this.tupleSize = parent.tupleSize;
+		this.maxSize = (parent.level + 1 < MAX_LEVEL) ? parent.maxSize : -1;
+		this.level = parent.level + 1;
+		this.growing = parent.growing;
+		this.codec = parent.codec;
+		this.spillDir = parent.spillDir;
+	}
+
+	private static boolean aggregatesSequences(Aggregate defaultAgg,
+			Aggregate[] addAggs) {
+		if (defaultAgg == Aggregate.SEQUENCE) {
+			return true;
+		}
+		for (Aggregate agg : addAggs) {
+			if (agg == Aggregate.SEQUENCE) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isEmpty() {
+		return ((map.isEmpty()) && (partitions == null));
+	}
+
+	public void add(Tuple t) throws QueryException {
+		Atomic[] gks = Grouping.groupingKeys(groupSpecs, t);
+		Key key = new Key(gks);
+		Grouping grp = map.get(key);
+		if (grp == null) {
+			if (outs != null) {
+				spill(key, t);
+				return;
+			}
+			grp = new Grouping(groupSpecs, addAggSpecs, defaultAgg, addAggs,
+					tupleSize);
+			map.put(key, grp);
+			size += GROUP_SIZE;
+		} else if ((outs != null) && (growing)) {
+			// keep order of aggregated sequences
+			spill(key, t);
+			return;
+		}
+		grp.add(gks, t);
+		if (growing) {
+			size += TupleCodec.size(t);
+		}
+		if ((maxSize > 0) && (outs == null) && (size > maxSize)) {
+			openPartitions();
+		}
+	}
+
+	private void seed(Key key, Grouping grp) {
+		map.put(key, grp);
+		size += GROUP_SIZE;
+	}
+
+	private int partition(Key key) {
+		int h = key.hash;
+		for (int i = 0; i <= level; i++) {
+			h *= 0x9E3779B1;
+			h ^= (h >>> 15);
+		}
+		return (h & Integer.MAX_VALUE) % FAN_OUT;
+	}
+
+	private void openPartitions() throws QueryException {
+		if (log.isDebugEnabled()) {
+			log.debug(String.format(
+					"Spilling grouping table at level %s with %s groups",
+					level, map.size()));
+		}
+		partitions = new File[FAN_OUT];
+		outs = new DataOutputStream[FAN_OUT];
+		try {
+			for (int i = 0; i < FAN_OUT; i++) {
+				partitions[i] = File.createTempFile("group", ".part",
+						spillDir);
+				partitions[i].deleteOnExit();
+				outs[i] = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(partitions[i]), 8192));
+			}
+		} catch (IOException e) {
+			clear();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+	}
+
+	private void spill(Key key, Tuple t) throws QueryException {
+		try {
+			codec.write(outs[partition(key)], t);
+		} catch (IOException e) {
+			clear();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+	}
+
+	private void closePartitions() throws QueryException {
+		try {
+			for (int i = 0; i < outs.length; i++) {
+				outs[i].close();
+			}
+			outs = null;
+		} catch (IOException e) {
+			clear();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+	}
+
+	private GroupTable loadPartition(int p, List<Key> residents)
+			throws QueryException {
+		GroupTable sub = new GroupTable(this);
+		for (Key key : residents) {
+			sub.seed(key, map.remove(key));
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(partitions[p])));
+			Tuple t;
+			while ((t = codec.read(in)) != null) {
+				sub.add(t);
+			}
+		} catch (IOException e) {
+			sub.clear();
+			clear();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					log.error(e);
+				}
+			}
+			partitions[p].delete();
+			partitions[p] = null;
+		}
+		return sub;
+	}
+
+	/**
+	 * Returns the next aggregated group or <code>null</code> if all groups
+	 * were returned. The table must not be modified afterwards.
+	 */
+	public Tuple next() throws QueryException {
+		if (partitions == null) {
+			if (it == null) {
+				it = map.values().iterator();
+			}
+			if (!it.hasNext()) {
+				return null;
+			}
+			Grouping grp = it.next();
+			it.remove();
+			return grp.emit();
+		}
+		if (residents == null) {
+			closePartitions();
+			residents = new ArrayList<List<Key>>(FAN_OUT);
+			for (int i = 0; i < FAN_OUT; i++) {
+				residents.add(new ArrayList<Key>());
+			}
+			for (Key key : map.keySet()) {
+				residents.get(partition(key)).add(key);
+			}
+		}
+		while (true) {
+			if (sub != null) {
+				Tuple t = sub.next();
+				if (t != null) {
+					return t;
+				}
+				sub.clear();
+				sub = null;
+			}
+			if (nextPartition == FAN_OUT) {
+				return null;
+			}
+			sub = loadPartition(nextPartition, residents.get(nextPartition));
+			residents.set(nextPartition++, null);
+		}
+	}
+
+	public void clear() {
+		if (sub != null) {
+			sub.clear();
+			sub = null;
+		}
+		if (outs != null) {
+			for (DataOutputStream out : outs) {
+				if (out != null) {
+					try {
+						out.close();
+					} catch (IOException e) {
+						log.error(e);
+					}
+				}
+			}
+			outs = null;
+		}
+		if (partitions != null) {
+			for (File partition : partitions) {
+				if (partition != null) {
+					partition.delete();
+				}
+			}
+			partitions = null;
+		}
+		map.clear();
+		it = null;
+		residents = null;
+		nextPartition = 0;
+		size = 0;
+		if ((level == 0) && (codec != null)) {
+			codec.clear();
+		}
+	}
+}
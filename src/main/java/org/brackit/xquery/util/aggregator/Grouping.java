@@ -195,6 +195,26 @@ public class Grouping {
 		size++;
 	}
 
+	/**
+	 * Merges the partial aggregates of a grouping, which aggregated the
+	 * tuples following the ones aggregated by this grouping.
+	 */
+	public void merge(Grouping grp) throws QueryException {
+		if (grp.size == 0) {
+			return;
+		}
+		if (tupleSize == -1) {
+			init(grp.tupleSize);
+		}
+		for (int i = 0; i < aggs.length; i++) {
+			if ((size > 0) && (onlyFirst[i])) {
+				continue;
+			}
+			aggs[i].merge(grp.aggs[i]);
+		}
+		size += grp.size;
+	}
+
 	public Tuple emit() throws QueryException {
 		Sequence[] groupings = new Sequence[aggs.length];
 		for (int i = 0; i < aggs.length; i++) {
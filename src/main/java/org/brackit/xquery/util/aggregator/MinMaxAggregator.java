@@ -69,6 +69,14 @@ public class MinMaxAggregator implements Aggregator {
 		minmaxType = null;
 	}
 
+	@Override
+	public void merge(Aggregator agg) throws QueryException {
+		Atomic other = ((MinMaxAggregator) agg).minmax;
+		if (other != null) {
+			addItem(other, (minmax == null));
+		}
+	}
+
 	@Override
 	public void add(Sequence seq) throws QueryException {
 		if (seq == null) {
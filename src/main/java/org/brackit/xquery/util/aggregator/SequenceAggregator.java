@@ -54,6 +54,16 @@ public class SequenceAggregator implements Aggregator {
 		buf[len++] = s;
 	}
 
+	@Override
+	public void merge(Aggregator agg) throws QueryException {
+		SequenceAggregator other = (SequenceAggregator) agg;
+		if (len + other.len > buf.length) {
+			buf = Arrays.copyOf(buf, len + other.len);
+		}
+		System.arraycopy(other.buf, 0, buf, len, other.len);
+		len += other.len;
+	}
+
 	@Override
 	public Sequence getAggregate() {
 		if (len == 0) {
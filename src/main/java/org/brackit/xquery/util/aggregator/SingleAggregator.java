@@ -50,6 +50,13 @@ public class SingleAggregator implements Aggregator {
 		}
 	}
 
+	@Override
+	public void merge(Aggregator agg) throws QueryException {
+		if (s == null) {
+			s = ((SingleAggregator) agg).s;
+		}
+	}
+
 	@Override
 	public void clear() {
 		s = null;
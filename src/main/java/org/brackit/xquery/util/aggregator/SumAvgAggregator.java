@@ -85,6 +85,25 @@ public class SumAvgAggregator implements Aggregator {
 		aggType = null;
 	}
 
+	@Override
+	public void merge(Aggregator agg) throws QueryException {
+		SumAvgAggregator other = (SumAvgAggregator) agg;
+		if (other.sum == null) {
+			return;
+		}
+		if (sum == null) {
+			sum = other.sum;
+			aggType = other.aggType;
+		} else if (aggType == AggType.NUMERIC) {
+			sum = numericSum((Numeric) sum, other.sum);
+		} else if (aggType == AggType.YMD) {
+			sum = ymdSum((YMD) sum, other.sum);
+		} else if (aggType == AggType.DTD) {
+			sum = dtdSum((DTD) sum, other.sum);
+		}
+		count += other.count;
+	}
+
 	public void add(Sequence seq) throws QueryException {
 		if (seq == null) {
 			return;
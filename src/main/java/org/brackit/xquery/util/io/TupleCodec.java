@@ -0,0 +1,416 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.io;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.Bool;
+import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.atomic.Dec;
+import org.brackit.xquery.atomic.Flt;
+import org.brackit.xquery.atomic.Int;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Int64;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.atomic.Una;
+import org.brackit.xquery.operator.TupleImpl;
+import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Compact binary encoding of tuples for spilling intermediate results to
+ * disk.
+ * <p>
+ * Frequently used atomic values (xs:integer, xs:double, xs:float,
+ * xs:decimal, xs:string, xs:untypedAtomic, xs:boolean and xs:QName) are
+ * encoded by value. Nodes and all other items, e.g., atomics of derived
+ * types, functions, or arrays, cannot be reconstructed from their value and
+ * are written as references into a table of pinned items, which is owned by
+ * the codec. Thus, encoded tuples must be decoded with the same codec
+ * instance. Tuples may be written concurrently by several threads.
+ * <p>
+ * Sequences which are not items are materialized when they are written.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class TupleCodec {
+
+	private static final int NULL = 0;
+
+	private static final int TUPLE = 1;
+
+	private static final int SEQUENCE = 2;
+
+	private static final int REF = 3;
+
+	private static final int INT32 = 4;
+
+	private static final int INT64 = 5;
+
+	private static final int INT = 6;
+
+	private static final int DBL = 7;
+
+	private static final int FLT = 8;
+
+	private static final int DEC = 9;
+
+	private static final int STR = 10;
+
+	private static final int UNA = 11;
+
+	private static final int TRUE = 12;
+
+	private static final int FALSE = 13;
+
+	private static final int QNM = 14;
+
+	/**
+	 * Estimated heap size of an object reference
+	 */
+	private static final int REF_SIZE = 8;
+
+	/**
+	 * Estimated heap size of an object header
+	 */
+	private static final int OBJ_SIZE = 16;
+
+	/**
+	 * Estimated heap size of a lazy sequence, which is not materialized
+	 */
+	private static final int LAZY_SEQUENCE_SIZE = 64;
+
+	private final ArrayList<Item> pinned = new ArrayList<Item>();
+
+	/**
+	 * Writes the given tuple to the output.
+	 */
+	public void write(DataOutputStream out, Tuple t) throws IOException,
+			QueryException {
+		if (t instanceof Sequence) {
+			writeSequence(out, (Sequence) t);
+			return;
+		}
+		int size = t.getSize();
+		out.writeByte(TUPLE);
+		writeVarInt(out, size);
+		for (int i = 0; i < size; i++) {
+			writeSequence(out, t.get(i));
+		}
+	}
+
+	/**
+	 * Reads the next tuple from the input or returns <code>null</code> if the
+	 * end of input is reached.
+	 */
+	public Tuple read(DataInputStream in) throws IOException {
+		int tag = in.read();
+		if (tag == -1) {
+			return null;
+		}
+		if (tag != TUPLE) {
+			return readSequence(in, tag);
+		}
+		int size = readVarInt(in);
+		Sequence[] sequences = new Sequence[size];
+		for (int i = 0; i < size; i++) {
+			sequences[i] = readSequence(in, in.readUnsignedByte());
+		}
+		return new TupleImpl(sequences);
+	}
+
+	/**
+	 * Releases all pinned items.
+	 */
+	public synchronized void clear() {
+		pinned.clear();
+	}
+
+	/**
+	 * Returns the given tuple or a copy where all lazy sequences are
+	 * materialized. This allows a tuple to be written safely by a different
+	 * thread than the one which evaluated it.
+	 */
+	public static Tuple materialize(Tuple t) throws QueryException {
+		if (t instanceof Sequence) {
+			return (t instanceof Item) ? t : materialize((Sequence) t);
+		}
+		int width = t.getSize();
+		Sequence[] sequences = null;
+		for (int i = 0; i < width; i++) {
+			Sequence s = t.get(i);
+			if ((s != null) && (!(s instanceof Item))
+					&& (!(s instanceof ItemSequence))) {
+				if (sequences == null) {
+					sequences = t.array().clone();
+				}
+				sequences[i] = materialize(s);
+			}
+		}
+		return (sequences == null) ? t : new TupleImpl(sequences);
+	}
+
+	private static Sequence materialize(Sequence s) throws QueryException {
+		ArrayList<Item> items = new ArrayList<Item>();
+		Iter it = s.iterate();
+		try {
+			Item item;
+			while ((item = it.next()) != null) {
+				items.add(item);
+			}
+		} finally {
+			it.close();
+		}
+		return new ItemSequence(items.toArray(new Item[items.size()]));
+	}
+
+	/**
+	 * Returns an estimate of the heap size occupied by the given tuple.
+	 */
+	public static long size(Tuple t) throws QueryException {
+		if (t instanceof Sequence) {
+			return size((Sequence) t);
+		}
+		int width = t.getSize();
+		long size = 2 * OBJ_SIZE + width * REF_SIZE;
+		for (int i = 0; i < width; i++) {
+			size += size(t.get(i));
+		}
+		return size;
+	}
+
+	private static long size(Sequence s) throws QueryException {
+		if (s == null) {
+			return 0;
+		}
+		if (s instanceof Item) {
+			return size((Item) s);
+		}
+		if (s instanceof ItemSequence) {
+			long size = 2 * OBJ_SIZE;
+			Iter it = s.iterate();
+			try {
+				Item item;
+				while ((item = it.next()) != null) {
+					size += REF_SIZE + size(item);
+				}
+			} finally {
+				it.close();
+			}
+			return size;
+		}
+		return LAZY_SEQUENCE_SIZE;
+	}
+
+	private static long size(Item item) {
+		Class<?> clazz = item.getClass();
+		if ((clazz == Int32.class) || (clazz == Bool.class)
+				|| (clazz == Flt.class)) {
+			return OBJ_SIZE;
+		}
+		if ((clazz == Int64.class) || (clazz == Dbl.class)) {
+			return OBJ_SIZE + 8;
+		}
+		if ((clazz == Str.class) || (clazz == Una.class)) {
+			// string object plus char array
+			return 3 * OBJ_SIZE + 2 * ((Atomic) item).stringValue().length();
+		}
+		if ((clazz == Int.class) || (clazz == Dec.class)) {
+			return 4 * OBJ_SIZE;
+		}
+		if (clazz == QNm.class) {
+			return OBJ_SIZE + 3 * REF_SIZE;
+		}
+		// pinned items, e.g., nodes, are shared
+		return REF_SIZE;
+	}
+
+	private void writeSequence(DataOutputStream out, Sequence s)
+			throws IOException, QueryException {
+		if (s == null) {
+			out.writeByte(NULL);
+		} else if (s instanceof Item) {
+			writeItem(out, (Item) s);
+		} else {
+			ArrayList<Item> items = new ArrayList<Item>();
+			Iter it = s.iterate();
+			try {
+				Item item;
+				while ((item = it.next()) != null) {
+					items.add(item);
+				}
+			} finally {
+				it.close();
+			}
+			out.writeByte(SEQUENCE);
+			writeVarInt(out, items.size());
+			for (Item item : items) {
+				writeItem(out, item);
+			}
+		}
+	}
+
+	private void writeItem(DataOutputStream out, Item item) throws IOException {
+		Class<?> clazz = item.getClass();
+		if (clazz == Int32.class) {
+			out.writeByte(INT32);
+			writeVarInt(out, ((Int32) item).intValue());
+		} else if (clazz == Int64.class) {
+			out.writeByte(INT64);
+			out.writeLong(((Int64) item).longValue());
+		} else if (clazz == Int.class) {
+			out.writeByte(INT);
+			out.writeUTF(((Int) item).integerValue().toString());
+		} else if (clazz == Dbl.class) {
+			out.writeByte(DBL);
+			out.writeDouble(((Dbl) item).doubleValue());
+		} else if (clazz == Flt.class) {
+			out.writeByte(FLT);
+			out.writeFloat(((Flt) item).floatValue());
+		} else if (clazz == Dec.class) {
+			out.writeByte(DEC);
+			out.writeUTF(((Dec) item).decimalValue().toString());
+		} else if (clazz == Str.class) {
+			out.writeByte(STR);
+			writeString(out, ((Str) item).stringValue());
+		} else if (clazz == Una.class) {
+			out.writeByte(UNA);
+			writeString(out, ((Una) item).stringValue());
+		} else if (clazz == Bool.class) {
+			out.writeByte(((Bool) item).bool ? TRUE : FALSE);
+		} else if (clazz == QNm.class) {
+			QNm name = (QNm) item;
+			out.writeByte(QNM);
+			writeString(out, name.nsURI);
+			writeString(out, (name.prefix != null) ? name.prefix : "");
+			writeString(out, name.localName);
+		} else {
+			out.writeByte(REF);
+			writeVarInt(out, pin(item));
+		}
+	}
+
+	private synchronized int pin(Item item) {
+		pinned.add(item);
+		return pinned.size() - 1;
+	}
+
+	private Sequence readSequence(DataInputStream in, int tag)
+			throws IOException {
+		if (tag == NULL) {
+			return null;
+		}
+		if (tag != SEQUENCE) {
+			return readItem(in, tag);
+		}
+		int size = readVarInt(in);
+		Item[] items = new Item[size];
+		for (int i = 0; i < size; i++) {
+			items[i] = readItem(in, in.readUnsignedByte());
+		}
+		return new ItemSequence(items);
+	}
+
+	private Item readItem(DataInputStream in, int tag) throws IOException {
+		switch (tag) {
+		case REF:
+			return pinned.get(readVarInt(in));
+		case INT32:
+			return new Int32(readVarInt(in));
+		case INT64:
+			return new Int64(in.readLong());
+		case INT:
+			return new Int(new BigDecimal(in.readUTF()));
+		case DBL:
+			return new Dbl(in.readDouble());
+		case FLT:
+			return new Flt(in.readFloat());
+		case DEC:
+			return new Dec(new BigDecimal(in.readUTF()));
+		case STR:
+			return new Str(readString(in));
+		case UNA:
+			return new Una(readString(in));
+		case TRUE:
+			return Bool.TRUE;
+		case FALSE:
+			return Bool.FALSE;
+		case QNM:
+			return new QNm(readString(in), readString(in), readString(in));
+		default:
+			throw new IOException(String.format("Illegal tag: %s", tag));
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s)
+			throws IOException {
+		byte[] b = s.getBytes("UTF-8");
+		writeVarInt(out, b.length);
+		out.write(b);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] b = new byte[readVarInt(in)];
+		in.readFully(b);
+		return new String(b, "UTF-8");
+	}
+
+	private static void writeVarInt(DataOutputStream out, int v)
+			throws IOException {
+		// zig-zag encoding keeps small negative values short
+		int zz = (v << 1) ^ (v >> 31);
+		while ((zz & ~0x7F) != 0) {
+			out.writeByte((zz & 0x7F) | 0x80);
+			zz >>>= 7;
+		}
+		out.writeByte(zz);
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int zz = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			zz |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (zz >>> 1) ^ -(zz & 1);
+	}
+}
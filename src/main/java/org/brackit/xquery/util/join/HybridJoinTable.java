@@ -0,0 +1,653 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.operator.TupleImpl;
+import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.Cmp;
+import org.brackit.xquery.util.io.TupleCodec;
+import org.brackit.xquery.util.log.Logger;
+import org.brackit.xquery.util.sort.TupleSort;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Stream;
+
+/**
+ * Join table for hybrid hash joins.
+ * <p>
+ * As long as the estimated size of the build input stays within the memory
+ * budget, the table is a plain {@link MultiTypeJoinTable}, which is probed
+ * directly. Otherwise, the build input of an equi-join is partitioned by
+ * key hash. Partitions are kept in memory as long as they fit into the
+ * budget; the largest ones are spilled to temporary files in the binary
+ * format of {@link TupleCodec}.
+ * <p>
+ * In partitioned mode, the probe input is {@link #spool(Tuple, Sequence)
+ * spooled} to disk completely. Probe keys of resident partitions are joined
+ * immediately, those of spilled partitions are written to the partition
+ * and joined in a later pass, one partition at a time. Afterwards, the
+ * probe tuples are {@link #next() read} again in input order together with
+ * their sorted and deduplicated matches, i.e., the join delivers the same
+ * result as the in-memory join.
+ * <p>
+ * Keys are partitioned by their {@link KeyHash hash codes} such that all
+ * keys which may compare equal end up in a common partition. Keys without
+ * a consistent hash code are copied to all partitions. A spilled partition
+ * is loaded completely in its pass even if it exceeds the budget.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class HybridJoinTable {
+	private static final Logger log = Logger.getLogger(HybridJoinTable.class);
+
+	public static final String MAX_SIZE_CFG = "org.brackit.xquery.joinMemory";
+
+	public static final String FAN_OUT_CFG = "org.brackit.xquery.joinFanOut";
+
+	/**
+	 * Default memory budget in bytes for the build input of a join
+	 */
+	public static long DEFAULT_MAX_SIZE = Cfg.asLong(MAX_SIZE_CFG,
+			32 * 1024 * 1024);
+
+	/**
+	 * Number of partitions the build input is split into when it spills
+	 */
+	public static int FAN_OUT = Math.max(Cfg.asInt(FAN_OUT_CFG, 16), 2);
+
+	/**
+	 * Estimated heap size of a build entry without bindings
+	 */
+	private static final int ENTRY_SIZE = 64;
+
+	private static final FastList<Sequence[]> NO_MATCHES = new FastList<Sequence[]>(
+			0);
+
+	private static final Comparator<Tuple> MATCH_ORDER = new Comparator<Tuple>() {
+		@Override
+		public int compare(Tuple t1, Tuple t2) {
+			try {
+				int s1 = ((Int32) t1.get(0)).intValue();
+				int s2 = ((Int32) t2.get(0)).intValue();
+				if (s1 != s2) {
+					return (s1 < s2) ? -1 : 1;
+				}
+				int p1 = ((Int32) t1.get(1)).intValue();
+				int p2 = ((Int32) t2.get(1)).intValue();
+				return (p1 < p2) ? -1 : (p1 == p2) ? 0 : 1;
+			} catch (QueryException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	private static class Entry {
+		final Sequence keys;
+		final Sequence[] bindings;
+		final int pos;
+
+		Entry(Sequence keys, Sequence[] bindings, int pos) {
+			this.keys = keys;
+			this.bindings = bindings;
+			this.pos = pos;
+		}
+	}
+
+	private final Cmp cmp;
+	private final boolean isGCmp;
+	private final boolean skipSort;
+	private final long maxSize;
+	private final TupleCodec codec;
+	private final File spillDir;
+	private final int[] hashes = new int[2];
+	private List<Entry> entries = new ArrayList<Entry>();
+	private MultiTypeJoinTable table;
+	private long size;
+
+	// state of partitioned mode
+	private int fanOut;
+	private List<List<Sequence[]>> residents;
+	private long[] sizes;
+	private File[] builds;
+	private DataOutputStream[] buildOuts;
+	private File[] probes;
+	private DataOutputStream[] probeOuts;
+	private File spool;
+	private DataOutputStream spoolOut;
+	private int count;
+	private TupleSort matches;
+	private DataInputStream spoolIn;
+	private Stream<Tuple> sorted;
+	private Tuple match;
+	private int replayed;
+	private FastList<Sequence[]> current;
+
+	public HybridJoinTable(Cmp cmp, boolean isGCmp, boolean skipSort,
+			long maxSize) {
+		this.cmp = cmp;
+		this.isGCmp = isGCmp;
+		this.skipSort = skipSort;
+		// only equi-joins can be partitioned by key hash
+		this.maxSize = (cmp == Cmp.eq) ? maxSize : -1;
+		this.codec = (this.maxSize > 0) ? new TupleCodec() : null;
+		this.spillDir = new File(Cfg.asString("java.io.tmpdir"));
+	}
+
+	/**
+	 * Adds the bindings of a build tuple with the given join keys.
+	 */
+	public void add(Sequence keys, Sequence[] bindings, int pos)
+			throws QueryException {
+		if (keys == null) {
+			return;
+		}
+		if (residents != null) {
+			distribute(keys, bindings, pos);
+			return;
+		}
+		entries.add(new Entry(keys, bindings, pos));
+		size += ENTRY_SIZE + TupleCodec.size(keys);
+		for (Sequence binding : bindings) {
+			size += TupleCodec.size(binding);
+		}
+		if ((maxSize > 0) && (size > maxSize)) {
+			partition();
+		}
+	}
+
+	/**
+	 * Completes the build phase.
+	 */
+	public void build() throws QueryException {
+		if (residents == null) {
+			table = new MultiTypeJoinTable(cmp, isGCmp, skipSort);
+			for (Entry entry : entries) {
+				table.add(entry.keys, entry.bindings, entry.pos);
+			}
+			entries = null;
+			return;
+		}
+		close(buildOuts);
+		// entries of resident partitions carry position and keys in front
+		table = new MultiTypeJoinTable(cmp, isGCmp, false);
+		for (List<Sequence[]> partition : residents) {
+			if (partition != null) {
+				for (Sequence[] rec : partition) {
+					table.add(rec[1], rec, ((Int32) rec[0]).intValue());
+				}
+			}
+		}
+		residents = null;
+		probes = new File[fanOut];
+		probeOuts = new DataOutputStream[fanOut];
+		matches = new TupleSort(MATCH_ORDER, maxSize);
+		spool = createFile("join", ".spool");
+		spoolOut = open(spool);
+	}
+
+	/**
+	 * Returns <code>true</code> if the build input was partitioned. The
+	 * probe input must then be {@link #spool(Tuple, Sequence) spooled}
+	 * instead of being {@link #probe(Sequence) probed}.
+	 */
+	public boolean isPartitioned() {
+		return (spool != null);
+	}
+
+	/**
+	 * Returns the sorted matches for the given probe keys.
+	 */
+	public FastList<Sequence[]> probe(Sequence keys) throws QueryException {
+		return table.probe(keys);
+	}
+
+	/**
+	 * Appends a tuple of the probe input in partitioned mode. A tuple which
+	 * must not be probed, e.g., because it is a dead tuple of an iteration
+	 * group, is passed without keys.
+	 */
+	public void spool(Tuple t, Sequence keys) throws QueryException {
+		int s = count++;
+		try {
+			codec.write(spoolOut, t);
+			if (keys == null) {
+				return;
+			}
+			List<List<Atomic>> split = split(keys);
+			for (int p = 0; p < fanOut; p++) {
+				List<Atomic> atomics = split.get(p);
+				if ((atomics == null) || (builds[p] == null)) {
+					continue;
+				}
+				if (probeOuts[p] == null) {
+					probes[p] = createFile("join", ".probe");
+					probeOuts[p] = open(probes[p]);
+				}
+				codec.write(probeOuts[p], new TupleImpl(new Sequence[] {
+						new Int32(s), sequence(atomics) }));
+			}
+			List<Atomic> resident = new ArrayList<Atomic>();
+			for (int p = 0; p < fanOut; p++) {
+				List<Atomic> atomics = split.get(p);
+				if ((atomics != null) && (builds[p] == null)) {
+					resident.addAll(atomics);
+				}
+			}
+			if (!resident.isEmpty()) {
+				addMatches(s, table.probe(sequence(resident)));
+			}
+		} catch (IOException e) {
+			clear();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+	}
+
+	/**
+	 * Joins the spilled partitions and prepares reading the spooled probe
+	 * tuples.
+	 */
+	public void join() throws QueryException {
+		close(probeOuts);
+		try {
+			spoolOut.close();
+			spoolOut = null;
+		} catch (IOException e) {
+			clear();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+		table = null;
+		for (int p = 0; p < fanOut; p++) {
+			if (probes[p] != null) {
+				joinPartition(p);
+			}
+			if (builds[p] != null) {
+				builds[p].delete();
+				builds[p] = null;
+			}
+		}
+		matches.sort();
+		sorted = matches.stream();
+		spoolIn = openInput(spool);
+		match = sorted.next();
+	}
+
+	/**
+	 * Returns the next spooled probe tuple in input order or
+	 * <code>null</code> if all tuples were returned. Its matches are
+	 * available through {@link #matches()}.
+	 */
+	public Tuple next() throws QueryException {
+		if (spoolIn == null) {
+			return null;
+		}
+		Tuple t;
+		try {
+			t = codec.read(spoolIn);
+		} catch (IOException e) {
+			clear();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+		if (t == null) {
+			clear();
+			return null;
+		}
+		int s = replayed++;
+		FastList<Sequence[]> list = null;
+		int prevPos = -1;
+		while ((match != null) && (((Int32) match.get(0)).intValue() == s)) {
+			int pos = ((Int32) match.get(1)).intValue();
+			if (pos != prevPos) {
+				if (list == null) {
+					list = new FastList<Sequence[]>();
+				}
+				Sequence[] tmp = match.array();
+				list.add(Arrays.copyOfRange(tmp, 2, tmp.length));
+				prevPos = pos;
+			}
+			match = sorted.next();
+		}
+		current = (list != null) ? list : NO_MATCHES;
+		return t;
+	}
+
+	/**
+	 * Returns the matches of the tuple returned last by {@link #next()}.
+	 */
+	public FastList<Sequence[]> matches() {
+		return current;
+	}
+
+	public void clear() {
+		entries = null;
+		table = null;
+		residents = null;
+		current = null;
+		match = null;
+		closeAll(buildOuts);
+		closeAll(probeOuts);
+		deleteAll(builds);
+		deleteAll(probes);
+		if (spoolOut != null) {
+			close(spoolOut);
+			spoolOut = null;
+		}
+		if (spoolIn != null) {
+			close(spoolIn);
+			spoolIn = null;
+		}
+		if (spool != null) {
+			spool.delete();
+			spool = null;
+		}
+		if (sorted != null) {
+			sorted.close();
+			sorted = null;
+		} else if (matches != null) {
+			matches.clear();
+		}
+		matches = null;
+		if (codec != null) {
+			codec.clear();
+		}
+	}
+
+	private void partition() throws QueryException {
+		fanOut = FAN_OUT;
+		if (log.isDebugEnabled()) {
+			log.debug(String.format(
+					"Partitioning join table with %s entries into %s partitions",
+					entries.size(), fanOut));
+		}
+		residents = new ArrayList<List<Sequence[]>>(fanOut);
+		for (int i = 0; i < fanOut; i++) {
+			residents.add(new ArrayList<Sequence[]>());
+		}
+		sizes = new long[fanOut];
+		builds = new File[fanOut];
+		buildOuts = new DataOutputStream[fanOut];
+		size = 0;
+		List<Entry> buffered = entries;
+		entries = null;
+		for (Entry entry : buffered) {
+			distribute(entry.keys, entry.bindings, entry.pos);
+		}
+	}
+
+	private void distribute(Sequence keys, Sequence[] bindings, int pos)
+			throws QueryException {
+		List<List<Atomic>> split = split(keys);
+		try {
+			for (int p = 0; p < fanOut; p++) {
+				List<Atomic> atomics = split.get(p);
+				if (atomics == null) {
+					continue;
+				}
+				Sequence[] rec = new Sequence[bindings.length + 2];
+				rec[0] = new Int32(pos);
+				rec[1] = sequence(atomics);
+				System.arraycopy(bindings, 0, rec, 2, bindings.length);
+				List<Sequence[]> partition = residents.get(p);
+				if (partition == null) {
+					codec.write(buildOuts[p], new TupleImpl(rec));
+					continue;
+				}
+				long recSize = ENTRY_SIZE + TupleCodec.size(new TupleImpl(rec));
+				partition.add(rec);
+				sizes[p] += recSize;
+				size += recSize;
+			}
+			while (size > maxSize) {
+				evict();
+			}
+		} catch (IOException e) {
+			clear();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+	}
+
+	private void evict() throws IOException, QueryException {
+		int victim = -1;
+		for (int p = 0; p < fanOut; p++) {
+			if ((residents.get(p) != null)
+					&& ((victim < 0) || (sizes[p] > sizes[victim]))) {
+				victim = p;
+			}
+		}
+		if (log.isDebugEnabled()) {
+			log.debug(String.format("Spilling join partition %s (%s bytes)",
+					victim, sizes[victim]));
+		}
+		builds[victim] = createFile("join", ".build");
+		buildOuts[victim] = open(builds[victim]);
+		for (Sequence[] rec : residents.get(victim)) {
+			codec.write(buildOuts[victim], new TupleImpl(rec));
+		}
+		residents.set(victim, null);
+		size -= sizes[victim];
+		sizes[victim] = 0;
+	}
+
+	private void joinPartition(int p) throws QueryException {
+		MultiTypeJoinTable partition = new MultiTypeJoinTable(cmp, isGCmp,
+				false);
+		DataInputStream in = null;
+		try {
+			in = openInput(builds[p]);
+			Tuple t;
+			while ((t = codec.read(in)) != null) {
+				Sequence[] rec = t.array();
+				partition.add(rec[1], rec, ((Int32) rec[0]).intValue());
+			}
+			in.close();
+			in = openInput(probes[p]);
+			while ((t = codec.read(in)) != null) {
+				addMatches(((Int32) t.get(0)).intValue(), partition.probe(t.get(1)));
+			}
+		} catch (IOException e) {
+			clear();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		} finally {
+			if (in != null) {
+				close(in);
+			}
+			probes[p].delete();
+			probes[p] = null;
+		}
+	}
+
+	private void addMatches(int s, FastList<Sequence[]> recs)
+			throws QueryException {
+		Int32 sv = new Int32(s);
+		for (int i = 0; i < recs.getSize(); i++) {
+			Sequence[] rec = recs.get(i);
+			Sequence[] match = new Sequence[rec.length];
+			match[0] = sv;
+			match[1] = rec[0];
+			System.arraycopy(rec, 2, match, 2, rec.length - 2);
+			matches.add(new TupleImpl(match));
+		}
+	}
+
+	private List<List<Atomic>> split(Sequence keys) throws QueryException {
+		List<List<Atomic>> split = new ArrayList<List<Atomic>>(fanOut);
+		for (int i = 0; i < fanOut; i++) {
+			split.add(null);
+		}
+		if (keys instanceof Item) {
+			assign(split, ((Item) keys).atomize());
+		} else {
+			Iter it = keys.iterate();
+			try {
+				Item key;
+				while ((key = it.next()) != null) {
+					assign(split, key.atomize());
+				}
+			} finally {
+				it.close();
+			}
+		}
+		return split;
+	}
+
+	private void assign(List<List<Atomic>> split, Atomic atomic)
+			throws QueryException {
+		int n = KeyHash.hash(atomic, isGCmp, hashes);
+		if (n == 0) {
+			for (int p = 0; p < fanOut; p++) {
+				assign(split, atomic, p);
+			}
+			return;
+		}
+		int first = partition(hashes[0]);
+		assign(split, atomic, first);
+		for (int i = 1; i < n; i++) {
+			int p = partition(hashes[i]);
+			if (p != first) {
+				assign(split, atomic, p);
+			}
+		}
+	}
+
+	private static void assign(List<List<Atomic>> split, Atomic atomic, int p) {
+		List<Atomic> atomics = split.get(p);
+		if (atomics == null) {
+			atomics = new ArrayList<Atomic>(1);
+			split.set(p, atomics);
+		}
+		atomics.add(atomic);
+	}
+
+	private int partition(int h) {
+		h *= 0x9E3779B1;
+		h ^= (h >>> 15);
+		return (h & Integer.MAX_VALUE) % fanOut;
+	}
+
+	private static Sequence sequence(List<Atomic> atomics) {
+		return (atomics.size() == 1) ? atomics.get(0) : new ItemSequence(
+				atomics.toArray(new Item[atomics.size()]));
+	}
+
+	private File createFile(String prefix, String suffix)
+			throws QueryException {
+		try {
+			File file = File.createTempFile(prefix, suffix, spillDir);
+			file.deleteOnExit();
+			return file;
+		} catch (IOException e) {
+			clear();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+	}
+
+	private DataOutputStream open(File file) throws QueryException {
+		try {
+			return new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file), 8192));
+		} catch (IOException e) {
+			clear();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+	}
+
+	private DataInputStream openInput(File file) throws QueryException {
+		try {
+			return new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+		} catch (IOException e) {
+			clear();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+	}
+
+	private void close(DataOutputStream[] outs) throws QueryException {
+		try {
+			for (int i = 0; i < outs.length; i++) {
+				if (outs[i] != null) {
+					outs[i].close();
+					outs[i] = null;
+				}
+			}
+		} catch (IOException e) {
+			clear();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+	}
+
+	private void closeAll(DataOutputStream[] outs) {
+		if (outs != null) {
+			for (int i = 0; i < outs.length; i++) {
+				if (outs[i] != null) {
+					close(outs[i]);
+					outs[i] = null;
+				}
+			}
+		}
+	}
+
+	private static void deleteAll(File[] files) {
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				if (files[i] != null) {
+					files[i].delete();
+					files[i] = null;
+				}
+			}
+		}
+	}
+
+	private static void close(Closeable c) {
+		try {
+			c.close();
+		} catch (IOException e) {
+			log.error(e);
+		}
+	}
+}
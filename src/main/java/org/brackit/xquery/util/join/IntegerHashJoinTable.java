@@ -0,0 +1,98 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Int64;
+import org.brackit.xquery.atomic.Numeric;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Hash join table for xs:integer keys. Keys which exceed the range of
+ * <code>long</code> are kept in a separate {@link HashJoinTable}.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class IntegerHashJoinTable extends LongHashJoinTable {
+	private static final BigDecimal MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+
+	private static final BigDecimal MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+
+	private HashJoinTable overflow;
+
+	@Override
+	protected long encode(Atomic key) throws QueryException {
+		return ((Numeric) key).longValue();
+	}
+
+	private static boolean isLong(Atomic key) {
+		if ((key instanceof Int32) || (key instanceof Int64)) {
+			return true;
+		}
+		BigDecimal v = ((Numeric) key).integerValue();
+		return ((v.compareTo(MIN) >= 0) && (v.compareTo(MAX) <= 0));
+	}
+
+	@Override
+	protected void add(Atomic key, int pos, Sequence[] bindings)
+			throws QueryException {
+		if (isLong(key)) {
+			super.add(key, pos, bindings);
+		} else {
+			if (overflow == null) {
+				overflow = new HashJoinTable();
+			}
+			overflow.add(key, pos, bindings);
+		}
+	}
+
+	@Override
+	protected void lookup(FastList<TValue> matches, Atomic key)
+			throws QueryException {
+		if (isLong(key)) {
+			super.lookup(matches, key);
+		} else if (overflow != null) {
+			overflow.lookup(matches, key);
+		}
+	}
+
+	@Override
+	protected List<TEntry> entries() {
+		List<TEntry> entries = super.entries();
+		if (overflow != null) {
+			entries.addAll(overflow.entries());
+		}
+		return entries;
+	}
+}
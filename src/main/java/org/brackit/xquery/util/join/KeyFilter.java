@@ -0,0 +1,190 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import java.util.Arrays;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Bloom filter over the {@link KeyHash hash codes} of the build keys of an
+ * equi-join. The filter is filled while the join table is built and
+ * becomes effective when it is {@link #publish() published}. Before, and if
+ * a build key has no consistent hash code, every probe key may match.
+ * <p>
+ * The filter may be probed by another thread than the one that builds it.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class KeyFilter {
+	/**
+	 * Number of filter bits per build key
+	 */
+	private static final int BITS_PER_KEY = 10;
+
+	private static final int HASH_FUNCTIONS = 3;
+
+	private final boolean isGCmp;
+
+	private final int[] tmp = new int[2];
+
+	private int[] hashes = new int[16];
+
+	private int count;
+
+	private boolean unfiltered;
+
+	private volatile long[] bits;
+
+	public KeyFilter(boolean isGCmp) {
+		this.isGCmp = isGCmp;
+	}
+
+	/**
+	 * Adds build keys.
+	 */
+	public void add(Sequence keys) throws QueryException {
+		if ((keys == null) || (unfiltered)) {
+			return;
+		}
+		if (keys instanceof Item) {
+			add(((Item) keys).atomize());
+		} else {
+			Iter it = keys.iterate();
+			try {
+				Item key;
+				while ((key = it.next()) != null) {
+					add(key.atomize());
+				}
+			} finally {
+				it.close();
+			}
+		}
+	}
+
+	private void add(Atomic atomic) throws QueryException {
+		int n = KeyHash.hash(atomic, isGCmp, tmp);
+		if (n == 0) {
+			unfiltered = true;
+			hashes = null;
+			return;
+		}
+		if (count + n > hashes.length) {
+			hashes = Arrays.copyOf(hashes, Math.max(count + n,
+					(hashes.length * 3) / 2));
+		}
+		for (int i = 0; i < n; i++) {
+			hashes[count++] = tmp[i];
+		}
+	}
+
+	/**
+	 * Makes the filter effective after all build keys were added.
+	 */
+	public void publish() {
+		if (unfiltered) {
+			return;
+		}
+		long size = Math.max(64, Long.highestOneBit(Math.max(
+				(long) count * BITS_PER_KEY, 1)) << 1);
+		long[] bits = new long[(int) Math.min(size >>> 6, 1 << 20)];
+		int mask = (bits.length << 6) - 1;
+		for (int i = 0; i < count; i++) {
+			int h1 = mix(hashes[i]);
+			int h2 = (h1 >>> 16) | 1;
+			for (int j = 0; j < HASH_FUNCTIONS; j++) {
+				int b = (h1 + j * h2) & mask;
+				bits[b >>> 6] |= (1L << b);
+			}
+		}
+		hashes = null;
+		this.bits = bits;
+	}
+
+	/**
+	 * Returns <code>false</code> if none of the given probe keys can match
+	 * a build key.
+	 */
+	public boolean probe(Sequence keys) throws QueryException {
+		long[] bits = this.bits;
+		if (bits == null) {
+			return true;
+		}
+		if (keys == null) {
+			return false;
+		}
+		int[] tmp = new int[2];
+		if (keys instanceof Item) {
+			return probe(bits, ((Item) keys).atomize(), tmp);
+		}
+		Iter it = keys.iterate();
+		try {
+			Item key;
+			while ((key = it.next()) != null) {
+				if (probe(bits, key.atomize(), tmp)) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			it.close();
+		}
+	}
+
+	private boolean probe(long[] bits, Atomic atomic, int[] tmp)
+			throws QueryException {
+		int n = KeyHash.hash(atomic, isGCmp, tmp);
+		if (n == 0) {
+			return true;
+		}
+		int mask = (bits.length << 6) - 1;
+		for (int i = 0; i < n; i++) {
+			int h1 = mix(tmp[i]);
+			int h2 = (h1 >>> 16) | 1;
+			boolean match = true;
+			for (int j = 0; (match) && (j < HASH_FUNCTIONS); j++) {
+				int b = (h1 + j * h2) & mask;
+				match = ((bits[b >>> 6] & (1L << b)) != 0);
+			}
+			if (match) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B1;
+		return h ^ (h >>> 15);
+	}
+}
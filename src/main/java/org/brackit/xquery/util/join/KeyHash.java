@@ -0,0 +1,114 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Int64;
+import org.brackit.xquery.atomic.Numeric;
+import org.brackit.xquery.expr.Cast;
+import org.brackit.xquery.xdm.Type;
+
+/**
+ * Hash codes of join keys which are consistent with the promotion and
+ * casting rules of {@link MultiTypeJoinTable} for equi-joins, i.e., keys
+ * which may compare equal share at least one hash code.
+ * <p>
+ * Numeric keys are hashed by their value as xs:double, string keys by their
+ * string value, and untyped keys of general comparisons by both. For keys
+ * of other types no consistent hash code exists.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public final class KeyHash {
+
+	private KeyHash() {
+	}
+
+	/**
+	 * Stores the hash codes of the given key in <code>hashes</code>, which
+	 * must have at least two slots, and returns their number. Returns 0 if
+	 * the key may match keys with arbitrary hash codes.
+	 */
+	public static int hash(Atomic atomic, boolean isGCmp, int[] hashes)
+			throws QueryException {
+		Type type = atomic.type().getPrimitiveBase();
+		if ((type == Type.STR) || (type == Type.AURI)) {
+			hashes[0] = atomic.stringValue().hashCode();
+			return 1;
+		}
+		if (type == Type.UNA) {
+			String s = atomic.stringValue();
+			hashes[0] = s.hashCode();
+			// untyped atomics are cast to double in comparisons with numerics
+			if ((isGCmp) && (numericLexical(s))) {
+				try {
+					Numeric n = (Numeric) Cast.cast(null, atomic, Type.DBL,
+							false);
+					hashes[1] = hash(n.doubleValue());
+					return 2;
+				} catch (QueryException e) {
+					// not a valid double
+				}
+			}
+			return 1;
+		}
+		if ((type == Type.DBL) || (atomic instanceof Int32)
+				|| (atomic instanceof Int64)) {
+			hashes[0] = hash(((Numeric) atomic).doubleValue());
+			return 1;
+		}
+		if ((type == Type.DEC) || (type == Type.INR)) {
+			Numeric n = (Numeric) Cast.cast(null, atomic, Type.DBL, false);
+			hashes[0] = hash(n.doubleValue());
+			return 1;
+		}
+		// e.g., xs:float is compared after demoting decimals and
+		// other types after casting untyped atomics
+		return 0;
+	}
+
+	private static int hash(double d) {
+		// normalize zero to be on the safe side
+		long bits = Double.doubleToLongBits((d == 0) ? 0d : d);
+		return (int) (bits ^ (bits >>> 32));
+	}
+
+	private static boolean numericLexical(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (!Character.isWhitespace(c)) {
+				return (((c >= '0') && (c <= '9')) || (c == '.')
+						|| (c == '+') || (c == '-') || (c == 'I') || (c == 'N'));
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Open-addressing hash join table for keys which can be encoded as
+ * primitive <code>long</code> values. In contrast to {@link HashJoinTable},
+ * neither build nor probe allocate wrapper keys and key comparisons are
+ * plain <code>long</code> comparisons.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public abstract class LongHashJoinTable extends JoinTable {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long[] keys = new long[INITIAL_CAPACITY];
+
+	private Atomic[] atomics = new Atomic[INITIAL_CAPACITY];
+
+	private TValue[] heads = new TValue[INITIAL_CAPACITY];
+
+	private TValue[] tails = new TValue[INITIAL_CAPACITY];
+
+	private int size;
+
+	/**
+	 * Encodes the given key such that two keys compare equal iff their
+	 * encodings are equal.
+	 */
+	protected abstract long encode(Atomic key) throws QueryException;
+
+	@Override
+	protected void add(Atomic key, int pos, Sequence[] bindings)
+			throws QueryException {
+		long k = encode(key);
+		int i = slot(k);
+		TValue head = heads[i];
+
+		if (head == null) {
+			TValue v = new TValue(bindings, pos);
+			keys[i] = k;
+			atomics[i] = key;
+			heads[i] = v;
+			tails[i] = v;
+			if (++size > (heads.length * 3) / 4) {
+				grow();
+			}
+			return;
+		}
+
+		TValue tail = tails[i];
+		// positions are ascending unless entries of other tables are copied
+		if (tail.pos >= pos) {
+			for (TValue v = head; v != null; v = v.next) {
+				if (v.pos == pos) {
+					return;
+				}
+			}
+		}
+		TValue v = new TValue(bindings, pos);
+		tail.next = v;
+		tails[i] = v;
+	}
+
+	@Override
+	protected void lookup(FastList<TValue> matches, Atomic key)
+			throws QueryException {
+		long k = encode(key);
+		for (TValue v = heads[slot(k)]; v != null; v = v.next) {
+			matches.add(v);
+		}
+	}
+
+	@Override
+	protected List<TEntry> entries() {
+		ArrayList<TEntry> entries = new ArrayList<TEntry>(size);
+		for (int i = 0; i < heads.length; i++) {
+			if (heads[i] != null) {
+				TKey key = new TKey(atomics[i]);
+				for (TValue v = heads[i]; v != null; v = v.next) {
+					entries.add(new TEntry(key, v));
+				}
+			}
+		}
+		return entries;
+	}
+
+	private int slot(long k) {
+		int mask = heads.length - 1;
+		int i = hash(k) & mask;
+		while ((heads[i] != null) && (keys[i] != k)) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private static int hash(long k) {
+		k *= 0x9E3779B97F4A7C15L;
+		return (int) (k ^ (k >>> 32));
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		Atomic[] oldAtomics = atomics;
+		TValue[] oldHeads = heads;
+		TValue[] oldTails = tails;
+		int capacity = oldHeads.length * 2;
+		keys = new long[capacity];
+		atomics = new Atomic[capacity];
+		heads = new TValue[capacity];
+		tails = new TValue[capacity];
+		for (int j = 0; j < oldHeads.length; j++) {
+			if (oldHeads[j] != null) {
+				int i = slot(oldKeys[j]);
+				keys[i] = oldKeys[j];
+				atomics[i] = oldAtomics[j];
+				heads[i] = oldHeads[j];
+				tails[i] = oldTails[j];
+			}
+		}
+	}
+}
@@ -79,7 +79,20 @@ public class MultiTypeJoinTable {
 	}
 
 	private JoinTable createTable(Type type) {
-		return (cmp == Cmp.eq) ? new HashJoinTable() : new SortedJoinTable(cmp);
+		if (cmp != Cmp.eq) {
+			return new SortedJoinTable(cmp);
+		}
+		// all keys of a table have the same primitive type
+		if (type == Type.INR) {
+			return new IntegerHashJoinTable();
+		}
+		if (type == Type.DBL) {
+			return new DoubleHashJoinTable();
+		}
+		if ((type == Type.STR) || (type == Type.UNA) || (type == Type.AURI)) {
+			return new StringHashJoinTable();
+		}
+		return new HashJoinTable();
 	}
 
 	private void addItem(Item key, Sequence[] bindings, int pos)
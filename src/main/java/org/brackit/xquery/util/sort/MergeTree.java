@@ -0,0 +1,147 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.sort;
+
+import java.util.Comparator;
+import java.util.List;
+
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Stream;
+
+/**
+ * Tournament tree (loser tree) for a k-way merge of sorted input streams.
+ * Each delivered tuple requires only log2(k) comparisons. Equal tuples are
+ * delivered in the order of their inputs, i.e., the merge is stable if the
+ * inputs are passed in their original order.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class MergeTree {
+	private final Comparator<Tuple> cmp;
+
+	private final Stream<? extends Tuple>[] inputs;
+
+	private final Tuple[] heads;
+
+	/**
+	 * Inner nodes hold the index of the loser of the respective match; the
+	 * overall winner is kept at position 0
+	 */
+	private final int[] tree;
+
+	private final int k;
+
+	private boolean initialized;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public MergeTree(Comparator<Tuple> cmp,
+			List<? extends Stream<? extends Tuple>> inputs) {
+		this.cmp = cmp;
+		this.k = inputs.size();
+		this.inputs = inputs.toArray(new Stream[k]);
+		this.heads = new Tuple[k];
+		this.tree = new int[Math.max(k, 1)];
+	}
+
+	public Tuple next() throws DocumentException {
+		if (!initialized) {
+			init();
+		}
+		if (k == 0) {
+			return null;
+		}
+		int winner = tree[0];
+		Tuple next = heads[winner];
+		if (next == null) {
+			return null;
+		}
+		heads[winner] = inputs[winner].next();
+		replay(winner);
+		return next;
+	}
+
+	public void close() {
+		for (Stream<? extends Tuple> in : inputs) {
+			in.close();
+		}
+	}
+
+	private void init() throws DocumentException {
+		initialized = true;
+		if (k == 0) {
+			return;
+		}
+		for (int i = 0; i < k; i++) {
+			heads[i] = inputs[i].next();
+		}
+		// play the initial tournament bottom-up: leaf i is node k + i
+		int[] winners = new int[2 * k];
+		for (int i = 0; i < k; i++) {
+			winners[k + i] = i;
+		}
+		for (int n = k - 1; n > 0; n--) {
+			int a = winners[2 * n];
+			int b = winners[2 * n + 1];
+			if (beats(a, b)) {
+				winners[n] = a;
+				tree[n] = b;
+			} else {
+				winners[n] = b;
+				tree[n] = a;
+			}
+		}
+		tree[0] = (k > 1) ? winners[1] : 0;
+	}
+
+	private void replay(int input) throws DocumentException {
+		int winner = input;
+		for (int n = (k + input) >> 1; n > 0; n >>= 1) {
+			if (beats(tree[n], winner)) {
+				int loser = winner;
+				winner = tree[n];
+				tree[n] = loser;
+			}
+		}
+		tree[0] = winner;
+	}
+
+	private boolean beats(int a, int b) throws DocumentException {
+		Tuple l = heads[a];
+		Tuple r = heads[b];
+		if (l == null) {
+			return (r == null) && (a < b);
+		}
+		if (r == null) {
+			return true;
+		}
+		int res = cmp.compare(l, r);
+		return (res < 0) || ((res == 0) && (a < b));
+	}
+}
@@ -36,6 +36,7 @@ import org.brackit.xquery.Tuple;
 import org.brackit.xquery.atomic.Atomic;
 import org.brackit.xquery.expr.Cast;
 import org.brackit.xquery.node.stream.TransformerStream;
+import org.brackit.xquery.util.WorkerPool;
 import org.brackit.xquery.xdm.DocumentException;
 import org.brackit.xquery.xdm.Expr;
 import org.brackit.xquery.xdm.Item;
@@ -51,33 +52,55 @@ public class Ordering implements Comparator<Tuple> {
 
 	final Expr[] orderByExprs;
 	final OrderModifier[] modifier;
+	final int limit;
 	int offset;
 	TupleSort sort;
+	TopKSort topK;
 
 	public Ordering(Expr[] orderByExprs, OrderModifier[] modifier) {
+		this(orderByExprs, modifier, -1);
+	}
+
+	/**
+	 * Creates an ordering which only delivers the first <code>limit</code>
+	 * tuples if <code>limit</code> is not negative.
+	 */
+	public Ordering(Expr[] orderByExprs, OrderModifier[] modifier, int limit) {
 		this.orderByExprs = orderByExprs;
 		this.modifier = modifier;
+		this.limit = limit;
 	}
 
 	public void add(QueryContext ctx, Tuple t) throws QueryException {
-		if (sort == null) {
-			offset = t.getSize();
-			sort = new TupleSort(this, 1);
-		}
-		sort.add(t.concat(sortKeys(ctx, t)));
+		add(sortKeys(ctx, t), t);
 	}
 
 	public void add(Sequence[] keys, Tuple t) throws QueryException {
-		if (sort == null) {
+		if ((sort == null) && (topK == null)) {
 			offset = t.getSize();
-			sort = new TupleSort(this, 1);
+			if (limit >= 0) {
+				topK = new TopKSort(this, limit);
+			} else {
+				sort = new TupleSort(this, TupleSort.DEFAULT_MAX_SIZE,
+						WorkerPool.PARALLELISM);
+			}
+		}
+		if (topK != null) {
+			topK.add(t.concat(keys));
+		} else {
+			sort.add(t.concat(keys));
 		}
-		sort.add(t.concat(keys));
 	}
 
 	public Stream<Tuple> sorted() throws QueryException {
-		sort.sort();
-		Stream<Tuple> s = new TransformerStream<Tuple, Tuple>(sort.stream()) {
+		Stream<Tuple> sorted;
+		if (topK != null) {
+			sorted = topK.stream();
+		} else {
+			sort.sort();
+			sorted = sort.stream();
+		}
+		Stream<Tuple> s = new TransformerStream<Tuple, Tuple>(sorted) {
 			@Override
 			protected Tuple transform(Tuple next) throws DocumentException {
 				try {
@@ -88,6 +111,7 @@ public class Ordering implements Comparator<Tuple> {
 			}
 		};
 		sort = null;
+		topK = null;
 		return s;
 	}
 
@@ -128,6 +152,7 @@ public class Ordering implements Comparator<Tuple> {
 					if (rAtomic != null) {
 						return (modifier[i].EMPTY_LEAST) ? -1 : 1;
 					}
+					continue;
 				}
 				if (rAtomic == null) {
 					return (modifier[i].EMPTY_LEAST) ? 1 : -1;
@@ -153,5 +178,9 @@ public class Ordering implements Comparator<Tuple> {
 			sort.clear();
 			sort = null;
 		}
+		if (topK != null) {
+			topK.clear();
+			topK = null;
+		}
 	}
 }
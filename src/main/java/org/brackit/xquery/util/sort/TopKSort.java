@@ -0,0 +1,182 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.sort;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.xdm.Stream;
+
+/**
+ * Bounded sort which retains only the first <code>k</code> tuples of the
+ * sort order in a binary max-heap. It requires O(k) memory and O(n log k)
+ * time for n tuples. Like {@link TupleSort}, the sort is stable, i.e., equal
+ * tuples retain their input order.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class TopKSort {
+
+	private final Comparator<Tuple> comparator;
+
+	private final int k;
+
+	private Tuple[] heap;
+
+	private long[] seq;
+
+	private int count;
+
+	private long added;
+
+	public TopKSort(Comparator<Tuple> comparator, int k) {
+		this.comparator = comparator;
+		this.k = k;
+		this.heap = new Tuple[Math.min(k, 16)];
+		this.seq = new long[heap.length];
+	}
+
+	public void add(Tuple t) throws QueryException {
+		long s = added++;
+		if (count < k) {
+			if (count == heap.length) {
+				int len = (int) Math.min(k, ((heap.length * 3L) / 2) + 1);
+				heap = Arrays.copyOf(heap, len);
+				seq = Arrays.copyOf(seq, len);
+			}
+			heap[count] = t;
+			seq[count] = s;
+			siftUp(count++);
+		} else if ((k > 0) && (cmp(t, s, heap[0], seq[0]) < 0)) {
+			heap[0] = t;
+			seq[0] = s;
+			siftDown(0);
+		}
+	}
+
+	private int cmp(Tuple t1, long s1, Tuple t2, long s2)
+			throws QueryException {
+		int res;
+		try {
+			res = comparator.compare(t1, t2);
+		} catch (ClassCastException e) {
+			// java.util.Comparator#compare() is expected to throw a
+			// a ClassCastException when to items cannot be compared
+			// to each other. This translates to a err:XPTY0004 in XQuery
+			throw new QueryException(e, ErrorCode.ERR_TYPE_INAPPROPRIATE_TYPE);
+		} catch (RuntimeException e) {
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+		return (res != 0) ? res : ((s1 < s2) ? -1 : ((s1 > s2) ? 1 : 0));
+	}
+
+	private void siftUp(int pos) throws QueryException {
+		Tuple t = heap[pos];
+		long s = seq[pos];
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (cmp(t, s, heap[parent], seq[parent]) <= 0) {
+				break;
+			}
+			heap[pos] = heap[parent];
+			seq[pos] = seq[parent];
+			pos = parent;
+		}
+		heap[pos] = t;
+		seq[pos] = s;
+	}
+
+	private void siftDown(int pos) throws QueryException {
+		Tuple t = heap[pos];
+		long s = seq[pos];
+		int half = count >>> 1;
+		while (pos < half) {
+			int child = (pos << 1) + 1;
+			int right = child + 1;
+			if ((right < count)
+					&& (cmp(heap[right], seq[right], heap[child], seq[child]) > 0)) {
+				child = right;
+			}
+			if (cmp(t, s, heap[child], seq[child]) >= 0) {
+				break;
+			}
+			heap[pos] = heap[child];
+			seq[pos] = seq[child];
+			pos = child;
+		}
+		heap[pos] = t;
+		seq[pos] = s;
+	}
+
+	/**
+	 * Returns the retained tuples in sort order and resets the sort.
+	 */
+	public Stream<Tuple> stream() throws QueryException {
+		// heap sort: repeatedly move the maximum to the end
+		final Tuple[] sorted = heap;
+		final int sortedCount = count;
+		while (count > 1) {
+			Tuple t = heap[0];
+			long s = seq[0];
+			heap[0] = heap[--count];
+			seq[0] = seq[count];
+			siftDown(0);
+			heap[count] = t;
+			seq[count] = s;
+		}
+		clear();
+		return new Stream<Tuple>() {
+			private int pos;
+
+			@Override
+			public void close() {
+			}
+
+			@Override
+			public Tuple next() {
+				if (pos < sortedCount) {
+					Tuple t = sorted[pos];
+					sorted[pos++] = null;
+					return t;
+				}
+				return null;
+			}
+		};
+	}
+
+	public void clear() {
+		heap = new Tuple[Math.min(k, 16)];
+		seq = new long[heap.length];
+		count = 0;
+		added = 0;
+	}
+}
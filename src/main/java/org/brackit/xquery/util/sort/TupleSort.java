@@ -29,19 +29,27 @@ package org.brackit.xquery.util.sort;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.brackit.xquery.ErrorCode;
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.Tuple;
 import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.WorkerPool;
+import org.brackit.xquery.util.io.TupleCodec;
 import org.brackit.xquery.util.log.Logger;
 import org.brackit.xquery.xdm.DocumentException;
 import org.brackit.xquery.xdm.Stream;
@@ -50,6 +58,19 @@ import org.brackit.xquery.xdm.Stream;
  * Combination of main memory and external merge sort. The implementation is I/O
  * robust w.r.t. pre-sorted input, few inputs and performs well for large main
  * memory buffer sizes.
+ * <p>
+ * If a positive memory budget is given, sorted runs are spilled to disk in
+ * the binary format of {@link TupleCodec} as soon as the estimated size of
+ * the buffered tuples exceeds the budget. With a degree of parallelism
+ * greater than one, full buffers are sorted and written by tasks of the
+ * {@link WorkerPool} while the producer continues to fill a new buffer. To
+ * stay within the memory budget, the budget is then split among the buffers
+ * in flight.
+ * <p>
+ * Runs are merged with a {@link MergeTree} in a single pass if the number
+ * of runs does not exceed the maximum fan-in. Otherwise, the oldest runs are
+ * merged first until the final merge fits the fan-in. The final merge is
+ * performed lazily while the result stream is consumed.
  * 
  * @author Sebastian Baechle
  * 
@@ -57,50 +78,79 @@ import org.brackit.xquery.xdm.Stream;
 public class TupleSort {
 	private static final Logger log = Logger.getLogger(TupleSort.class);
 
+	public static final String MAX_SIZE_CFG = "org.brackit.xquery.sortMemory";
+
+	public static final String FAN_IN_CFG = "org.brackit.xquery.sortFanIn";
+
+	/**
+	 * Default memory budget in bytes for sorts which may spill to disk
+	 */
+	public static long DEFAULT_MAX_SIZE = Cfg.asLong(MAX_SIZE_CFG,
+			32 * 1024 * 1024);
+
+	/**
+	 * Maximum number of runs which are merged at once
+	 */
+	public static int FAN_IN = Math.max(Cfg.asInt(FAN_IN_CFG, 64), 2);
+
 	private final long maxSize;
 
+	private final long bufferSize;
+
+	private final int parallelism;
+
 	private final Comparator<Tuple> comparator;
 
+	private final TupleCodec codec = new TupleCodec();
+
 	private final File sortDir = new File(Cfg.asString("java.io.tmpdir"));
 
+	private final LinkedList<Future<File>> pending = new LinkedList<Future<File>>();
+
 	private File[] runs;
 
 	private Tuple[] buffer;
 
-	private byte[] mergeBuffer;
-
 	private int count;
 
 	private int runCount;
 
 	private long size;
 
-	private OutputStream currentRun;
+	private DataOutputStream currentRun;
 
 	private Tuple lastInRun;
 
 	// statistics
-	long leftMergeItemCount;
-
-	long rightMergeItemCount;
-
 	int mergeCount;
 
-	private long directMergeSize;
+	private long mergeItemCount;
 
 	private int initialRuns;
 
 	public TupleSort(Comparator<Tuple> comparator, long maxSize) {
+		this(comparator, maxSize, 1);
+	}
+
+	public TupleSort(Comparator<Tuple> comparator, long maxSize,
+			int parallelism) {
 		this.comparator = comparator;
 		this.maxSize = maxSize;
+		this.parallelism = Math.max(parallelism, 1);
+		this.bufferSize = (this.parallelism > 1) ? Math.max(maxSize
+				/ (this.parallelism + 1), 1) : maxSize;
 		this.runs = new File[2];
 		buffer = new Tuple[10];
 	}
 
 	public void add(Tuple item) throws QueryException {
-		long itemSize = getSize(item);
-		if ((maxSize > 0) && (size + itemSize > maxSize)) {
-			writeRun();
+		long itemSize = (maxSize > 0) ? getSize(item) : 0;
+		if ((maxSize > 0) && (count > 0) && (size + itemSize > bufferSize)) {
+			if (parallelism > 1) {
+				submitRun();
+			} else {
+				writeRun();
+			}
 		}
 
 		if (count == buffer.length) {
@@ -112,16 +162,17 @@ public class TupleSort {
 	}
 
 	private long getSize(Tuple item) throws QueryException {
-		// TODO
-		return 0;
+		return TupleCodec.size(item);
 	}
 
 	private void writeRun() throws QueryException {
-		sortBuffer();
+		sortBuffer(buffer, count);
 
 		if ((lastInRun != null)
 				&& (comparator.compare(lastInRun, buffer[0]) <= 0)) {
-			System.out.println("append to run");
+			if (log.isDebugEnabled()) {
+				log.debug("Appending to current run");
+			}
 			appendToRun();
 			return;
 		}
@@ -131,14 +182,9 @@ public class TupleSort {
 				currentRun.close();
 			}
 
-			File run = File.createTempFile("sort", ".run", sortDir);
-			run.deleteOnExit();
-
-			if (log.isDebugEnabled()) {
-				log.debug(String.format("Writing new run '%s'", run));
-			}
-
-			currentRun = new BufferedOutputStream(new FileOutputStream(run));
+			File run = createRun();
+			currentRun = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(run)));
 
 			for (int i = 0; i < count; i++) {
 				lastInRun = buffer[i];
@@ -149,20 +195,99 @@ public class TupleSort {
 				log.debug(String.format("Wrote run '%s'", run));
 			}
 
-			if (runCount == runs.length) {
-				runs = Arrays.copyOf(runs, ((runs.length * 3) / 2) + 1);
-			}
-			runs[runCount++] = run;
+			addRun(run);
 			size = 0;
 			count = 0;
-			initialRuns++;
 		} catch (IOException e) {
 			errorCleanup();
 			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
 		}
 	}
 
-	private void sortBuffer() throws QueryException {
+	private void submitRun() throws QueryException {
+		final Tuple[] full = buffer;
+		final int fullCount = count;
+
+		// the run is written by another thread, so lazy
+		// sequences must be evaluated by the producer
+		for (int i = 0; i < fullCount; i++) {
+			full[i] = TupleCodec.materialize(full[i]);
+		}
+
+		if (pending.size() >= parallelism) {
+			// wait for the oldest run to bound the number of buffers in flight
+			addRun(await(pending.removeFirst()));
+		}
+
+		pending.add(WorkerPool.executor().submit(new Callable<File>() {
+			@Override
+			public File call() throws Exception {
+				sortBuffer(full, fullCount);
+				File run = createRun();
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(run)));
+				try {
+					for (int i = 0; i < fullCount; i++) {
+						writeItem(out, full[i]);
+					}
+				} catch (IOException e) {
+					out.close();
+					run.delete();
+					throw e;
+				} catch (QueryException e) {
+					out.close();
+					run.delete();
+					throw e;
+				}
+				out.close();
+
+				if (log.isDebugEnabled()) {
+					log.debug(String.format("Wrote run '%s'", run));
+				}
+				return run;
+			}
+		}));
+
+		buffer = new Tuple[Math.max(fullCount, 10)];
+		size = 0;
+		count = 0;
+	}
+
+	private File await(Future<File> future) throws QueryException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			errorCleanup();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		} catch (ExecutionException e) {
+			errorCleanup();
+			Throwable cause = e.getCause();
+			if (cause instanceof QueryException) {
+				throw (QueryException) cause;
+			}
+			throw new QueryException(cause, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+	}
+
+	private File createRun() throws IOException {
+		File run = File.createTempFile("sort", ".run", sortDir);
+		run.deleteOnExit();
+
+		if (log.isDebugEnabled()) {
+			log.debug(String.format("Writing new run '%s'", run));
+		}
+		return run;
+	}
+
+	private void addRun(File run) {
+		if (runCount == runs.length) {
+			runs = Arrays.copyOf(runs, ((runs.length * 3) / 2) + 1);
+		}
+		runs[runCount++] = run;
+		initialRuns++;
+	}
+
+	private void sortBuffer(Tuple[] buffer, int count) throws QueryException {
 		if (log.isTraceEnabled()) {
 			log.trace(String.format("Start main memory sort of %s items.'",
 					count));
@@ -208,29 +333,43 @@ public class TupleSort {
 			}
 		}
 
+		for (Future<File> future : pending) {
+			try {
+				future.get().delete();
+			} catch (Exception e) {
+				// run was not written
+			}
+		}
+		pending.clear();
+
 		for (File run : runs) {
 			if ((run != null) && (run.exists())) {
 				run.delete();
 			}
 		}
+		codec.clear();
 	}
 
-	private Tuple readItem(InputStream in) throws IOException {
-		// TODO
-		return null;
+	private Tuple readItem(DataInputStream in) throws IOException {
+		return codec.read(in);
 	}
 
-	private void writeItem(OutputStream out, Tuple item) throws IOException {
-		// TODO
+	private void writeItem(DataOutputStream out, Tuple item)
+			throws IOException, QueryException {
+		codec.write(out, item);
 	}
 
-	public Stream<Tuple> stream() {
+	public Stream<Tuple> stream() throws QueryException {
 		return (runCount == 0) ? mainMemorySortOnly()
-				: mergeFinalRunAndBuffer();
+				: mergeFinalRunsAndBuffer();
 	}
 
 	public void sort() throws QueryException {
-		sortBuffer();
+		sortBuffer(buffer, count);
+
+		while (!pending.isEmpty()) {
+			addRun(await(pending.removeFirst()));
+		}
 
 		if (runCount > 0) {
 			closeLastRun();
@@ -239,14 +378,18 @@ public class TupleSort {
 	}
 
 	public void clear() {
-		if (runCount > 0) {
-			runs[0].delete();
+		for (int i = 0; i < runCount; i++) {
+			runs[i].delete();
 		}
+		codec.clear();
 	}
 
 	private void closeLastRun() throws QueryException {
 		try {
-			currentRun.close();
+			if (currentRun != null) {
+				currentRun.close();
+				currentRun = null;
+			}
 			lastInRun = null;
 		} catch (IOException e) {
 			errorCleanup();
@@ -254,149 +397,85 @@ public class TupleSort {
 		}
 	}
 
-	private Stream<Tuple> mergeFinalRunAndBuffer() {
-		final Tuple[] sBuffer = buffer;
-
-		return new Stream<Tuple>() {
-			private final Comparator<Tuple> cmp = comparator;
-
-			private final Tuple[] sortedBuffer = sBuffer;
+	private Stream<Tuple> mergeFinalRunsAndBuffer() throws QueryException {
+		final Tuple[] sortedBuffer = buffer;
+		final int sortedCount = count;
+		final List<Stream<Tuple>> inputs = openRuns(0, runCount);
 
-			private InputStream sorted;
+		// the main memory buffer holds the most recent tuples
+		inputs.add(new Stream<Tuple>() {
+			private int pos;
 
-			private Tuple left;
+			@Override
+			public void close() {
+			}
 
-			private Tuple right;
+			@Override
+			public Tuple next() {
+				return (pos < sortedCount) ? sortedBuffer[pos++] : null;
+			}
+		});
 
-			private int pos;
+		final MergeTree merge = new MergeTree(comparator, inputs);
 
+		return new Stream<Tuple>() {
 			@Override
 			public void close() {
-				try {
-					sorted.close();
-					clear();
-				} catch (IOException e) {
-					log.error(e);
-				}
+				merge.close();
+				clear();
 			}
 
 			@Override
 			public Tuple next() throws DocumentException {
 				try {
-					Tuple next;
-					if (sorted == null) {
-						sorted = new BufferedInputStream(new FileInputStream(
-								runs[0]));
-						left = readItem(sorted);
-					}
-
-					if (pos == 0) {
-						right = (pos < count) ? sortedBuffer[pos++] : null;
-					}
-
-					if (left == null) {
-						next = right;
-						right = (pos < count) ? sortedBuffer[pos++] : null;
-						return next;
-					}
-
-					if (right == null) {
-						next = left;
-						left = readItem(sorted);
-						return next;
-					}
-
-					if (cmp.compare(left, right) <= 0) {
-						next = left;
-						left = readItem(sorted);
-					} else {
-						next = right;
-						right = (pos < count) ? sortedBuffer[pos++] : null;
-					}
-
-					return next;
-				} catch (IOException e) {
-					throw new DocumentException(e);
+					return merge.next();
+				} catch (DocumentException e) {
+					merge.close();
+					clear();
+					throw e;
 				}
 			}
 		};
 	}
 
-	private void mergeRuns() throws QueryException {
-		File[] newRuns = null;
-		int mergePhase = 0;
-		boolean forward = true;
-
-		while (runCount > 1) {
-			if (log.isDebugEnabled()) {
-				log.debug(String.format("Starting merge phase %s type %s",
-						mergePhase, forward));
+	private List<Stream<Tuple>> openRuns(int from, int to)
+			throws QueryException {
+		List<Stream<Tuple>> inputs = new ArrayList<Stream<Tuple>>(to - from
+				+ 1);
+		try {
+			for (int i = from; i < to; i++) {
+				inputs.add(new RunStream(runs[i]));
 			}
-
-			if (mergeBuffer == null) {
-				mergeBuffer = new byte[Math.max((int) maxSize / 20, 1024)];
+		} catch (IOException e) {
+			for (Stream<Tuple> in : inputs) {
+				in.close();
 			}
+			errorCleanup();
+			throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+		}
+		return inputs;
+	}
 
-			if (log.isTraceEnabled()) {
-				log.trace("Merge table");
-				for (int i = 0; i < runCount; i++) {
-					log.trace(String.format("%3s: %s", i, runs[i]));
-				}
-			}
+	private void mergeRuns() throws QueryException {
+		int mergePhase = 0;
 
-			int merges = runCount / 2;
-			boolean singleRun = runCount % 2 == 1;
-			int newRunCount = merges + (singleRun ? 1 : 0);
-			newRuns = new File[newRunCount];
+		// one input of the final merge is reserved for the main memory buffer
+		while (runCount > FAN_IN - 1) {
+			int fanIn = Math.min(FAN_IN, runCount - (FAN_IN - 2));
 
 			if (log.isDebugEnabled()) {
-				log.debug(String.format("Merge %s -> %s (single run: %s)",
-						runCount, newRunCount, singleRun));
-			}
-
-			try {
-				if (forward) // all merge pairs sorted forwards, hottest at the
-				// end
-				{
-					int pos = 0;
-
-					if (singleRun) {
-						for (int i = newRunCount - 1; i > 0; i--) {
-							newRuns[pos++] = merge(runs[2 * i - 1], runs[2 * i]);
-						}
-						newRuns[newRunCount - 1] = runs[0];
-					} else {
-						for (int i = newRunCount - 1; i >= 0; i--) {
-							newRuns[pos++] = merge(runs[2 * i], runs[2 * i + 1]);
-						}
-					}
-				} else // all merge pairs sorted backwards, hottest at the end
-				{
-					int pos = 0;
-
-					if (singleRun) {
-						for (int i = newRunCount - 1; i > 0; i--) {
-							newRuns[pos++] = merge(runs[2 * i], runs[2 * i - 1]);
-						}
-						newRuns[newRunCount - 1] = runs[0];
-					} else {
-						for (int i = newRunCount - 1; i >= 0; i--) {
-							newRuns[pos++] = merge(runs[2 * i + 1], runs[2 * i]);
-						}
-					}
-				}
-			} catch (QueryException e) {
-				for (File newRun : newRuns) {
-					if ((newRun != null) && (newRun.exists())) {
-						newRun.delete();
-					}
-				}
-				throw e;
+				log.debug(String.format(
+						"Starting merge phase %s: merge %s of %s runs",
+						mergePhase, fanIn, runCount));
 			}
 
-			forward = !forward;
-			runCount = newRunCount;
-			runs = newRuns;
+			// merge the oldest runs and keep the merged run in front to
+			// preserve the order of equal tuples
+			File merged = merge(0, fanIn);
+			runs[0] = merged;
+			System.arraycopy(runs, fanIn, runs, 1, runCount - fanIn);
+			Arrays.fill(runs, runCount - fanIn + 1, runCount, null);
+			runCount -= fanIn - 1;
 
 			if (log.isDebugEnabled()) {
 				log.debug(String.format("Finished merge phase %s", mergePhase));
@@ -422,69 +501,54 @@ public class TupleSort {
 		};
 	}
 
-	private File merge(File run1, File run2) throws QueryException {
-		InputStream lIn = null;
-		InputStream rIn = null;
-		OutputStream out = null;
+	private File merge(int from, int to) throws QueryException {
+		MergeTree merge = new MergeTree(comparator, openRuns(from, to));
+		DataOutputStream out = null;
+		File run = null;
 
 		try {
 			mergeCount++;
-			File run = File.createTempFile("sort", ".run", sortDir);
-			run.deleteOnExit();
+			run = createRun();
 
 			if (log.isDebugEnabled()) {
-				log.debug(String.format(
-						"Merging run '%s' and '%s' in new run '%s'", run1,
-						run2, run));
-			}
-
-			lIn = new BufferedInputStream(new FileInputStream(run1));
-			rIn = new BufferedInputStream(new FileInputStream(run2));
-			Tuple left = null;
-			Tuple right = null;
-
-			out = new BufferedOutputStream(new FileOutputStream(run));
-
-			left = readItem(lIn);
-			right = readItem(rIn);
-
-			while ((left != null) && (right != null)) {
-				if (comparator.compare(left, right) <= 0) {
-					writeItem(out, left);
-					left = readItem(lIn);
-					leftMergeItemCount++;
-				} else {
-					writeItem(out, right);
-					right = readItem(rIn);
-					rightMergeItemCount++;
-				}
+				log.debug(String.format("Merging %s runs in new run '%s'",
+						to - from, run));
 			}
 
-			Tuple pending = (left == null) ? right : left;
-			InputStream pendingIn = (left == null) ? rIn : lIn;
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(run)));
 
-			if (pending != null) {
-				writeItem(out, pending);
+			Tuple next;
+			while ((next = merge.next()) != null) {
+				writeItem(out, next);
+				mergeItemCount++;
 			}
+			out.close();
+			out = null;
 
-			int read;
-			while ((read = pendingIn.read(mergeBuffer)) > 0) {
-				out.write(mergeBuffer, 0, read);
-				directMergeSize += read;
+			for (int i = from; i < to; i++) {
+				runs[i].delete();
 			}
 
-			run1.delete();
-			run2.delete();
-
 			if (log.isDebugEnabled()) {
 				log.debug(String.format("Wrote run '%s'", run));
 			}
 
 			return run;
 		} catch (IOException e) {
+			if (run != null) {
+				run.delete();
+			}
 			errorCleanup();
 			throw new DocumentException(e);
+		} catch (QueryException e) {
+			if (run != null) {
+				run.delete();
+			}
+			errorCleanup();
+			throw e;
 		} finally {
+			merge.close();
 			if (out != null) {
 				try {
 					out.close();
@@ -492,19 +556,32 @@ public class TupleSort {
 					log.error(e1);
 				}
 			}
-			if (lIn != null) {
-				try {
-					lIn.close();
-				} catch (IOException e1) {
-					log.error(e1);
-				}
+		}
+	}
+
+	private class RunStream implements Stream<Tuple> {
+		private final DataInputStream in;
+
+		RunStream(File run) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(run)));
+		}
+
+		@Override
+		public Tuple next() throws DocumentException {
+			try {
+				return readItem(in);
+			} catch (IOException e) {
+				throw new DocumentException(e);
 			}
-			if (rIn != null) {
-				try {
-					rIn.close();
-				} catch (IOException e1) {
-					log.error(e1);
-				}
+		}
+
+		@Override
+		public void close() {
+			try {
+				in.close();
+			} catch (IOException e) {
+				log.error(e);
 			}
 		}
 	}
@@ -514,23 +591,10 @@ public class TupleSort {
 		out.append(String.format("# initial runs: %s # merges: %s",
 				initialRuns, mergeCount));
 		out.append("\n");
-		out
-				.append(String
-						.format(
-								"Total left merge items: %10s Avg. left merge items per merge: %10.3f",
-								leftMergeItemCount, (double) leftMergeItemCount
-										/ mergeCount));
-		out.append("\n");
-		out
-				.append(String
-						.format(
-								"Total right merge items: %10s Avg. right merge items per merge: %10.3f",
-								rightMergeItemCount,
-								(double) rightMergeItemCount / mergeCount));
-		out.append("\n");
-		out.append(String.format("Directly merged %10.2f MB",
-				(double) directMergeSize / (1024 * 1024)));
+		out.append(String.format(
+				"Total merge items: %10s Avg. merge items per merge: %10.3f",
+				mergeItemCount, (double) mergeItemCount / mergeCount));
 		out.append("\n");
 		return out.toString();
 	}
-}
\ No newline at end of file
+}
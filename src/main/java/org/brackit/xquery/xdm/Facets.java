@@ -27,6 +27,7 @@
  */
 package org.brackit.xquery.xdm;
 
+import java.io.Serializable;
 import java.util.regex.Pattern;
 
 import org.brackit.xquery.atomic.Atomic;
@@ -37,7 +38,10 @@ import org.brackit.xquery.atomic.Atomic;
  * @author Sebastian Baechle
  * 
  */
-public class Facets {
+public class Facets implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	public enum WS {
 		PRESERVE, REPLACE, COLLAPSE
 	};
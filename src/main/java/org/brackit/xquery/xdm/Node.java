@@ -345,6 +345,17 @@ public interface Node<E extends Node<E>> extends Item {
 	 */
 	public QNm getName() throws DocumentException;
 
+	/**
+	 * Returns the {@link org.brackit.xquery.atomic.NameDictionary} id of this
+	 * node's name, and {@link org.brackit.xquery.atomic.NameDictionary#NO_NAME}
+	 * if this type of node has no name.
+	 * 
+	 * @return dictionary id of this node's name
+	 * @throws DocumentException
+	 *             if the operation failed
+	 */
+	public int getNameID() throws DocumentException;
+
 	/**
 	 * Sets the name of this node to <code>name</code>.
 	 * 
@@ -27,6 +27,8 @@
  */
 package org.brackit.xquery.xdm;
 
+import java.io.Serializable;
+
 import org.brackit.xquery.xdm.type.ItemType;
 import org.brackit.xquery.xdm.type.SequenceType;
 
@@ -35,7 +37,10 @@ import org.brackit.xquery.xdm.type.SequenceType;
  * @author Sebastian Baechle
  * 
  */
-public class Signature {
+public class Signature implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	private final SequenceType resultType;
 
 	private final SequenceType[] params;
@@ -27,6 +27,7 @@
  */
 package org.brackit.xquery.xdm;
 
+import java.io.Serializable;
 import java.math.BigDecimal;
 
 import org.brackit.xquery.atomic.Int;
@@ -42,7 +43,10 @@ import org.brackit.xquery.xdm.Facets.WS;
  * @author Sebastian Baechle
  * 
  */
-public final class Type {
+public final class Type implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	// TODO: Howto add range [#x10000-#xEFFFF]?
 	public static final String NAME_START_CHAR_WITHOUT_COLON_PATTERN = "[A-Z]|_|[a-z]|[\u00C0-\u00D6]|[\u00D8-\u00F6]|[\u00F8-\u02FF]|[\u0370-\u037D]|[\u037F-\u1FFF]|[\u200C-\u200D]|[\u2070-\u218F]|[\u2C00-\u2FEF]|[\u3001-\uD7FF]|[\uF900-\uFDCF]|[\uFDF0-\uFFFD]";
 
@@ -28,6 +28,7 @@
 package org.brackit.xquery.xdm.type;
 
 import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.NameDictionary;
 import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.xdm.Item;
 import org.brackit.xquery.xdm.Kind;
@@ -81,7 +82,7 @@ public final class AttributeType extends NodeType {
 	@Override
 	public boolean matches(Node<?> node) throws QueryException {
 		return ((node.getKind() == Kind.ATTRIBUTE)
-				&& ((name == null) || (name.eq(node.getName()))) && ((type == null) || (node
+				&& ((name == null) || (NameDictionary.matches(name, node))) && ((type == null) || (node
 				.type().instanceOf(type))));
 	}
 
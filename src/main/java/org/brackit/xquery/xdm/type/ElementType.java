@@ -28,6 +28,7 @@
 package org.brackit.xquery.xdm.type;
 
 import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.NameDictionary;
 import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.xdm.Kind;
 import org.brackit.xquery.xdm.Node;
@@ -82,7 +83,7 @@ public final class ElementType extends NodeType {
 	@Override
 	public boolean matches(Node<?> node) throws QueryException {
 		return ((node.getKind() == Kind.ELEMENT)
-				&& ((name == null) || (name.eq(node.getName()))) && ((type == null) || (node
+				&& ((name == null) || (NameDictionary.matches(name, node))) && ((type == null) || (node
 				.type().instanceOf(type))));
 	}
 
@@ -45,6 +45,10 @@ public class NSNameWildcardTest extends NodeType {
 		this.nsURI = nsURI;
 	}
 
+	public String getNamespaceURI() {
+		return nsURI;
+	}
+
 	@Override
 	public Kind getNodeKind() {
 		return kind;
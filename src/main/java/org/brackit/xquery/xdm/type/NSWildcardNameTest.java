@@ -45,6 +45,10 @@ public class NSWildcardNameTest extends NodeType {
 		this.name = name;
 	}
 
+	public String getLocalName() {
+		return name;
+	}
+
 	@Override
 	public Kind getNodeKind() {
 		return kind;
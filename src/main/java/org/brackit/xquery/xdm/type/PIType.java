@@ -48,6 +48,10 @@ public final class PIType extends NodeType {
 		this.piTarget = null;
 	}
 
+	public String getPITarget() {
+		return piTarget;
+	}
+
 	@Override
 	public Kind getNodeKind() {
 		return Kind.PROCESSING_INSTRUCTION;
@@ -27,13 +27,18 @@
  */
 package org.brackit.xquery.xdm.type;
 
+import java.io.Serializable;
+
 /**
  * Type as defined in {@linkplain http://www.w3.org/TR/xquery/#dt-sequence-type}
  * 
  * @author Sebastian Baechle
  * 
  */
-public final class SequenceType {
+public final class SequenceType implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	public static SequenceType EMPTY_SEQUENCE = new SequenceType(
 			new AnyItemType(), Cardinality.Zero);
 
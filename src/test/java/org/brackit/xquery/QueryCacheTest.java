@@ -0,0 +1,113 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.compiler.Bits;
+import org.brackit.xquery.xdm.Sequence;
+import org.junit.Test;
+
+/**
+ * @author Sebastian Baechle
+ * 
+ */
+public class QueryCacheTest extends XQueryBaseTest {
+
+	private static final String QUERY = "declare variable $x external; "
+			+ "sum(for $a in 1 to $x return $a * $x)";
+
+	@Test
+	public void prepareOnce() throws Exception {
+		QueryCache cache = new QueryCache();
+		PreparedQuery q1 = cache.prepare(QUERY);
+		PreparedQuery q2 = cache.prepare(QUERY);
+		assertSame(q1, q2);
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void bindExternalVariables() throws Exception {
+		PreparedQuery q = new QueryCache().prepare(QUERY);
+		QNm x = new QNm("x");
+		for (int i = 1; i <= 3; i++) {
+			Map<QNm, Sequence> vars = new HashMap<QNm, Sequence>();
+			vars.put(x, new Int32(i));
+			Sequence res = q.execute(new QueryContext(), vars);
+			int sum = 0;
+			for (int j = 1; j <= i; j++) {
+				sum += j * i;
+			}
+			ResultChecker.dCheck(new Int32(sum), res);
+		}
+	}
+
+	@Test
+	public void keyedByOptions() throws Exception {
+		QueryCache cache = new QueryCache();
+		Map<QNm, Str> options = new HashMap<QNm, Str>();
+		options.put(new QNm(Bits.BIT_NSURI, Bits.BIT_PREFIX, "parallel"),
+				new Str("true"));
+		PreparedQuery q1 = cache.prepare(QUERY);
+		PreparedQuery q2 = cache.prepare(QUERY, null, options);
+		assertNotSame(q1, q2);
+		assertSame(q2, cache.prepare(QUERY, null, options));
+	}
+
+	@Test
+	public void evictLeastRecentlyUsed() throws Exception {
+		QueryCache cache = new QueryCache(2);
+		PreparedQuery q1 = cache.prepare("1");
+		cache.prepare("2");
+		cache.prepare("1");
+		cache.prepare("3");
+		assertEquals(2, cache.size());
+		assertSame(q1, cache.prepare("1"));
+	}
+
+	@Test
+	public void compileErrorNotCached() throws Exception {
+		QueryCache cache = new QueryCache();
+		try {
+			cache.prepare("for $a in");
+			fail("compile error expected");
+		} catch (QueryException e) {
+			// expected
+		}
+		assertEquals(0, cache.size());
+	}
+}
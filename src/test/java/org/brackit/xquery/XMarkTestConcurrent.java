@@ -0,0 +1,133 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.node.d2linked.D2NodeBuilder;
+import org.brackit.xquery.node.parser.DocumentParser;
+import org.brackit.xquery.xdm.Node;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the XMark queries concurrently in many threads, each query on a
+ * single compiled plan which is shared by all threads.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class XMarkTestConcurrent extends XQueryBaseTest {
+	private static final int QUERIES = 20;
+
+	private static final int THREADS = 8;
+
+	private static final int RUNS = 5;
+
+	private Node<?> doc;
+
+	private XQuery[] queries;
+
+	private String[] results;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		URL url = getClass().getResource("/xmark/auction.xml");
+		DocumentParser parser = new DocumentParser(new File(url.getFile()));
+		parser.setRetainWhitespace(true);
+		D2NodeBuilder builder = new D2NodeBuilder();
+		parser.parse(builder);
+		doc = builder.root();
+		queries = new XQuery[QUERIES];
+		results = new String[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			String name = String.format("q%02d", i + 1);
+			queries[i] = xquery(readQuery(XMarkTest.QUERY_DIR, name + ".xq"));
+			results[i] = readFile(XMarkTest.RESULT_DIR, name + ".out");
+		}
+	}
+
+	@Test
+	public void sharedPlans() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < THREADS; t++) {
+				final int offset = t;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int r = 0; r < RUNS; r++) {
+							for (int i = 0; i < QUERIES; i++) {
+								// each thread starts at a different query
+								int q = (offset + i) % QUERIES;
+								assertEquals("q" + (q + 1), results[q], run(q));
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void contextItemPerExecution() throws Exception {
+		XQuery query = xquery("declare context item external; . + 1");
+		for (int i = 0; i < 3; i++) {
+			QueryContext ctx = new QueryContext(store);
+			ctx.setContextItem(new Int32(i));
+			assertEquals(new Int32(i + 1), query.execute(ctx));
+		}
+	}
+
+	private String run(int q) throws Exception {
+		QueryContext ctx = new QueryContext(store);
+		ctx.setContextItem(doc);
+		PrintStream buffer = createBuffer();
+		queries[q].serialize(ctx, buffer);
+		return buffer.toString();
+	}
+}
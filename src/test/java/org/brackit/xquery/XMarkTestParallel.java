@@ -0,0 +1,66 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery;
+
+import java.io.FileNotFoundException;
+
+import org.brackit.xquery.compiler.optimizer.DefaultOptimizer;
+import org.brackit.xquery.operator.ParallelForBind;
+import org.brackit.xquery.util.WorkerPool;
+import org.junit.After;
+
+/**
+ * @author Sebastian Baechle
+ * 
+ */
+public class XMarkTestParallel extends XMarkTest {
+
+	private boolean parallel;
+
+	private int parallelism;
+
+	private int morselSize;
+
+	@Override
+	public void setUp() throws Exception, FileNotFoundException {
+		super.setUp();
+		parallel = DefaultOptimizer.PARALLEL;
+		parallelism = WorkerPool.PARALLELISM;
+		morselSize = ParallelForBind.MORSEL_SIZE;
+		DefaultOptimizer.PARALLEL = true;
+		WorkerPool.PARALLELISM = 4;
+		ParallelForBind.MORSEL_SIZE = 8;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DefaultOptimizer.PARALLEL = parallel;
+		WorkerPool.PARALLELISM = parallelism;
+		ParallelForBind.MORSEL_SIZE = morselSize;
+	}
+}
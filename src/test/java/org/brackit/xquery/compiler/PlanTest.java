@@ -0,0 +1,135 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.module.Module;
+import org.junit.Test;
+
+/**
+ * @author Sebastian Baechle
+ * 
+ */
+public class PlanTest extends XQueryBaseTest {
+
+	private static final String FOO = "module namespace foo=\"http://brackit.org/lib/foo\"; "
+			+ "declare variable $foo:x := 21; "
+			+ "declare function foo:twice($s as item()*) as item()* "
+			+ "{ ($s, $s) };";
+
+	private static final String IMPORT_FOO = "import module namespace foo=\"http://brackit.org/lib/foo\"; ";
+
+	private byte[] write(CompileChain chain, String query)
+			throws QueryException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		chain.plan(query).write(out);
+		return out.toByteArray();
+	}
+
+	private String run(Module module) throws QueryException {
+		PrintStream buf = createBuffer();
+		new XQuery(module).serialize(ctx, buf);
+		return buf.toString();
+	}
+
+	private void check(String query, String expected) throws QueryException {
+		byte[] plan = write(new CompileChain(), query);
+		CompileChain chain = new CompileChain();
+		Module module = chain.compile(chain.read(new ByteArrayInputStream(
+				plan)));
+		assertEquals(query, expected, run(module));
+	}
+
+	@Test
+	public void queryBody() throws Exception {
+		check("for $a in (3, 1, 2) let $b := $a * 2 where $b > 2 "
+				+ "order by $a return <a b='{$b}'>{$a}</a>",
+				"<a b=\"4\">2</a><a b=\"6\">3</a>");
+	}
+
+	@Test
+	public void prolog() throws Exception {
+		check("declare namespace x = 'http://x'; "
+				+ "declare variable $v := 5; "
+				+ "declare function local:f($a) { $a + $v }; "
+				+ "(namespace-uri(<x:e/>), local:f(1))", "http://x 6");
+	}
+
+	@Test
+	public void libraryModule() throws Exception {
+		BaseResolver resolver = new BaseResolver();
+		CompileChain chain = new CompileChain(resolver);
+		chain.compile(FOO);
+		byte[] plan = write(chain, IMPORT_FOO + "foo:twice($foo:x)");
+		// the library module is resolved at the reading chain
+		CompileChain other = new CompileChain(resolver);
+		Module module = other.compile(other.read(new ByteArrayInputStream(
+				plan)));
+		assertEquals("21 21", run(module));
+		try {
+			new CompileChain().read(new ByteArrayInputStream(plan));
+			fail("imported module not registered");
+		} catch (QueryException e) {
+			assertEquals(ErrorCode.ERR_SCHEMA_OR_MODULE_NOT_FOUND, e.getCode());
+		}
+	}
+
+	@Test
+	public void compileOnce() throws Exception {
+		CompileChain chain = new CompileChain();
+		Plan plan = chain.plan("1 + 1");
+		assertEquals("2", run(chain.compile(plan)));
+		try {
+			chain.compile(plan);
+			fail("plan compiled twice");
+		} catch (QueryException e) {
+			assertEquals(ErrorCode.BIT_DYN_INT_ERROR, e.getCode());
+		}
+	}
+
+	@Test
+	public void invalidPlan() throws Exception {
+		try {
+			new CompileChain().read(new ByteArrayInputStream(new byte[] { 1,
+					2, 3, 4, 5, 6, 7, 8, 9 }));
+			fail("invalid plan accepted");
+		} catch (QueryException e) {
+			assertEquals(ErrorCode.BIT_DYN_INT_ERROR, e.getCode());
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintStream;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.junit.Test;
+
+/**
+ * @author Sebastian Baechle
+ * 
+ */
+public class ConstantFoldingTest extends XQueryBaseTest {
+
+	private String eval(String query, boolean folding) throws QueryException {
+		boolean old = DefaultOptimizer.FOLDING;
+		DefaultOptimizer.FOLDING = folding;
+		try {
+			XQuery xq = xquery(query);
+			PrintStream buf = createBuffer();
+			xq.serialize(ctx, buf);
+			return buf.toString();
+		} catch (QueryException e) {
+			return e.getCode().toString();
+		} finally {
+			DefaultOptimizer.FOLDING = old;
+		}
+	}
+
+	private void check(String query, String expected) throws QueryException {
+		assertEquals(query, expected, eval(query, true));
+		assertEquals(query, expected, eval(query, false));
+	}
+
+	@Test
+	public void arithmetic() throws Exception {
+		check("for $a in 1 to 2 return $a + (2 * 3 - 1) idiv 2", "3 4");
+		check("1 div 4 + 0.5", "0.75");
+		check("2 * 1.5e0", "3");
+	}
+
+	@Test
+	public void comparisonAndLogic() throws Exception {
+		check("(1 < 2 and 'a' = 'a', if (1 eq 2) then 'x' else 'y')",
+				"true y");
+	}
+
+	@Test
+	public void casts() throws Exception {
+		check("(xs:integer('12') + 1, '2' cast as xs:double, "
+				+ "xs:date('2010-01-01') instance of xs:date, "
+				+ "xs:date('2010-01-01'))", "13 2 true 2010-01-01");
+	}
+
+	@Test
+	public void errorsAtRuntime() throws Exception {
+		check("for $a in () return 1 idiv 0", "");
+		check("1 idiv 0", "err:FOAR0001");
+		check("xs:integer('x')", "err:FORG0001");
+	}
+}
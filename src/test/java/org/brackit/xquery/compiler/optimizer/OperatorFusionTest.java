@@ -0,0 +1,173 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.ResultChecker;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.CompileChain;
+import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.module.StaticContext;
+import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.xdm.Sequence;
+import org.junit.Test;
+
+/**
+ * @author Sebastian Baechle
+ * 
+ */
+public class OperatorFusionTest extends XQueryBaseTest {
+
+	private final List<String> fused = new ArrayList<String>();
+
+	@Test
+	public void letSelectCount() throws Exception {
+		Sequence res = execute(
+				"for $a in 1 to 6 " +
+				"let $b := $a * 2 " +
+				"where $a mod 2 = 0 " +
+				"let $c := $b + 1 " +
+				"count $d " +
+				"return ($d, $c)");
+		ResultChecker.dCheck(intSequence(1, 5, 2, 9, 3, 13), res);
+		assertEquals(Arrays.asList("Selection LetBind LetBind Count"), fused);
+	}
+
+	@Test
+	public void singletonForBind() throws Exception {
+		Sequence res = execute(
+				"for $a in 1 to 3 " +
+				"let $b := $a * 10 " +
+				"for $c at $p in $a " +
+				"where $c > 1 " +
+				"count $d " +
+				"return ($d, $b, $p)");
+		ResultChecker.dCheck(intSequence(1, 20, 1, 2, 30, 1), res);
+		assertEquals(Arrays.asList("LetBind ForBind Selection Count"), fused);
+	}
+
+	@Test
+	public void nonSingletonForBind() throws Exception {
+		Sequence res = execute(
+				"for $a in 1 to 3 " +
+				"let $b := $a * 10 " +
+				"for $c in ($a, $b) " +
+				"where $c > 1 " +
+				"count $d " +
+				"return ($d, $c)");
+		ResultChecker.dCheck(intSequence(1, 10, 2, 2, 3, 20, 4, 3, 5, 30),
+				res);
+		assertEquals(Arrays.asList("Selection Count"), fused);
+	}
+
+	@Test
+	public void iterationGroupCheck() throws Exception {
+		Sequence res = execute(
+				"for $a in 1 to 3 " +
+				"let $x := for $b in 1 to 6 " +
+				"  where $b mod 3 = $a " +
+				"  let $y := $b * 2 " +
+				"  count $c " +
+				"  return ($c, $y) " +
+				"return ($a, $x)");
+		ResultChecker.dCheck(intSequence(1, 1, 2, 2, 8, 2, 1, 4, 2, 10, 3),
+				res);
+		assertEquals(Collections.<String> emptyList(), fused);
+	}
+
+	@Test
+	public void nestedCount() throws Exception {
+		Sequence res = execute(
+				"for $a in 1 to 3 " +
+				"let $b := (for $x in 1 to $a " +
+				"  let $y := $x * $a " +
+				"  count $c " +
+				"  return $c + $y) " +
+				"return sum($b)");
+		ResultChecker.dCheck(intSequence(2, 9, 24), res);
+		assertEquals(Arrays.asList("LetBind Count"), fused);
+	}
+
+	private Sequence execute(String query) throws Exception {
+		CompileChain chain = new CompileChain() {
+			@Override
+			protected Optimizer getOptimizer(Map<QNm, Str> options) {
+				Optimizer optimizer = super.getOptimizer(options);
+				optimizer.getStages().add(new Stage() {
+					@Override
+					public AST rewrite(StaticContext sctx, AST ast)
+							throws QueryException {
+						collectFused(ast);
+						return ast;
+					}
+				});
+				return optimizer;
+			}
+		};
+		return new XQuery(chain, query).execute(ctx);
+	}
+
+	private void collectFused(AST node) {
+		if ((node.checkProperty("fuse"))
+				&& (!node.getParent().checkProperty("fuse"))) {
+			StringBuilder ops = new StringBuilder();
+			for (AST op = node; op.checkProperty("fuse"); op = op
+					.getLastChild()) {
+				if (ops.length() > 0) {
+					ops.append(' ');
+				}
+				ops.append(XQ.NAMES[op.getType()]);
+			}
+			fused.add(ops.toString());
+		}
+		for (int i = 0; i < node.getChildCount(); i++) {
+			collectFused(node.getChild(i));
+		}
+	}
+
+	private Sequence intSequence(int... v) {
+		Int32[] s = new Int32[v.length];
+		for (int i = 0; i < v.length; i++) {
+			s[i] = new Int32(v[i]);
+		}
+		return new ItemSequence(s);
+	}
+}
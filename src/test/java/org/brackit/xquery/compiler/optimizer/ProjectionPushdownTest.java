@@ -0,0 +1,122 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintStream;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.junit.Test;
+
+/**
+ * @author Sebastian Baechle
+ * 
+ */
+public class ProjectionPushdownTest extends XQueryBaseTest {
+
+	private String eval(String query, boolean projection)
+			throws QueryException {
+		boolean old = DefaultOptimizer.PROJECTION;
+		DefaultOptimizer.PROJECTION = projection;
+		try {
+			XQuery xq = xquery(query);
+			PrintStream buf = createBuffer();
+			xq.serialize(ctx, buf);
+			return buf.toString();
+		} catch (QueryException e) {
+			return e.getCode().toString();
+		} finally {
+			DefaultOptimizer.PROJECTION = old;
+		}
+	}
+
+	private void check(String query, String expected) throws QueryException {
+		assertEquals(query, expected, eval(query, true));
+		assertEquals(query, expected, eval(query, false));
+	}
+
+	@Test
+	public void orderBy() throws Exception {
+		check("for $a in 1 to 3 let $b := (1 to 1000)[. mod $a = 0] "
+				+ "where count($b) > 400 order by $a descending return $a",
+				"2 1");
+		check("for $a in 1 to 3 let $b := $a * 10 let $c := $a * 100 "
+				+ "order by $b descending return $c", "300 200 100");
+	}
+
+	@Test
+	public void orderByCount() throws Exception {
+		check("for $a in (3, 1, 2) let $b := $a * 2 count $c "
+				+ "order by $a return ($c, $b)", "2 2 3 4 1 6");
+	}
+
+	@Test
+	public void groupBy() throws Exception {
+		check("for $a in 1 to 6 let $b := $a mod 2 let $c := $a * 10 "
+				+ "group by $b order by $b return <g k='{$b}'>{$c}</g>",
+				"<g k=\"0\">20 40 60</g><g k=\"1\">10 30 50</g>");
+		check("for $a in 1 to 6 let $b := $a mod 2 let $c := $a * 10 "
+				+ "group by $b order by $b return count($a)", "3 3");
+		check("for $a in 1 to 6 let $b := $a mod 3 let $c := $a * 10 "
+				+ "where $c > 10 group by $b order by $b return $b", "0 1 2");
+	}
+
+	@Test
+	public void join() throws Exception {
+		check("for $a in 1 to 4 let $x := $a * 10 "
+				+ "for $b in 2 to 5 let $y := $b * 100 "
+				+ "where $a = $b return ($x, $a)", "20 2 30 3 40 4");
+		check("for $a in 1 to 4 let $x := $a * 10 "
+				+ "for $b in 2 to 5 let $y := $b * 100 "
+				+ "where $a = $b return $y", "200 300 400");
+	}
+
+	@Test
+	public void nestedJoin() throws Exception {
+		check("for $a in 1 to 3 let $x := $a * 10 "
+				+ "let $s := for $b in 1 to 3 let $y := $b * 100 "
+				+ "where $b <= $a order by $y descending return $y "
+				+ "return ($x, count($s))", "10 1 20 2 30 3");
+		check("for $a in 1 to 3 let $x := $a * 10 "
+				+ "let $s := for $b in 1 to 3 let $y := $b * 100 "
+				+ "where $b = $a return $y "
+				+ "order by $a descending return ($x, $s)",
+				"30 300 20 200 10 100");
+	}
+
+	@Test
+	public void nestedPipeline() throws Exception {
+		check("for $a in 1 to 2 let $x := $a * 10 "
+				+ "let $s := for $b in 1 to 2 let $y := $b + $x "
+				+ "order by $b descending return $y return ($x, $s)",
+				"10 12 11 20 22 21");
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintStream;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.junit.Test;
+
+/**
+ * @author Sebastian Baechle
+ * 
+ */
+public class SubexpressionHoistingTest extends XQueryBaseTest {
+
+	private static final String DOC = "let $d := <r><a><b><c>1</c></b></a>"
+			+ "<a><b><c>5</c></b></a><a><b/></a></r> ";
+
+	private String eval(String query, boolean hoisting) throws QueryException {
+		boolean old = DefaultOptimizer.HOISTING;
+		DefaultOptimizer.HOISTING = hoisting;
+		try {
+			XQuery xq = xquery(query);
+			PrintStream buf = createBuffer();
+			xq.serialize(ctx, buf);
+			return buf.toString();
+		} catch (QueryException e) {
+			return e.getCode().toString();
+		} finally {
+			DefaultOptimizer.HOISTING = old;
+		}
+	}
+
+	private void check(String query, String expected) throws QueryException {
+		assertEquals(query, expected, eval(query, true));
+		assertEquals(query, expected, eval(query, false));
+	}
+
+	@Test
+	public void repeatedPath() throws Exception {
+		check(DOC + "for $a in $d/a where $a/b/c > 2 "
+				+ "return ($a/b/c, string($a/b/c))", "<c>5</c>5");
+	}
+
+	@Test
+	public void repeatedFunctionCall() throws Exception {
+		check(DOC + "for $a in $d/a let $n := count($a/b/c) "
+				+ "return count($a/b/c) + $n", "2 2 0");
+	}
+
+	@Test
+	public void conditionalOccurrence() throws Exception {
+		check(DOC + "for $a in $d/a return if (exists($a/b/c)) "
+				+ "then data($a/b/c) else 0", "1 5 0");
+		check("for $a in (1, <a/>) "
+				+ "return if ($a instance of node()) then ($a/b, $a/b) else 0",
+				"0");
+	}
+
+	@Test
+	public void nodeIdentity() throws Exception {
+		check(DOC + "for $a in $d/a return ($a/b is $a/b, <x/> is <x/>)",
+				"true false true false true false");
+	}
+
+	@Test
+	public void loopInvariantConstant() throws Exception {
+		check("for $a in 1 to 3 where xs:date(concat('2010-01-0', $a)) "
+				+ "gt xs:date('2010-01-01') return $a", "2 3");
+		check("for $a in () return xs:date('x')", "");
+		check("for $a in 1 to 2 return $a + xs:integer('x')",
+				"err:FORG0001");
+	}
+}
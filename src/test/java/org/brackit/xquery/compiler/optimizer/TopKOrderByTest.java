@@ -0,0 +1,109 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer;
+
+import org.brackit.xquery.ResultChecker;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.xdm.Sequence;
+import org.junit.Test;
+
+/**
+ * @author Sebastian Baechle
+ * 
+ */
+public class TopKOrderByTest extends XQueryBaseTest {
+
+	@Test
+	public void positionLimit() throws Exception {
+		Sequence res = new XQuery(
+				"(for $a in (5, 3, 9, 1, 7, 2, 8) " +
+				"order by $a descending " +
+				"return $a)[position() <= 3]").execute(ctx);
+		ResultChecker.dCheck(intSequence(9, 8, 7), res);
+	}
+
+	@Test
+	public void positionLimitStable() throws Exception {
+		Sequence res = new XQuery(
+				"(for $a in 1 to 100 " +
+				"order by $a mod 10 " +
+				"return $a)[position() lt 4]").execute(ctx);
+		ResultChecker.dCheck(intSequence(10, 20, 30), res);
+	}
+
+	@Test
+	public void numericPredicate() throws Exception {
+		Sequence res = new XQuery(
+				"(for $a in 1 to 100 " +
+				"let $b := $a * 2 " +
+				"order by $a mod 10 descending " +
+				"count $c " +
+				"return ($c, $b))[4]").execute(ctx);
+		ResultChecker.dCheck(intSequence(38), res);
+	}
+
+	@Test
+	public void subsequence() throws Exception {
+		Sequence res = new XQuery(
+				"subsequence(for $a in 1 to 100 " +
+				"order by $a mod 7 " +
+				"return $a, 3, 4)").execute(ctx);
+		ResultChecker.dCheck(intSequence(21, 28, 35, 42), res);
+	}
+
+	@Test
+	public void possiblyEmptyReturn() throws Exception {
+		Sequence res = new XQuery(
+				"(for $a in 1 to 100 " +
+				"order by $a mod 7 " +
+				"return $a[. > 50])[position() <= 3]").execute(ctx);
+		ResultChecker.dCheck(intSequence(56, 63, 70), res);
+	}
+
+	@Test
+	public void nestedOrderBy() throws Exception {
+		Sequence res = new XQuery(
+				"for $a in (1, 2) " +
+				"let $b := (for $c in (3, 1, 2) " +
+				"  order by $c descending " +
+				"  return $c * $a)[position() <= 2] " +
+				"return ($a, $b)").execute(ctx);
+		ResultChecker.dCheck(intSequence(1, 3, 2, 2, 6, 4), res);
+	}
+
+	private Sequence intSequence(int... v) {
+		Int32[] s = new Int32[v.length];
+		for (int i = 0; i < v.length; i++) {
+			s[i] = new Int32(v[i]);
+		}
+		return new ItemSequence(s);
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintStream;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.junit.Test;
+
+/**
+ * Checks that the specialized expressions emitted for statically typed
+ * expressions yield the same results as the generic ones.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class TypeInferenceTest extends XQueryBaseTest {
+
+	private String eval(String query, boolean typeInference)
+			throws QueryException {
+		boolean old = DefaultOptimizer.TYPE_INFERENCE;
+		DefaultOptimizer.TYPE_INFERENCE = typeInference;
+		try {
+			XQuery xq = xquery(query);
+			PrintStream buf = createBuffer();
+			xq.serialize(ctx, buf);
+			return buf.toString();
+		} catch (QueryException e) {
+			return e.getCode().toString();
+		} finally {
+			DefaultOptimizer.TYPE_INFERENCE = old;
+		}
+	}
+
+	private void check(String query, String expected) throws QueryException {
+		assertEquals(query, expected, eval(query, true));
+		assertEquals(query, expected, eval(query, false));
+	}
+
+	@Test
+	public void boundVariables() throws Exception {
+		check("for $a at $p in (1, 2, 3) " + "let $b := $a * 1.5e0 "
+				+ "where $b > 2 " + "count $c " + "return ($b, $p + $c)",
+				"3 3 4.5 5");
+	}
+
+	@Test
+	public void functionCalls() throws Exception {
+		check("for $s in ('a', 'bcd', 'ef') "
+				+ "where string-length($s) * 2 > count(($s, $s)) + 1 "
+				+ "return $s", "bcd ef");
+	}
+
+	@Test
+	public void singletonGeneralComparison() throws Exception {
+		check("for $a in (1, 2) return ($a = 1, $a != 1.0, 'x' = 'x')",
+				"true false true false true true");
+		check("for $a in (1, 2) return $a = '1'", "err:XPTY0004");
+		check("for $a in (1, 2) return xs:untypedAtomic('1') = $a",
+				"true false");
+	}
+
+	@Test
+	public void groupBy() throws Exception {
+		check("for $a in 1 to 6 " + "let $b := $a mod 2 " + "group by $b "
+				+ "return ($b, count($a), $a = 4)", "1 3 false 0 3 true");
+	}
+}
@@ -37,6 +37,7 @@ import org.brackit.xquery.XQuery;
 import org.brackit.xquery.XQueryBaseTest;
 import org.brackit.xquery.atomic.Int32;
 import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.util.WorkerPool;
 import org.brackit.xquery.xdm.Iter;
 import org.brackit.xquery.xdm.Sequence;
 import org.junit.Test;
@@ -99,6 +100,23 @@ public class FLWORTest extends XQueryBaseTest {
 		ResultChecker.dCheck(intSequence(1, 2, 3), result);
 	}
 
+	@Test
+	public void forExprWithOrderByUnusedLetBinding() throws Exception {
+		int parallelism = WorkerPool.PARALLELISM;
+		try {
+			for (int p : new int[] { 1, 4 }) {
+				WorkerPool.PARALLELISM = p;
+				Sequence result = new XQuery(
+						"for $x in (3,1,2) let $e := (1 div 0, 2) order by $x "
+								+ "return if ($x > 5) then $e else $x")
+						.execute(ctx);
+				ResultChecker.dCheck(intSequence(1, 2, 3), result);
+			}
+		} finally {
+			WorkerPool.PARALLELISM = parallelism;
+		}
+	}
+
 	@Test
 	public void forExprOneLetBinding() throws Exception {
 		Sequence result = new XQuery(
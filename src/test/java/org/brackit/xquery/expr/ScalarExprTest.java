@@ -0,0 +1,119 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.expr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintStream;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.compiler.translator.Compiler;
+import org.junit.Test;
+
+/**
+ * Checks that compiled scalar expressions yield the same results as the
+ * generic expressions.
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class ScalarExprTest extends XQueryBaseTest {
+
+	private String eval(String query, boolean scalar) throws QueryException {
+		boolean old = Compiler.SCALAR;
+		Compiler.SCALAR = scalar;
+		try {
+			XQuery xq = xquery(query);
+			PrintStream buf = createBuffer();
+			xq.serialize(ctx, buf);
+			return buf.toString();
+		} catch (QueryException e) {
+			return e.getCode().toString();
+		} finally {
+			Compiler.SCALAR = old;
+		}
+	}
+
+	private void check(String query) throws QueryException {
+		assertEquals(query, eval(query, false), eval(query, true));
+	}
+
+	@Test
+	public void integerArithmetic() throws Exception {
+		check("for $a in -5 to 5 return ($a + 3, $a - 7, $a * $a, "
+				+ "$a idiv 2, $a mod 3)");
+		check("for $a in 1 to 3 return $a div 2");
+	}
+
+	@Test
+	public void integerOverflow() throws Exception {
+		check("let $a := 9223372036854775807 return ($a + 1, $a * 2)");
+		check("let $a := 4294967296 return $a * $a");
+		check("let $a := -9223372036854775807 return $a - 2");
+	}
+
+	@Test
+	public void divisionByZero() throws Exception {
+		check("let $a := 0 return 1 idiv $a");
+		check("let $a := 0 return 1 mod $a");
+		check("let $a := 0e0 return (1 div $a, -1 div $a, $a div $a)");
+		check("let $a := 0e0 return 1e0 mod $a");
+	}
+
+	@Test
+	public void doubleArithmetic() throws Exception {
+		check("for $a in (1.5e0, -2.25e0) return ($a + 1, $a * 2e0, "
+				+ "$a - $a, $a div 4, $a mod 2)");
+		check("declare variable $d as xs:double := 2.5e0; $d * $d + 1");
+	}
+
+	@Test
+	public void comparison() throws Exception {
+		check("for $a in -3 to 3 return ($a eq 0, $a lt 1, $a ge -1, "
+				+ "$a != 2, $a * 2 > $a + 1, $a <= 1.5e0)");
+		check("let $a := 9223372036854775807 return $a + 1 gt $a");
+	}
+
+	@Test
+	public void logic() throws Exception {
+		check("for $a in 1 to 6 return ($a > 2 and $a < 5, "
+				+ "$a = 1 or $a mod 3 = 0, $a > 2 and 'x')");
+	}
+
+	@Test
+	public void mixedOperands() throws Exception {
+		check("let $a := () return ($a + 1, $a = 1, $a eq 1)");
+		check("let $a := (1, 2) return ($a = 2, $a != 1)");
+		check("let $a := (1, 2) return $a + 1");
+		check("let $a := 1.5 return ($a + 1, $a * 2, $a > 1)");
+		check("let $a := '1' return $a = 1");
+		check("for $a in (1, 2e0, 3.5, xs:float(4)) return ($a + 1, $a < 3)");
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.expr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintStream;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class StaircaseJoinTest extends XQueryBaseTest {
+
+	private static final String DOC = "let $d := <a><b id='1'><c id='2'/>"
+			+ "<b id='3'><c id='4'/></b></b><d><c id='5'/></d>"
+			+ "<b id='6'><c id='7'/></b></a> ";
+
+	private String eval(String query, boolean staircase) throws QueryException {
+		boolean old = PathStepExpr.STAIRCASE;
+		PathStepExpr.STAIRCASE = staircase;
+		try {
+			XQuery xq = xquery(DOC + query);
+			PrintStream buf = createBuffer();
+			xq.serialize(ctx, buf);
+			return buf.toString();
+		} catch (QueryException e) {
+			return e.getCode().toString();
+		} finally {
+			PathStepExpr.STAIRCASE = old;
+		}
+	}
+
+	private void check(String query, String expected) throws QueryException {
+		assertEquals(query, expected, eval(query, true));
+		assertEquals(query, expected, eval(query, false));
+	}
+
+	@Test
+	public void descendant() throws Exception {
+		check("for $x in ($d//b)/descendant::c return string($x/@id)",
+				"2 4 7");
+		check("for $x in ($d//b)/descendant::* return string($x/@id)",
+				"2 3 4 7");
+		check("for $x in (reverse($d//b), $d//b)/descendant::c "
+				+ "return string($x/@id)", "2 4 7");
+	}
+
+	@Test
+	public void descendantOrSelf() throws Exception {
+		check("for $x in ($d//b)/descendant-or-self::* "
+				+ "return string($x/@id)", "1 2 3 4 6 7");
+		check("return count(($d//b, $d//@id)/descendant-or-self::node())", "13");
+		check("return count(($d//@id)/descendant::node())", "0");
+	}
+
+	@Test
+	public void ancestor() throws Exception {
+		check("for $x in ($d//c)/ancestor::* "
+				+ "return concat(name($x), $x/@id)", "a b1 b3 d b6");
+		check("for $x in reverse($d//c)/ancestor::b return string($x/@id)",
+				"1 3 6");
+		check("for $x in ($d//c, $d//b)/ancestor-or-self::b "
+				+ "return string($x/@id)", "1 3 6");
+		check("for $x in ($d//@id)/ancestor::* "
+				+ "return concat(name($x), $x/@id)", "a b1 c2 b3 c4 d c5 b6 c7");
+	}
+
+	@Test
+	public void nonNodeContext() throws Exception {
+		check("return (1, $d)/descendant::c", "err:XPTY0019");
+	}
+}
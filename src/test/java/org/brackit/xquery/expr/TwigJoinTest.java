@@ -0,0 +1,105 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.expr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintStream;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class TwigJoinTest extends XQueryBaseTest {
+
+	private static final String DOC = "let $d := <a id='1'><b id='2'><c id='3'/>"
+			+ "<a id='4'><c id='5'/><b id='6'><c id='7'/></b></a></b>"
+			+ "<d id='8'><b id='9'><x id='10'><c id='11'/></x></b></d></a> ";
+
+	private String eval(String query, boolean twig) throws QueryException {
+		boolean old = TwigJoinExpr.TWIG;
+		TwigJoinExpr.TWIG = twig;
+		try {
+			XQuery xq = xquery(DOC + query);
+			PrintStream buf = createBuffer();
+			xq.serialize(ctx, buf);
+			return buf.toString();
+		} catch (QueryException e) {
+			return e.getCode().toString();
+		} finally {
+			TwigJoinExpr.TWIG = old;
+		}
+	}
+
+	private void check(String query, String expected) throws QueryException {
+		assertEquals(query, expected, eval(query, true));
+		assertEquals(query, expected, eval(query, false));
+	}
+
+	@Test
+	public void descendant() throws Exception {
+		check("for $x in $d//b//c return string($x/@id)", "3 5 7 11");
+		check("for $x in $d//a//b//c return string($x/@id)", "7");
+		check("for $x in $d/descendant::a//b//c return string($x/@id)",
+				"7");
+		check("for $x in $d//b//a//* return string($x/@id)", "5 6 7");
+	}
+
+	@Test
+	public void child() throws Exception {
+		check("for $x in $d//b/c return string($x/@id)", "3 7");
+		check("for $x in $d//d//b/x/c return string($x/@id)", "11");
+		check("for $x in $d//b/a/b/c return string($x/@id)", "7");
+		check("for $x in $d//*/c return string($x/@id)", "3 5 7 11");
+	}
+
+	@Test
+	public void attribute() throws Exception {
+		check("return string-join($d//b//@id, ' ')", "2 3 4 5 6 7 9 10 11");
+		check("return string-join($d//a/b/@id, ' ')", "6");
+	}
+
+	@Test
+	public void contextSequence() throws Exception {
+		check("for $x in ($d//d, $d//a)//b/c return string($x/@id)", "7");
+		check("for $x in ($d//d, $d)//b//c return string($x/@id)", "3 5 7 11");
+		check("for $x in reverse($d//b)//a//c return string($x/@id)", "5 7");
+		check("for $x in ($d//@id)//b//c return string($x/@id)", "");
+	}
+
+	@Test
+	public void nonNodeContext() throws Exception {
+		check("return (1, $d)//b//c", "err:XPTY0019");
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.node.d2linked.D2NodeFactory;
+import org.brackit.xquery.node.parser.DocumentParser;
+import org.brackit.xquery.util.path.Path;
+import org.brackit.xquery.xdm.Kind;
+import org.brackit.xquery.xdm.Node;
+import org.brackit.xquery.xdm.Stream;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class PathStackStreamTest {
+
+	private static final String DOC = "<a id='1'><b id='2'><c id='3'/>"
+			+ "<a id='4'><c id='5'/><b id='6'><c id='7'/></b></a></b>"
+			+ "<d id='8'><b id='9'><x id='10'><c id='11'/></x></b></d></a>";
+
+	private Node<?> root;
+
+	@Before
+	public void setUp() throws Exception {
+		root = new D2NodeFactory().build(new DocumentParser(DOC));
+	}
+
+	private String ids(Stream<? extends Node<?>> s) throws Exception {
+		StringBuilder buf = new StringBuilder();
+		try {
+			Node<?> n;
+			while ((n = s.next()) != null) {
+				if (buf.length() > 0) {
+					buf.append(' ');
+				}
+				buf.append((n.getKind() == Kind.ATTRIBUTE) ? n.getValue() : n
+						.getAttribute(new QNm("id")).getValue());
+			}
+		} finally {
+			s.close();
+		}
+		return buf.toString();
+	}
+
+	private String match(String path) throws Exception {
+		return ids(new PathStackStream.Default(root.getSubtree(), Path
+				.parse(path)));
+	}
+
+	@Test
+	public void testDescendantPaths() throws Exception {
+		assertEquals("3 5 7 11", match("//c"));
+		assertEquals("3 5 7 11", match("//a//c"));
+		assertEquals("3 5 7 11", match("//b//c"));
+		assertEquals("5 7", match("//b//a//c"));
+		assertEquals("7", match("//a//b//b//c"));
+	}
+
+	@Test
+	public void testChildPaths() throws Exception {
+		assertEquals("2", match("/a/b"));
+		assertEquals("", match("/b"));
+		assertEquals("3 7", match("//b/c"));
+		assertEquals("2 6", match("//a/b"));
+		assertEquals("11", match("//d//b/x/c"));
+		assertEquals("7", match("//a/b//b/c"));
+	}
+
+	@Test
+	public void testAttributePaths() throws Exception {
+		assertEquals("9 10 11", match("//d//b//@id"));
+		assertEquals("2 6", match("//a/b/@id"));
+		assertEquals("", match("//a/b/@foo"));
+	}
+
+	@Test
+	public void testWildcard() throws Exception {
+		Path<QNm> path = new Path<QNm>().descendant(new QNm("b")).child()
+				.child(new QNm("c"));
+		assertEquals("5 11", ids(new PathStackStream.Default(root.getSubtree(),
+				path)));
+	}
+
+	@Test
+	public void testContext() throws Exception {
+		Node<?> d = root.getFirstChild().getLastChild();
+		Path<QNm> path = Path.parse("//b//c");
+		assertEquals("11", ids(new PathStackStream.Default(d, d.getSubtree(),
+				path)));
+		path = Path.parse("/b/x");
+		assertEquals("10", ids(new PathStackStream.Default(d, d.getSubtree(),
+				path)));
+	}
+
+	@Test
+	public void testAllMatches() throws Exception {
+		final List<String> matches = new ArrayList<String>();
+		PathStackStream<String> s = new PathStackStream<String>(root
+				.getSubtree(), Path.parse("//a//b//c")) {
+			@Override
+			protected String match(Node<?>[] matchingNodes) {
+				StringBuilder buf = new StringBuilder();
+				try {
+					for (Node<?> n : matchingNodes) {
+						buf.append(n.getAttribute(new QNm("id")).getValue());
+						buf.append('.');
+					}
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+				return buf.toString();
+			}
+		};
+		String m;
+		while ((m = s.next()) != null) {
+			matches.add(m);
+		}
+		s.close();
+		assertEquals(6, matches.size());
+		assertTrue(matches.toString(), matches.contains("1.2.3."));
+		assertTrue(matches.toString(), matches.contains("1.6.7."));
+		assertTrue(matches.toString(), matches.contains("4.6.7."));
+		assertTrue(matches.toString(), matches.contains("1.9.11."));
+	}
+}
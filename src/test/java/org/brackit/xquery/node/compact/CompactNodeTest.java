@@ -0,0 +1,159 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.compact;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.brackit.xquery.atomic.NameDictionary;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Una;
+import org.brackit.xquery.node.NodeTest;
+import org.brackit.xquery.node.PathStackStream;
+import org.brackit.xquery.node.parser.DocumentParser;
+import org.brackit.xquery.util.path.Path;
+import org.brackit.xquery.xdm.Collection;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Kind;
+import org.brackit.xquery.xdm.Node;
+import org.brackit.xquery.xdm.OperationNotSupportedException;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.type.AttributeType;
+import org.brackit.xquery.xdm.type.ElementType;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class CompactNodeTest extends NodeTest<CompactNode> {
+
+	@Test
+	public void testMergeAdjacentText() throws Exception {
+		CompactNodeBuilder builder = new CompactNodeBuilder();
+		builder.startElement(new QNm("a"));
+		builder.text(new Una("x"));
+		builder.text(new Una("y"));
+		builder.endElement(new QNm("a"));
+		CompactNode a = builder.root();
+		CompactNode text = a.getFirstChild();
+		assertEquals(Kind.TEXT, text.getKind());
+		assertEquals(new Una("xy"), text.getValue());
+		assertEquals(text, a.getLastChild());
+	}
+
+	@Test
+	public void testCollection() throws Exception {
+		CompactNodeCollection coll = new CompactNodeCollection("test");
+		CompactNode a = coll.add(new DocumentParser("<a/>"));
+		CompactNode b = coll.add(new DocumentParser("<b>text</b>"));
+		Stream<? extends CompactNode> docs = coll.getDocuments();
+		assertEquals(a, docs.next());
+		assertEquals(b, docs.next());
+		docs.close();
+		assertEquals("a before b", -1, a.cmp(b));
+		assertEquals(new Una("text"), b.getValue());
+	}
+
+	@Test
+	public void testNameIDs() throws Exception {
+		CompactNode r = new CompactNodeFactory().build(
+				new DocumentParser("<r><a:x xmlns:a=\"u\"/><b:x xmlns:b=\"u\" "
+						+ "y=\"1\"/></r>")).getFirstChild();
+		CompactNode ax = r.getFirstChild();
+		CompactNode bx = r.getLastChild();
+		assertEquals(new QNm("u", "x").getID(), ax.getNameID());
+		assertEquals(ax.getNameID(), bx.getNameID());
+		assertEquals("a", ax.getName().getPrefix());
+		assertEquals("b", bx.getName().getPrefix());
+		assertEquals(new Una("1"), bx.getAttribute(new QNm("y")).getValue());
+		assertEquals(NameDictionary.NO_NAME, r.getParent().getNameID());
+	}
+
+	@Test
+	public void testNamesMissingInDictionary() throws Exception {
+		QNm known = new QNm("u", "known");
+		known.getID();
+		int size = NameDictionary.SIZE;
+		NameDictionary.SIZE = 0;
+		try {
+			CompactNode r = new CompactNodeFactory().build(
+					new DocumentParser("<r xmlns=\"urn:missing\"><x y=\"1\"/>"
+							+ "<z/></r>")).getFirstChild();
+			CompactNode x = r.getFirstChild();
+			CompactNode z = r.getLastChild();
+			QNm xName = new QNm("urn:missing", "x");
+			assertEquals(NameDictionary.NO_NAME, xName.getID());
+			assertEquals(NameDictionary.NO_NAME, x.getNameID());
+			assertEquals(NameDictionary.NO_NAME, z.getNameID());
+			assertTrue(new ElementType(xName).matches(x));
+			assertFalse(new ElementType(xName).matches(z));
+			assertFalse(new ElementType(known).matches(x));
+			assertTrue(new AttributeType(new QNm("y")).matches(x
+					.getAttribute(new QNm("y"))));
+			assertEquals(new Una("1"), x.getAttribute(new QNm("y")).getValue());
+			assertNull(x.getAttribute(new QNm("urn:missing", "y")));
+			Path<QNm> path = new Path<QNm>().descendant(
+					new QNm("urn:missing", "r")).child(xName);
+			Stream<? extends Node<?>> s = new PathStackStream.Default(r
+					.getParent().getSubtree(), path);
+			assertEquals(x, s.next());
+			assertNull(s.next());
+			s.close();
+		} finally {
+			NameDictionary.SIZE = size;
+		}
+	}
+
+	@Override
+	@Test(expected = OperationNotSupportedException.class)
+	public void testAppendSubtree() throws Exception {
+		super.testAppendSubtree();
+	}
+
+	@Override
+	@Test(expected = OperationNotSupportedException.class)
+	public void testReplaceSubtree() throws Exception {
+		super.testReplaceSubtree();
+	}
+
+	@Override
+	@Test(expected = OperationNotSupportedException.class)
+	public void testSetAttribute() throws Exception {
+		super.testSetAttribute();
+	}
+
+	@Override
+	protected Collection<CompactNode> createDocument(
+			DocumentParser documentParser) throws DocumentException {
+		return new CompactNodeFactory().build(documentParser).getCollection();
+	}
+}
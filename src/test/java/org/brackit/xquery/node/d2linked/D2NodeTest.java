@@ -27,10 +27,21 @@
  */
 package org.brackit.xquery.node.d2linked;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Una;
 import org.brackit.xquery.node.NodeTest;
 import org.brackit.xquery.node.parser.DocumentParser;
+import org.brackit.xquery.node.stream.StreamUtil;
 import org.brackit.xquery.xdm.Collection;
 import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Kind;
+import org.junit.Test;
 
 /**
  * 
@@ -39,6 +50,42 @@ import org.brackit.xquery.xdm.DocumentException;
  */
 public class D2NodeTest extends NodeTest<D2Node> {
 
+	@Test
+	public void testOrderAfterUpdates() throws Exception {
+		D2Node root = new D2NodeFactory().build(
+				new DocumentParser("<r><a/><b/></r>")).getFirstChild();
+		D2Node a = root.getFirstChild();
+		D2Node b = root.getLastChild();
+		// prepending yields multi-level divisions
+		D2Node c = null;
+		for (int i = 0; i < 10; i++) {
+			c = b.prepend(Kind.ELEMENT, new QNm("c"), null);
+		}
+		c.append(Kind.ELEMENT, new QNm("d"), null);
+		b.setAttribute(new QNm("x"), new Una("1"));
+		a.prepend(Kind.ELEMENT, new QNm("e"), null);
+		for (int i = 0; i < 10000; i++) {
+			root.append(Kind.TEXT, null, new Una("t"));
+			root.append(Kind.ELEMENT, new QNm("f"), null);
+		}
+		checkOrder(root);
+	}
+
+	private void checkOrder(D2Node root) throws Exception {
+		List<D2Node> nodes = StreamUtil.asList(root.getSubtree());
+		for (int i = 1; i < nodes.size(); i++) {
+			D2Node p = nodes.get(i - 1);
+			D2Node n = nodes.get(i);
+			assertTrue(p + " < " + n, p.cmp(n) < 0);
+			assertTrue(n + " > " + p, n.cmp(p) > 0);
+			assertEquals(0, n.cmp(n));
+			D2Node parent = n.getParent();
+			assertTrue(parent.isAncestorOf(n));
+			assertEquals(n.getKind() != Kind.ATTRIBUTE, n.isDescendantOf(root));
+			assertFalse(n.isAncestorOf(parent));
+		}
+	}
+
 	@Override
 	protected Collection<D2Node> createDocument(DocumentParser documentParser)
 			throws DocumentException {
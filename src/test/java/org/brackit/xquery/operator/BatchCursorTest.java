@@ -0,0 +1,218 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Bool;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.IntNumeric;
+import org.brackit.xquery.expr.RangeExpr;
+import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Sequence;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class BatchCursorTest {
+
+	private static class Odd implements Expr {
+		final int pos;
+
+		Odd(int pos) {
+			this.pos = pos;
+		}
+
+		@Override
+		public Sequence evaluate(QueryContext ctx, Tuple tuple)
+				throws QueryException {
+			return evaluateToItem(ctx, tuple);
+		}
+
+		@Override
+		public Item evaluateToItem(QueryContext ctx, Tuple tuple)
+				throws QueryException {
+			int v = ((IntNumeric) tuple.get(pos)).intValue();
+			return (v % 2 != 0) ? Bool.TRUE : Bool.FALSE;
+		}
+
+		@Override
+		public boolean isUpdating() {
+			return false;
+		}
+
+		@Override
+		public boolean isVacuous() {
+			return false;
+		}
+	}
+
+	private static class CountingSource implements Operator {
+		final int count;
+		int pulled;
+
+		CountingSource(int count) {
+			this.count = count;
+		}
+
+		@Override
+		public Cursor create(QueryContext ctx, Tuple tuple)
+				throws QueryException {
+			return new Cursor() {
+				int pos;
+
+				@Override
+				public void open(QueryContext ctx) throws QueryException {
+					pos = 0;
+				}
+
+				@Override
+				public Tuple next(QueryContext ctx) throws QueryException {
+					if (pos == count) {
+						return null;
+					}
+					pulled++;
+					return new TupleImpl(new Int32(pos++));
+				}
+
+				@Override
+				public void close(QueryContext ctx) {
+				}
+			};
+		}
+
+		@Override
+		public Cursor create(QueryContext ctx, Tuple[] buf, int len)
+				throws QueryException {
+			return create(ctx, buf[0]);
+		}
+
+		@Override
+		public int tupleWidth(int initSize) {
+			return 1;
+		}
+	}
+
+	private Operator pipeline(Operator in) {
+		// for $b in 1 to $a let $c := $b where $b mod 2 != 0 count $d
+		ForBind forBind = new ForBind(in, new RangeExpr(new Int32(1),
+				new Int32(3)), false);
+		LetBind letBind = new LetBind(forBind, new Int32(42));
+		Select select = new Select(letBind, new Odd(1));
+		return new Count(select);
+	}
+
+	private List<String> pull(QueryContext ctx, Cursor c, int batchSize)
+			throws QueryException {
+		List<String> result = new ArrayList<String>();
+		Tuple[] buf = new Tuple[batchSize];
+		c.open(ctx);
+		try {
+			int n;
+			while (true) {
+				if (batchSize == 0) {
+					Tuple t = c.next(ctx);
+					if (t == null) {
+						break;
+					}
+					result.add(t.toString());
+				} else {
+					if ((n = Cursors.next(ctx, c, buf, batchSize)) == 0) {
+						break;
+					}
+					for (int i = 0; i < n; i++) {
+						result.add(buf[i].toString());
+					}
+				}
+			}
+		} finally {
+			c.close(ctx);
+		}
+		return result;
+	}
+
+	@Test
+	public void testBatchEqualsTupleWise() throws Exception {
+		QueryContext ctx = new QueryContext();
+		Tuple[] in = new Tuple[50];
+		for (int i = 0; i < in.length; i++) {
+			in[i] = new TupleImpl(new Int32(i));
+		}
+		Operator op = pipeline(new Start());
+		List<String> expected = pull(ctx, op.create(ctx, in.clone(),
+				in.length), 0);
+		assertEquals("result size", 100, expected.size());
+		for (int size : new int[] { 1, 2, 7, 64, 1000 }) {
+			List<String> result = pull(ctx, op.create(ctx, in.clone(),
+					in.length), size);
+			assertEquals("batch size " + size, expected, result);
+		}
+	}
+
+	@Test
+	public void testLegacyCursor() throws Exception {
+		QueryContext ctx = new QueryContext();
+		Cursor c = new IntegerSource(1, 2, 3, 4, 5);
+		Tuple[] buf = new Tuple[2];
+		c.open(ctx);
+		assertEquals(2, Cursors.next(ctx, c, buf, 2));
+		assertEquals(2, Cursors.next(ctx, c, buf, 2));
+		assertEquals(1, Cursors.next(ctx, c, buf, 2));
+		assertEquals(new Int32(5), buf[0]);
+		assertEquals(0, Cursors.next(ctx, c, buf, 2));
+		c.close(ctx);
+	}
+
+	@Test
+	public void testDemandDriven() throws Exception {
+		QueryContext ctx = new QueryContext();
+		CountingSource source = new CountingSource(1000);
+		Cursor c = pipeline(source).create(ctx, TupleImpl.EMPTY_TUPLE);
+		Tuple[] buf = new Tuple[1];
+		c.open(ctx);
+		// the first input tuple yields (0,1,42,1)
+		assertEquals(1, Cursors.next(ctx, c, buf, 1));
+		assertEquals("single tuple pulled", 1, source.pulled);
+		buf = new Tuple[10];
+		int n = Cursors.next(ctx, c, buf, 10);
+		assertEquals(10, n);
+		assertTrue("input pulled on demand", source.pulled <= 11);
+		c.close(ctx);
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Int32;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class ExchangeTest {
+
+	private static class Source implements Operator {
+		final int count;
+
+		final int failAt;
+
+		volatile boolean closed;
+
+		Source(int count, int failAt) {
+			this.count = count;
+			this.failAt = failAt;
+		}
+
+		@Override
+		public Cursor create(QueryContext ctx, Tuple tuple)
+				throws QueryException {
+			return new Cursor() {
+				int pos;
+
+				@Override
+				public void open(QueryContext ctx) throws QueryException {
+					pos = 0;
+				}
+
+				@Override
+				public Tuple next(QueryContext ctx) throws QueryException {
+					if (pos == failAt) {
+						throw new QueryException(ErrorCode.BIT_DYN_INT_ERROR);
+					}
+					return (pos < count) ? new Int32(pos++) : null;
+				}
+
+				@Override
+				public void close(QueryContext ctx) {
+					closed = true;
+				}
+			};
+		}
+
+		@Override
+		public Cursor create(QueryContext ctx, Tuple[] buf, int len)
+				throws QueryException {
+			return create(ctx, buf[0]);
+		}
+
+		@Override
+		public int tupleWidth(int initSize) {
+			return initSize;
+		}
+	}
+
+	private static class SlowSource implements Operator {
+		final CountDownLatch started = new CountDownLatch(1);
+
+		final AtomicInteger pulled = new AtomicInteger();
+
+		@Override
+		public Cursor create(QueryContext ctx, Tuple tuple)
+				throws QueryException {
+			return new Cursor() {
+				@Override
+				public void open(QueryContext ctx) throws QueryException {
+				}
+
+				@Override
+				public Tuple next(QueryContext ctx) throws QueryException {
+					int pos = pulled.incrementAndGet();
+					if (pos == 10) {
+						started.countDown();
+					}
+					if (pos >= 10) {
+						// expensive tuple
+						try {
+							Thread.sleep(20);
+						} catch (InterruptedException e) {
+							throw new QueryException(e,
+									ErrorCode.BIT_DYN_ABORTED_ERROR);
+						}
+					}
+					return new Int32(pos);
+				}
+
+				@Override
+				public void close(QueryContext ctx) {
+				}
+			};
+		}
+
+		@Override
+		public Cursor create(QueryContext ctx, Tuple[] buf, int len)
+				throws QueryException {
+			return create(ctx, buf[0]);
+		}
+
+		@Override
+		public int tupleWidth(int initSize) {
+			return initSize;
+		}
+	}
+
+	@Test
+	public void testCloseWithinBatch() throws Exception {
+		QueryContext ctx = new QueryContext();
+		SlowSource source = new SlowSource();
+		Cursor c = new Exchange(source, 2, 1000).create(ctx,
+				TupleImpl.EMPTY_TUPLE);
+		c.open(ctx);
+		source.started.await();
+		c.close(ctx);
+		assertTrue("producer stopped within the batch",
+				source.pulled.get() < 20);
+	}
+
+	@Test
+	public void testExchange() throws Exception {
+		QueryContext ctx = new QueryContext();
+		Source source = new Source(10000, -1);
+		Cursor c = new Exchange(source, 2, 7).create(ctx,
+				TupleImpl.EMPTY_TUPLE);
+		c.open(ctx);
+		for (int i = 0; i < 10000; i++) {
+			assertEquals("tuple delivered in order", i, ((Int32) c.next(ctx))
+					.intValue());
+		}
+		assertNull("end of input", c.next(ctx));
+		c.close(ctx);
+		assertTrue("input closed", source.closed);
+	}
+
+	@Test
+	public void testEarlyClose() throws Exception {
+		QueryContext ctx = new QueryContext();
+		Source source = new Source(Integer.MAX_VALUE, -1);
+		Cursor c = new Exchange(source, 2, 10).create(ctx,
+				TupleImpl.EMPTY_TUPLE);
+		c.open(ctx);
+		for (int i = 0; i < 100; i++) {
+			c.next(ctx);
+		}
+		c.close(ctx);
+		assertTrue("producer stopped and closed input", source.closed);
+	}
+
+	@Test
+	public void testError() throws Exception {
+		QueryContext ctx = new QueryContext();
+		Source source = new Source(1000, 500);
+		Cursor c = new Exchange(source, 2, 100).create(ctx,
+				TupleImpl.EMPTY_TUPLE);
+		c.open(ctx);
+		int count = 0;
+		try {
+			while (c.next(ctx) != null) {
+				count++;
+			}
+			fail("error not propagated");
+		} catch (QueryException e) {
+			assertEquals("error code", ErrorCode.BIT_DYN_INT_ERROR, e
+					.getCode());
+		}
+		assertEquals("tuples before error", 500, count);
+		c.close(ctx);
+		assertTrue("input closed", source.closed);
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.PrintStream;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.compiler.optimizer.DefaultOptimizer;
+import org.brackit.xquery.util.WorkerPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Sebastian Baechle
+ * 
+ */
+public class ParallelForBindTest extends XQueryBaseTest {
+
+	private boolean parallel;
+
+	private int parallelism;
+
+	private int morselSize;
+
+	@Test
+	public void orderedForBind() throws Exception {
+		check("for $i in 1 to 1000 let $j := $i * 3 where $j mod 7 = 0 return $j");
+	}
+
+	@Test
+	public void orderedPositionalForBind() throws Exception {
+		check("for $i at $p in (1 to 1000)[. mod 3 = 1] where $i mod 5 = 0 return ($p, $i)");
+	}
+
+	@Test
+	public void nestedForBind() throws Exception {
+		check("for $i in 1 to 200 for $j in 1 to 20 where ($i + $j) mod 13 = 0 return concat($i, ':', $j)");
+	}
+
+	@Test
+	public void partialSegment() throws Exception {
+		check("for $i in 1 to 500 where $i mod 4 = 0 order by $i descending count $c return ($c, $i)");
+	}
+
+	@Test
+	public void unorderedForBind() throws Exception {
+		check("sum(unordered { for $i in 1 to 5000 where $i mod 3 = 0 return $i })");
+		check("count(unordered { for $i in 1 to 5000 for $j in 1 to 3 where $i mod $j = 0 return $i })");
+	}
+
+	@Test
+	public void earlyClose() throws Exception {
+		check("subsequence(for $i in 1 to 100000 where $i mod 2 = 0 return $i, 1, 3)");
+	}
+
+	@Test
+	public void error() throws Exception {
+		try {
+			run("for $i in 1 to 10000 where $i idiv (5000 - $i) > 0 return $i");
+			fail("division by zero not detected");
+		} catch (QueryException e) {
+			assertEquals(ErrorCode.ERR_DIVISION_BY_ZERO, e.getCode());
+		}
+	}
+
+	private void check(String query) throws Exception {
+		DefaultOptimizer.PARALLEL = false;
+		String expected = run(query);
+		DefaultOptimizer.PARALLEL = true;
+		assertEquals(expected, run(query));
+	}
+
+	private String run(String query) throws Exception {
+		PrintStream buffer = createBuffer();
+		new XQuery(query).serialize(ctx, buffer);
+		return buffer.toString();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		parallel = DefaultOptimizer.PARALLEL;
+		parallelism = WorkerPool.PARALLELISM;
+		morselSize = ParallelForBind.MORSEL_SIZE;
+		DefaultOptimizer.PARALLEL = true;
+		WorkerPool.PARALLELISM = 4;
+		ParallelForBind.MORSEL_SIZE = 16;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DefaultOptimizer.PARALLEL = parallel;
+		WorkerPool.PARALLELISM = parallelism;
+		ParallelForBind.MORSEL_SIZE = morselSize;
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.PrintStream;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.compiler.optimizer.DefaultOptimizer;
+import org.brackit.xquery.util.WorkerPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Sebastian Baechle
+ * 
+ */
+public class ParallelGroupByTest extends XQueryBaseTest {
+
+	private boolean parallel;
+
+	private int parallelism;
+
+	private int morselSize;
+
+	@Test
+	public void aggregates() throws Exception {
+		check("for $i in 1 to 1000 let $g := $i mod 7 group by $g "
+				+ "return ($g, count($i), sum($i), avg($i), min($i), max($i))");
+	}
+
+	@Test
+	public void groupOrder() throws Exception {
+		check("for $i in (5, 3, 5, 1, 3, 9, 7, 1, 2, 5, 8, 3, 4) let $g := $i "
+				+ "group by $g return $g");
+	}
+
+	@Test
+	public void sequenceOrder() throws Exception {
+		check("for $i in 1 to 300 let $s := string($i) let $g := $i mod 3 "
+				+ "group by $g return <g k='{$g}'>{string-join($s, ',')}</g>");
+	}
+
+	@Test
+	public void multipleKeys() throws Exception {
+		check("for $i in 1 to 500 let $a := $i mod 3 let $b := string($i mod 4) "
+				+ "group by $a, $b return ($a, $b, count($i), avg($i))");
+	}
+
+	@Test
+	public void durations() throws Exception {
+		check("for $i in 1 to 100 let $d := xs:dayTimeDuration(concat('PT', $i, 'S')) "
+				+ "let $g := $i mod 4 group by $g return ($g, sum($d), min($d), max($d))");
+	}
+
+	@Test
+	public void emptyInput() throws Exception {
+		check("for $x in () let $k := $x mod 2 group by $k return $k");
+		check("for $i in 1 to 100 where $i > 100 let $k := $i mod 2 "
+				+ "group by $k return $k");
+		check("for $i in 1 to 16 let $k := $i mod 2 group by $k "
+				+ "return ($k, count($i))");
+	}
+
+	@Test
+	public void incompatibleTypes() throws Exception {
+		try {
+			run("for $i in 1 to 100 let $v := if ($i = 90) then 'a' else $i "
+					+ "let $g := $i mod 2 group by $g return sum($v)");
+			fail("incompatible types not detected");
+		} catch (QueryException e) {
+			assertEquals(ErrorCode.ERR_INVALID_ARGUMENT_TYPE, e.getCode());
+		}
+	}
+
+	private void check(String query) throws Exception {
+		DefaultOptimizer.PARALLEL = false;
+		String expected = run(query);
+		DefaultOptimizer.PARALLEL = true;
+		assertEquals(expected, run(query));
+	}
+
+	private String run(String query) throws Exception {
+		PrintStream buffer = createBuffer();
+		new XQuery(query).serialize(ctx, buffer);
+		return buffer.toString();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		parallel = DefaultOptimizer.PARALLEL;
+		parallelism = WorkerPool.PARALLELISM;
+		morselSize = ParallelForBind.MORSEL_SIZE;
+		DefaultOptimizer.PARALLEL = true;
+		WorkerPool.PARALLELISM = 4;
+		ParallelForBind.MORSEL_SIZE = 8;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DefaultOptimizer.PARALLEL = parallel;
+		WorkerPool.PARALLELISM = parallelism;
+		ParallelForBind.MORSEL_SIZE = morselSize;
+	}
+}
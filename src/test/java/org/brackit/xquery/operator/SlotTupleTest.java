@@ -0,0 +1,82 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Int32;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class SlotTupleTest {
+
+	@Test
+	public void testConcatInPlace() throws Exception {
+		Tuple t = SlotTuple.wrap(new TupleImpl(new Int32(0)), 4);
+		Tuple t1 = t.concat(new Int32(1));
+		Tuple t2 = t1.concat(new Int32(2));
+		// second extension of the same parent must not overwrite t2
+		Tuple t1b = t.concat(new Int32(5));
+		Tuple t3 = t2.concat(new Int32(3));
+		assertEquals("[0]", t.toString());
+		assertEquals("[0, 1]", t1.toString());
+		assertEquals("[0, 1, 2]", t2.toString());
+		assertEquals("[0, 5]", t1b.toString());
+		assertEquals("[0, 1, 2, 3]", t3.toString());
+		assertSame(t3.array(), t3.array());
+		assertEquals(2, t1.array().length);
+	}
+
+	@Test
+	public void testReplace() throws Exception {
+		Tuple t = SlotTuple.wrap(new TupleImpl(new Int32(0)), 3);
+		Tuple t1 = t.concat(new Int32(1));
+		Tuple r = t1.replace(0, new Int32(7));
+		Tuple c = t1.conreplace(new Int32(2), 0, new Int32(8));
+		Tuple c2 = t1.concat(new Int32(3));
+		assertEquals("[0, 1]", t1.toString());
+		assertEquals("[7, 1]", r.toString());
+		assertEquals("[8, 1, 2]", c.toString());
+		assertEquals("[0, 1, 3]", c2.toString());
+	}
+
+	@Test
+	public void testExceedWidth() throws Exception {
+		Tuple t = SlotTuple.wrap(new TupleImpl(new Int32(0)), 1);
+		Tuple t1 = t.concat(new Int32[] { new Int32(1), new Int32(2) });
+		assertEquals("[0, 1, 2]", t1.toString());
+		assertEquals(new Int32(2), t1.get(2));
+		assertEquals("[1]", t1.project(1, 2).toString());
+	}
+}
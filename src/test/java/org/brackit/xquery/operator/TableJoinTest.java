@@ -0,0 +1,174 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintStream;
+
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.compiler.optimizer.DefaultOptimizer;
+import org.brackit.xquery.util.join.HybridJoinTable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Sebastian Baechle
+ * 
+ */
+public class TableJoinTest extends XQueryBaseTest {
+
+	private long maxSize;
+
+	private int fanOut;
+
+	private boolean semiJoin;
+
+	@Test
+	public void join() throws Exception {
+		check("for $a in 1 to 200 let $k := $a mod 17 "
+				+ "for $b in 1 to 100 where $k = $b mod 23 return ($a, $b)");
+	}
+
+	@Test
+	public void stringKeys() throws Exception {
+		check("for $a in 1 to 100 let $k := concat('k', $a mod 11) "
+				+ "for $b in 1 to 100 let $l := concat('k', $b mod 7) "
+				+ "where $k = $l return ($a, $b)");
+	}
+
+	@Test
+	public void mixedKeys() throws Exception {
+		check("let $d := <r>{for $i in 1 to 100 return <e k='{$i mod 13}'>{$i}</e>}</r> "
+				+ "for $a in (1 to 20, 3.0, 4.0e0, '5', xs:untypedAtomic('6')) "
+				+ "for $e in $d/e where $e/@k = $a return ($a, string($e))");
+	}
+
+	@Test
+	public void sequenceKeys() throws Exception {
+		check("for $a in 1 to 100 let $k := ($a mod 5, $a mod 7) "
+				+ "for $b in 1 to 50 let $l := ($b mod 3, $b mod 11) "
+				+ "where $k = $l return ($a, $b)");
+	}
+
+	@Test
+	public void leftJoin() throws Exception {
+		check("for $a in 1 to 50 let $x := for $b in 1 to 200 "
+				+ "where $b mod 37 = $a return $b return ($a, count($x), $x)");
+	}
+
+	@Test
+	public void nestedLeftJoin() throws Exception {
+		check("for $a in 1 to 10 let $x := for $b in 1 to 30 "
+				+ "where $b mod 11 = $a let $y := for $c in 1 to 60 "
+				+ "where $c mod 13 = $b return $c return ($b, count($y)) "
+				+ "return ($a, $x)");
+	}
+
+	@Test
+	public void groupedJoin() throws Exception {
+		check("for $a in 1 to 10 return <a v='{$a}'>{for $b in 1 to 30 "
+				+ "where $b mod 11 = $a return <b v='{$b}'>{for $c in 1 to 60 "
+				+ "where $c mod 13 = $b return $c}</b>}</a>");
+	}
+
+	@Test
+	public void semiJoin() throws Exception {
+		checkSemiJoin("for $a in 1 to 100 let $k := $a mod 7 for $c in 1 to 5 "
+				+ "for $b in 1 to 100 where $k = $b * 3 return ($a, $b, $c)");
+	}
+
+	@Test
+	public void semiJoinMixedKeys() throws Exception {
+		checkSemiJoin("let $d := <r>{for $i in 1 to 100 return <e k='{$i mod 13}'>{$i}</e>}</r> "
+				+ "for $a in (1 to 20, 3.0, 4.0e0, '5', xs:untypedAtomic('6'), 'x') "
+				+ "let $k := ($a, $a) for $c in 1 to 3 "
+				+ "for $e in $d/e where $e/@k = $k return ($a, $c, string($e))");
+	}
+
+	@Test
+	public void semiJoinUnhashableKeys() throws Exception {
+		checkSemiJoin("for $a in 1 to 20 let $k := if ($a mod 2 = 0) "
+				+ "then true() else $a for $c in 1 to 3 "
+				+ "for $b in (true(), 3, xs:float(5)) "
+				+ "where $k = $b return ($a, $c, $b)");
+		checkSemiJoin("for $a in 1 to 20 let $k := if ($a mod 2 = 0) "
+				+ "then xs:float($a) else $a for $c in 1 to 3 "
+				+ "for $b in (4, 7, 12) where $k = $b return ($a, $c, $b)");
+	}
+
+	@Test
+	public void semiJoinCount() throws Exception {
+		String query = "let $d := <r>{for $i in (2,3) return <z id='{$i}'/>}</r> "
+				+ "for $x in (2, 1000 to 1200, 3) let $y := $x * 10 count $c "
+				+ "for $z in $d/z where $x = $z/@id return $c";
+		checkSemiJoin(query);
+		assertEquals("1 203", run(query));
+	}
+
+	private void checkSemiJoin(String query) throws Exception {
+		DefaultOptimizer.SEMIJOIN = false;
+		String expected = run(query);
+		DefaultOptimizer.SEMIJOIN = true;
+		assertEquals(expected, run(query));
+		check(query);
+	}
+
+	private void check(String query) throws Exception {
+		HybridJoinTable.DEFAULT_MAX_SIZE = -1;
+		String expected = run(query);
+		HybridJoinTable.DEFAULT_MAX_SIZE = 1024;
+		assertEquals(expected, run(query));
+		HybridJoinTable.DEFAULT_MAX_SIZE = 1;
+		assertEquals(expected, run(query));
+	}
+
+	private String run(String query) throws Exception {
+		PrintStream buffer = createBuffer();
+		new XQuery(query).serialize(ctx, buffer);
+		return buffer.toString();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		maxSize = HybridJoinTable.DEFAULT_MAX_SIZE;
+		fanOut = HybridJoinTable.FAN_OUT;
+		semiJoin = DefaultOptimizer.SEMIJOIN;
+		HybridJoinTable.FAN_OUT = 4;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		HybridJoinTable.DEFAULT_MAX_SIZE = maxSize;
+		HybridJoinTable.FAN_OUT = fanOut;
+		DefaultOptimizer.SEMIJOIN = semiJoin;
+	}
+}
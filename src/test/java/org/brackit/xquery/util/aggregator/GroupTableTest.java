@@ -0,0 +1,145 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.aggregator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.IntNumeric;
+import org.brackit.xquery.operator.TupleImpl;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class GroupTableTest {
+
+	private static final int GROUPS = 500;
+
+	private static final int TUPLES = 10000;
+
+	private final int fanOut = GroupTable.FAN_OUT;
+
+	@Test
+	public void testInMemory() throws Exception {
+		checkSequenceGroups(-1);
+	}
+
+	@Test
+	public void testSpill() throws Exception {
+		checkSequenceGroups(4096);
+	}
+
+	@Test
+	public void testRecursiveSpill() throws Exception {
+		GroupTable.FAN_OUT = 2;
+		checkSequenceGroups(1024);
+	}
+
+	@Test
+	public void testSpillWithoutSequences() throws Exception {
+		GroupTable table = new GroupTable(new int[] { 0 }, new int[] { 1 },
+				Aggregate.SINGLE, new Aggregate[] { Aggregate.SUM }, 2, 1024);
+		for (int i = 0; i < TUPLES; i++) {
+			table.add(tuple(i));
+		}
+		boolean[] seen = new boolean[GROUPS];
+		Tuple t;
+		while ((t = table.next()) != null) {
+			int key = ((Int32) t.get(0)).intValue();
+			assertTrue("group returned twice", !seen[key]);
+			seen[key] = true;
+			// sum of key, key + GROUPS, key + 2 * GROUPS, ...
+			int n = TUPLES / GROUPS;
+			int sum = n * key + GROUPS * (n * (n - 1) / 2);
+			assertEquals(sum, ((IntNumeric) t.get(2)).intValue());
+		}
+		for (int i = 0; i < GROUPS; i++) {
+			assertTrue("group missing", seen[i]);
+		}
+		table.clear();
+	}
+
+	private void checkSequenceGroups(long maxSize) throws Exception {
+		GroupTable table = new GroupTable(new int[] { 0 }, new int[] { 1 },
+				Aggregate.SEQUENCE, new Aggregate[] { Aggregate.COUNT }, 2,
+				maxSize);
+		for (int i = 0; i < TUPLES; i++) {
+			table.add(tuple(i));
+		}
+		boolean[] seen = new boolean[GROUPS];
+		Tuple t;
+		int prevKey = -1;
+		boolean inOrder = true;
+		while ((t = table.next()) != null) {
+			int key = ((Int32) t.get(0)).intValue();
+			assertTrue("group returned twice", !seen[key]);
+			seen[key] = true;
+			inOrder &= (key == prevKey + 1);
+			prevKey = key;
+			// aggregated sequence must preserve input order
+			Iter it = t.get(1).iterate();
+			int expected = key;
+			Item item;
+			while ((item = it.next()) != null) {
+				assertEquals(expected, ((Int32) item).intValue());
+				expected += GROUPS;
+			}
+			it.close();
+			assertEquals(TUPLES + key, expected);
+			assertEquals(TUPLES / GROUPS, ((IntNumeric) t.get(2)).intValue());
+		}
+		assertNull(table.next());
+		for (int i = 0; i < GROUPS; i++) {
+			assertTrue("group missing", seen[i]);
+		}
+		if (maxSize < 0) {
+			assertTrue("groups not in order of first occurrence", inOrder);
+		}
+		table.clear();
+	}
+
+	private Tuple tuple(int i) {
+		return new TupleImpl(new Sequence[] { new Int32(i % GROUPS),
+				new Int32(i) });
+	}
+
+	@After
+	public void tearDown() {
+		GroupTable.FAN_OUT = fanOut;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+
+import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.atomic.Int;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Int64;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.atomic.Una;
+import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.util.Cmp;
+import org.brackit.xquery.xdm.Sequence;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class MultiTypeJoinTableTest {
+
+	private static final int KEYS = 1000;
+
+	@Test
+	public void testIntegerKeys() throws Exception {
+		MultiTypeJoinTable table = new MultiTypeJoinTable(Cmp.eq, true, false);
+		int pos = 1;
+		for (int j = 0; j < 3; j++) {
+			for (int i = 0; i < KEYS; i++) {
+				table.add(new Int32(i), bindings(pos), pos++);
+			}
+		}
+		for (int i = 0; i < KEYS; i++) {
+			assertMatches(table.probe(new Int64(i)), i + 1, KEYS + i + 1,
+					2 * KEYS + i + 1);
+		}
+		assertMatches(table.probe(new Int32(KEYS)));
+	}
+
+	@Test
+	public void testLargeIntegerKeys() throws Exception {
+		MultiTypeJoinTable table = new MultiTypeJoinTable(Cmp.eq, true, false);
+		BigDecimal big = new BigDecimal("123456789012345678901234567890");
+		table.add(new Int(big), bindings(1), 1);
+		table.add(new Int64(Long.MAX_VALUE), bindings(2), 2);
+		table.add(new Int(BigDecimal.valueOf(Long.MAX_VALUE)), bindings(3), 3);
+		assertMatches(table.probe(new Int(big)), 1);
+		assertMatches(table.probe(new Int(BigDecimal.valueOf(Long.MAX_VALUE))),
+				2, 3);
+		assertMatches(table.probe(new Int(big.add(BigDecimal.ONE))));
+	}
+
+	@Test
+	public void testNumericPromotion() throws Exception {
+		MultiTypeJoinTable table = new MultiTypeJoinTable(Cmp.eq, true, false);
+		for (int i = 0; i < KEYS; i++) {
+			table.add(new Int32(i), bindings(i + 1), i + 1);
+		}
+		table.add(new Dbl(2.5), bindings(KEYS + 1), KEYS + 1);
+		assertMatches(table.probe(new Dbl(7)), 8);
+		assertMatches(table.probe(new Dbl(2.5)), KEYS + 1);
+		assertMatches(table.probe(new Una("42")), 43);
+		assertMatches(table.probe(new Int32(3)), 4);
+	}
+
+	@Test
+	public void testStringKeys() throws Exception {
+		MultiTypeJoinTable table = new MultiTypeJoinTable(Cmp.eq, true, false);
+		for (int i = 0; i < KEYS; i++) {
+			table.add(new Str("k" + (i % 100)), bindings(i + 1), i + 1);
+		}
+		table.add(new Una("k5"), bindings(KEYS + 1), KEYS + 1);
+		assertEquals(KEYS / 100 + 1, table.probe(new Str("k5")).getSize());
+		assertEquals(KEYS / 100 + 1, table.probe(new Una("k5")).getSize());
+		assertMatches(table.probe(new Str("k100")));
+	}
+
+	@Test
+	public void testDeduplication() throws Exception {
+		MultiTypeJoinTable table = new MultiTypeJoinTable(Cmp.eq, true, false);
+		table.add(new ItemSequence(new Int32(1), new Int32(1), new Int32(2)),
+				bindings(1), 1);
+		table.add(new Int32(1), bindings(2), 2);
+		assertMatches(table.probe(new ItemSequence(new Int32(1), new Int32(2))),
+				1, 2);
+		assertMatches(table.probe(new ItemSequence(new Dbl(1), new Dbl(2))),
+				1, 2);
+	}
+
+	private static Sequence[] bindings(int pos) {
+		return new Sequence[] { new Int32(pos) };
+	}
+
+	private static void assertMatches(FastList<Sequence[]> matches,
+			int... expected) {
+		assertEquals(expected.length, matches.getSize());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(new Int32(expected[i]), matches.get(i)[0]);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.sort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.operator.TupleImpl;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Stream;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class TopKSortTest {
+
+	private static final Comparator<Tuple> CMP = new Comparator<Tuple>() {
+		@Override
+		public int compare(Tuple o1, Tuple o2) {
+			try {
+				return ((Int32) o1.get(0)).cmp((Int32) o2.get(0));
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	@Test
+	public void testTopK() throws Exception {
+		checkTopK(10, 1000);
+	}
+
+	@Test
+	public void testFewerTuplesThanK() throws Exception {
+		checkTopK(100, 30);
+	}
+
+	@Test
+	public void testZero() throws Exception {
+		checkTopK(0, 30);
+	}
+
+	private void checkTopK(int k, int count) throws Exception {
+		Random rand = new Random(12345678);
+		Tuple[] tuples = new Tuple[count];
+		TopKSort sort = new TopKSort(CMP, k);
+		for (int i = 0; i < count; i++) {
+			// many duplicate keys to check stability
+			tuples[i] = new TupleImpl(new Sequence[] {
+					new Int32(rand.nextInt(20)), new Int32(i) });
+			sort.add(tuples[i]);
+		}
+		// Arrays.sort() is stable
+		Arrays.sort(tuples, CMP);
+		Stream<Tuple> s = sort.stream();
+		for (int i = 0; i < Math.min(k, count); i++) {
+			assertSame("tuple " + i, tuples[i], s.next());
+		}
+		assertNull(s.next());
+		s.close();
+		assertEquals(null, sort.stream().next());
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>  
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.sort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.node.d2linked.D2NodeFactory;
+import org.brackit.xquery.operator.TupleImpl;
+import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.sequence.LazySequence;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Node;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Stream;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Sebastian Baechle
+ * 
+ */
+public class TupleSortTest {
+
+	private static final Comparator<Tuple> CMP = new Comparator<Tuple>() {
+		@Override
+		public int compare(Tuple o1, Tuple o2) {
+			try {
+				return ((Int32) o1.get(0)).cmp((Int32) o2.get(0));
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	@Test
+	public void testMainMemorySort() throws Exception {
+		checkSort(-1, 1000);
+	}
+
+	@Test
+	public void testExternalSort() throws Exception {
+		checkSort(4096, 10000);
+	}
+
+	@Test
+	public void testExternalSortSingleTupleRuns() throws Exception {
+		checkSort(1, 100);
+	}
+
+	@Test
+	public void testParallelExternalSort() throws Exception {
+		checkSort(4096, 10000, 4);
+	}
+
+	@Test
+	public void testMultiPassMerge() throws Exception {
+		int fanIn = TupleSort.FAN_IN;
+		try {
+			TupleSort.FAN_IN = 3;
+			checkSort(4096, 10000);
+			checkSort(4096, 10000, 3);
+		} finally {
+			TupleSort.FAN_IN = fanIn;
+		}
+	}
+
+	@Test
+	public void testLazySequences() throws Exception {
+		// in-memory sorts must not evaluate lazy sequences
+		assertEquals(0, checkLazySort(-1, 1000, 4));
+		assertEquals(0, checkLazySort(TupleSort.DEFAULT_MAX_SIZE, 1000, 4));
+		// spilled tuples keep their values
+		checkLazySort(4096, 10000, 1);
+		checkLazySort(4096, 10000, 4);
+	}
+
+	private int checkLazySort(long maxSize, int count, int parallelism)
+			throws Exception {
+		final AtomicInteger evaluated = new AtomicInteger();
+		Random rand = new Random(42);
+		TupleSort sort = new TupleSort(CMP, maxSize, parallelism);
+		for (int i = 0; i < count; i++) {
+			final int key = rand.nextInt(count / 10);
+			Sequence lazy = new LazySequence() {
+				@Override
+				public Iter iterate() {
+					evaluated.incrementAndGet();
+					return new ItemSequence(new Int32(key), new Str("v" + key))
+							.iterate();
+				}
+			};
+			sort.add(new TupleImpl(new Sequence[] { new Int32(key), lazy }));
+		}
+		sort.sort();
+		Stream<Tuple> sorted = sort.stream();
+		int sortEvaluations = evaluated.get();
+		try {
+			int prev = Integer.MIN_VALUE;
+			Tuple t;
+			int read = 0;
+			while ((t = sorted.next()) != null) {
+				int key = ((Int32) t.get(0)).intValue();
+				assertEquals("sorted", true, prev <= key);
+				Iter it = t.get(1).iterate();
+				assertEquals(new Int32(key), it.next());
+				assertEquals(new Str("v" + key), it.next());
+				assertNull(it.next());
+				it.close();
+				prev = key;
+				read++;
+			}
+			assertEquals("tuple count", count, read);
+		} finally {
+			sorted.close();
+		}
+		return sortEvaluations;
+	}
+
+	private void checkSort(long maxSize, int count) throws Exception {
+		checkSort(maxSize, count, 1);
+	}
+
+	private void checkSort(long maxSize, int count, int parallelism)
+			throws Exception {
+		Node<?> node = new D2NodeFactory().element(new QNm("a"));
+		Random rand = new Random(42);
+		TupleSort sort = new TupleSort(CMP, maxSize, parallelism);
+		for (int i = 0; i < count; i++) {
+			int key = rand.nextInt(count / 10);
+			sort.add(new TupleImpl(new Sequence[] { new Int32(key),
+					new Str("v" + key), node, null, new Int32(i) }));
+		}
+		sort.sort();
+		Stream<Tuple> sorted = sort.stream();
+		try {
+			int prev = Integer.MIN_VALUE;
+			int prevPos = Integer.MIN_VALUE;
+			Tuple t;
+			int read = 0;
+			while ((t = sorted.next()) != null) {
+				int key = ((Int32) t.get(0)).intValue();
+				int pos = ((Int32) t.get(4)).intValue();
+				assertEquals("sorted", true, prev <= key);
+				assertEquals("stable", true, (prev < key) || (prevPos < pos));
+				assertEquals("payload", "v" + key, ((Str) t.get(1))
+						.stringValue());
+				assertSame("node reference", node, t.get(2));
+				assertNull("empty sequence", t.get(3));
+				prev = key;
+				prevPos = pos;
+				read++;
+			}
+			assertEquals("tuple count", count, read);
+		} finally {
+			sorted.close();
+		}
+	}
+}